@@ -0,0 +1,224 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import okio.ByteString.Companion.toByteString
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.Base64
+import org.signal.core.util.logging.Log
+import org.signal.core.util.readToList
+import org.signal.core.util.requireInt
+import org.signal.core.util.requireLong
+import org.signal.core.util.requireString
+import org.signal.libsignal.zkgroup.profiles.ProfileKey
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.BodyRange
+import org.thoughtcrime.securesms.backup.v2.proto.Chat
+import org.thoughtcrime.securesms.backup.v2.proto.ChatItem
+import org.thoughtcrime.securesms.backup.v2.proto.Contact
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.backup.v2.proto.Reaction
+import org.thoughtcrime.securesms.backup.v2.proto.Recipient
+import org.thoughtcrime.securesms.backup.v2.proto.Self
+import org.thoughtcrime.securesms.backup.v2.proto.StandardMessage
+import org.thoughtcrime.securesms.backup.v2.proto.Text
+import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupWriter
+import org.thoughtcrime.securesms.database.MentionTable
+import org.thoughtcrime.securesms.database.MessageTable
+import org.thoughtcrime.securesms.database.ReactionTable
+import org.thoughtcrime.securesms.database.SearchTable
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.whispersystems.signalservice.api.kbs.MasterKey
+import org.whispersystems.signalservice.api.push.ServiceId
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Imports a large generated backup twice, once keeping the search index up to date as messages are inserted and once rebuilding it at the
+ * end, and makes sure both produce the same rows. Timings are printed to logcat.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+@RunWith(AndroidJUnit4::class)
+class ChatItemImportPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ChatItemImportPerformanceTest::class.java)
+
+    private const val MESSAGE_COUNT = 500_000
+    private const val CONTACT_COUNT = 50
+    private const val VOCABULARY_SIZE = 5_000
+    private const val WORDS_PER_MESSAGE = 10
+    private const val SEARCH_QUERY_COUNT = 20
+
+    private val SELF_ACI = ServiceId.ACI.from(UUID.fromString("77770000-b477-4f35-a824-d92987a63641"))
+    private val SELF_PNI = ServiceId.PNI.from(UUID.fromString("77771111-b014-41fb-bf73-05cb2ec52910"))
+    private const val SELF_E164 = "+10000000000"
+    private val SELF_PROFILE_KEY = ProfileKey(Random.nextBytes(32))
+    private val MASTER_KEY = Base64.decode("sHuBMP4ToZk4tcNU+S8eBUeCt8Am5EZnvuqTBJIR4Do")
+  }
+
+  private val random = Random(1234)
+
+  @Before
+  fun setup() {
+    SignalStore.svr.setMasterKey(MasterKey(MASTER_KEY), "1234")
+    SignalStore.account.setE164(SELF_E164)
+    SignalStore.account.setAci(SELF_ACI)
+    SignalStore.account.setPni(SELF_PNI)
+    SignalStore.account.generateAciIdentityKeyIfNecessary()
+    SignalStore.account.generatePniIdentityKeyIfNecessary()
+  }
+
+  @Test
+  fun importWithAndWithoutDeferredSearchIndex() {
+    val vocabulary = (0 until VOCABULARY_SIZE).map { randomWord() }
+    val backupFile = generateBackup(vocabulary)
+    val queries = vocabulary.shuffled(random).take(SEARCH_QUERY_COUNT)
+
+    val immediate = importAndDump(backupFile, deferSearchIndex = false, queries)
+    val deferred = importAndDump(backupFile, deferSearchIndex = true, queries)
+
+    assertEquals(immediate, deferred)
+
+    backupFile.delete()
+  }
+
+  private fun importAndDump(backupFile: File, deferSearchIndex: Boolean, queries: List<String>): List<String> {
+    val startTime = System.currentTimeMillis()
+    BackupRepository.import(
+      length = backupFile.length(),
+      inputStreamFactory = { FileInputStream(backupFile) },
+      selfData = BackupRepository.SelfData(SELF_ACI, SELF_PNI, SELF_E164, SELF_PROFILE_KEY),
+      plaintext = true,
+      deferSearchIndex = deferSearchIndex
+    )
+    Log.i(TAG, "[deferSearchIndex: $deferSearchIndex] Imported $MESSAGE_COUNT messages in ${System.currentTimeMillis() - startTime} ms.")
+
+    return dump(queries)
+  }
+
+  /**
+   * Describes the imported rows by their message timestamps rather than their ids, since ids aren't reused between imports.
+   */
+  private fun dump(queries: List<String>): List<String> {
+    val db = SignalDatabase.rawDatabase
+
+    val messages = db.rawQuery("SELECT ${MessageTable.DATE_SENT}, ${MessageTable.BODY} FROM ${MessageTable.TABLE_NAME} ORDER BY ${MessageTable.DATE_SENT}", null)
+      .readToList { "message ${it.requireLong(MessageTable.DATE_SENT)} ${it.requireString(MessageTable.BODY)}" }
+
+    val mentions = db.rawQuery(
+      """
+      SELECT m.${MessageTable.DATE_SENT}, n.${MentionTable.RANGE_START}, n.${MentionTable.RANGE_LENGTH}
+      FROM ${MentionTable.TABLE_NAME} AS n
+      INNER JOIN ${MessageTable.TABLE_NAME} AS m ON n.${MentionTable.MESSAGE_ID} = m.${MessageTable.ID}
+      ORDER BY m.${MessageTable.DATE_SENT}, n.${MentionTable.RANGE_START}
+      """,
+      null
+    ).readToList { "mention ${it.requireLong(MessageTable.DATE_SENT)} ${it.requireInt(MentionTable.RANGE_START)} ${it.requireInt(MentionTable.RANGE_LENGTH)}" }
+
+    val reactions = db.rawQuery(
+      """
+      SELECT m.${MessageTable.DATE_SENT}, r.${ReactionTable.EMOJI}
+      FROM ${ReactionTable.TABLE_NAME} AS r
+      INNER JOIN ${MessageTable.TABLE_NAME} AS m ON r.${ReactionTable.MESSAGE_ID} = m.${MessageTable.ID}
+      ORDER BY m.${MessageTable.DATE_SENT}
+      """,
+      null
+    ).readToList { "reaction ${it.requireLong(MessageTable.DATE_SENT)} ${it.requireString(ReactionTable.EMOJI)}" }
+
+    val searchResults = queries.flatMap { query ->
+      db.rawQuery(
+        """
+        SELECT m.${MessageTable.DATE_SENT}
+        FROM ${SearchTable.FTS_TABLE_NAME}
+        INNER JOIN ${MessageTable.TABLE_NAME} AS m ON ${SearchTable.FTS_TABLE_NAME}.${SearchTable.ID} = m.${MessageTable.ID}
+        WHERE ${SearchTable.FTS_TABLE_NAME} MATCH ?
+        ORDER BY m.${MessageTable.DATE_SENT}
+        """,
+        arrayOf("$query*")
+      ).readToList { "search $query ${it.requireLong(MessageTable.DATE_SENT)}" }
+    }
+
+    Log.i(TAG, "Dumped ${messages.size} messages, ${mentions.size} mentions, ${reactions.size} reactions, ${searchResults.size} search results.")
+
+    return messages + mentions + reactions + searchResults
+  }
+
+  private fun generateBackup(vocabulary: List<String>): File {
+    val file = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "import-performance.binproto")
+    val startTime = System.currentTimeMillis()
+
+    val selfRecipient = Recipient(id = 1, self = Self())
+    val contacts = (0 until CONTACT_COUNT).map { i ->
+      Recipient(
+        id = 2L + i,
+        contact = Contact(
+          aci = TestRecipientUtils.nextAci().toByteString(),
+          pni = TestRecipientUtils.nextPni().toByteString(),
+          e164 = 14125550000 + i,
+          blocked = false,
+          visibility = Contact.Visibility.VISIBLE,
+          registered = Contact.Registered(),
+          profileKey = TestRecipientUtils.generateProfileKey().toByteString(),
+          profileSharing = true,
+          profileGivenName = "Contact$i"
+        )
+      )
+    }
+
+    PlainTextBackupWriter(FileOutputStream(file)).use { writer ->
+      writer.write(BackupInfo(version = 1L, backupTimeMs = 123456L))
+      writer.write(Frame(account = AccountData(profileKey = SELF_PROFILE_KEY.serialize().toByteString(), givenName = "Peter")))
+      writer.write(Frame(recipient = selfRecipient))
+      contacts.forEach { writer.write(Frame(recipient = it)) }
+      contacts.forEach { writer.write(Frame(chat = Chat(id = it.id, recipientId = it.id))) }
+
+      for (i in 0 until MESSAGE_COUNT) {
+        val contact = contacts[i % CONTACT_COUNT]
+        val body = (0 until WORDS_PER_MESSAGE).joinToString(" ") { vocabulary[random.nextInt(vocabulary.size)] }
+        val incoming = random.nextBoolean()
+
+        writer.write(
+          Frame(
+            chatItem = ChatItem(
+              chatId = contact.id,
+              authorId = if (incoming) contact.id else selfRecipient.id,
+              dateSent = 1_000_000L + i,
+              incoming = if (incoming) ChatItem.IncomingMessageDetails(dateReceived = 1_000_001L + i, dateServerSent = 1_000_000L + i, read = true) else null,
+              outgoing = if (incoming) null else ChatItem.OutgoingMessageDetails(),
+              standardMessage = StandardMessage(
+                text = Text(
+                  body = body,
+                  bodyRanges = if (i % 10 == 0) listOf(BodyRange(start = 0, length = 1, mentionAci = contact.contact!!.aci)) else emptyList()
+                ),
+                reactions = if (i % 20 == 0) listOf(Reaction(emoji = "F", authorId = selfRecipient.id, sentTimestamp = 1_000_002L + i, receivedTimestamp = 1_000_003L + i)) else emptyList()
+              )
+            )
+          )
+        )
+      }
+    }
+
+    Log.i(TAG, "Generated a ${file.length()} byte backup in ${System.currentTimeMillis() - startTime} ms.")
+    return file
+  }
+
+  private fun randomWord(): String {
+    val length = random.nextInt(3, 11)
+    return (0 until length).map { 'a' + random.nextInt(26) }.joinToString("")
+  }
+}
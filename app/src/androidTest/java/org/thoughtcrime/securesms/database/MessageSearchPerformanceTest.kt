@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.EventTimer
+import org.signal.core.util.logging.Log
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Seeds the message table with a large number of messages and reports full-text search latency for each prefix length, in both date and
+ * relevance order. Results are printed to logcat.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+@RunWith(AndroidJUnit4::class)
+class MessageSearchPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(MessageSearchPerformanceTest::class.java)
+
+    private const val MESSAGE_COUNT = 1_000_000
+    private const val INSERT_BATCH_SIZE = 10_000
+    private const val VOCABULARY_SIZE = 20_000
+    private const val WORDS_PER_MESSAGE = 12
+    private const val QUERIES_PER_PREFIX_LENGTH = 50
+    private const val MAX_PREFIX_LENGTH = 6
+  }
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private val random = Random(1234)
+
+  @Test
+  fun searchByPrefixLength() {
+    val vocabulary = (0 until VOCABULARY_SIZE).map { randomWord() }
+    seed(vocabulary)
+
+    for (orderByRank in listOf(false, true)) {
+      val eventTimer = EventTimer()
+
+      for (length in 1..MAX_PREFIX_LENGTH) {
+        val prefixes = vocabulary.filter { it.length >= length }.shuffled(random).take(QUERIES_PER_PREFIX_LENGTH).map { it.substring(0, length) }
+
+        eventTimer.reset()
+        for (prefix in prefixes) {
+          SignalDatabase.messageSearch.queryMessages(prefix, orderByRank).use { cursor ->
+            cursor?.count
+          }
+          eventTimer.emit("prefix-$length")
+        }
+
+        val metrics = eventTimer.stop()["prefix-$length"]!!
+        Log.i(TAG, "[orderByRank: $orderByRank] Prefix length $length: p50 ${metrics.p(50)} ms, p95 ${metrics.p(95)} ms over ${metrics.eventCount} queries")
+      }
+    }
+  }
+
+  private fun seed(vocabulary: List<String>) {
+    val recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val db = SignalDatabase.rawDatabase
+
+    val startTime = System.currentTimeMillis()
+
+    for (batchStart in 0 until MESSAGE_COUNT step INSERT_BATCH_SIZE) {
+      db.withinTransaction {
+        val statement = db.compileStatement(
+          """
+          INSERT INTO ${MessageTable.TABLE_NAME} (
+            ${MessageTable.DATE_SENT},
+            ${MessageTable.DATE_RECEIVED},
+            ${MessageTable.THREAD_ID},
+            ${MessageTable.FROM_RECIPIENT_ID},
+            ${MessageTable.TO_RECIPIENT_ID},
+            ${MessageTable.TYPE},
+            ${MessageTable.BODY}
+          ) VALUES (?, ?, ?, ?, ?, ?, ?)
+          """
+        )
+
+        for (i in batchStart until minOf(batchStart + INSERT_BATCH_SIZE, MESSAGE_COUNT)) {
+          statement.clearBindings()
+          statement.bindLong(1, i.toLong())
+          statement.bindLong(2, i.toLong())
+          statement.bindLong(3, threadId)
+          statement.bindLong(4, recipient.id.toLong())
+          statement.bindLong(5, recipient.id.toLong())
+          statement.bindLong(6, MessageTypes.BASE_INBOX_TYPE)
+          statement.bindString(7, (0 until WORDS_PER_MESSAGE).joinToString(" ") { vocabulary[random.nextInt(vocabulary.size)] })
+          statement.executeInsert()
+        }
+      }
+    }
+
+    Log.i(TAG, "Seeded $MESSAGE_COUNT messages in ${System.currentTimeMillis() - startTime} ms.")
+  }
+
+  private fun randomWord(): String {
+    val length = random.nextInt(3, 11)
+    return (0 until length).map { 'a' + random.nextInt(26) }.joinToString("")
+  }
+}
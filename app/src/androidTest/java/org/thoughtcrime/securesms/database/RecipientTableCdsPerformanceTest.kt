@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import kotlin.random.Random
+
+/**
+ * Applies a CDS response for a large address book, once number by number the way [RecipientTable.bulkProcessCdsResult] used to and once
+ * through it, and reports how long each took. Results are printed to logcat.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+@RunWith(AndroidJUnit4::class)
+class RecipientTableCdsPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(RecipientTableCdsPerformanceTest::class.java)
+
+    private const val CONTACT_COUNT = 10_000
+    private const val ITERATIONS = 3
+  }
+
+  @Before
+  fun setup() {
+    SignalStore.account.setE164(CdsScenario.E164_SELF)
+    SignalStore.account.setAci(CdsScenario.ACI_SELF)
+    SignalStore.account.setPni(CdsScenario.PNI_SELF)
+  }
+
+  /** A routine refresh, where almost every contact is already up to date. */
+  @Test
+  fun refresh_mostlyUpToDate() {
+    val kinds = List(95) { CdsScenario.Kind.UP_TO_DATE } + CdsScenario.Kind.entries
+    compare("mostly up to date", CdsScenario.generate(CONTACT_COUNT, Random(1234), kinds))
+  }
+
+  /** A first refresh, or one after a long time away, where every kind of change shows up about as often. */
+  @Test
+  fun refresh_mixed() {
+    compare("mixed", CdsScenario.generate(CONTACT_COUNT, Random(1234)))
+  }
+
+  private fun compare(name: String, scenario: CdsScenario) {
+    for (i in 1..ITERATIONS) {
+      scenario.seed()
+      val rowByRowStart = System.currentTimeMillis()
+      CdsScenario.processRowByRow(scenario.mapping)
+      val rowByRowDuration = System.currentTimeMillis() - rowByRowStart
+
+      scenario.seed()
+      val bulkStart = System.currentTimeMillis()
+      SignalDatabase.recipients.bulkProcessCdsResult(scenario.mapping)
+      val bulkDuration = System.currentTimeMillis() - bulkStart
+
+      Log.i(TAG, "[$name] Iteration $i, ${scenario.mapping.size} contacts: row-by-row $rowByRowDuration ms, bulk $bulkDuration ms")
+    }
+  }
+}
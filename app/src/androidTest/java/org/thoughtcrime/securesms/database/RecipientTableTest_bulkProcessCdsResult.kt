@@ -0,0 +1,253 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.core.content.contentValuesOf
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.readToList
+import org.signal.core.util.requireLong
+import org.signal.core.util.requireString
+import org.signal.core.util.select
+import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import org.whispersystems.signalservice.api.push.ServiceId.PNI
+import java.util.UUID
+import kotlin.random.Random
+
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class RecipientTableTest_bulkProcessCdsResult {
+
+  @Before
+  fun setup() {
+    SignalStore.account.setE164(CdsScenario.E164_SELF)
+    SignalStore.account.setAci(CdsScenario.ACI_SELF)
+    SignalStore.account.setPni(CdsScenario.PNI_SELF)
+  }
+
+  @Test
+  fun emptyResult() {
+    CdsScenario.reset()
+    assertEquals(emptySet<RecipientId>(), SignalDatabase.recipients.bulkProcessCdsResult(emptyMap()))
+  }
+
+  @Test
+  fun bulkMatchesRowByRow_everyScenario() {
+    for (kind in CdsScenario.Kind.entries) {
+      val scenario = CdsScenario.generate(count = 20, random = Random(kind.ordinal), kinds = listOf(kind))
+      assertSameOutcome(kind.name, scenario)
+    }
+  }
+
+  @Test
+  fun bulkMatchesRowByRow_mixed() {
+    for (seed in 1..5) {
+      val scenario = CdsScenario.generate(count = 500, random = Random(seed))
+      assertSameOutcome("seed $seed", scenario)
+    }
+  }
+
+  private fun assertSameOutcome(name: String, scenario: CdsScenario) {
+    scenario.seed()
+    val rowByRowIds = CdsScenario.processRowByRow(scenario.mapping)
+    val rowByRow = CdsScenario.snapshot(rowByRowIds)
+
+    scenario.seed()
+    val bulkIds = SignalDatabase.recipients.bulkProcessCdsResult(scenario.mapping)
+    val bulk = CdsScenario.snapshot(bulkIds)
+
+    assertEquals("[$name] Returned recipients differ", rowByRow.returned, bulk.returned)
+    assertEquals("[$name] Recipient table differs", rowByRow.table, bulk.table)
+  }
+}
+
+/**
+ * A recipient table and a CDS response to apply to it, covering the cases the PNP merge logic distinguishes between. Shared by the
+ * correctness test and [RecipientTableCdsPerformanceTest].
+ */
+class CdsScenario(
+  private val existing: List<Triple<String?, PNI?, ACI?>>,
+  val mapping: Map<String, RecipientTable.CdsV2Result>
+) {
+
+  enum class Kind {
+    /** The row already has the same e164, PNI and ACI. */
+    UP_TO_DATE,
+
+    /** We only know the e164 and learn its PNI and ACI. */
+    E164_ONLY,
+
+    /** We know the e164 and PNI and learn the ACI. */
+    NEEDS_ACI,
+
+    /** CDS only returns a PNI for the number. */
+    PNI_ONLY_RESULT,
+
+    /** The e164 and the ACI are on different rows and need to be merged. */
+    SPLIT_ROWS,
+
+    /** A known ACI shows up with a new number. */
+    CHANGED_NUMBER,
+
+    /** A known number shows up with a new PNI. */
+    NEW_PNI,
+
+    /** Two known contacts swap numbers, so each tuple touches a row another tuple also resolves to. */
+    SWAPPED_NUMBERS,
+
+    /** Nothing is known about the number. */
+    NEW_CONTACT
+  }
+
+  fun seed() {
+    reset()
+
+    SignalDatabase.rawDatabase.withinTransaction { db ->
+      for ((e164, pni, aci) in existing) {
+        db.insert(
+          RecipientTable.TABLE_NAME,
+          null,
+          contentValuesOf(
+            RecipientTable.E164 to e164,
+            RecipientTable.PNI_COLUMN to pni?.toString(),
+            RecipientTable.ACI_COLUMN to aci?.toString(),
+            RecipientTable.REGISTERED to RecipientTable.RegisteredState.REGISTERED.id
+          )
+        )
+      }
+    }
+  }
+
+  data class Snapshot(val returned: Set<String>, val table: List<String>)
+
+  companion object {
+    val ACI_SELF: ACI = ACI.from(UUID.fromString("77770000-b477-4f35-a824-d92987a63641"))
+    val PNI_SELF: PNI = PNI.from(UUID.fromString("77771111-b014-41fb-bf73-05cb2ec52910"))
+    const val E164_SELF = "+10000000000"
+
+    fun generate(count: Int, random: Random, kinds: List<Kind> = Kind.entries): CdsScenario {
+      val existing: MutableList<Triple<String?, PNI?, ACI?>> = mutableListOf()
+      val mapping: MutableMap<String, RecipientTable.CdsV2Result> = linkedMapOf()
+
+      var next = 0
+      fun e164(): String = "+1555${(next++).toString().padStart(7, '0')}"
+      fun pni(): PNI = PNI.from(UUID(random.nextLong(), random.nextLong()))
+      fun aci(): ACI = ACI.from(UUID(random.nextLong(), random.nextLong()))
+
+      while (mapping.size < count) {
+        when (kinds[random.nextInt(kinds.size)]) {
+          Kind.UP_TO_DATE -> {
+            val (e164, pni, aci) = Triple(e164(), pni(), aci())
+            existing += Triple(e164, pni, aci)
+            mapping[e164] = RecipientTable.CdsV2Result(pni, aci)
+          }
+
+          Kind.E164_ONLY -> {
+            val e164 = e164()
+            existing += Triple(e164, null, null)
+            mapping[e164] = RecipientTable.CdsV2Result(pni(), aci())
+          }
+
+          Kind.NEEDS_ACI -> {
+            val (e164, pni) = e164() to pni()
+            existing += Triple(e164, pni, null)
+            mapping[e164] = RecipientTable.CdsV2Result(pni, aci())
+          }
+
+          Kind.PNI_ONLY_RESULT -> {
+            val e164 = e164()
+            existing += Triple(e164, null, null)
+            mapping[e164] = RecipientTable.CdsV2Result(pni(), null)
+          }
+
+          Kind.SPLIT_ROWS -> {
+            val (e164, pni, aci) = Triple(e164(), pni(), aci())
+            existing += Triple(e164, pni, null)
+            existing += Triple(null, null, aci)
+            mapping[e164] = RecipientTable.CdsV2Result(pni, aci)
+          }
+
+          Kind.CHANGED_NUMBER -> {
+            val aci = aci()
+            existing += Triple(e164(), pni(), aci)
+            mapping[e164()] = RecipientTable.CdsV2Result(pni(), aci)
+          }
+
+          Kind.NEW_PNI -> {
+            val (e164, aci) = e164() to aci()
+            existing += Triple(e164, pni(), aci)
+            mapping[e164] = RecipientTable.CdsV2Result(pni(), aci)
+          }
+
+          Kind.SWAPPED_NUMBERS -> {
+            val (e164A, pniA, aciA) = Triple(e164(), pni(), aci())
+            val (e164B, pniB, aciB) = Triple(e164(), pni(), aci())
+            existing += Triple(e164A, pniA, aciA)
+            existing += Triple(e164B, pniB, aciB)
+            mapping[e164A] = RecipientTable.CdsV2Result(pniB, aciB)
+            mapping[e164B] = RecipientTable.CdsV2Result(pniA, aciA)
+          }
+
+          Kind.NEW_CONTACT -> {
+            mapping[e164()] = RecipientTable.CdsV2Result(pni(), aci())
+          }
+        }
+      }
+
+      return CdsScenario(existing.shuffled(random), mapping)
+    }
+
+    /** What [RecipientTable.bulkProcessCdsResult] used to do: resolve each number on its own, in one transaction. */
+    fun processRowByRow(mapping: Map<String, RecipientTable.CdsV2Result>): Set<RecipientId> {
+      return SignalDatabase.rawDatabase.withinTransaction {
+        mapping
+          .map { (e164, result) -> SignalDatabase.recipients.getAndPossiblyMerge(aci = result.aci, pni = result.pni, e164 = e164, pniVerified = false, changeSelf = false) }
+          .toSet()
+      }
+    }
+
+    /**
+     * Describes recipients by their identifiers rather than their ids, so that two runs from the same starting point can be compared. Ids
+     * that were merged away are described as such.
+     */
+    fun snapshot(returnedIds: Set<RecipientId>): Snapshot {
+      val rows: Map<Long, String> = SignalDatabase.rawDatabase
+        .select(RecipientTable.ID, RecipientTable.E164, RecipientTable.PNI_COLUMN, RecipientTable.ACI_COLUMN)
+        .from(RecipientTable.TABLE_NAME)
+        .where("${RecipientTable.E164} NOT NULL OR ${RecipientTable.PNI_COLUMN} NOT NULL OR ${RecipientTable.ACI_COLUMN} NOT NULL")
+        .run()
+        .readToList { cursor ->
+          cursor.requireLong(RecipientTable.ID) to "(${cursor.requireString(RecipientTable.E164)}, ${cursor.requireString(RecipientTable.PNI_COLUMN)}, ${cursor.requireString(RecipientTable.ACI_COLUMN)})"
+        }
+        .toMap()
+
+      return Snapshot(
+        returned = returnedIds.map { rows[it.toLong()] ?: "merged" }.toSet(),
+        table = rows.values.sorted()
+      )
+    }
+
+    fun reset() {
+      // Need to delete these first to prevent foreign key crash
+      SignalDatabase.rawDatabase.execSQL("DELETE FROM distribution_list")
+      SignalDatabase.rawDatabase.execSQL("DELETE FROM distribution_list_member")
+
+      SqlUtil.getAllTables(SignalDatabase.rawDatabase)
+        .filterNot { it.contains("sqlite") || it.contains("fts") || it.startsWith("emoji_search_") } // If we delete these we'll corrupt the DB
+        .sorted()
+        .forEach { table ->
+          SignalDatabase.rawDatabase.execSQL("DELETE FROM $table")
+        }
+
+      AppDependencies.recipientCache.clear()
+      AppDependencies.recipientCache.clearSelf()
+      RecipientId.clearCache()
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+@Suppress("ClassName")
+class ThreadTableTest_coalescedUpdates {
+
+  companion object {
+    private const val MESSAGE_COUNT = 50
+  }
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  @Test
+  fun givenTheSameMessages_whenIInsertWithAndWithoutCoalescing_thenIExpectTheSameThreadState() {
+    // GIVEN
+    val immediateRecipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    val coalescedRecipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    val immediateBase = 1_000_000L
+    val coalescedBase = 2_000_000L
+
+    // WHEN
+    val immediateThreadId = runScenario(immediateRecipient, immediateBase)
+
+    val statsBefore = SignalDatabase.threads.getUpdateCoalescerStats()
+    val coalescedThreadId = SignalDatabase.threads.withCoalescedUpdates {
+      runScenario(coalescedRecipient, coalescedBase)
+    }
+    val statsAfter = SignalDatabase.threads.getUpdateCoalescerStats()
+
+    // THEN
+    assertEquals(readThread(immediateThreadId, immediateBase), readThread(coalescedThreadId, coalescedBase))
+    assertTrue(statsAfter.collapsed - statsBefore.collapsed >= MESSAGE_COUNT)
+  }
+
+  @Test
+  fun givenAThreadWhoseMessagesAreAllDeleted_whenIDeleteWithCoalescing_thenIExpectTheThreadToBeDeleted() {
+    // GIVEN
+    val recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val messageIds = (0 until 5).map { MmsHelper.insert(recipient = recipient, sentTimeMillis = it.toLong() + 1, threadId = threadId) }
+
+    // WHEN
+    SignalDatabase.threads.withCoalescedUpdates {
+      messageIds.forEach { SignalDatabase.messages.deleteMessage(it) }
+    }
+
+    // THEN
+    assertEquals(null, SignalDatabase.threads.getThreadRecord(threadId))
+  }
+
+  @Test
+  fun givenAThreadWithOneMessage_whenIDeleteItWithCoalescing_thenIExpectTheDeletionToBeReported() {
+    // GIVEN
+    val recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val messageId = MmsHelper.insert(recipient = recipient, sentTimeMillis = 1, threadId = threadId)
+
+    // WHEN
+    val threadDeleted = SignalDatabase.threads.withCoalescedUpdates {
+      SignalDatabase.messages.deleteMessage(messageId)
+    }
+
+    // THEN
+    assertTrue(threadDeleted)
+    assertEquals(null, SignalDatabase.threads.getThreadRecord(threadId))
+  }
+
+  /**
+   * Inserts incoming and outgoing messages, delivers receipts for the outgoing ones, then deletes some of the incoming ones.
+   */
+  private fun runScenario(recipient: Recipient, base: Long): Long {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    val incomingIds = (0 until MESSAGE_COUNT).map { i ->
+      MmsHelper.insert(
+        IncomingMessage(
+          type = MessageType.NORMAL,
+          from = recipient.id,
+          sentTimeMillis = base + i,
+          serverTimeMillis = base + i,
+          receivedTimeMillis = base + i,
+          body = "Incoming $i"
+        ),
+        threadId
+      ).get().messageId
+    }
+
+    val outgoingTimestamps = (0 until MESSAGE_COUNT).map { i ->
+      val timestamp = base + MESSAGE_COUNT + i
+      MmsHelper.insert(recipient = recipient, body = "Outgoing $i", sentTimeMillis = timestamp, threadId = threadId)
+      timestamp
+    }
+
+    SignalDatabase.messages.incrementDeliveryReceiptCounts(outgoingTimestamps, recipient.id, base + MESSAGE_COUNT * 2)
+
+    incomingIds.take(5).forEach { SignalDatabase.messages.deleteMessage(it) }
+
+    return threadId
+  }
+
+  /**
+   * Every column of the thread row, with dates made relative to [base] and ids that are expected to differ left out.
+   */
+  private fun readThread(threadId: Long, base: Long): Map<String, String?> {
+    return SignalDatabase.rawDatabase.rawQuery("SELECT * FROM ${ThreadTable.TABLE_NAME} WHERE ${ThreadTable.ID} = ?", arrayOf(threadId.toString())).use { cursor ->
+      assertTrue(cursor.moveToFirst())
+
+      cursor.columnNames
+        .filterNot { it == ThreadTable.ID || it == ThreadTable.RECIPIENT_ID }
+        .associateWith { column ->
+          val index = cursor.getColumnIndexOrThrow(column)
+          if (column == ThreadTable.DATE) {
+            (cursor.getLong(index) - base).toString()
+          } else {
+            cursor.getString(index)
+          }
+        }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package org.thoughtcrime.securesms.messages
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.mockk.every
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import org.junit.After
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import org.signal.libsignal.protocol.ecc.Curve
+import org.signal.libsignal.protocol.ecc.ECKeyPair
+import org.signal.libsignal.zkgroup.profiles.ProfileKey
+import org.thoughtcrime.securesms.crypto.SealedSenderAccessUtil
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.AliceClient
+import org.thoughtcrime.securesms.testing.BobClient
+import org.thoughtcrime.securesms.testing.FakeClientHelpers
+import org.thoughtcrime.securesms.testing.SignalActivityRule
+import org.whispersystems.signalservice.internal.push.Envelope
+import android.util.Log as AndroidLog
+
+/**
+ * Replays a synthetic queue of envelopes from Bob to Alice straight through [MessageDecryptor.decrypt] to measure how long it takes
+ * to drain a large backlog, both with a transaction per envelope and with a transaction per websocket batch.
+ *
+ * Content processing is intentionally left out so that only decryption and protocol store persistence is measured.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class MessageDecryptionThroughputTest {
+
+  companion object {
+    private val TAG = Log.tag(MessageDecryptionThroughputTest::class.java)
+
+    private const val MESSAGE_COUNT = 2_000
+    private const val BATCH_SIZE = 30
+  }
+
+  @get:Rule
+  val harness = SignalActivityRule()
+
+  private val trustRoot: ECKeyPair = Curve.generateKeyPair()
+
+  private lateinit var aliceClient: AliceClient
+  private lateinit var bobClient: BobClient
+
+  @Before
+  fun setup() {
+    mockkStatic(SealedSenderAccessUtil::class)
+    every { SealedSenderAccessUtil.getCertificateValidator() } returns FakeClientHelpers.noOpCertificateValidator
+
+    aliceClient = AliceClient(
+      serviceId = harness.self.requireServiceId(),
+      e164 = harness.self.requireE164(),
+      trustRoot = trustRoot
+    )
+
+    val bob = Recipient.resolved(harness.others[0])
+    bobClient = BobClient(
+      serviceId = bob.requireServiceId(),
+      e164 = bob.requireE164(),
+      identityKeyPair = harness.othersKeys[0],
+      trustRoot = trustRoot,
+      profileKey = ProfileKey(bob.profileKey)
+    )
+
+    // Get past the prekey phase so that every replayed envelope is a normal ciphertext
+    val now = System.currentTimeMillis()
+    aliceClient.process(bobClient.encrypt(now), now)
+    bobClient.decrypt(aliceClient.encrypt(now + 1, bob), now + 1)
+  }
+
+  @After
+  fun after() {
+    unmockkStatic(SealedSenderAccessUtil::class)
+  }
+
+  @Test
+  fun drainQueue_transactionPerEnvelope() {
+    val envelopes = generateInboundEnvelopes(MESSAGE_COUNT)
+
+    val duration = drain(envelopes) { batch, bufferedStore ->
+      batch.forEach { envelope ->
+        SignalDatabase.runInTransaction {
+          decrypt(bufferedStore, envelope)
+          bufferedStore.flushToDisk()
+        }
+      }
+    }
+
+    report("Transaction per envelope", duration)
+  }
+
+  @Test
+  fun drainQueue_transactionPerBatch() {
+    val envelopes = generateInboundEnvelopes(MESSAGE_COUNT)
+
+    val duration = drain(envelopes) { batch, bufferedStore ->
+      SignalDatabase.runInTransaction {
+        batch.forEach { envelope -> decrypt(bufferedStore, envelope) }
+        bufferedStore.flushToDisk()
+      }
+    }
+
+    report("Transaction per batch", duration)
+  }
+
+  private fun drain(envelopes: List<Envelope>, processBatch: (List<Envelope>, BufferedProtocolStore) -> Unit): Long {
+    val start = System.currentTimeMillis()
+    envelopes.chunked(BATCH_SIZE).forEach { batch ->
+      processBatch(batch, BufferedProtocolStore.create())
+    }
+    return System.currentTimeMillis() - start
+  }
+
+  private fun decrypt(bufferedStore: BufferedProtocolStore, envelope: Envelope) {
+    val result = MessageDecryptor.decrypt(harness.application, bufferedStore, envelope, envelope.serverTimestamp!!)
+    check(result is MessageDecryptor.Result.Success) { "Unexpected result! ${result.javaClass.simpleName}" }
+  }
+
+  private fun report(label: String, durationMs: Long) {
+    val perMessage = durationMs.toFloat() / MESSAGE_COUNT
+    val perSecond = MESSAGE_COUNT * 1000f / durationMs
+    AndroidLog.w(TAG, "$label: Drained $MESSAGE_COUNT envelopes in $durationMs ms (~$perMessage ms per message, $perSecond m/s)")
+  }
+
+  private fun generateInboundEnvelopes(count: Int): List<Envelope> {
+    val envelopes = ArrayList<Envelope>(count)
+    var now = System.currentTimeMillis()
+    for (i in 0 until count) {
+      envelopes += bobClient.encrypt(now)
+      now += 3
+    }
+
+    return envelopes
+  }
+}
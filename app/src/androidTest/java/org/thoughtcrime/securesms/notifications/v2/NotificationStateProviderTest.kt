@@ -0,0 +1,88 @@
+package org.thoughtcrime.securesms.notifications.v2
+
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.thoughtcrime.securesms.database.MessageType
+import org.thoughtcrime.securesms.database.MmsHelper
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+class NotificationStateProviderTest {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  @Test
+  fun givenUnreadMessagesInSeveralThreads_whenIConstructTheState_thenIExpectOneConversationPerThread() {
+    // GIVEN
+    val alice = createRecipient()
+    val bob = createRecipient()
+    val aliceThreadId = insertIncoming(alice, 3, base = 1000)
+    val bobThreadId = insertIncoming(bob, 2, base = 2000)
+
+    // WHEN
+    val state = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+
+    // THEN
+    assertEquals(mapOf(aliceThreadId to 3, bobThreadId to 2), state.conversations.associate { it.thread.threadId to it.messageCount })
+  }
+
+  @Test
+  fun givenANotifiedState_whenOneThreadChanges_thenIExpectTheUpdatedStateToMatchAFullRebuild() {
+    // GIVEN
+    val alice = createRecipient()
+    val bob = createRecipient()
+    val aliceThreadId = insertIncoming(alice, 3, base = 1000)
+    insertIncoming(bob, 2, base = 2000)
+
+    val initialState = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    val notifiedTimestamp = System.currentTimeMillis()
+    SignalDatabase.messages.setNotifiedTimestamp(notifiedTimestamp, initialState.notificationItems.map { it.id })
+
+    // WHEN
+    insertIncoming(alice, 1, base = 3000)
+    val updatedState = NotificationStateProvider.updateNotificationState(initialState.withNotifiedTimestamp(notifiedTimestamp), setOf(aliceThreadId), emptyMap(), null)
+
+    // THEN
+    val rebuiltState = NotificationStateProvider.constructNotificationState(emptyMap(), null)
+    assertEquals(describe(rebuiltState), describe(updatedState))
+  }
+
+  private fun createRecipient(): RecipientId {
+    return SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+  }
+
+  private fun insertIncoming(recipientId: RecipientId, count: Int, base: Long): Long {
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(Recipient.resolved(recipientId))
+
+    for (i in 0 until count) {
+      MmsHelper.insert(
+        IncomingMessage(
+          type = MessageType.NORMAL,
+          from = recipientId,
+          sentTimeMillis = base + i,
+          serverTimeMillis = base + i,
+          receivedTimeMillis = base + i,
+          body = "Message $i"
+        ),
+        threadId
+      )
+    }
+
+    return threadId
+  }
+
+  /**
+   * Conversations are compared by content rather than position, since an updated state moves the changed conversations to the end.
+   */
+  private fun describe(state: NotificationState): Map<ConversationId, List<Pair<Long, Boolean>>> {
+    return state.conversations.associate { conversation -> conversation.thread to conversation.notificationItems.map { it.id to it.isNewNotification } }
+  }
+}
@@ -15,6 +15,7 @@ class BenchmarkSetupActivity : BaseActivity() {
     when (intent.extras!!.getString("setup-type")) {
       "cold-start" -> setupColdStart()
       "conversation-open" -> setupConversationOpen()
+      "emoji-conversation-open" -> setupEmojiConversationOpen()
     }
 
     val textView: TextView = TextView(this).apply {
@@ -54,4 +55,24 @@ class BenchmarkSetupActivity : BaseActivity() {
       SignalDatabase.threads.update(SignalDatabase.threads.getOrCreateThreadIdFor(recipient = recipient), true)
     }
   }
+
+  private fun setupEmojiConversationOpen() {
+    // Drawn from every emoji category, so that rendering needs most of the sprite pages
+    val emoji = listOf("😀", "😂", "🥰", "👍", "👋", "🐶", "🦊", "🍕", "🍣", "⚽", "🎸", "🚗", "✈️", "💡", "📱", "❤️", "✅", "🏁", "🇨🇦", "🇯🇵")
+
+    TestUsers.setupSelf()
+    TestUsers.setupTestRecipient().let {
+      val recipient: Recipient = Recipient.resolved(it)
+      val messagesToAdd = 500
+      val generator: TestMessages.TimestampGenerator = TestMessages.TimestampGenerator(System.currentTimeMillis() - (messagesToAdd * 2000L) - 60_000L)
+
+      for (i in 0 until messagesToAdd) {
+        val body = "Test ${(0 until 8).joinToString(" ") { j -> emoji[(i + j * 3) % emoji.size] }}"
+        TestMessages.insertIncomingTextMessage(other = recipient, body = body, timestamp = generator.nextTimestamp())
+        TestMessages.insertOutgoingTextMessage(other = recipient, body = body, timestamp = generator.nextTimestamp())
+      }
+
+      SignalDatabase.threads.update(SignalDatabase.threads.getOrCreateThreadIdFor(recipient = recipient), true)
+    }
+  }
 }
@@ -49,6 +49,7 @@ import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.database.SqlCipherLibraryLoader;
 import org.thoughtcrime.securesms.dependencies.AppDependencies;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencyProvider;
+import org.thoughtcrime.securesms.emoji.EmojiPageCache;
 import org.thoughtcrime.securesms.emoji.EmojiSource;
 import org.thoughtcrime.securesms.emoji.JumboEmoji;
 import org.thoughtcrime.securesms.gcm.FcmFetchManager;
@@ -106,6 +107,7 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.VersionTracker;
 import org.thoughtcrime.securesms.util.dynamiclanguage.DynamicLanguageContextWrapper;
+import org.thoughtcrime.securesms.video.exo.GiphyMp4Cache;
 
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -180,47 +182,48 @@ public class ApplicationContext extends Application implements AppForegroundObse
                             .addBlocking("ring-rtc", this::initializeRingRtc)
                             .addBlocking("glide", () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()))
                             .addBlocking("tracer", this::initializeTracer)
-                            .addNonBlocking(() -> RegistrationUtil.maybeMarkRegistrationComplete())
-                            .addNonBlocking(() -> Glide.get(this))
-                            .addNonBlocking(this::cleanAvatarStorage)
-                            .addNonBlocking(this::initializeRevealableMessageManager)
-                            .addNonBlocking(this::initializePendingRetryReceiptManager)
-                            .addNonBlocking(this::initializeScheduledMessageManager)
-                            .addNonBlocking(this::initializeFcmCheck)
-                            .addNonBlocking(PreKeysSyncJob::enqueueIfNeeded)
-                            .addNonBlocking(this::initializePeriodicTasks)
-                            .addNonBlocking(this::initializeCircumvention)
-                            .addNonBlocking(this::initializeCleanup)
-                            .addNonBlocking(this::initializeGlideCodecs)
-                            .addNonBlocking(StorageSyncHelper::scheduleRoutineSync)
-                            .addNonBlocking(this::beginJobLoop)
-                            .addNonBlocking(EmojiSource::refresh)
-                            .addNonBlocking(() -> AppDependencies.getGiphyMp4Cache().onAppStart(this))
-                            .addNonBlocking(this::ensureProfileUploaded)
-                            .addNonBlocking(() -> AppDependencies.getExpireStoriesManager().scheduleIfNecessary())
-                            .addPostRender(() -> AppDependencies.getDeletedCallEventManager().scheduleIfNecessary())
-                            .addPostRender(() -> RateLimitUtil.retryAllRateLimitedMessages(this))
-                            .addPostRender(this::initializeExpiringMessageManager)
-                            .addPostRender(this::initializeTrimThreadsByDateManager)
-                            .addPostRender(RefreshSvrCredentialsJob::enqueueIfNecessary)
-                            .addPostRender(() -> DownloadLatestEmojiDataJob.scheduleIfNecessary(this))
-                            .addPostRender(EmojiSearchIndexDownloadJob::scheduleIfNecessary)
-                            .addPostRender(() -> SignalDatabase.messageLog().trimOldMessages(System.currentTimeMillis(), RemoteConfig.retryRespondMaxAge()))
-                            .addPostRender(() -> JumboEmoji.updateCurrentVersion(this))
-                            .addPostRender(RetrieveRemoteAnnouncementsJob::enqueue)
-                            .addPostRender(() -> AndroidTelecomUtil.registerPhoneAccount())
-                            .addPostRender(() -> AppDependencies.getJobManager().add(new FontDownloaderJob()))
-                            .addPostRender(CheckServiceReachabilityJob::enqueueIfNecessary)
-                            .addPostRender(GroupV2UpdateSelfProfileKeyJob::enqueueForGroupsIfNecessary)
-                            .addPostRender(StoryOnboardingDownloadJob.Companion::enqueueIfNeeded)
-                            .addPostRender(PnpInitializeDevicesJob::enqueueIfNecessary)
-                            .addPostRender(() -> AppDependencies.getExoPlayerPool().getPoolStats().getMaxUnreserved())
-                            .addPostRender(() -> AppDependencies.getRecipientCache().warmUp())
-                            .addPostRender(AccountConsistencyWorkerJob::enqueueIfNecessary)
-                            .addPostRender(GroupRingCleanupJob::enqueue)
-                            .addPostRender(LinkedDeviceInactiveCheckJob::enqueueIfNecessary)
-                            .addPostRender(() -> ActiveCallManager.clearNotifications(this))
-                            .addPostRender(() -> GroupSendEndorsementInternalNotifier.init())
+                            .addNonBlocking("registration-check", () -> RegistrationUtil.maybeMarkRegistrationComplete())
+                            .addNonBlocking("glide-warmup", () -> Glide.get(this))
+                            .addNonBlocking("view-once-manager", this::initializeRevealableMessageManager)
+                            .addNonBlocking("pending-retry-receipts", this::initializePendingRetryReceiptManager)
+                            .addNonBlocking("scheduled-messages", this::initializeScheduledMessageManager)
+                            .addNonBlocking("fcm-check", this::initializeFcmCheck)
+                            .addNonBlocking("prekeys-sync", PreKeysSyncJob::enqueueIfNeeded)
+                            .addNonBlocking("periodic-tasks", this::initializePeriodicTasks)
+                            .addNonBlocking("circumvention", this::initializeCircumvention)
+                            .addNonBlocking("glide-codecs", this::initializeGlideCodecs)
+                            .addNonBlocking("storage-sync", StorageSyncHelper::scheduleRoutineSync)
+                            .addNonBlocking("job-loop", this::beginJobLoop)
+                            .addNonBlocking("emoji-source", EmojiSource::refresh)
+                            .addNonBlocking("profile-upload", this::ensureProfileUploaded)
+                            .addNonBlocking("expire-stories", () -> AppDependencies.getExpireStoriesManager().scheduleIfNecessary())
+                            .addPostRender("avatar-cleanup", this::cleanAvatarStorage)
+                            .addPostRender("attachment-cleanup", this::initializeCleanup)
+                            .addPostRender("deleted-call-events", () -> AppDependencies.getDeletedCallEventManager().scheduleIfNecessary())
+                            .addPostRender("retry-rate-limited", () -> RateLimitUtil.retryAllRateLimitedMessages(this))
+                            .addPostRender("expiring-messages", this::initializeExpiringMessageManager)
+                            .addPostRender("trim-threads", this::initializeTrimThreadsByDateManager)
+                            .addPostRender("svr-credentials", RefreshSvrCredentialsJob::enqueueIfNecessary)
+                            .addPostRender("emoji-download", () -> DownloadLatestEmojiDataJob.scheduleIfNecessary(this))
+                            .addPostRender("emoji-search-index", EmojiSearchIndexDownloadJob::scheduleIfNecessary)
+                            .addPostRender("trim-message-log", () -> SignalDatabase.messageLog().trimOldMessages(System.currentTimeMillis(), RemoteConfig.retryRespondMaxAge()))
+                            .addPostRender("jumbo-emoji", () -> JumboEmoji.updateCurrentVersion(this))
+                            .addPostRender("emoji-preload", () -> EmojiPageCache.INSTANCE.preloadRecents(this))
+                            .addPostRender("remote-announcements", RetrieveRemoteAnnouncementsJob::enqueue)
+                            .addPostRender("telecom", () -> AndroidTelecomUtil.registerPhoneAccount())
+                            .addPostRender("font-download", () -> AppDependencies.getJobManager().add(new FontDownloaderJob()))
+                            .addPostRender("service-reachability", CheckServiceReachabilityJob::enqueueIfNecessary)
+                            .addPostRender("group-profile-keys", GroupV2UpdateSelfProfileKeyJob::enqueueForGroupsIfNecessary)
+                            .addPostRender("story-onboarding", StoryOnboardingDownloadJob.Companion::enqueueIfNeeded)
+                            .addPostRender("pnp-devices", PnpInitializeDevicesJob::enqueueIfNecessary)
+                            .addPostRender("exoplayer-pool", () -> AppDependencies.getExoPlayerPool().getPoolStats().getMaxUnreserved())
+                            .addPostRender("recipient-cache-warmup", () -> AppDependencies.getRecipientCache().warmUp())
+                            .addPostRender("account-consistency", AccountConsistencyWorkerJob::enqueueIfNecessary)
+                            .addPostRender("group-ring-cleanup", GroupRingCleanupJob::enqueue)
+                            .addPostRender("linked-device-check", LinkedDeviceInactiveCheckJob::enqueueIfNecessary)
+                            .addPostRender("call-notifications", () -> ActiveCallManager.clearNotifications(this))
+                            .addPostRender("endorsement-notifier", () -> GroupSendEndorsementInternalNotifier.init())
+                            .addLazy(GiphyMp4Cache.getStartupTask())
                             .execute();
 
     Log.d(TAG, "onCreate() took " + (System.currentTimeMillis() - startTime) + " ms");
@@ -39,6 +39,7 @@ import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
 import org.thoughtcrime.securesms.backup.v2.stream.BackupExportWriter
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
+import org.thoughtcrime.securesms.backup.v2.stream.PipelinedBackupExportWriter
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupWriter
 import org.thoughtcrime.securesms.backup.v2.ui.subscription.MessageBackupsType
@@ -55,6 +56,7 @@ import org.thoughtcrime.securesms.jobs.RequestGroupV2InfoJob
 import org.thoughtcrime.securesms.keyvalue.KeyValueStore
 import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.recipients.RecipientId
+import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.toMillis
 import org.whispersystems.signalservice.api.NetworkResult
 import org.whispersystems.signalservice.api.StatusCodeErrorAction
@@ -90,6 +92,7 @@ object BackupRepository {
   private const val VERSION = 1L
   private const val MAIN_DB_SNAPSHOT_NAME = "signal-snapshot.db"
   private const val KEYVALUE_DB_SNAPSHOT_NAME = "key-value-snapshot.db"
+  private const val PROGRESS_INTERVAL = 1000L
 
   private val resetInitializedStateErrorAction: StatusCodeErrorAction = { error ->
     when (error.code) {
@@ -194,23 +197,39 @@ object BackupRepository {
     }
   }
 
-  fun export(outputStream: OutputStream, append: (ByteArray) -> Unit, plaintext: Boolean = false, currentTime: Long = System.currentTimeMillis()) {
+  /**
+   * @param pipelined If true, building frames, serializing + compressing them, and encrypting them each happen on their own thread. The output is
+   *                  identical either way. Off by default, see [RemoteConfig.pipelinedBackupExport].
+   * @param progressListener Notified periodically with the number of messages exported so far and timing for each stage of the export.
+   */
+  fun export(
+    outputStream: OutputStream,
+    append: (ByteArray) -> Unit,
+    plaintext: Boolean = false,
+    currentTime: Long = System.currentTimeMillis(),
+    pipelined: Boolean = false,
+    progressListener: ((BackupV2Event) -> Unit)? = null
+  ) {
     val eventTimer = EventTimer()
     val dbSnapshot: SignalDatabase = createSignalDatabaseSnapshot()
     val signalStoreSnapshot: SignalStore = createSignalStoreSnapshot()
 
     try {
-      val writer: BackupExportWriter = if (plaintext) {
+      val baseWriter: BackupExportWriter = if (plaintext) {
         PlainTextBackupWriter(outputStream)
       } else {
         EncryptedBackupWriter(
           key = SignalStore.svr.getOrCreateMasterKey().deriveBackupKey(),
           aci = SignalStore.account.aci!!,
           outputStream = outputStream,
-          append = append
+          append = append,
+          pipelined = pipelined
         )
       }
 
+      val writer: BackupExportWriter = if (pipelined) PipelinedBackupExportWriter(baseWriter) else baseWriter
+      var messageCount = 0L
+
       val exportState = ExportState(backupTime = currentTime, allowMediaBackup = SignalStore.backup.backsUpMedia)
 
       writer.use {
@@ -251,11 +270,19 @@ object BackupRepository {
           ChatItemBackupProcessor.export(dbSnapshot, exportState) { frame ->
             writer.write(frame)
             eventTimer.emit("message")
+
+            messageCount++
+            if (progressListener != null && messageCount % PROGRESS_INTERVAL == 0L) {
+              progressListener(BackupV2Event(BackupV2Event.Type.PROGRESS_MESSAGES, messageCount, 0, writer.getStageMetrics()))
+            }
           }
         }
       }
 
       Log.d(TAG, "export() ${eventTimer.stop().summary}")
+      if (pipelined) {
+        Log.d(TAG, "export() stages: ${writer.getStageMetrics().joinToString(" ")}")
+      }
     } finally {
       deleteDatabaseSnapshot()
       deleteSignalStoreSnapshot()
@@ -272,9 +299,11 @@ object BackupRepository {
   }
 
   /**
+   * @param deferSearchIndex If true, the message search index is rebuilt once after all messages are inserted, rather than being updated
+   *   as each message is inserted.
    * @return The time the backup was created, or null if the backup could not be read.
    */
-  fun import(length: Long, inputStreamFactory: () -> InputStream, selfData: SelfData, plaintext: Boolean = false): ImportResult {
+  fun import(length: Long, inputStreamFactory: () -> InputStream, selfData: SelfData, plaintext: Boolean = false, deferSearchIndex: Boolean = true): ImportResult {
     val eventTimer = EventTimer()
 
     val backupKey = SignalStore.svr.getOrCreateMasterKey().deriveBackupKey()
@@ -319,47 +348,60 @@ object BackupRepository {
       val backupState = BackupState(backupKey)
       val chatItemInserter: ChatItemImportInserter = ChatItemBackupProcessor.beginImport(backupState)
 
-      val totalLength = frameReader.getStreamLength()
-      for (frame in frameReader) {
-        when {
-          frame.account != null -> {
-            AccountDataProcessor.import(frame.account, selfId)
-            eventTimer.emit("account")
-          }
+      val importFrames = {
+        val totalLength = frameReader.getStreamLength()
+        for (frame in frameReader) {
+          when {
+            frame.account != null -> {
+              AccountDataProcessor.import(frame.account, selfId)
+              eventTimer.emit("account")
+            }
 
-          frame.recipient != null -> {
-            RecipientBackupProcessor.import(frame.recipient, backupState)
-            eventTimer.emit("recipient")
-          }
+            frame.recipient != null -> {
+              RecipientBackupProcessor.import(frame.recipient, backupState)
+              eventTimer.emit("recipient")
+            }
 
-          frame.chat != null -> {
-            ChatBackupProcessor.import(frame.chat, backupState)
-            eventTimer.emit("chat")
-          }
+            frame.chat != null -> {
+              ChatBackupProcessor.import(frame.chat, backupState)
+              eventTimer.emit("chat")
+            }
 
-          frame.adHocCall != null -> {
-            AdHocCallBackupProcessor.import(frame.adHocCall, backupState)
-            eventTimer.emit("call")
-          }
+            frame.adHocCall != null -> {
+              AdHocCallBackupProcessor.import(frame.adHocCall, backupState)
+              eventTimer.emit("call")
+            }
 
-          frame.stickerPack != null -> {
-            StickerBackupProcessor.import(frame.stickerPack)
-            eventTimer.emit("sticker-pack")
-          }
+            frame.stickerPack != null -> {
+              StickerBackupProcessor.import(frame.stickerPack)
+              eventTimer.emit("sticker-pack")
+            }
 
-          frame.chatItem != null -> {
-            chatItemInserter.insert(frame.chatItem)
-            eventTimer.emit("chatItem")
-            // TODO if there's stuff in the stream after chatItems, we need to flush the inserter before going to the next phase
+            frame.chatItem != null -> {
+              chatItemInserter.insert(frame.chatItem)
+              eventTimer.emit("chatItem")
+              // TODO if there's stuff in the stream after chatItems, we need to flush the inserter before going to the next phase
+            }
+
+            else -> Log.w(TAG, "Unrecognized frame")
           }
+          EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_RESTORE, frameReader.getBytesRead(), totalLength))
+        }
 
-          else -> Log.w(TAG, "Unrecognized frame")
+        if (chatItemInserter.flush()) {
+          eventTimer.emit("chatItem")
         }
-        EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_RESTORE, frameReader.getBytesRead(), totalLength))
       }
 
-      if (chatItemInserter.flush()) {
-        eventTimer.emit("chatItem")
+      if (deferSearchIndex) {
+        SignalDatabase.messageSearch.withIndexingDeferred(importFrames)
+        eventTimer.emit("search-index")
+      } else {
+        importFrames()
+      }
+
+      chatItemInserter.getTableStats().forEach { (table, stats) ->
+        Log.d(TAG, "[import] $table: $stats")
       }
 
       backupState.chatIdToLocalThreadId.values.forEach {
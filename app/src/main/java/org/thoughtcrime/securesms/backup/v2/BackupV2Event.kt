@@ -5,10 +5,28 @@
 
 package org.thoughtcrime.securesms.backup.v2
 
-class BackupV2Event(val type: Type, val count: Long, val estimatedTotalCount: Long) {
+class BackupV2Event(val type: Type, val count: Long, val estimatedTotalCount: Long, val stageMetrics: List<StageMetrics> = emptyList()) {
   enum class Type {
     PROGRESS_MESSAGES,
     PROGRESS_ATTACHMENTS,
     FINISHED
   }
+
+  /**
+   * Timing for a single stage of the export pipeline. [busyTimeMs] is time spent doing the stage's own work, while [waitTimeMs] is time spent
+   * blocked on the stages around it. A stage with a lot of wait time is not the bottleneck.
+   */
+  data class StageMetrics(
+    val name: String,
+    val itemCount: Long,
+    val busyTimeMs: Long,
+    val waitTimeMs: Long
+  ) {
+    val itemsPerSecond: Float
+      get() = if (busyTimeMs + waitTimeMs > 0) itemCount * 1000f / (busyTimeMs + waitTimeMs) else 0f
+
+    override fun toString(): String {
+      return "[$name] items: $itemCount, busy: $busyTimeMs ms, waiting: $waitTimeMs ms, ${"%.1f".format(itemsPerSecond)} items/sec"
+    }
+  }
 }
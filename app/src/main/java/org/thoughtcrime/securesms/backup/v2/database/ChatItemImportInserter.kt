@@ -41,6 +41,7 @@ import org.thoughtcrime.securesms.contactshare.Contact
 import org.thoughtcrime.securesms.database.AttachmentTable
 import org.thoughtcrime.securesms.database.CallTable
 import org.thoughtcrime.securesms.database.GroupReceiptTable
+import org.thoughtcrime.securesms.database.MentionTable
 import org.thoughtcrime.securesms.database.MessageTable
 import org.thoughtcrime.securesms.database.MessageTypes
 import org.thoughtcrime.securesms.database.ReactionTable
@@ -81,6 +82,7 @@ import org.whispersystems.signalservice.internal.push.DataMessage
 import java.math.BigInteger
 import java.util.Optional
 import java.util.UUID
+import kotlin.time.Duration.Companion.nanoseconds
 import org.thoughtcrime.securesms.backup.v2.proto.GiftBadge as BackupGiftBadge
 
 /**
@@ -144,10 +146,22 @@ class ChatItemImportInserter(
       GroupReceiptTable.TIMESTAMP,
       GroupReceiptTable.UNIDENTIFIED
     )
+
+    private val MENTION_COLUMNS = arrayOf(
+      MentionTable.THREAD_ID,
+      MentionTable.MESSAGE_ID,
+      MentionTable.RECIPIENT_ID,
+      MentionTable.RANGE_START,
+      MentionTable.RANGE_LENGTH
+    )
+
+    /** Rows written by [MessageInsert.followUp]s (attachments, calls, etc.) are tracked under this name rather than their own tables. */
+    private const val FOLLOW_UPS = "follow-ups"
   }
 
   private val selfId = Recipient.self().id
   private val buffer: Buffer = Buffer()
+  private val tableStats: MutableMap<String, TableStats> = LinkedHashMap()
   private var messageId: Long = SqlUtil.getNextAutoIncrementId(db, MessageTable.TABLE_NAME)
 
   /**
@@ -190,12 +204,14 @@ class ChatItemImportInserter(
         revision.contentValues.put(MessageTable.LATEST_REVISION_ID, latestRevisionId)
         revision.contentValues.put(MessageTable.REVISION_NUMBER, (messageId - originalId))
         buffer.messages += revision
+        buffer.mentions += revision.toMentionContentValues(messageId, localThreadId)
         messageId++
       }
 
       messageInsert.contentValues.put(MessageTable.ORIGINAL_MESSAGE_ID, originalId)
     }
     buffer.messages += messageInsert
+    buffer.mentions += messageInsert.toMentionContentValues(messageId, localThreadId)
     buffer.reactions += chatItem.toReactionContentValues(messageId)
     buffer.groupReceipts += chatItem.toGroupReceiptContentValues(messageId, chatBackupRecipientId)
 
@@ -211,6 +227,11 @@ class ChatItemImportInserter(
     if (buffer.size == 0) {
       return false
     }
+
+    var followUpCount = 0
+    var followUpNanos = 0L
+    val messageStart = System.nanoTime()
+
     buildBulkInsert(MessageTable.TABLE_NAME, MESSAGE_COLUMNS, buffer.messages).forEach {
       db.rawQuery("${it.query.where} RETURNING ${MessageTable.ID}", it.query.whereArgs).use { cursor ->
         var index = 0
@@ -218,20 +239,22 @@ class ChatItemImportInserter(
           val rowId = cursor.requireLong(MessageTable.ID)
           val followup = it.inserts[index].followUp
           if (followup != null) {
+            val followUpStart = System.nanoTime()
             followup(rowId)
+            followUpNanos += System.nanoTime() - followUpStart
+            followUpCount++
           }
           index++
         }
       }
     }
 
-    SqlUtil.buildBulkInsert(ReactionTable.TABLE_NAME, REACTION_COLUMNS, buffer.reactions).forEach {
-      db.execSQL(it.where, it.whereArgs)
-    }
+    recordStats(MessageTable.TABLE_NAME, buffer.messages.size, System.nanoTime() - messageStart - followUpNanos)
+    recordStats(FOLLOW_UPS, followUpCount, followUpNanos)
 
-    SqlUtil.buildBulkInsert(GroupReceiptTable.TABLE_NAME, GROUP_RECEIPT_COLUMNS, buffer.groupReceipts).forEach {
-      db.execSQL(it.where, it.whereArgs)
-    }
+    bulkInsert(MentionTable.TABLE_NAME, MENTION_COLUMNS, buffer.mentions)
+    bulkInsert(ReactionTable.TABLE_NAME, REACTION_COLUMNS, buffer.reactions)
+    bulkInsert(GroupReceiptTable.TABLE_NAME, GROUP_RECEIPT_COLUMNS, buffer.groupReceipts)
 
     messageId = SqlUtil.getNextAutoIncrementId(db, MessageTable.TABLE_NAME)
 
@@ -240,6 +263,28 @@ class ChatItemImportInserter(
     return true
   }
 
+  /**
+   * Rows written and time spent per table so far, for measuring import throughput.
+   */
+  fun getTableStats(): Map<String, TableStats> {
+    return tableStats.toMap()
+  }
+
+  private fun bulkInsert(tableName: String, columns: Array<String>, values: List<ContentValues>) {
+    val start = System.nanoTime()
+
+    SqlUtil.buildBulkInsert(tableName, columns, values).forEach {
+      db.execSQL(it.where, it.whereArgs)
+    }
+
+    recordStats(tableName, values.size, System.nanoTime() - start)
+  }
+
+  private fun recordStats(name: String, rows: Int, nanos: Long) {
+    val previous = tableStats[name] ?: TableStats(0, 0)
+    tableStats[name] = TableStats(previous.rows + rows, previous.nanos + nanos)
+  }
+
   private fun buildBulkInsert(tableName: String, columns: Array<String>, messageInserts: List<MessageInsert>, maxQueryArgs: Int = 999): List<BatchInsert> {
     val batchSize = maxQueryArgs / columns.size
 
@@ -253,6 +298,7 @@ class ChatItemImportInserter(
     val contentValues = this.toMessageContentValues(fromRecipientId, chatRecipientId, threadId)
 
     var followUp: ((Long) -> Unit)? = null
+    var messageMentions: List<Mention> = emptyList()
     if (this.updateMessage != null) {
       if (this.updateMessage.individualCall != null && this.updateMessage.individualCall.callId != null) {
         followUp = { messageRowId ->
@@ -389,9 +435,7 @@ class ChatItemImportInserter(
             }
           }
         if (mentions.isNotEmpty()) {
-          followUp = { messageId ->
-            SignalDatabase.mentions.insert(threadId, messageId, mentions)
-          }
+          messageMentions = mentions
         }
       }
       val linkPreviews = this.standardMessage.linkPreview.map { it.toLocalLinkPreview() }
@@ -427,7 +471,7 @@ class ChatItemImportInserter(
         }
       }
     }
-    return MessageInsert(contentValues, followUp)
+    return MessageInsert(contentValues, followUp, messageMentions)
   }
 
   private class BatchInsert(val inserts: List<MessageInsert>, val query: SqlUtil.Query)
@@ -1075,24 +1119,48 @@ class ChatItemImportInserter(
       ?: if (this.contentType == null) null else PointerAttachment.forPointer(quotedAttachment = DataMessage.Quote.QuotedAttachment(contentType = this.contentType, fileName = this.fileName, thumbnail = null)).orNull()
   }
 
+  private fun MessageInsert.toMentionContentValues(messageId: Long, threadId: Long): List<ContentValues> {
+    return mentions.map { mention ->
+      contentValuesOf(
+        MentionTable.THREAD_ID to threadId,
+        MentionTable.MESSAGE_ID to messageId,
+        MentionTable.RECIPIENT_ID to mention.recipientId.toLong(),
+        MentionTable.RANGE_START to mention.start,
+        MentionTable.RANGE_LENGTH to mention.length
+      )
+    }
+  }
+
   private class MessageInsert(
     val contentValues: ContentValues,
     val followUp: ((Long) -> Unit)?,
+    val mentions: List<Mention> = emptyList(),
     val edits: List<MessageInsert>? = null
   )
 
   private class Buffer(
     val messages: MutableList<MessageInsert> = mutableListOf(),
+    val mentions: MutableList<ContentValues> = mutableListOf(),
     val reactions: MutableList<ContentValues> = mutableListOf(),
     val groupReceipts: MutableList<ContentValues> = mutableListOf()
   ) {
     val size: Int
-      get() = listOf(messages.size, reactions.size, groupReceipts.size).max()
+      get() = listOf(messages.size, mentions.size, reactions.size, groupReceipts.size).max()
 
     fun reset() {
       messages.clear()
+      mentions.clear()
       reactions.clear()
       groupReceipts.clear()
     }
   }
+
+  data class TableStats(val rows: Long, val nanos: Long) {
+    val rowsPerSecond: Double
+      get() = if (nanos > 0) rows / (nanos.toDouble() / 1_000_000_000) else 0.0
+
+    override fun toString(): String {
+      return "rows: $rows, time: ${nanos.nanoseconds.inWholeMilliseconds} ms, ${"%.0f".format(rowsPerSecond)} rows/sec"
+    }
+  }
 }
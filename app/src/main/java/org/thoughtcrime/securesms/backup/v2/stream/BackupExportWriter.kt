@@ -5,10 +5,14 @@
 
 package org.thoughtcrime.securesms.backup.v2.stream
 
+import org.thoughtcrime.securesms.backup.v2.BackupV2Event
 import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
 import org.thoughtcrime.securesms.backup.v2.proto.Frame
 
 interface BackupExportWriter : AutoCloseable {
   fun write(header: BackupInfo)
   fun write(frame: Frame)
+
+  /** Timing for any stages of the export that this writer runs on other threads. */
+  fun getStageMetrics(): List<BackupV2Event.StageMetrics> = emptyList()
 }
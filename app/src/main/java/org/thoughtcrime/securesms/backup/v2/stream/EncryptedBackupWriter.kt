@@ -5,8 +5,10 @@
 
 package org.thoughtcrime.securesms.backup.v2.stream
 
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.stream.MacOutputStream
 import org.signal.core.util.writeVarInt32
+import org.thoughtcrime.securesms.backup.v2.BackupV2Event
 import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
 import org.thoughtcrime.securesms.backup.v2.proto.Frame
 import org.thoughtcrime.securesms.util.Util
@@ -14,6 +16,7 @@ import org.whispersystems.signalservice.api.backup.BackupKey
 import org.whispersystems.signalservice.api.push.ServiceId.ACI
 import java.io.IOException
 import java.io.OutputStream
+import java.util.concurrent.Executor
 import javax.crypto.Cipher
 import javax.crypto.CipherOutputStream
 import javax.crypto.Mac
@@ -25,16 +28,21 @@ import javax.crypto.spec.SecretKeySpec
  * As it's being written, it will be both encrypted and compressed. Specifically, the backup frames
  * are gzipped, that gzipped data is encrypted, and then an HMAC of the encrypted data is appended
  * to the end of the [outputStream].
+ *
+ * If [pipelined] is set, encryption happens on [pipelineExecutor], separately from compression. The output is identical either way.
  */
 class EncryptedBackupWriter(
   key: BackupKey,
   aci: ACI,
   private val outputStream: OutputStream,
-  private val append: (ByteArray) -> Unit
+  private val append: (ByteArray) -> Unit,
+  pipelined: Boolean = false,
+  pipelineExecutor: Executor = SignalExecutors.UNBOUNDED
 ) : BackupExportWriter {
 
   private val mainStream: PaddedGzipOutputStream
   private val macStream: MacOutputStream
+  private val encryptStage: QueuedOutputStream?
 
   init {
     val keyMaterial = key.deriveBackupSecrets(aci)
@@ -55,7 +63,9 @@ class EncryptedBackupWriter(
     macStream = MacOutputStream(outputStream, mac)
     val cipherStream = CipherOutputStream(macStream, cipher)
 
-    mainStream = PaddedGzipOutputStream(cipherStream)
+    encryptStage = if (pipelined) QueuedOutputStream(cipherStream, "encrypt", pipelineExecutor) else null
+
+    mainStream = PaddedGzipOutputStream(encryptStage ?: cipherStream)
   }
 
   override fun write(header: BackupInfo) {
@@ -73,6 +83,10 @@ class EncryptedBackupWriter(
     mainStream.write(frameBytes)
   }
 
+  override fun getStageMetrics(): List<BackupV2Event.StageMetrics> {
+    return listOfNotNull(encryptStage?.timer?.toMetrics())
+  }
+
   @Throws(IOException::class)
   override fun close() {
     // We need to close the main stream in order for the gzip and all the cipher operations to fully finish before
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.thoughtcrime.securesms.backup.v2.BackupV2Event
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Tracks how long a single stage of the export pipeline spends working versus waiting on other stages. Safe to read from any thread while
+ * the stage is running.
+ */
+internal class ExportStageTimer(private val name: String) {
+  private val itemCount = AtomicLong(0)
+  private val busyNanos = AtomicLong(0)
+  private val waitNanos = AtomicLong(0)
+
+  fun onItem(busyNanos: Long) {
+    itemCount.incrementAndGet()
+    this.busyNanos.addAndGet(busyNanos)
+  }
+
+  fun onWait(waitNanos: Long) {
+    this.waitNanos.addAndGet(waitNanos)
+  }
+
+  fun toMetrics(): BackupV2Event.StageMetrics {
+    return BackupV2Event.StageMetrics(
+      name = name,
+      itemCount = itemCount.get(),
+      busyTimeMs = busyNanos.get().nanoseconds.inWholeMilliseconds,
+      waitTimeMs = waitNanos.get().nanoseconds.inWholeMilliseconds
+    )
+  }
+}
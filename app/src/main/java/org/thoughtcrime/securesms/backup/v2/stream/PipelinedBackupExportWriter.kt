@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.signal.core.util.concurrent.SignalExecutors
+import org.thoughtcrime.securesms.backup.v2.BackupV2Event
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Hands frames off to a task on [executor], which writes them to [delegate]. This lets the caller keep reading from the database and building
+ * frames while earlier frames are being serialized and compressed. Frames reach [delegate] in the order they were written here, so the output is
+ * identical to writing to [delegate] directly.
+ *
+ * The hand-off queue is bounded, so if the writing side falls behind, the caller will block until there's room.
+ */
+class PipelinedBackupExportWriter(
+  private val delegate: BackupExportWriter,
+  executor: Executor = SignalExecutors.UNBOUNDED,
+  queueCapacity: Int = DEFAULT_QUEUE_CAPACITY
+) : BackupExportWriter {
+
+  companion object {
+    private const val DEFAULT_QUEUE_CAPACITY = 1000
+
+    private val END = Any()
+  }
+
+  private val buildTimer = ExportStageTimer("build")
+  private val serializeTimer = ExportStageTimer("serialize")
+
+  private val queue: BlockingQueue<Any> = ArrayBlockingQueue(queueCapacity)
+  private val error = AtomicReference<Throwable?>(null)
+  private val drained = CountDownLatch(1)
+
+  private var lastWriteFinished = System.nanoTime()
+  private var closed = false
+
+  init {
+    executor.execute(::drain)
+  }
+
+  override fun write(header: BackupInfo) {
+    check(!closed)
+    enqueue(header)
+  }
+
+  override fun write(frame: Frame) {
+    check(!closed)
+    enqueue(frame)
+  }
+
+  /**
+   * The "build" stage is the caller's time between writes (reading the database and building frames). Its wait time is back-pressure from the
+   * rest of the pipeline.
+   */
+  override fun getStageMetrics(): List<BackupV2Event.StageMetrics> {
+    return listOf(buildTimer.toMetrics(), serializeTimer.toMetrics()) + delegate.getStageMetrics()
+  }
+
+  override fun close() {
+    if (closed) {
+      return
+    }
+    closed = true
+
+    try {
+      try {
+        enqueue(END)
+      } catch (e: Throwable) {
+        // Drop whatever is still queued, so the drain finishes after the frame it's on
+        queue.clear()
+        queue.offer(END)
+        throw e
+      }
+    } finally {
+      awaitDrained()
+      delegate.close()
+    }
+
+    rethrowIfFailed()
+  }
+
+  private fun enqueue(item: Any) {
+    val start = System.nanoTime()
+    buildTimer.onItem(start - lastWriteFinished)
+
+    rethrowIfFailed()
+    while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+      rethrowIfFailed()
+    }
+
+    lastWriteFinished = System.nanoTime()
+    buildTimer.onWait(lastWriteFinished - start)
+  }
+
+  private fun drain() {
+    try {
+      while (true) {
+        val waitStart = System.nanoTime()
+        val item = queue.take()
+        val busyStart = System.nanoTime()
+        serializeTimer.onWait(busyStart - waitStart)
+
+        if (item === END) {
+          break
+        }
+
+        when (item) {
+          is BackupInfo -> delegate.write(item)
+          is Frame -> delegate.write(item)
+        }
+
+        serializeTimer.onItem(System.nanoTime() - busyStart)
+      }
+    } catch (e: Throwable) {
+      error.set(e)
+    } finally {
+      drained.countDown()
+    }
+  }
+
+  /**
+   * Waits for the drain task to finish, even if we're interrupted, since [close] can't let anything else happen while it's still writing.
+   */
+  private fun awaitDrained() {
+    var interrupted = false
+    while (true) {
+      try {
+        drained.await()
+        break
+      } catch (e: InterruptedException) {
+        interrupted = true
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt()
+    }
+  }
+
+  private fun rethrowIfFailed() {
+    when (val e = error.get()) {
+      null -> Unit
+      is IOException -> throw e
+      else -> throw IOException(e)
+    }
+  }
+}
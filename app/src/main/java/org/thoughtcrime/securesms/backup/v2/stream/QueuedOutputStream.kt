@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.signal.core.util.concurrent.SignalExecutors
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Hands data off in chunks to a task on [executor], which writes it to [target]. This lets whatever is producing the data (e.g. compression) run
+ * concurrently with whatever [target] does with it (e.g. encryption). Chunks are written to [target] in the order they were produced, so the
+ * output is byte-for-byte identical to writing to [target] directly.
+ *
+ * The hand-off queue is bounded, so a slow [target] will block writers rather than let data pile up in memory. [flush] hands off any buffered
+ * data, but does not wait for it to reach [target]. [close] does.
+ */
+class QueuedOutputStream(
+  private val target: OutputStream,
+  stageName: String,
+  executor: Executor = SignalExecutors.UNBOUNDED,
+  private val chunkSize: Int = DEFAULT_CHUNK_SIZE,
+  queueCapacity: Int = DEFAULT_QUEUE_CAPACITY
+) : OutputStream() {
+
+  companion object {
+    private const val DEFAULT_CHUNK_SIZE = 64 * 1024
+    private const val DEFAULT_QUEUE_CAPACITY = 8
+
+    private val END = ByteArray(0)
+  }
+
+  internal val timer = ExportStageTimer(stageName)
+
+  private val queue: BlockingQueue<ByteArray> = ArrayBlockingQueue(queueCapacity)
+  private val error = AtomicReference<Throwable?>(null)
+  private val drained = CountDownLatch(1)
+
+  private var buffer = ByteArray(chunkSize)
+  private var position = 0
+  private var closed = false
+
+  init {
+    executor.execute(::drain)
+  }
+
+  override fun write(b: Int) {
+    buffer[position++] = b.toByte()
+
+    if (position == chunkSize) {
+      flushChunk()
+    }
+  }
+
+  override fun write(b: ByteArray, off: Int, len: Int) {
+    var offset = off
+    var remaining = len
+
+    while (remaining > 0) {
+      val count = minOf(remaining, chunkSize - position)
+      System.arraycopy(b, offset, buffer, position, count)
+
+      position += count
+      offset += count
+      remaining -= count
+
+      if (position == chunkSize) {
+        flushChunk()
+      }
+    }
+  }
+
+  override fun flush() {
+    flushChunk()
+  }
+
+  override fun close() {
+    if (closed) {
+      return
+    }
+    closed = true
+
+    try {
+      flushChunk()
+      enqueue(END)
+    } catch (e: Throwable) {
+      // Drop whatever is still queued, so the drain finishes after the chunk it's on
+      queue.clear()
+      queue.offer(END)
+      throw e
+    } finally {
+      awaitDrained()
+    }
+
+    rethrowIfFailed()
+    target.close()
+  }
+
+  private fun flushChunk() {
+    if (position == 0) {
+      return
+    }
+
+    val chunk = if (position == chunkSize) buffer else buffer.copyOf(position)
+    buffer = ByteArray(chunkSize)
+    position = 0
+
+    enqueue(chunk)
+  }
+
+  private fun enqueue(chunk: ByteArray) {
+    rethrowIfFailed()
+
+    while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+      rethrowIfFailed()
+    }
+  }
+
+  private fun drain() {
+    try {
+      while (true) {
+        val waitStart = System.nanoTime()
+        val chunk = queue.take()
+        val busyStart = System.nanoTime()
+        timer.onWait(busyStart - waitStart)
+
+        if (chunk === END) {
+          break
+        }
+
+        target.write(chunk)
+        timer.onItem(System.nanoTime() - busyStart)
+      }
+    } catch (e: Throwable) {
+      error.set(e)
+    } finally {
+      drained.countDown()
+    }
+  }
+
+  /**
+   * Waits for the drain task to finish, even if we're interrupted, since [close] can't let anything else happen while it's still writing.
+   */
+  private fun awaitDrained() {
+    var interrupted = false
+    while (true) {
+      try {
+        drained.await()
+        break
+      } catch (e: InterruptedException) {
+        interrupted = true
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt()
+    }
+  }
+
+  private fun rethrowIfFailed() {
+    when (val e = error.get()) {
+      null -> Unit
+      is IOException -> throw e
+      else -> throw IOException(e)
+    }
+  }
+}
@@ -239,6 +239,16 @@ public class EmojiProvider {
     }
 
     if (!jumboEmoji || bitmap == null) {
+      EmojiPageCache.RegionResult regionResult = EmojiPageCache.INSTANCE.loadRegion(context, drawInfo.getPage(), drawable.getEmojiBounds(), lowMemoryDecodeScale);
+
+      if (regionResult instanceof EmojiPageCache.RegionResult.Page) {
+        drawable.setBitmap(((EmojiPageCache.RegionResult.Page) regionResult).getBitmap());
+        return drawable;
+      } else if (regionResult instanceof EmojiPageCache.RegionResult.Glyph) {
+        drawable.setSingleBitmap(((EmojiPageCache.RegionResult.Glyph) regionResult).getBitmap());
+        return drawable;
+      }
+
       EmojiPageCache.LoadResult loadResult = EmojiPageCache.INSTANCE.load(context, drawInfo.getPage(), lowMemoryDecodeScale);
 
       if (loadResult instanceof EmojiPageCache.LoadResult.Immediate) {
@@ -296,6 +306,13 @@ public class EmojiProvider {
                                   yStart + glyphHeight - 1);
     }
 
+    /**
+     * Where this emoji is within its page, in the coordinates of the decoded page bitmap.
+     */
+    @NonNull Rect getEmojiBounds() {
+      return emojiBounds;
+    }
+
     @Override
     public void draw(@NonNull Canvas canvas) {
       if (bmp == null) {
@@ -36,6 +36,7 @@ import org.thoughtcrime.securesms.database.OneTimePreKeyTable
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.database.model.InAppPaymentSubscriberRecord
 import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.glide.cache.EncryptedSegmentCache
 import org.thoughtcrime.securesms.jobmanager.JobTracker
 import org.thoughtcrime.securesms.jobs.DownloadLatestEmojiDataJob
 import org.thoughtcrime.securesms.jobs.EmojiSearchIndexDownloadJob
@@ -54,6 +55,7 @@ import org.thoughtcrime.securesms.payments.DataExportUtil
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.storage.StorageSyncHelper
 import org.thoughtcrime.securesms.util.ConversationUtil
+import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.Util
 import org.thoughtcrime.securesms.util.adapter.mapping.MappingAdapter
 import org.thoughtcrime.securesms.util.navigation.safeNavigate
@@ -196,6 +198,30 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
         }
       )
 
+      clickPref(
+        title = DSLSettingsText.from("Recipient cache stats"),
+        summary = DSLSettingsText.from("Show hit/miss/eviction counts for the in-memory recipient cache."),
+        onClick = {
+          MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Recipient cache")
+            .setMessage(AppDependencies.recipientCache.stats.toString())
+            .setPositiveButton(android.R.string.ok, null)
+            .show()
+        }
+      )
+
+      clickPref(
+        title = DSLSettingsText.from("Image cache segment stats"),
+        summary = DSLSettingsText.from("Show hit/miss/byte counts for the memory-mapped thumbnail and avatar cache."),
+        onClick = {
+          MaterialAlertDialogBuilder(requireContext())
+            .setTitle("Image cache segment")
+            .setMessage(if (RemoteConfig.glideSegmentCache) EncryptedSegmentCache.getInstance(requireContext()).stats.toString() else "Disabled by remote config.")
+            .setPositiveButton(android.R.string.ok, null)
+            .show()
+        }
+      )
+
       clickPref(
         title = DSLSettingsText.from("Log dump PreKey ServiceId-KeyIds"),
         onClick = {
@@ -153,7 +153,8 @@ class ConversationRepository(
 
       ConversationThreadState(
         items = PagedData.createForObservable(dataSource, config),
-        meta = metadata
+        meta = metadata,
+        dataSource = dataSource
       )
     }.subscribeOn(Schedulers.io())
   }
@@ -31,6 +31,7 @@ import io.reactivex.rxjava3.subjects.PublishSubject
 import io.reactivex.rxjava3.subjects.Subject
 import org.signal.core.util.concurrent.subscribeWithSubject
 import org.signal.core.util.orNull
+import org.signal.paging.DataChanges
 import org.signal.paging.ProxyPagingController
 import org.thoughtcrime.securesms.components.reminder.Reminder
 import org.thoughtcrime.securesms.contactshare.Contact
@@ -209,17 +210,27 @@ class ConversationViewModel(
     disposables += conversationThreadState.flatMapObservable { threadState ->
       Observable.create<Unit> { emitter ->
         val controller = threadState.items.controller
+        val dataSource = threadState.dataSource
         val messageUpdateObserver = DatabaseObserver.MessageObserver {
+          dataSource.onMessageChanged(it.id)
           controller.onDataItemChanged(ConversationElementKey.forMessage(it.id))
         }
         val messageInsertObserver = DatabaseObserver.MessageObserver {
-          controller.onDataItemInserted(ConversationElementKey.forMessage(it.id), 0)
+          val neighbourId = dataSource.onMessageInserted(it.id)
+          val changes = DataChanges.Builder<ConversationElementKey>().insert(ConversationElementKey.forMessage(it.id), 0)
+
+          if (neighbourId != null) {
+            changes.change(ConversationElementKey.forMessage(neighbourId))
+          }
+
+          controller.onDataChanged(changes.build())
         }
         val conversationObserver = DatabaseObserver.Observer {
+          dataSource.onConversationChanged()
           controller.onDataInvalidated()
         }
 
-        AppDependencies.databaseObserver.registerMessageUpdateObserver(messageUpdateObserver)
+        AppDependencies.databaseObserver.registerMessageUpdateObserver(threadId, messageUpdateObserver)
         AppDependencies.databaseObserver.registerMessageInsertObserver(threadId, messageInsertObserver)
         AppDependencies.databaseObserver.registerConversationObserver(threadId, conversationObserver)
 
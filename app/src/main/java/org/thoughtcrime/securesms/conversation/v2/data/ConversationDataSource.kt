@@ -7,6 +7,8 @@ package org.thoughtcrime.securesms.conversation.v2.data
 
 import android.content.Context
 import org.signal.core.util.Stopwatch
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.logging.Log
 import org.signal.core.util.toInt
 import org.signal.paging.PagedDataSource
@@ -26,6 +28,11 @@ import org.thoughtcrime.securesms.messagerequests.MessageRequestRepository
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.adapter.mapping.MappingModel
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.max
+import kotlin.math.min
 
 private typealias ConversationElement = MappingModel<*>
 
@@ -60,12 +67,25 @@ class ConversationDataSource(
   companion object {
     private val TAG = Log.tag(ConversationDataSource::class.java)
     private const val THREAD_HEADER_COUNT = 1
+
+    /** A handful of pages at the default page size, which is plenty to cover the loaded window plus a page read ahead on each side. */
+    private const val CACHE_SIZE = 500
+
+    private val READ_AHEAD_EXECUTOR: Executor = SignalExecutors.newCachedSingleThreadExecutor("signal-conversation-read-ahead", ThreadUtil.PRIORITY_BACKGROUND_THREAD)
   }
 
   init {
     check(threadId > 0)
   }
 
+  private val cache = ConversationPageCache<ConversationElement>(CACHE_SIZE)
+  private val pendingReadAhead = AtomicReference<IntRange?>()
+
+  private val newestMessageId = AtomicLong(-1)
+
+  @Volatile
+  private var lastLoadStart: Int = -1
+
   private val threadRecipient: Recipient by lazy {
     SignalDatabase.threads.getRecipientForThreadId(threadId)!!
   }
@@ -96,41 +116,140 @@ class ConversationDataSource(
 
   override fun load(start: Int, length: Int, totalSize: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<ConversationElement> {
     val stopwatch = Stopwatch(title = "load($start, $length), thread $threadId", decimalPlaces = 2)
-    var records: MutableList<MessageRecord> = ArrayList(length)
+    val generation = cache.currentGeneration()
+
+    // Nothing can hit in an empty cache, so skip looking up the page's ids and read it straight away
+    val messageIds: List<Long>? = if (cache.isEmpty()) null else SignalDatabase.messages.getConversationMessageIds(threadId, start.toLong(), length.toLong())
+    val cached: Map<Long, ConversationElement> = if (messageIds != null) cache.getAll(messageIds) else emptyMap()
+    stopwatch.split("cache")
+
+    var pageIds: List<Long> = messageIds ?: emptyList()
+    val records: MutableList<MessageRecord> = ArrayList(length)
+
+    if (messageIds == null || cached.size < messageIds.size) {
+      pageIds = readPage(start, length, cancellationSignal) { record -> if (!cached.containsKey(record.id)) records.add(record) }
+    }
+
+    // An insert that raced with this read will have already moved the newest id on
+    if (start == 0 && generation == cache.currentGeneration()) {
+      newestMessageId.set(pageIds.firstOrNull() ?: -1)
+    }
+
+    val inMemoryRecords: MutableList<MessageRecord> = ArrayList(2)
+
+    if (messageRequestData.isHidden && (start + length >= totalSize)) {
+      inMemoryRecords.add(RemovedContactHidden(threadId))
+    }
+
+    if (showUniversalExpireTimerUpdate) {
+      inMemoryRecords.add(UniversalExpireTimerUpdate(threadId))
+    }
+
+    stopwatch.split("messages")
+
+    val built: BuiltElements = buildElements(records + inMemoryRecords, stopwatch)
+    val builtById: MutableMap<Long, ConversationElement> = HashMap(records.size)
+
+    records.forEachIndexed { i, record ->
+      builtById[record.id] = built.elements[i]
+      cache.put(generation, record.id, built.elements[i])
+    }
+
+    val messages: List<ConversationElement> = pageIds.mapNotNull { cached[it] ?: builtById[it] } + built.elements.subList(records.size, built.elements.size)
+
+    val threadHeaderIndex = totalSize - THREAD_HEADER_COUNT
+
+    val threadHeaders: List<ConversationElement> = if (start + length > threadHeaderIndex) {
+      listOf(loadThreadHeader())
+    } else {
+      emptyList()
+    }
+
+    stopwatch.split("header")
+
+    scheduleReadAhead(start, length, totalSize)
+
+    val log = stopwatch.stopAndGetLogString()
+    Log.d(TAG, "$log || ${built.timeLog} || cached: ${cached.size}/${pageIds.size}, ${cache.getStats()}")
+
+    return if (threadHeaders.isNotEmpty()) messages + threadHeaders else messages
+  }
+
+  /**
+   * Called when a message is reported as changed, so that the cached copy isn't used again.
+   */
+  fun onMessageChanged(messageId: Long) {
+    cache.remove(messageId)
+  }
+
+  /**
+   * Called when a message is inserted at the bottom of the conversation. The message that was previously newest now has a neighbour, which
+   * changes how it's grouped and whether a date divider sits between them, so its cached copy is evicted too.
+   *
+   * @return The id of the evicted neighbour, or null if we didn't know of one.
+   */
+  fun onMessageInserted(messageId: Long): Long? {
+    val neighbourId = newestMessageId.getAndSet(messageId)
+
+    if (neighbourId <= 0 || neighbourId == messageId) {
+      return null
+    }
+
+    cache.remove(neighbourId)
+    return neighbourId
+  }
+
+  /**
+   * Called when the conversation changes in a way that isn't tied to specific messages. Since any row might be different, nothing that's
+   * cached can be used again.
+   */
+  fun onConversationChanged() {
+    cache.clear()
+  }
+
+  /**
+   * Reads the messages in the given range, passing each to [onRecord].
+   *
+   * @return The ids of every message read, in order.
+   */
+  private fun readPage(start: Int, length: Int, cancellationSignal: PagedDataSource.CancellationSignal?, onRecord: (MessageRecord) -> Unit): List<Long> {
+    val ids: MutableList<Long> = ArrayList(length)
 
     MessageTable.mmsReaderFor(SignalDatabase.messages.getConversation(threadId, start.toLong(), length.toLong()))
       .use { reader ->
         reader.forEach { record ->
-          if (cancellationSignal.isCanceled) {
+          if (cancellationSignal?.isCanceled == true) {
             return@forEach
           }
 
-          records.add(record)
+          ids += record.id
+          onRecord(record)
         }
       }
 
-    if (messageRequestData.isHidden && (start + length >= totalSize)) {
-      records.add(RemovedContactHidden(threadId))
-    }
+    return ids
+  }
 
-    if (showUniversalExpireTimerUpdate) {
-      records.add(UniversalExpireTimerUpdate(threadId))
+  /**
+   * Fetches the associated data for [records] and turns them into elements, in the same order.
+   */
+  private fun buildElements(records: List<MessageRecord>, stopwatch: Stopwatch): BuiltElements {
+    if (records.isEmpty()) {
+      return BuiltElements(emptyList(), null)
     }
 
-    stopwatch.split("messages")
-
     val extraData = MessageDataFetcher.fetch(records)
     stopwatch.split("extra-data")
 
-    records = MessageDataFetcher.updateModelsWithData(records, extraData).toMutableList()
+    val updatedRecords = MessageDataFetcher.updateModelsWithData(records, extraData)
     stopwatch.split("models")
 
     if (RemoteConfig.messageBackups && SignalStore.backup.restoreState.inProgress) {
-      BackupRestoreManager.prioritizeAttachmentsIfNeeded(records)
+      BackupRestoreManager.prioritizeAttachmentsIfNeeded(updatedRecords)
       stopwatch.split("restore")
     }
 
-    val messages = records.map { record ->
+    val elements = updatedRecords.map { record ->
       ConversationMessageFactory.createWithUnresolvedData(
         localContext,
         record,
@@ -143,19 +262,56 @@ class ConversationDataSource(
 
     stopwatch.split("conversion")
 
-    val threadHeaderIndex = totalSize - THREAD_HEADER_COUNT
+    return BuiltElements(elements, extraData.timeLog)
+  }
 
-    val threadHeaders: List<ConversationElement> = if (start + length > threadHeaderIndex) {
-      listOf(loadThreadHeader())
-    } else {
-      emptyList()
+  /**
+   * Builds the page after [start] in the direction we've been scrolling, so it's already in the cache when it's requested. Only the most
+   * recent request is kept, since older ones are likely out of view by the time they'd run.
+   */
+  private fun scheduleReadAhead(start: Int, length: Int, totalSize: Int) {
+    val previousStart = lastLoadStart
+    lastLoadStart = start
+
+    if (previousStart == -1 || previousStart == start) {
+      return
     }
 
-    stopwatch.split("header")
-    val log = stopwatch.stopAndGetLogString()
-    Log.d(TAG, "$log || ${extraData.timeLog}")
+    val readAheadStart = if (start > previousStart) start + length else max(0, start - length)
+    val readAheadEnd = if (start > previousStart) min(start + length * 2, totalSize - THREAD_HEADER_COUNT) else start
 
-    return if (threadHeaders.isNotEmpty()) messages + threadHeaders else messages
+    if (readAheadEnd <= readAheadStart) {
+      return
+    }
+
+    pendingReadAhead.set(readAheadStart until readAheadEnd)
+    READ_AHEAD_EXECUTOR.execute {
+      val range: IntRange = pendingReadAhead.getAndSet(null) ?: return@execute
+      readAhead(range.first, range.last - range.first + 1)
+    }
+  }
+
+  private fun readAhead(start: Int, length: Int) {
+    val stopwatch = Stopwatch(title = "readAhead($start, $length), thread $threadId", decimalPlaces = 2)
+    val generation = cache.currentGeneration()
+
+    // As in load(), an empty cache means every row is missing, so there's nothing to gain from looking up the ids first
+    val missing: Set<Long>? = if (cache.isEmpty()) null else cache.getMissing(SignalDatabase.messages.getConversationMessageIds(threadId, start.toLong(), length.toLong())).toSet()
+    stopwatch.split("cache")
+
+    if (missing != null && missing.isEmpty()) {
+      Log.d(TAG, "${stopwatch.stopAndGetLogString()} || Already cached.")
+      return
+    }
+
+    val records: MutableList<MessageRecord> = ArrayList(missing?.size ?: length)
+    readPage(start, length, null) { record -> if (missing == null || missing.contains(record.id)) records.add(record) }
+    stopwatch.split("messages")
+
+    val built: BuiltElements = buildElements(records, stopwatch)
+    records.forEachIndexed { i, record -> cache.put(generation, record.id, built.elements[i]) }
+
+    Log.d(TAG, "${stopwatch.stopAndGetLogString()} || ${built.timeLog} || read ahead: ${records.size}")
   }
 
   override fun load(key: ConversationElementKey): ConversationElement? {
@@ -169,6 +325,7 @@ class ConversationDataSource(
     }
 
     val stopwatch = Stopwatch(title = "load($key), thread $threadId", decimalPlaces = 2)
+    val generation = cache.currentGeneration()
     var record = SignalDatabase.messages.getMessageRecordOrNull(key.id)
 
     if ((record as? MmsMessageRecord)?.parentStoryId?.isGroupReply() == true) {
@@ -193,7 +350,7 @@ class ConversationDataSource(
         record = MessageDataFetcher.updateModelWithData(record, extraData)
         stopwatch.split("models")
 
-        return ConversationMessageFactory.createWithUnresolvedData(
+        val element = ConversationMessageFactory.createWithUnresolvedData(
           localContext,
           record,
           record.getDisplayBody(AppDependencies.application),
@@ -201,6 +358,9 @@ class ConversationDataSource(
           extraData.hasBeenQuoted.contains(record.id),
           threadRecipient
         ).toMappingModel()
+
+        cache.put(generation, record.id, element)
+        return element
       }
     } finally {
       val log = stopwatch.stopAndGetLogString()
@@ -220,6 +380,8 @@ class ConversationDataSource(
     return ThreadHeader(messageRequestRepository.getRecipientInfo(threadRecipient.id, threadId))
   }
 
+  private class BuiltElements(val elements: List<ConversationElement>, val timeLog: String?)
+
   private fun ConversationMessage.toMappingModel(): MappingModel<*> {
     return if (messageRecord.isUpdate) {
       ConversationUpdate(this)
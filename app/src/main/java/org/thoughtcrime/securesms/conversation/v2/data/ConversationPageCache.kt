@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.conversation.v2.data
+
+/**
+ * Holds built conversation elements by message id, so that rows that have already been loaded (or read ahead) don't need to be queried
+ * and built again when their page is next requested.
+ *
+ * Entries are only as fresh as what we're told about them: [remove] must be called for every message that's reported as changed, and
+ * [clear] whenever the conversation changes in a way that isn't tied to specific messages. Both of these start a new generation, and a
+ * [put] for an element that was built during an older generation is ignored, so a load that raced with a change can't put stale data back.
+ */
+class ConversationPageCache<E : Any>(private val maxSize: Int) {
+
+  private val entries: LinkedHashMap<Long, E> = object : LinkedHashMap<Long, E>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, E>?): Boolean {
+      return size > maxSize
+    }
+  }
+
+  private var generation: Long = 0
+  private var hits: Long = 0
+  private var misses: Long = 0
+
+  /**
+   * Capture this before reading from the database, and pass it to [put] along with whatever was built from what was read.
+   */
+  @Synchronized
+  fun currentGeneration(): Long {
+    return generation
+  }
+
+  /**
+   * @return The cached elements for whichever of [messageIds] are present. Counts towards the hit rate.
+   */
+  @Synchronized
+  fun getAll(messageIds: Collection<Long>): Map<Long, E> {
+    val found: MutableMap<Long, E> = HashMap(messageIds.size)
+
+    for (id in messageIds) {
+      val element = entries[id]
+      if (element != null) {
+        found[id] = element
+      }
+    }
+
+    hits += found.size
+    misses += messageIds.size - found.size
+
+    return found
+  }
+
+  /**
+   * @return Whichever of [messageIds] are not in the cache. Unlike [getAll], this doesn't count towards the hit rate.
+   */
+  @Synchronized
+  fun getMissing(messageIds: Collection<Long>): List<Long> {
+    return messageIds.filterNot { entries.containsKey(it) }
+  }
+
+  /**
+   * When this is true a page can't have any hits, so there's no point looking up which ids it holds before reading it.
+   */
+  @Synchronized
+  fun isEmpty(): Boolean {
+    return entries.isEmpty()
+  }
+
+  @Synchronized
+  fun put(generation: Long, messageId: Long, element: E) {
+    if (generation == this.generation) {
+      entries[messageId] = element
+    }
+  }
+
+  @Synchronized
+  fun remove(messageId: Long) {
+    generation++
+    entries.remove(messageId)
+  }
+
+  @Synchronized
+  fun clear() {
+    generation++
+    entries.clear()
+  }
+
+  @Synchronized
+  fun getStats(): Stats {
+    return Stats(hits = hits, misses = misses, size = entries.size)
+  }
+
+  data class Stats(val hits: Long, val misses: Long, val size: Int) {
+    val hitRate: Float
+      get() = if (hits + misses > 0) hits.toFloat() / (hits + misses) else 0f
+
+    override fun toString(): String {
+      return "hits: $hits, misses: $misses, hit-rate: ${"%.2f".format(hitRate)}, size: $size"
+    }
+  }
+}
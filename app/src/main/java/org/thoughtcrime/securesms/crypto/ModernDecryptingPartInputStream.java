@@ -4,6 +4,8 @@ package org.thoughtcrime.securesms.crypto;
 import androidx.annotation.NonNull;
 
 import org.signal.core.util.Conversions;
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
+import org.whispersystems.signalservice.internal.crypto.PooledCipherInputStream;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,12 +13,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -42,33 +40,37 @@ public class ModernDecryptingPartInputStream {
   }
 
   private static InputStream createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull InputStream inputStream, long offset) throws IOException {
-    try {
-      Mac mac  = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+    byte[] iv        = new byte[16];
+    int    remainder = (int) (offset % 16);
+    Conversions.longTo4ByteArray(iv, 12, offset / 16);
 
-      byte[] iv        = new byte[16];
-      int    remainder = (int) (offset % 16);
-      Conversions.longTo4ByteArray(iv, 12, offset / 16);
+    byte[] key    = ModernEncryptingPartOutputStream.deriveKey(attachmentSecret, random);
+    Cipher cipher = CryptoInstancePool.AES_CTR.acquire();
 
-      byte[] key    = mac.doFinal(random);
-      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    try {
       cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    }
+
+    PooledCipherInputStream cipherInputStream = new PooledCipherInputStream(inputStream, CryptoInstancePool.AES_CTR, cipher);
 
+    try {
       long skipped = inputStream.skip(offset - remainder);
 
       if (skipped != offset - remainder) {
         throw new IOException("Skip failed: " + skipped + " vs " + (offset - remainder));
       }
 
-      CipherInputStream cipherInputStream = new CipherInputStream(inputStream, cipher);
-      byte[]            remainderBuffer   = new byte[remainder];
+      byte[] remainderBuffer = new byte[remainder];
 
       readFully(cipherInputStream, remainderBuffer);
-
-      return cipherInputStream;
-    } catch (NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException e) {
-      throw new AssertionError(e);
+    } catch (IOException e) {
+      cipherInputStream.close();
+      throw e;
     }
+
+    return cipherInputStream;
   }
 
   private static void readFully(InputStream in, byte[] buffer) throws IOException {
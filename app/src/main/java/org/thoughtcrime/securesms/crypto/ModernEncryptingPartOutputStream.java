@@ -5,19 +5,19 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
+import org.whispersystems.signalservice.internal.crypto.PooledCipherOutputStream;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -28,30 +28,42 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public class ModernEncryptingPartOutputStream {
 
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
   public static Pair<byte[], OutputStream> createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull File file, boolean inline)
       throws IOException
   {
     byte[] random = new byte[32];
-    new SecureRandom().nextBytes(random);
+    SECURE_RANDOM.nextBytes(random);
+
+    byte[] key    = deriveKey(attachmentSecret, random);
+    Cipher cipher = CryptoInstancePool.AES_CTR.acquire();
 
     try {
-      Mac mac = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(new byte[16]));
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    }
 
-      FileOutputStream fileOutputStream = new FileOutputStream(file);
-      byte[]           iv               = new byte[16];
-      byte[]           key              = mac.doFinal(random);
+    FileOutputStream fileOutputStream = new FileOutputStream(file);
 
-      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    if (inline) {
+      fileOutputStream.write(random);
+    }
+
+    return new Pair<>(random, new PooledCipherOutputStream(fileOutputStream, CryptoInstancePool.AES_CTR, cipher));
+  }
 
-      if (inline) {
-        fileOutputStream.write(random);
-      }
+  static byte[] deriveKey(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random) {
+    Mac mac = CryptoInstancePool.HMAC_SHA256.acquire();
 
-      return new Pair<>(random, new CipherOutputStream(fileOutputStream, cipher));
-    } catch (NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException e) {
+    try {
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+      return mac.doFinal(random);
+    } catch (InvalidKeyException e) {
       throw new AssertionError(e);
+    } finally {
+      CryptoInstancePool.HMAC_SHA256.release(mac);
     }
   }
 
@@ -19,6 +19,7 @@ public enum ReentrantSessionLock implements SignalSessionLock {
     return LOCK::unlock;
   }
 
+  @Override
   public boolean isHeldByCurrentThread() {
     return LOCK.isHeldByCurrentThread();
   }
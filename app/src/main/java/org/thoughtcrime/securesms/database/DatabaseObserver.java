@@ -65,6 +65,7 @@ public class DatabaseObserver {
   private final Set<Observer>                      stickerPackObservers;
   private final Set<Observer>                      attachmentObservers;
   private final Set<MessageObserver>               messageUpdateObservers;
+  private final Map<Long, Set<MessageObserver>>    threadMessageUpdateObservers;
   private final Map<Long, Set<MessageObserver>>    messageInsertObservers;
   private final Set<Observer>                      notificationProfileObservers;
   private final Map<RecipientId, Set<Observer>>    storyObservers;
@@ -86,6 +87,7 @@ public class DatabaseObserver {
     this.stickerPackObservers         = new HashSet<>();
     this.attachmentObservers          = new HashSet<>();
     this.messageUpdateObservers       = new HashSet<>();
+    this.threadMessageUpdateObservers = new HashMap<>();
     this.messageInsertObservers       = new HashMap<>();
     this.notificationProfileObservers = new HashSet<>();
     this.storyObservers               = new HashMap<>();
@@ -161,6 +163,15 @@ public class DatabaseObserver {
     });
   }
 
+  /**
+   * Like {@link #registerMessageUpdateObserver(MessageObserver)}, but only hears about messages in the given thread when the writer knows it.
+   */
+  public void registerMessageUpdateObserver(long threadId, @NonNull MessageObserver listener) {
+    executor.execute(() -> {
+      registerMapped(threadMessageUpdateObservers, threadId, listener);
+    });
+  }
+
   public void registerMessageInsertObserver(long threadId, @NonNull MessageObserver listener) {
     executor.execute(() -> {
       registerMapped(messageInsertObservers, threadId, listener);
@@ -224,6 +235,7 @@ public class DatabaseObserver {
   public void unregisterObserver(@NonNull MessageObserver listener) {
     executor.execute(() -> {
       messageUpdateObservers.remove(listener);
+      unregisterMapped(threadMessageUpdateObservers, listener);
       unregisterMapped(messageInsertObservers, listener);
     });
   }
@@ -313,9 +325,25 @@ public class DatabaseObserver {
     });
   }
 
+  /**
+   * Without a thread id we can't tell which thread-scoped observers care, so all of them are told.
+   */
   public void notifyMessageUpdateObservers(@NonNull MessageId messageId) {
     runPostSuccessfulTransaction(KEY_MESSAGE_UPDATE + messageId.toString(), () -> {
       messageUpdateObservers.stream().forEach(l -> l.onMessageChanged(messageId));
+      threadMessageUpdateObservers.values().stream().flatMap(Set::stream).forEach(l -> l.onMessageChanged(messageId));
+    });
+  }
+
+  public void notifyMessageUpdateObservers(long threadId, @NonNull MessageId messageId) {
+    runPostSuccessfulTransaction(KEY_MESSAGE_UPDATE + messageId.toString(), () -> {
+      messageUpdateObservers.stream().forEach(l -> l.onMessageChanged(messageId));
+
+      Set<MessageObserver> listeners = threadMessageUpdateObservers.get(threadId);
+
+      if (listeners != null) {
+        listeners.stream().forEach(l -> l.onMessageChanged(messageId));
+      }
     });
   }
 
@@ -279,6 +279,28 @@ class JobDatabase(
       .run()
   }
 
+  /**
+   * Marks many jobs as running in a single transaction. Keys are job ids, values are the times at which each job started running.
+   */
+  @Synchronized
+  fun markJobsAsRunning(runTimesById: Map<String, Long>) {
+    if (runTimesById.isEmpty()) {
+      return
+    }
+
+    writableDatabase.withinTransaction { db ->
+      for ((id, currentTime) in runTimesById) {
+        db.update(Jobs.TABLE_NAME)
+          .values(
+            Jobs.IS_RUNNING to 1,
+            Jobs.LAST_RUN_ATTEMPT_TIME to currentTime
+          )
+          .where("${Jobs.JOB_SPEC_ID} = ?", id)
+          .run()
+      }
+    }
+  }
+
   @Synchronized
   fun updateJobAfterRetry(id: String, currentTime: Long, runAttempt: Int, nextBackoffInterval: Long, serializedData: ByteArray?) {
     writableDatabase
@@ -6,7 +6,6 @@ import android.database.Cursor
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
 import org.signal.core.util.CursorUtil
-import org.signal.core.util.SqlUtil
 import org.signal.core.util.Stopwatch
 import org.signal.core.util.delete
 import org.signal.core.util.deleteAll
@@ -17,6 +16,7 @@ import org.signal.core.util.logging.Log
 import org.signal.core.util.mebiBytes
 import org.signal.core.util.readToList
 import org.signal.core.util.readToSingleInt
+import org.signal.core.util.readToSingleLong
 import org.signal.core.util.requireLong
 import org.signal.core.util.requireNonNullString
 import org.signal.core.util.select
@@ -58,7 +58,7 @@ class LogDatabase private constructor(
   companion object {
     private val TAG = Log.tag(LogDatabase::class.java)
 
-    private const val DATABASE_VERSION = 4
+    private const val DATABASE_VERSION = 6
     private const val DATABASE_NAME = "signal-logs.db"
 
     @SuppressLint("StaticFieldLeak") // We hold an Application context, not a view context
@@ -88,12 +88,16 @@ class LogDatabase private constructor(
   @get:JvmName("anrs")
   val anrs: AnrTable by lazy { AnrTable(this) }
 
+  @get:JvmName("startupProfiles")
+  val startupProfiles: StartupProfileTable by lazy { StartupProfileTable(this) }
+
   override fun onCreate(db: SQLiteDatabase) {
     Log.i(TAG, "onCreate()")
 
     db.execSQL(LogTable.CREATE_TABLE)
     db.execSQL(CrashTable.CREATE_TABLE)
     db.execSQL(AnrTable.CREATE_TABLE)
+    db.execSQL(StartupProfileTable.CREATE_TABLE)
 
     LogTable.CREATE_INDEXES.forEach { db.execSQL(it) }
     CrashTable.CREATE_INDEXES.forEach { db.execSQL(it) }
@@ -118,6 +122,17 @@ class LogDatabase private constructor(
     if (oldVersion < 4) {
       db.execSQL("CREATE TABLE anr (_id INTEGER PRIMARY KEY, created_at INTEGER NOT NULL, thread_dump TEXT NOT NULL)")
     }
+
+    if (oldVersion < 5) {
+      db.execSQL("ALTER TABLE log ADD COLUMN segment INTEGER DEFAULT 0")
+      // Spread existing logs across segments by age so that upgrading doesn't put them all in a single segment that gets rotated out at once
+      db.execSQL("UPDATE log SET segment = ((_id - (SELECT MIN(_id) FROM log)) * 10) / ((SELECT MAX(_id) FROM log) - (SELECT MIN(_id) FROM log) + 1)")
+      db.execSQL("CREATE INDEX log_segment_keep_longer_index ON log (segment, keep_longer)")
+    }
+
+    if (oldVersion < 6) {
+      db.execSQL("CREATE TABLE startup_profile (_id INTEGER PRIMARY KEY, created_at INTEGER NOT NULL, profile TEXT NOT NULL)")
+    }
   }
 
   override fun onOpen(db: SQLiteDatabase) {
@@ -136,6 +151,7 @@ class LogDatabase private constructor(
       const val KEEP_LONGER = "keep_longer"
       const val BODY = "body"
       const val SIZE = "size"
+      const val SEGMENT = "segment"
 
       const val CREATE_TABLE = """
         CREATE TABLE $TABLE_NAME (
@@ -143,39 +159,73 @@ class LogDatabase private constructor(
           $CREATED_AT INTEGER, 
           $KEEP_LONGER INTEGER DEFAULT 0,
           $BODY TEXT,
-          $SIZE INTEGER
+          $SIZE INTEGER,
+          $SEGMENT INTEGER DEFAULT 0
         )
       """
 
       val CREATE_INDEXES = arrayOf(
         "CREATE INDEX keep_longer_index ON $TABLE_NAME ($KEEP_LONGER)",
-        "CREATE INDEX log_created_at_keep_longer_index ON $TABLE_NAME ($CREATED_AT, $KEEP_LONGER)"
+        "CREATE INDEX log_created_at_keep_longer_index ON $TABLE_NAME ($CREATED_AT, $KEEP_LONGER)",
+        "CREATE INDEX log_segment_keep_longer_index ON $TABLE_NAME ($SEGMENT, $KEEP_LONGER)"
       )
 
       val MAX_FILE_SIZE = 20L.mebiBytes.inWholeBytes
       val DEFAULT_LIFESPAN = 3.days.inWholeMilliseconds
       val LONGER_LIFESPAN = 21.days.inWholeMilliseconds
+
+      private const val SEGMENT_COUNT = 10
+      private val SEGMENT_SIZE = MAX_FILE_SIZE / SEGMENT_COUNT
+
+      private const val INSERT_STATEMENT = "INSERT INTO $TABLE_NAME ($CREATED_AT, $KEEP_LONGER, $BODY, $SIZE, $SEGMENT) VALUES (?, ?, ?, ?, ?)"
     }
 
     private val readableDatabase: SQLiteDatabase get() = openHelper.readableDatabase
     private val writableDatabase: SQLiteDatabase get() = openHelper.writableDatabase
 
+    /**
+     * Size of the logs in each segment, oldest first, not counting [KEEP_LONGER] logs. Loaded lazily and then kept up to date in memory, so
+     * that keeping the table under [MAX_FILE_SIZE] doesn't require any size queries.
+     */
+    private var segmentSizes: LinkedHashMap<Long, Long>? = null
+    private var currentSegment = 0L
+
+    /** How much space logs that aren't [KEEP_LONGER] may take up. Recalculated by [trimToSize]. */
+    private var sizeBudget = MAX_FILE_SIZE
+
+    /**
+     * Inserts the logs in a single transaction, reusing one compiled statement for every row. Logs are written into size-bounded segments,
+     * and once the total size is over budget the oldest segment is deleted in one indexed delete.
+     */
+    @Synchronized
     fun insert(logs: List<LogEntry>, currentTime: Long) {
+      val sizes = getSegmentSizes()
+
       writableDatabase.withinTransaction { db ->
-        logs.forEach { log ->
-          db.insertInto(TABLE_NAME)
-            .values(
-              CREATED_AT to log.createdAt,
-              KEEP_LONGER to if (log.keepLonger) 1 else 0,
-              BODY to log.body,
-              SIZE to log.body.length
-            )
-            .run()
+        db.compileStatement(INSERT_STATEMENT).use { statement ->
+          for (log in logs) {
+            if ((sizes[currentSegment] ?: 0L) >= SEGMENT_SIZE) {
+              currentSegment++
+            }
+
+            statement.bindLong(1, log.createdAt)
+            statement.bindLong(2, if (log.keepLonger) 1 else 0)
+            statement.bindString(3, log.body)
+            statement.bindLong(4, log.body.length.toLong())
+            statement.bindLong(5, currentSegment)
+            statement.executeInsert()
+
+            if (!log.keepLonger) {
+              sizes[currentSegment] = (sizes[currentSegment] ?: 0L) + log.body.length
+            }
+          }
         }
 
         db.delete(TABLE_NAME)
           .where("($CREATED_AT < ? AND $KEEP_LONGER = 0) OR ($CREATED_AT < ? AND $KEEP_LONGER = 1)", currentTime - DEFAULT_LIFESPAN, currentTime - LONGER_LIFESPAN)
           .run()
+
+        rotateSegments(db, sizes)
       }
     }
 
@@ -198,8 +248,12 @@ class LogDatabase private constructor(
         .readToList { it.requireNonNullString(BODY) }
     }
 
+    /**
+     * Makes sure the table is under [MAX_FILE_SIZE]. Regular logs are already kept within their budget as they're inserted, so this mostly
+     * accounts for [KEEP_LONGER] logs, which shrink the budget available to everything else.
+     */
+    @Synchronized
     fun trimToSize() {
-      val currentTime = System.currentTimeMillis()
       val stopwatch = Stopwatch("trim")
 
       val sizeOfSpecialLogs: Long = getSize("$KEEP_LONGER = ?", arrayOf("1"))
@@ -207,7 +261,13 @@ class LogDatabase private constructor(
 
       stopwatch.split("keepers-size")
 
+      // Reload sizes from disk so that anything removed outside of rotation (like expired logs) is accounted for
+      segmentSizes = null
+
       if (remainingSize <= 0) {
+        // Only the segment currently being written to will be kept
+        sizeBudget = 0
+
         if (abs(remainingSize) > MAX_FILE_SIZE / 2) {
           // Not only are KEEP_LONGER logs putting us over the storage limit, it's doing it by a lot! Delete half.
           val logCount = readableDatabase.getTableRowCount(TABLE_NAME)
@@ -216,39 +276,17 @@ class LogDatabase private constructor(
           writableDatabase
             .delete(TABLE_NAME)
             .where("$KEEP_LONGER = 0")
+            .run()
         }
         return
       }
 
-      val sizeDiffThreshold = MAX_FILE_SIZE * 0.01
-
-      var lhs: Long = currentTime - DEFAULT_LIFESPAN
-      var rhs: Long = currentTime
-      var mid: Long = 0
-      var sizeOfChunk: Long
-
-      while (lhs < rhs - 2) {
-        mid = (lhs + rhs) / 2
-        sizeOfChunk = getSize("$CREATED_AT > ? AND $CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, currentTime, 0))
-
-        if (sizeOfChunk > remainingSize) {
-          lhs = mid
-        } else if (sizeOfChunk < remainingSize) {
-          if (remainingSize - sizeOfChunk < sizeDiffThreshold) {
-            break
-          } else {
-            rhs = mid
-          }
-        } else {
-          break
-        }
+      sizeBudget = remainingSize
+      writableDatabase.withinTransaction { db ->
+        rotateSegments(db, getSegmentSizes())
       }
 
-      stopwatch.split("binary-search")
-
-      writableDatabase.delete(TABLE_NAME, "$CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, 0))
-
-      stopwatch.split("delete")
+      stopwatch.split("rotate")
       stopwatch.stop(TAG)
     }
 
@@ -268,8 +306,47 @@ class LogDatabase private constructor(
         .run()
     }
 
+    @Synchronized
     fun clearAll() {
       writableDatabase.deleteAll(TABLE_NAME)
+      segmentSizes = null
+    }
+
+    /**
+     * Deletes the oldest segments until the remaining ones fit within [sizeBudget]. The segment currently being written to is never deleted.
+     */
+    private fun rotateSegments(db: SQLiteDatabase, sizes: LinkedHashMap<Long, Long>) {
+      var totalSize = sizes.values.sum()
+
+      while (totalSize > sizeBudget && sizes.size > 1) {
+        val oldest = sizes.keys.first()
+
+        db.delete(TABLE_NAME)
+          .where("$SEGMENT = ? AND $KEEP_LONGER = 0", oldest)
+          .run()
+
+        totalSize -= sizes.remove(oldest)!!
+      }
+    }
+
+    private fun getSegmentSizes(): LinkedHashMap<Long, Long> {
+      segmentSizes?.let { return it }
+
+      val sizes: LinkedHashMap<Long, Long> = LinkedHashMap()
+      readableDatabase.rawQuery("SELECT $SEGMENT, SUM($SIZE) FROM $TABLE_NAME WHERE $KEEP_LONGER = 0 GROUP BY $SEGMENT ORDER BY $SEGMENT", null).use { cursor ->
+        while (cursor.moveToNext()) {
+          sizes[cursor.getLong(0)] = cursor.getLong(1)
+        }
+      }
+
+      currentSegment = readableDatabase
+        .select("MAX($SEGMENT)")
+        .from(TABLE_NAME)
+        .run()
+        .readToSingleLong(0)
+
+      segmentSizes = sizes
+      return sizes
     }
 
     private fun getSize(query: String?, args: Array<String>?): Long {
@@ -499,4 +576,64 @@ class LogDatabase private constructor(
       val threadDump: String
     )
   }
+
+  class StartupProfileTable(private val openHelper: LogDatabase) {
+    companion object {
+      const val TABLE_NAME = "startup_profile"
+      const val ID = "_id"
+      const val CREATED_AT = "created_at"
+      const val PROFILE = "profile"
+
+      private const val MAX_PROFILES = 10
+
+      const val CREATE_TABLE = """
+        CREATE TABLE $TABLE_NAME (
+          $ID INTEGER PRIMARY KEY,
+          $CREATED_AT INTEGER NOT NULL,
+          $PROFILE TEXT NOT NULL
+        )
+      """
+    }
+
+    private val readableDatabase: SQLiteDatabase get() = openHelper.readableDatabase
+    private val writableDatabase: SQLiteDatabase get() = openHelper.writableDatabase
+
+    fun save(startTime: Long, profile: String) {
+      writableDatabase
+        .insertInto(TABLE_NAME)
+        .values(
+          CREATED_AT to startTime,
+          PROFILE to profile
+        )
+        .run()
+
+      writableDatabase
+        .delete(TABLE_NAME)
+        .where(
+          """
+          $ID NOT IN (SELECT $ID FROM $TABLE_NAME ORDER BY $CREATED_AT DESC LIMIT $MAX_PROFILES)
+          """.trimIndent()
+        )
+        .run()
+    }
+
+    fun getAll(): List<StartupProfileRecord> {
+      return readableDatabase
+        .select()
+        .from(TABLE_NAME)
+        .run()
+        .readToList { cursor ->
+          StartupProfileRecord(
+            createdAt = cursor.requireLong(CREATED_AT),
+            profile = cursor.requireNonNullString(PROFILE)
+          )
+        }
+        .sortedBy { it.createdAt }
+    }
+
+    data class StartupProfileRecord(
+      val createdAt: Long,
+      val profile: String
+    )
+  }
 }
@@ -19,6 +19,7 @@ package org.thoughtcrime.securesms.database
 import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
+import android.database.MergeCursor
 import android.text.SpannableString
 import android.text.TextUtils
 import androidx.annotation.VisibleForTesting
@@ -674,7 +675,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   private fun updateTypeBitmask(id: Long, maskOff: Long, maskOn: Long) {
-    writableDatabase.withinTransaction { db ->
+    val threadId = writableDatabase.withinTransaction { db ->
       db.execSQL(
         """
           UPDATE $TABLE_NAME 
@@ -684,11 +685,10 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         buildArgs(id)
       )
 
-      val threadId = getThreadIdForMessage(id)
-      threads.updateSnippetTypeSilently(threadId)
+      getThreadIdForMessage(id).also { threads.updateSnippetTypeSilently(it) }
     }
 
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(id))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(id))
     AppDependencies.databaseObserver.notifyConversationListListeners()
   }
 
@@ -864,7 +864,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     threads.update(threadId, true)
 
     notifyConversationListeners(threadId)
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
   }
 
   fun insertGroupCall(
@@ -1589,6 +1589,24 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return hasSelfReplyInStory(-parentStoryId)
   }
 
+  /**
+   * Bulk version of [hasGroupReplyOrReactionInStory].
+   *
+   * @return The subset of [parentStoryIds] that we've replied to or reacted to.
+   */
+  fun getGroupStoriesWithReplyOrReaction(parentStoryIds: Collection<Long>): Set<Long> {
+    return SqlUtil.buildCollectionQuery(PARENT_STORY_ID, parentStoryIds)
+      .flatMap { query ->
+        readableDatabase
+          .select("DISTINCT $PARENT_STORY_ID")
+          .from(TABLE_NAME)
+          .where("${query.where} AND ($outgoingTypeClause)", query.whereArgs)
+          .run()
+          .readToSet { it.requireLong(PARENT_STORY_ID) }
+      }
+      .toSet()
+  }
+
   fun getOldestStorySendTimestamp(hasSeenReleaseChannelStories: Boolean): Long? {
     val releaseChannelThreadId = getReleaseChannelThreadId(hasSeenReleaseChannelStories)
 
@@ -1838,13 +1856,12 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   /**
-   * Returns the receipt status of the most recent meaningful message in the thread if it matches the provided message ID.
-   * If the ID doesn't match or otherwise can't be found, it will return null.
+   * Returns the receipt status of the most recent meaningful message in the thread, or null if there isn't one.
    *
    * This is a very specific method for use with [ThreadTable.updateReceiptStatus] to improve the perfomance of
    * processing receipts.
    */
-  fun getReceiptStatusIfItsTheMostRecentMeaningfulMessage(messageId: Long, threadId: Long): MessageReceiptStatus? {
+  fun getMostRecentMeaningfulMessageReceiptStatus(threadId: Long): MessageReceiptStatus? {
     val query = buildMeaningfulMessagesQuery(threadId)
 
     return readableDatabase
@@ -1856,11 +1873,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
       .use { cursor ->
         if (cursor.moveToFirst()) {
-          if (cursor.requireLong(ID) != messageId) {
-            return null
-          }
-
-          return MessageReceiptStatus(
+          MessageReceiptStatus(
+            messageId = cursor.requireLong(ID),
             hasDeliveryReceipt = cursor.requireBoolean(HAS_DELIVERY_RECEIPT),
             hasReadReceipt = cursor.requireBoolean(HAS_READ_RECEIPT),
             type = cursor.requireLong(TYPE)
@@ -2018,7 +2032,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   fun markAsRateLimited(messageId: Long) {
     val threadId = getThreadIdForMessage(messageId)
     updateMailboxBitmask(messageId, 0, MessageTypes.MESSAGE_RATE_LIMITED_BIT, Optional.of(threadId))
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
   }
 
   fun clearRateLimitStatus(ids: Collection<Long>) {
@@ -2033,21 +2047,21 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   fun markAsSending(messageId: Long) {
     val threadId = getThreadIdForMessage(messageId)
     updateMailboxBitmask(messageId, MessageTypes.BASE_TYPE_MASK, MessageTypes.BASE_SENDING_TYPE, Optional.of(threadId))
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
     AppDependencies.databaseObserver.notifyConversationListListeners()
   }
 
   fun markAsSentFailed(messageId: Long) {
     val threadId = getThreadIdForMessage(messageId)
     updateMailboxBitmask(messageId, MessageTypes.BASE_TYPE_MASK, MessageTypes.BASE_SENT_FAILED_TYPE, Optional.of(threadId))
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
     AppDependencies.databaseObserver.notifyConversationListListeners()
   }
 
   fun markAsSent(messageId: Long, secure: Boolean) {
     val threadId = getThreadIdForMessage(messageId)
     updateMailboxBitmask(messageId, MessageTypes.BASE_TYPE_MASK, MessageTypes.BASE_SENT_TYPE or if (secure) MessageTypes.PUSH_MESSAGE_BIT or MessageTypes.SECURE_MESSAGE_BIT else 0, Optional.of(threadId))
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
     AppDependencies.databaseObserver.notifyConversationListListeners()
   }
 
@@ -2079,7 +2093,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
   private fun markAsRemoteDeleteInternal(messageId: Long) {
     var deletedAttachments = false
-    writableDatabase.withinTransaction { db ->
+    val threadId = writableDatabase.withinTransaction { db ->
       db.update(TABLE_NAME)
         .values(
           REMOTE_DELETED to 1,
@@ -2103,12 +2117,11 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       deleteGroupStoryReplies(messageId)
       disassociateStoryQuotes(messageId)
 
-      val threadId = getThreadIdForMessage(messageId)
-      threads.update(threadId, false)
+      getThreadIdForMessage(messageId).also { threads.update(it, false) }
     }
 
     OptimizeMessageSearchIndexJob.enqueue()
-    AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+    AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
     AppDependencies.databaseObserver.notifyConversationListListeners()
 
     if (deletedAttachments) {
@@ -2707,7 +2720,13 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     if (notifyObservers) {
-      notifyConversationListeners(threadId)
+      // A plain new message is just one more row at the bottom, so the conversation can patch it in rather than reloading everything
+      if (retrieved.quote == null && retrieved.parentStoryId == null && !retrieved.storyType.isStory && editedMessage == null) {
+        AppDependencies.databaseObserver.notifyMessageInsertObservers(threadId, MessageId(messageId))
+        AppDependencies.databaseObserver.notifyVerboseConversationListeners(setOf(threadId))
+      } else {
+        notifyConversationListeners(threadId)
+      }
     }
 
     if (retrieved.storyType.isStory) {
@@ -2821,7 +2840,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     if (updated) {
-      AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
+      AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadId, MessageId(messageId))
       notifyConversationListeners(threadId)
     }
   }
@@ -3297,7 +3316,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     threads.setLastScrolled(threadId, 0)
 
     val threadDeleted = if (updateThread) {
-      threads.update(threadId, unarchive = false, syncThreadDelete = false)
+      threads.updateNow(threadId, unarchive = false, syncThreadDelete = false)
     } else {
       false
     }
@@ -4325,7 +4344,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     for (update in messageUpdates) {
-      AppDependencies.databaseObserver.notifyMessageUpdateObservers(update.messageId)
+      AppDependencies.databaseObserver.notifyMessageUpdateObservers(update.threadId, update.messageId)
       AppDependencies.databaseObserver.notifyVerboseConversationListeners(setOf(update.threadId))
     }
 
@@ -4353,7 +4372,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     for (threadUpdate in messageUpdates) {
-      AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadUpdate.messageId)
+      AppDependencies.databaseObserver.notifyMessageUpdateObservers(threadUpdate.threadId, threadUpdate.messageId)
     }
 
     return messageUpdates.isNotEmpty()
@@ -4368,7 +4387,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val messageUpdates: MutableSet<MessageReceiptUpdate> = HashSet()
     val missingTargetTimestamps: MutableSet<Long> = HashSet()
 
-    writableDatabase.withinTransaction {
+    threads.withCoalescedUpdates {
       for (targetTimestamp in targetTimestamps) {
         val updates: Set<MessageReceiptUpdate> = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier, stopwatch)
         if (updates.isNotEmpty()) {
@@ -4386,7 +4405,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     for (update in messageUpdates) {
-      AppDependencies.databaseObserver.notifyMessageUpdateObservers(update.messageId)
+      AppDependencies.databaseObserver.notifyMessageUpdateObservers(update.threadId, update.messageId)
       AppDependencies.databaseObserver.notifyVerboseConversationListeners(setOf(update.threadId))
 
       if (messageQualifier == MessageQualifier.STORY) {
@@ -4629,6 +4648,20 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
   }
 
+  /**
+   * The ids of the messages that [getConversation] would return for the same range, in the same order.
+   */
+  fun getConversationMessageIds(threadId: Long, offset: Long, limit: Long): List<Long> {
+    return readableDatabase
+      .select(ID)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
+      .where("$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, 0, 0, -1)
+      .orderBy("$DATE_RECEIVED DESC")
+      .limit("$offset, $limit")
+      .run()
+      .readToList { it.requireLong(ID) }
+  }
+
   /**
    * Returns messages ordered for display in a reverse list (newest first).
    */
@@ -4675,7 +4708,11 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
   }
 
-  fun getMessagesForNotificationState(stickyThreads: Collection<StickyThread>): Cursor {
+  /**
+   * @param threadIds If present, only messages in these threads are returned. Used to refresh the notification state for just the threads
+   *                  that changed. Messages are ordered within each thread, but large sets of threads are read in chunks, so not across them.
+   */
+  fun getMessagesForNotificationState(stickyThreads: Collection<StickyThread>, threadIds: Collection<Long>? = null): Cursor {
     val stickyQuery = StringBuilder()
 
     for ((conversationId, _, earliestTimestamp) in stickyThreads) {
@@ -4694,11 +4731,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         .append(")")
     }
 
-    return readableDatabase
-      .select(*MMS_PROJECTION)
-      .from(TABLE_NAME)
-      .where(
-        """
+    val where = """
         $NOTIFIED = 0 
         AND $STORY_TYPE = 0 
         AND $LATEST_REVISION_ID IS NULL 
@@ -4709,9 +4742,30 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
           OR ($IS_MISSED_CALL_TYPE_CLAUSE AND EXISTS (SELECT 1 FROM ${CallTable.TABLE_NAME} WHERE ${CallTable.MESSAGE_ID} = $TABLE_NAME.$ID AND ${CallTable.EVENT} = ${CallTable.Event.serialize(CallTable.Event.MISSED)} AND ${CallTable.READ} = 0)) 
         )
         """.trimIndent()
-      )
-      .orderBy("$DATE_RECEIVED ASC")
-      .run()
+
+    fun query(where: String, whereArgs: Array<String>): Cursor {
+      return readableDatabase
+        .select(*MMS_PROJECTION)
+        .from(TABLE_NAME)
+        .where(where, whereArgs)
+        .orderBy("$DATE_RECEIVED ASC")
+        .run()
+    }
+
+    if (threadIds == null) {
+      return query(where, emptyArray())
+    }
+
+    // An empty collection produces no queries, but should still match nothing rather than every thread
+    val cursors: List<Cursor> = SqlUtil.buildCollectionQuery(THREAD_ID, threadIds)
+      .ifEmpty { listOf(SqlUtil.Query("0", emptyArray())) }
+      .map { query("($where) AND ${it.where}", it.whereArgs) }
+
+    return if (cursors.size > 1) {
+      MergeCursor(cursors.toTypedArray())
+    } else {
+      cursors[0]
+    }
   }
 
   fun updatePendingSelfData(placeholder: RecipientId, self: RecipientId) {
@@ -5028,6 +5082,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   )
 
   data class MessageReceiptStatus(
+    val messageId: Long,
     val hasReadReceipt: Boolean,
     val hasDeliveryReceipt: Boolean,
     val type: Long
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database
+
+import androidx.annotation.AnyThread
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.ThreadUtil
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Aggregates how long every statement run through [SQLiteDatabase] takes, so we can find the hot queries under real load.
+ *
+ * Statements are grouped by their normalized SQL, which has every literal replaced with `?` and lists of parameters collapsed, so the
+ * aggregate never holds any user data and the same query with different arguments lands in the same bucket. Both the number of distinct
+ * statements and the cache of normalized SQL are bounded, and recording a statement is a couple of map lookups, so this is cheap enough to
+ * leave on in production.
+ */
+object QueryProfiler {
+
+  private const val MAX_STATEMENTS = 500
+  private const val MAX_NORMALIZED_CACHE_SIZE = 1000
+  private const val MAX_CACHED_SQL_LENGTH = 2000
+  private const val SAMPLE_COUNT = 128
+
+  private val LONG_TRANSACTION_NANOS = TimeUnit.MILLISECONDS.toNanos(100)
+  private val OVERFLOW_KEY = StatementKey("", null, "<other>")
+
+  private val PARAMETER_LIST = Regex("""\?(?:\s*,\s*\?)+""")
+  private val REPEATED_GROUP = Regex("""(\([^()]*\))(?:\s*,\s*\1)+""")
+
+  @Volatile
+  @JvmStatic
+  var enabled: Boolean = true
+
+  private val statements: ConcurrentHashMap<StatementKey, StatementStats> = ConcurrentHashMap()
+  private val normalizedCache: ConcurrentHashMap<String, String> = ConcurrentHashMap()
+  private val transactionStart: ThreadLocal<Long> = ThreadLocal()
+  private val transactionStats = TransactionStats()
+
+  /**
+   * Records a statement that has finished running.
+   *
+   * @param method The [SQLiteDatabase] method that ran it, like `query(9)` or `update()`.
+   * @param sql The full SQL, or just the where clause for builder-style calls.
+   * @param rows The number of rows returned, or -1 if the statement doesn't return any.
+   */
+  @AnyThread
+  @JvmStatic
+  fun onStatement(method: String, table: String?, sql: String?, durationNanos: Long, rows: Int) {
+    if (!enabled) {
+      return
+    }
+
+    record(method, table, sql, durationNanos, rows, ThreadUtil.isMainThread(), isInLongTransaction())
+  }
+
+  /**
+   * Call when the outermost transaction on this thread has begun. Nested transactions should not call this.
+   */
+  @AnyThread
+  @JvmStatic
+  fun onTransactionStarted() {
+    if (enabled) {
+      transactionStart.set(System.nanoTime())
+    }
+  }
+
+  /**
+   * Call when the outermost transaction on this thread has ended, whether it succeeded or not.
+   */
+  @AnyThread
+  @JvmStatic
+  fun onTransactionEnded() {
+    val start = transactionStart.get() ?: return
+    transactionStart.remove()
+
+    transactionStats.record(System.nanoTime() - start, ThreadUtil.isMainThread())
+  }
+
+  /**
+   * @return The stats for each statement, slowest in total first.
+   */
+  @AnyThread
+  @JvmStatic
+  fun getStatementStats(): List<StatementSnapshot> {
+    return statements.entries
+      .map { (key, stats) -> stats.snapshot(key.label) }
+      .sortedByDescending { it.totalNanos }
+  }
+
+  @AnyThread
+  @JvmStatic
+  fun getTransactionStats(): TransactionSnapshot {
+    return transactionStats.snapshot()
+  }
+
+  @AnyThread
+  @JvmStatic
+  fun clear() {
+    statements.clear()
+    normalizedCache.clear()
+    transactionStats.clear()
+  }
+
+  @VisibleForTesting
+  internal fun record(method: String, table: String?, sql: String?, durationNanos: Long, rows: Int, mainThread: Boolean, inLongTransaction: Boolean) {
+    val key = StatementKey(method, table, sql?.let { getNormalized(it) } ?: "")
+
+    var stats = statements[key]
+    if (stats == null) {
+      stats = if (statements.size < MAX_STATEMENTS) {
+        statements.computeIfAbsent(key) { StatementStats() }
+      } else {
+        statements.computeIfAbsent(OVERFLOW_KEY) { StatementStats() }
+      }
+    }
+
+    stats.record(durationNanos, rows, mainThread, inLongTransaction)
+  }
+
+  /**
+   * Replaces string, blob and numeric literals with `?`, collapses whitespace, and collapses lists of parameters (like the contents of an
+   * `IN (...)`, or the rows of a multi-row `VALUES`) so their length doesn't matter. Identifiers, including quoted ones, are left alone.
+   */
+  @VisibleForTesting
+  internal fun normalize(sql: String): String {
+    val output = StringBuilder(sql.length)
+    var i = 0
+
+    while (i < sql.length) {
+      val c = sql[i]
+
+      when {
+        c == '\'' -> {
+          i = skipQuoted(sql, i, '\'')
+          if ((output.endsWith("X") || output.endsWith("x")) && !isIdentifierPart(output.getOrNull(output.length - 2))) {
+            output.setLength(output.length - 1)
+          }
+          output.append('?')
+          continue
+        }
+        c == '"' || c == '`' -> {
+          val end = skipQuoted(sql, i, c)
+          output.append(sql, i, end)
+          i = end
+          continue
+        }
+        c == '-' && sql.startsWith("--", i) -> {
+          val end = sql.indexOf('\n', i)
+          i = if (end < 0) sql.length else end
+          appendSpace(output)
+          continue
+        }
+        c.isWhitespace() -> {
+          appendSpace(output)
+        }
+        c.isDigit() && !isIdentifierPart(output.lastOrNull()) && output.lastOrNull() != '?' -> {
+          while (i < sql.length && (sql[i].isLetterOrDigit() || sql[i] == '.')) {
+            i++
+          }
+          output.append('?')
+          continue
+        }
+        else -> {
+          output.append(c)
+        }
+      }
+
+      i++
+    }
+
+    val collapsed = PARAMETER_LIST.replace(output.trim(), "?...")
+    return REPEATED_GROUP.replace(collapsed, "$1, ...")
+  }
+
+  private fun getNormalized(sql: String): String {
+    normalizedCache[sql]?.let { return it }
+
+    if (sql.length > MAX_CACHED_SQL_LENGTH) {
+      return normalize(sql)
+    }
+
+    if (normalizedCache.size >= MAX_NORMALIZED_CACHE_SIZE) {
+      normalizedCache.clear()
+    }
+
+    return normalize(sql).also { normalizedCache[sql] = it }
+  }
+
+  private fun isInLongTransaction(): Boolean {
+    val start = transactionStart.get() ?: return false
+    return System.nanoTime() - start > LONG_TRANSACTION_NANOS
+  }
+
+  /**
+   * @return The index just past the closing quote, treating a doubled quote as an escaped one.
+   */
+  private fun skipQuoted(sql: String, start: Int, quote: Char): Int {
+    var i = start + 1
+
+    while (i < sql.length) {
+      if (sql[i] == quote) {
+        if (i + 1 < sql.length && sql[i + 1] == quote) {
+          i += 2
+          continue
+        }
+        return i + 1
+      }
+      i++
+    }
+
+    return sql.length
+  }
+
+  private fun appendSpace(output: StringBuilder) {
+    if (output.isNotEmpty() && output.last() != ' ') {
+      output.append(' ')
+    }
+  }
+
+  private fun isIdentifierPart(c: Char?): Boolean {
+    return c != null && (c.isLetterOrDigit() || c == '_' || c == '$')
+  }
+
+  private data class StatementKey(val method: String, val table: String?, val sql: String) {
+    val label: String
+      get() = when {
+        table == null -> sql
+        sql.isEmpty() -> "${method.substringBefore('(')} $table"
+        else -> "${method.substringBefore('(')} $table WHERE $sql"
+      }
+  }
+
+  private class StatementStats {
+    private val samples = LongArray(SAMPLE_COUNT)
+
+    private var count: Long = 0
+    private var totalNanos: Long = 0
+    private var maxNanos: Long = 0
+    private var rows: Long = 0
+    private var mainThreadCount: Long = 0
+    private var longTransactionCount: Long = 0
+
+    @Synchronized
+    fun record(durationNanos: Long, rows: Int, mainThread: Boolean, inLongTransaction: Boolean) {
+      samples[(count % SAMPLE_COUNT).toInt()] = durationNanos
+      count++
+      totalNanos += durationNanos
+      maxNanos = maxOf(maxNanos, durationNanos)
+
+      if (rows > 0) {
+        this.rows += rows
+      }
+      if (mainThread) {
+        mainThreadCount++
+      }
+      if (inLongTransaction) {
+        longTransactionCount++
+      }
+    }
+
+    @Synchronized
+    fun snapshot(label: String): StatementSnapshot {
+      val recent = samples.copyOf(minOf(count, SAMPLE_COUNT.toLong()).toInt())
+      recent.sort()
+
+      return StatementSnapshot(
+        statement = label,
+        count = count,
+        totalNanos = totalNanos,
+        p95Nanos = if (recent.isEmpty()) 0 else recent[((recent.size - 1) * 95) / 100],
+        maxNanos = maxNanos,
+        rows = rows,
+        mainThreadCount = mainThreadCount,
+        longTransactionCount = longTransactionCount
+      )
+    }
+  }
+
+  private class TransactionStats {
+    private var count: Long = 0
+    private var longCount: Long = 0
+    private var mainThreadCount: Long = 0
+    private var maxNanos: Long = 0
+
+    @Synchronized
+    fun record(durationNanos: Long, mainThread: Boolean) {
+      count++
+      maxNanos = maxOf(maxNanos, durationNanos)
+
+      if (durationNanos > LONG_TRANSACTION_NANOS) {
+        longCount++
+      }
+      if (mainThread) {
+        mainThreadCount++
+      }
+    }
+
+    @Synchronized
+    fun snapshot(): TransactionSnapshot {
+      return TransactionSnapshot(count, longCount, mainThreadCount, maxNanos)
+    }
+
+    @Synchronized
+    fun clear() {
+      count = 0
+      longCount = 0
+      mainThreadCount = 0
+      maxNanos = 0
+    }
+  }
+
+  data class StatementSnapshot(
+    val statement: String,
+    val count: Long,
+    val totalNanos: Long,
+    val p95Nanos: Long,
+    val maxNanos: Long,
+    val rows: Long,
+    val mainThreadCount: Long,
+    val longTransactionCount: Long
+  ) {
+    val meanNanos: Long
+      get() = if (count > 0) totalNanos / count else 0
+
+    /** Whether this is worth a closer look: it has run on the main thread, or while a transaction was holding the lock for a long time. */
+    val flagged: Boolean
+      get() = mainThreadCount > 0 || longTransactionCount > 0
+  }
+
+  data class TransactionSnapshot(
+    val count: Long,
+    val longCount: Long,
+    val mainThreadCount: Long,
+    val maxNanos: Long
+  ) {
+    override fun toString(): String {
+      return String.format(
+        Locale.US,
+        "Transactions: %d, longer than %d ms: %d, on the main thread: %d, longest: %.1f ms",
+        count,
+        TimeUnit.NANOSECONDS.toMillis(LONG_TRANSACTION_NANOS),
+        longCount,
+        mainThreadCount,
+        maxNanos / 1_000_000.0
+      )
+    }
+  }
+}
@@ -2337,17 +2337,55 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
    */
   fun bulkProcessCdsResult(mapping: Map<String, CdsV2Result>): Set<RecipientId> {
     val ids: MutableSet<RecipientId> = mutableSetOf()
+    val affectedIds: MutableSet<RecipientId> = mutableSetOf()
+    val remaps: MutableList<Pair<RecipientId, RecipientId>> = mutableListOf()
     val db = writableDatabase
 
-    db.beginTransaction()
-    try {
-      for ((e164, result) in mapping) {
-        ids += getAndPossiblyMerge(aci = result.aci, pni = result.pni, e164 = e164, pniVerified = false, changeSelf = false)
+    db.withinTransaction {
+      // Tuples are resolved against an in-memory index of the rows holding any of the e164s, PNIs or ACIs we were given, rather than with
+      // a handful of lookups each. Most already match a single row and produce an empty change set. The rest are written exactly as
+      // getAndPossiblyMerge would, after which only the rows they touched are re-read into the index.
+      val index = PnpIndex(
+        e164s = mapping.keys,
+        pnis = mapping.values.map { it.pni.toString() },
+        acis = mapping.values.mapNotNull { it.aci?.toString() }
+      )
+
+      for ((e164, cdsResult) in mapping) {
+        val dataSet: PnpDataSet = index.getDataSet(e164 = e164, pni = cdsResult.pni, aci = cdsResult.aci)
+        val changeSet: PnpChangeSet = processPnpDataSetToChangeSet(dataSet, pniVerified = false, changeSelf = false)
+        val result: ProcessPnpTupleResult = applyPnpChangeSet(changeSet, cdsResult.pni, pniVerified = false)
+
+        ids += result.finalId
+
+        if (result.operations.isNotEmpty() || result.requiredInsert) {
+          Log.i(TAG, "[bulkProcessCdsResult] (${cdsResult.aci}, ${cdsResult.pni}, $e164) BreadCrumbs: ${result.breadCrumbs}, Operations: ${result.operations}, RequiredInsert: ${result.requiredInsert}, FinalId: ${result.finalId}")
+
+          affectedIds += result.affectedIds
+          remaps += result.oldIds.map { it to result.finalId }
+
+          index.refresh(result.affectedIds + result.oldIds + result.finalId)
+        }
       }
 
-      db.setTransactionSuccessful()
-    } finally {
-      db.endTransaction()
+      Log.i(TAG, "[bulkProcessCdsResult] Processed ${mapping.size} results. Loaded ${index.loadedCount} rows, re-read ${index.refreshedCount}.")
+
+      db.runPostSuccessfulTransaction {
+        if (affectedIds.isNotEmpty()) {
+          affectedIds.forEach { AppDependencies.databaseObserver.notifyRecipientChanged(it) }
+          RetrieveProfileJob.enqueue(affectedIds)
+        }
+
+        for ((oldId, finalId) in remaps) {
+          Recipient.live(oldId).refresh(finalId)
+          AppDependencies.recipientCache.remap(oldId, finalId)
+        }
+
+        if (affectedIds.isNotEmpty() || remaps.isNotEmpty()) {
+          StorageSyncHelper.scheduleSyncForDataChange()
+          RecipientId.clearCache()
+        }
+      }
     }
 
     return ids
@@ -2406,7 +2444,14 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
   @VisibleForTesting
   fun processPnpTuple(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean = false): ProcessPnpTupleResult {
     val changeSet: PnpChangeSet = processPnpTupleToChangeSet(e164, pni, aci, pniVerified, changeSelf)
+    return applyPnpChangeSet(changeSet, pni, pniVerified)
+  }
 
+  /**
+   * Writes the [changeSet] to disk and summarizes what it touched.
+   * It is assumed that we are in a transaction.
+   */
+  private fun applyPnpChangeSet(changeSet: PnpChangeSet, pni: PNI?, pniVerified: Boolean): ProcessPnpTupleResult {
     val affectedIds: MutableSet<RecipientId> = mutableSetOf()
     val oldIds: MutableSet<RecipientId> = mutableSetOf()
     var changedNumberId: RecipientId? = null
@@ -2601,8 +2646,6 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
   fun processPnpTupleToChangeSet(e164: String?, pni: PNI?, aci: ACI?, pniVerified: Boolean, changeSelf: Boolean = false): PnpChangeSet {
     check(e164 != null || pni != null || aci != null) { "Must provide at least one field!" }
 
-    val breadCrumbs: MutableList<String> = mutableListOf()
-
     val partialData = PnpDataSet(
       e164 = e164,
       pni = pni,
@@ -2612,6 +2655,20 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       byAci = aci?.let { getByAci(it).orElse(null) }
     )
 
+    return processPnpDataSetToChangeSet(partialData, pniVerified, changeSelf)
+  }
+
+  /**
+   * Same as [processPnpTupleToChangeSet], but starting from a [PnpDataSet] whose byE164/byPni/byAci have already been looked up. Records
+   * needed for merges are still read from the database.
+   */
+  private fun processPnpDataSetToChangeSet(partialData: PnpDataSet, pniVerified: Boolean, changeSelf: Boolean): PnpChangeSet {
+    val e164: String? = partialData.e164
+    val pni: PNI? = partialData.pni
+    val aci: ACI? = partialData.aci
+
+    val breadCrumbs: MutableList<String> = mutableListOf()
+
     val allRequiredDbFields: MutableList<RecipientId?> = mutableListOf()
     if (e164 != null) {
       allRequiredDbFields += partialData.byE164
@@ -4705,6 +4762,77 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     }
   }
 
+  /**
+   * An in-memory view of which rows hold a set of e164s, PNIs and ACIs, loaded with a few `IN (...)` queries. It's only accurate for as
+   * long as every row that gets written to is passed to [refresh] afterwards.
+   */
+  private inner class PnpIndex(e164s: Collection<String>, pnis: Collection<String>, acis: Collection<String>) {
+    private val rows: MutableMap<RecipientId, PnpIndexRow> = mutableMapOf()
+    private val byE164: MutableMap<String, RecipientId> = mutableMapOf()
+    private val byPni: MutableMap<String, RecipientId> = mutableMapOf()
+    private val byAci: MutableMap<String, RecipientId> = mutableMapOf()
+
+    var loadedCount: Int = 0
+      private set
+
+    var refreshedCount: Int = 0
+      private set
+
+    init {
+      load(SqlUtil.buildCollectionQuery(E164, e164s) + SqlUtil.buildCollectionQuery(PNI_COLUMN, pnis) + SqlUtil.buildCollectionQuery(ACI_COLUMN, acis))
+      loadedCount = rows.size
+    }
+
+    fun getDataSet(e164: String?, pni: PNI?, aci: ACI?): PnpDataSet {
+      return PnpDataSet(
+        e164 = e164,
+        pni = pni,
+        aci = aci,
+        byE164 = e164?.let { byE164[it] },
+        byPni = pni?.let { byPni[it.toString()] },
+        byAci = aci?.let { byAci[it.toString()] }
+      )
+    }
+
+    /**
+     * Re-reads the provided rows, dropping any that no longer exist.
+     */
+    fun refresh(ids: Collection<RecipientId>) {
+      for (id in ids) {
+        val row = rows.remove(id) ?: continue
+        row.e164?.let { byE164.remove(it, id) }
+        row.pni?.let { byPni.remove(it, id) }
+        row.aci?.let { byAci.remove(it, id) }
+      }
+
+      load(SqlUtil.buildCollectionQuery(ID, ids))
+      refreshedCount += ids.size
+    }
+
+    private fun load(queries: List<SqlUtil.Query>) {
+      for (query in queries) {
+        readableDatabase
+          .select(ID, E164, PNI_COLUMN, ACI_COLUMN)
+          .from(TABLE_NAME)
+          .where(query.where, query.whereArgs)
+          .run()
+          .use { cursor ->
+            while (cursor.moveToNext()) {
+              val id = RecipientId.from(cursor.requireLong(ID))
+              val row = PnpIndexRow(e164 = cursor.requireString(E164), pni = cursor.requireString(PNI_COLUMN), aci = cursor.requireString(ACI_COLUMN))
+
+              rows[id] = row
+              row.e164?.let { byE164[it] = id }
+              row.pni?.let { byPni[it] = id }
+              row.aci?.let { byAci[it] = id }
+            }
+          }
+      }
+    }
+  }
+
+  private class PnpIndexRow(val e164: String?, val pni: String?, val aci: String?)
+
   data class CdsV2Result(
     val pni: PNI,
     val aci: ACI?
@@ -82,10 +82,14 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
       traceLockStart();
     }
 
+    long startTime = System.nanoTime();
+
     tracer.start(methodName, KEY_QUERY, query);
     returnable.run();
     tracer.end(methodName);
 
+    QueryProfiler.onStatement(methodName, null, query, System.nanoTime() - startTime, -1);
+
     if (locked) {
       traceLockEnd();
     }
@@ -108,14 +112,19 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
       params.put(KEY_TABLE, table);
     }
 
+    long startTime = System.nanoTime();
+
     tracer.start(methodName, params);
-    E result = returnable.run();
+    E   result = returnable.run();
+    int rows   = -1;
     if (result instanceof Cursor) {
       // Triggers filling the window (which is about to be done anyway), but lets us capture that time inside the trace
-      ((Cursor) result).getCount();
+      rows = ((Cursor) result).getCount();
     }
     tracer.end(methodName);
 
+    QueryProfiler.onStatement(methodName, table, query, System.nanoTime() - startTime, rows);
+
     if (locked) {
       traceLockEnd();
     }
@@ -291,6 +300,7 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     if (wrapped.inTransaction()) {
       trace("beginTransaction()", wrapped::beginTransaction);
     } else {
+      QueryProfiler.onTransactionStarted();
       trace("beginTransaction()", () -> {
         wrapped.beginTransactionWithListener(new SQLiteTransactionListener() {
           @Override
@@ -317,6 +327,9 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   public void endTransaction() {
     trace("endTransaction()", wrapped::endTransaction);
     traceLockEnd();
+    if (!wrapped.inTransaction()) {
+      QueryProfiler.onTransactionEnded();
+    }
     Set<Runnable> tasks = getPostSuccessfulTransactionTasks();
     for (Runnable r : new HashSet<>(tasks)) {
       r.run();
@@ -31,9 +31,18 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     const val MESSAGE_ID = "message_id"
     const val SNIPPET_WRAP = "..."
 
+    /** The maximum number of results returned by a message search. */
+    const val DEFAULT_LIMIT = 500
+
+    /**
+     * The prefix lengths (in bytes) that fts5 keeps dedicated indexes for. Every search term is a prefix query (see [createFullTextSearchQuery]),
+     * and without these, short prefixes have to merge the doclists of every token that starts with them, which is very slow on large databases.
+     */
+    private const val PREFIX_INDEXES = "1 2 3"
+
     @Language("sql")
     val CREATE_TABLE = arrayOf(
-      "CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5($BODY, $THREAD_ID UNINDEXED, content=${MessageTable.TABLE_NAME}, content_rowid=${MessageTable.ID})"
+      "CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5($BODY, $THREAD_ID UNINDEXED, content=${MessageTable.TABLE_NAME}, content_rowid=${MessageTable.ID}, prefix='$PREFIX_INDEXES')"
     )
 
     private const val TRIGGER_AFTER_INSERT = "message_ai"
@@ -81,8 +90,6 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
     """
 
     @Language("sql")
@@ -107,17 +114,20 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
     """
   }
 
-  fun queryMessages(query: String): Cursor? {
+  /**
+   * @param orderByRank If true, results are ordered by bm25 relevance (best match first) rather than by date, so the [limit] keeps the best
+   *                    matches instead of the most recent ones.
+   */
+  @JvmOverloads
+  fun queryMessages(query: String, orderByRank: Boolean = false, limit: Int = DEFAULT_LIMIT): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
     return if (fullTextSearchQuery.isEmpty()) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_QUERY, SqlUtil.buildArgs(fullTextSearchQuery))
+      readableDatabase.rawQuery("$MESSAGES_QUERY ${orderBy(orderByRank)} LIMIT $limit", SqlUtil.buildArgs(fullTextSearchQuery))
     }
   }
 
@@ -126,7 +136,15 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return if (TextUtils.isEmpty(fullTextSearchQuery)) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_FOR_THREAD_QUERY, SqlUtil.buildArgs(fullTextSearchQuery, threadId))
+      readableDatabase.rawQuery("$MESSAGES_FOR_THREAD_QUERY ${orderBy(false)} LIMIT $DEFAULT_LIMIT", SqlUtil.buildArgs(fullTextSearchQuery, threadId))
+    }
+  }
+
+  private fun orderBy(orderByRank: Boolean): String {
+    return if (orderByRank) {
+      "ORDER BY bm25($FTS_TABLE_NAME), ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} DESC"
+    } else {
+      "ORDER BY ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} DESC"
     }
   }
 
@@ -162,6 +180,33 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     }
   }
 
+  /**
+   * Runs [block] without keeping the index up to date as messages change, and then rebuilds the entire index from the message table in a single
+   * pass. This is much faster than letting the triggers index one message at a time when inserting a large number of messages, like during a
+   * backup restore.
+   *
+   * Must be called within a transaction so that nothing else can observe the missing triggers. If [block] throws, the transaction should be
+   * rolled back, which will restore the triggers.
+   */
+  fun <T> withIndexingDeferred(block: () -> T): T {
+    val db = writableDatabase
+    check(db.inTransaction()) { "Must be called within a transaction!" }
+
+    db.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_INSERT")
+    db.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_DELETE")
+    db.execSQL("DROP TRIGGER IF EXISTS $TRIGGER_AFTER_UPDATE")
+
+    val result = block()
+
+    CREATE_TRIGGERS.forEach { db.execSQL(it) }
+
+    val startTime = System.currentTimeMillis()
+    db.execSQL("INSERT INTO $FTS_TABLE_NAME ($FTS_TABLE_NAME) VALUES ('rebuild')")
+    Log.d(TAG, "Rebuilt the index in ${System.currentTimeMillis() - startTime} ms.")
+
+    return result
+  }
+
   /**
    * This performs the same thing as the `optimize` command in SQLite, but broken into iterative stages to avoid locking up the database for too long.
    * If what's going on in this method seems weird, that's because it is, but please read the sqlite docs -- we're following their algorithm:
@@ -193,6 +193,19 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
   private val threadIdCache = LRUCache<RecipientId, Long>(MAX_CACHE_SIZE)
 
+  private val updateCoalescer = ThreadUpdateCoalescer(
+    performUpdate = { threadId, request ->
+      performUpdate(
+        threadId = threadId,
+        unarchive = request.unarchive,
+        allowDeletion = request.allowDeletion,
+        notifyListeners = request.notifyListeners,
+        syncThreadDelete = request.syncThreadDelete
+      )
+    },
+    performReceiptUpdate = { threadId, messageIds -> updateReceiptStatusIfMostRecent(threadId, messageIds) }
+  )
+
   private fun createThreadForRecipient(recipientId: RecipientId, group: Boolean, distributionType: Int): Long {
     if (recipientId.isUnknown) {
       throw AssertionError("Cannot create a thread for an unknown recipient!")
@@ -444,7 +457,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       if (deletes > 0) {
         Log.i(TAG, "Trimming deleted $deletes messages thread: $threadId")
         setLastScrolled(threadId, 0)
-        val threadDeleted = update(threadId = threadId, unarchive = false, syncThreadDelete = syncThreadTrimDeletes)
+        val threadDeleted = updateNow(threadId = threadId, unarchive = false, syncThreadDelete = syncThreadTrimDeletes)
         notifyConversationListeners(threadId)
         SignalDatabase.calls.updateCallEventDeletionTimestamps()
 
@@ -1325,6 +1338,21 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return Recipient.resolved(id)
   }
 
+  fun getRecipientIdsByThreadId(threadIds: Collection<Long>): Map<Long, RecipientId> {
+    return SqlUtil.buildCollectionQuery(ID, threadIds)
+      .flatMap { query ->
+        readableDatabase
+          .select(ID, RECIPIENT_ID)
+          .from(TABLE_NAME)
+          .where(query.where, query.whereArgs)
+          .run()
+          .readToList { cursor ->
+            cursor.requireLong(ID) to RecipientId.from(cursor.requireLong(RECIPIENT_ID))
+          }
+      }
+      .toMap()
+  }
+
   fun getRecipientIdsForThreadIds(threadIds: Collection<Long>): List<RecipientId> {
     if (threadIds.isEmpty()) {
       return emptyList()
@@ -1516,13 +1544,62 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     )
   }
 
+  /**
+   * Like [update], but never deferred by [withCoalescedUpdates], for callers that need to know whether the thread was deleted. Any update
+   * already pending for the thread is folded into this one.
+   *
+   * @return True if the thread was deleted.
+   */
+  fun updateNow(threadId: Long, unarchive: Boolean, syncThreadDelete: Boolean = true): Boolean {
+    if (threadId == -1L) {
+      Log.d(TAG, "Skipping update for threadId -1")
+      return false
+    }
+
+    val request = ThreadUpdateCoalescer.UpdateRequest(unarchive = unarchive, allowDeletion = true, notifyListeners = true, syncThreadDelete = syncThreadDelete)
+    val merged = updateCoalescer.takePendingUpdate(threadId)?.merge(request) ?: request
+
+    return performUpdate(
+      threadId = threadId,
+      unarchive = merged.unarchive,
+      allowDeletion = merged.allowDeletion,
+      notifyListeners = merged.notifyListeners,
+      syncThreadDelete = merged.syncThreadDelete
+    )
+  }
+
+  /**
+   * Runs [block] in a transaction, and recomputes every thread that had an update requested during it exactly once, right before the
+   * transaction is committed. Useful when processing many messages that are likely to land in the same few threads.
+   *
+   * Updates requested inside the block don't happen right away, so [update] always returns false there, and thread records read inside
+   * the block may be out of date. Callers that need to know whether the thread was deleted should use [updateNow].
+   */
+  fun <T> withCoalescedUpdates(block: () -> T): T {
+    return writableDatabase.withinTransaction {
+      updateCoalescer.coalesce(block)
+    }
+  }
+
+  fun getUpdateCoalescerStats(): ThreadUpdateCoalescer.Stats {
+    return updateCoalescer.getStats()
+  }
+
   /**
    * Updates the thread with the receipt status of the message provided, but only if that message is the most recent meaningful message.
    * The idea here is that if it _is_ the most meaningful message, we can set the new status. If it's not, there's no need to update
    * the thread at all.
    */
   fun updateReceiptStatus(messageId: Long, threadId: Long, stopwatch: Stopwatch? = null) {
-    val status = messages.getReceiptStatusIfItsTheMostRecentMeaningfulMessage(messageId, threadId)
+    if (updateCoalescer.deferReceiptUpdate(threadId, messageId)) {
+      return
+    }
+
+    updateReceiptStatusIfMostRecent(threadId, setOf(messageId), stopwatch)
+  }
+
+  private fun updateReceiptStatusIfMostRecent(threadId: Long, messageIds: Set<Long>, stopwatch: Stopwatch? = null) {
+    val status = messages.getMostRecentMeaningfulMessageReceiptStatus(threadId)?.takeIf { it.messageId in messageIds }
     stopwatch?.split("thread-query")
 
     if (status != null) {
@@ -1553,6 +1630,14 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       return false
     }
 
+    if (updateCoalescer.deferUpdate(threadId, ThreadUpdateCoalescer.UpdateRequest(unarchive, allowDeletion, notifyListeners, syncThreadDelete))) {
+      return false
+    }
+
+    return performUpdate(threadId, unarchive, allowDeletion, notifyListeners, syncThreadDelete)
+  }
+
+  private fun performUpdate(threadId: Long, unarchive: Boolean, allowDeletion: Boolean, notifyListeners: Boolean, syncThreadDelete: Boolean): Boolean {
     return writableDatabase.withinTransaction {
       val meaningfulMessages = messages.hasMeaningfulMessage(threadId)
 
@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.database
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collects thread updates requested inside of a [coalesce] block so that each thread is recomputed at most once, when the block finishes.
+ *
+ * Recomputing a thread is expensive (it queries for the snippet, counts, pin state, etc.), and when many messages land in the same thread
+ * at once, every message would otherwise rebuild the same row. Receipt-only updates are tracked separately, since they're much cheaper and
+ * are made redundant by a full update of the same thread.
+ *
+ * Pending updates belong to the calling thread, since they only make sense inside the transaction that thread has open. If the block
+ * throws, pending updates are dropped along with the transaction.
+ */
+class ThreadUpdateCoalescer(
+  private val performUpdate: (threadId: Long, request: UpdateRequest) -> Unit,
+  private val performReceiptUpdate: (threadId: Long, messageIds: Set<Long>) -> Unit
+) {
+
+  private val scopes: ThreadLocal<Scope?> = ThreadLocal()
+
+  private val requested = AtomicLong(0)
+  private val performed = AtomicLong(0)
+
+  /**
+   * Runs [block], deferring any updates requested through [deferUpdate] and [deferReceiptUpdate] until it finishes. Nested calls are
+   * folded into the outermost one.
+   */
+  fun <T> coalesce(block: () -> T): T {
+    if (scopes.get() != null) {
+      return block()
+    }
+
+    val scope = Scope()
+    scopes.set(scope)
+
+    try {
+      val result = block()
+
+      // Cleared first so that anything the updates themselves request runs immediately
+      scopes.set(null)
+
+      for ((threadId, request) in scope.updates) {
+        performUpdate(threadId, request)
+        performed.incrementAndGet()
+      }
+
+      for ((threadId, messageIds) in scope.receiptUpdates) {
+        performReceiptUpdate(threadId, messageIds)
+        performed.incrementAndGet()
+      }
+
+      return result
+    } finally {
+      scopes.set(null)
+    }
+  }
+
+  /**
+   * @return True if the update was deferred, or false if there's no [coalesce] block open and the caller should update the thread now.
+   */
+  fun deferUpdate(threadId: Long, request: UpdateRequest): Boolean {
+    val scope = scopes.get() ?: return false
+
+    requested.incrementAndGet()
+    scope.updates[threadId] = scope.updates[threadId]?.merge(request) ?: request
+    scope.receiptUpdates.remove(threadId)
+
+    return true
+  }
+
+  /**
+   * @return True if the update was deferred, or false if there's no [coalesce] block open and the caller should update the thread now.
+   */
+  fun deferReceiptUpdate(threadId: Long, messageId: Long): Boolean {
+    val scope = scopes.get() ?: return false
+
+    requested.incrementAndGet()
+    if (!scope.updates.containsKey(threadId)) {
+      scope.receiptUpdates.getOrPut(threadId) { mutableSetOf() } += messageId
+    }
+
+    return true
+  }
+
+  /**
+   * Removes and returns the update pending for [threadId], for a caller that's about to update it right away. Any pending receipt update
+   * is dropped too, since a full update makes it redundant.
+   */
+  fun takePendingUpdate(threadId: Long): UpdateRequest? {
+    val scope = scopes.get() ?: return null
+
+    scope.receiptUpdates.remove(threadId)
+    return scope.updates.remove(threadId)
+  }
+
+  fun getStats(): Stats {
+    return Stats(requested = requested.get(), performed = performed.get())
+  }
+
+  data class UpdateRequest(
+    val unarchive: Boolean,
+    val allowDeletion: Boolean,
+    val notifyListeners: Boolean,
+    val syncThreadDelete: Boolean
+  ) {
+    /**
+     * Combines two requests for the same thread, preferring whichever side is more conservative about deleting it.
+     */
+    fun merge(other: UpdateRequest): UpdateRequest {
+      return UpdateRequest(
+        unarchive = unarchive || other.unarchive,
+        allowDeletion = allowDeletion && other.allowDeletion,
+        notifyListeners = notifyListeners || other.notifyListeners,
+        syncThreadDelete = syncThreadDelete && other.syncThreadDelete
+      )
+    }
+  }
+
+  data class Stats(val requested: Long, val performed: Long) {
+    val collapsed: Long
+      get() = requested - performed
+  }
+
+  private class Scope {
+    val updates: MutableMap<Long, UpdateRequest> = LinkedHashMap()
+    val receiptUpdates: MutableMap<Long, MutableSet<Long>> = LinkedHashMap()
+  }
+}
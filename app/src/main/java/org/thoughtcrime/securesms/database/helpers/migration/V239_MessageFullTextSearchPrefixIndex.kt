@@ -0,0 +1,50 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Recreates the message full-text search table with prefix indexes for short prefixes. fts5 options can't be changed on an existing table,
+ * so we have to drop it and rebuild it. The contents are repopulated by an application migration once the job manager is available.
+ */
+@Suppress("ClassName")
+object V239_MessageFullTextSearchPrefixIndex : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("DROP TABLE IF EXISTS message_fts")
+    db.execSQL("DROP TRIGGER IF EXISTS message_ai")
+    db.execSQL("DROP TRIGGER IF EXISTS message_ad")
+    db.execSQL("DROP TRIGGER IF EXISTS message_au")
+
+    db.execSQL("CREATE VIRTUAL TABLE message_fts USING fts5(body, thread_id UNINDEXED, content=message, content_rowid=_id, prefix='1 2 3')")
+
+    db.execSQL(
+      """
+      CREATE TRIGGER message_ai AFTER INSERT ON message BEGIN
+        INSERT INTO message_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);
+      END;
+    """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER message_ad AFTER DELETE ON message BEGIN
+        INSERT INTO message_fts(message_fts, rowid, body, thread_id) VALUES ('delete', old._id, old.body, old.thread_id);
+      END;
+    """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER message_au AFTER UPDATE ON message BEGIN
+        INSERT INTO message_fts(message_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);
+        INSERT INTO message_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);
+      END;
+    """
+    )
+  }
+}
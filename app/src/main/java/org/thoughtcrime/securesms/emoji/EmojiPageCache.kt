@@ -3,28 +3,86 @@ package org.thoughtcrime.securesms.emoji
 import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Rect
+import android.util.LruCache
+import androidx.annotation.AnyThread
 import androidx.annotation.MainThread
 import androidx.annotation.WorkerThread
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.concurrent.SimpleTask
 import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.components.emoji.RecentEmojiPageModel
+import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.mms.PartAuthority
+import org.thoughtcrime.securesms.util.DeviceProperties
 import org.thoughtcrime.securesms.util.ListenableFutureTask
 import org.thoughtcrime.securesms.util.SoftHashMap
+import org.thoughtcrime.securesms.util.TextSecurePreferences
 import java.io.IOException
 import java.io.InputStream
 
+/**
+ * Decoded emoji sprite pages, kept in two tiers:
+ *
+ * - A strong LRU bounded by the total size of the bitmaps in bytes, so the pages in active use stay put no matter how the GC feels.
+ * - A soft tier for pages that fall out of the LRU. Drawables that are still on screen hold on to those bitmaps anyway, so keeping a soft
+ *   reference lets us hand the same bitmap back rather than decoding a second copy of it.
+ */
 object EmojiPageCache {
 
   private val TAG = Log.tag(EmojiPageCache::class.java)
 
-  private val cache: SoftHashMap<EmojiPageRequest, Bitmap> = SoftHashMap()
+  private const val MAX_CACHE_BYTES = 32 * 1024 * 1024
+  private const val MAX_PRELOAD_PAGES = 3
+  private const val MAX_GLYPH_CACHE_BYTES = 2 * 1024 * 1024
+  private const val MAX_REGION_DECODERS = 4
+
+  /**
+   * Guards [cache] and [softCache] together. Pages move between the two in both directions, from the main thread in [load] and from
+   * workers in [loadRegion], and [SoftHashMap] isn't safe to use from more than one thread.
+   */
+  private val pageLock = Any()
+
+  /** No strong retention, otherwise this tier would keep pages alive past the byte limit. Only touched while holding [pageLock]. */
+  private val softCache: SoftHashMap<EmojiPageRequest, Bitmap> = SoftHashMap(0)
   private val tasks: HashMap<EmojiPageRequest, ListenableFutureTask<Bitmap>> = hashMapOf()
 
+  private val cache: LruCache<EmojiPageRequest, Bitmap> = object : LruCache<EmojiPageRequest, Bitmap>(getMaxCacheBytes()) {
+    override fun sizeOf(key: EmojiPageRequest, value: Bitmap): Int {
+      return value.allocationByteCount
+    }
+
+    // Called on the thread that caused the eviction, which is always holding pageLock
+    override fun entryRemoved(evicted: Boolean, key: EmojiPageRequest, oldValue: Bitmap, newValue: Bitmap?) {
+      if (evicted) {
+        softCache[key] = oldValue
+      }
+    }
+  }
+
+  /** Single glyphs decoded by [loadRegion], so that drawing the same emoji again doesn't decode it again. */
+  private val glyphCache: LruCache<GlyphRequest, Bitmap> = object : LruCache<GlyphRequest, Bitmap>(MAX_GLYPH_CACHE_BYTES) {
+    override fun sizeOf(key: GlyphRequest, value: Bitmap): Int {
+      return value.allocationByteCount
+    }
+  }
+
+  /** Creating a decoder reads the whole encoded page, so we keep them around for pages we're decoding glyphs from. */
+  private val regionDecoders: LruCache<EmojiPage, BitmapRegionDecoder> = object : LruCache<EmojiPage, BitmapRegionDecoder>(MAX_REGION_DECODERS) {
+    override fun entryRemoved(evicted: Boolean, key: EmojiPage, oldValue: BitmapRegionDecoder, newValue: BitmapRegionDecoder?) {
+      synchronized(oldValue) {
+        oldValue.recycle()
+      }
+    }
+  }
+
   @MainThread
   fun load(context: Context, emojiPage: EmojiPage, inSampleSize: Int): LoadResult {
     val applicationContext = context.applicationContext
     val emojiPageRequest = EmojiPageRequest(emojiPage, inSampleSize)
-    val bitmap: Bitmap? = cache[emojiPageRequest]
+    val bitmap: Bitmap? = getCached(emojiPageRequest)
     val task: ListenableFutureTask<Bitmap>? = tasks[emojiPageRequest]
 
     return when {
@@ -49,7 +107,9 @@ object EmojiPageCache {
             if (newBitmap == null) {
               Log.w(TAG, "Failed to load emoji bitmap for request $emojiPageRequest")
             } else {
-              cache[emojiPageRequest] = newBitmap
+              synchronized(pageLock) {
+                cache.put(emojiPageRequest, newBitmap)
+              }
             }
           } finally {
             tasks.remove(emojiPageRequest)
@@ -61,27 +121,150 @@ object EmojiPageCache {
     }
   }
 
+  /**
+   * For callers that need a single emoji right now. If its page is already decoded we return that, otherwise we decode only the glyph's
+   * [region] of the sprite, which is far cheaper than the whole page. The glyph and the page's region decoder are both cached, so
+   * repeated calls for the same emoji don't decode anything.
+   *
+   * @param region The glyph's bounds in the coordinates of a page decoded at [inSampleSize].
+   * @return Either the whole page, a bitmap of just the glyph, or null if neither could be decoded.
+   */
+  @WorkerThread
+  fun loadRegion(context: Context, emojiPage: EmojiPage, region: Rect, inSampleSize: Int): RegionResult? {
+    val emojiPageRequest = EmojiPageRequest(emojiPage, inSampleSize)
+    val page: Bitmap? = getCached(emojiPageRequest)
+
+    if (page != null) {
+      return RegionResult.Page(page)
+    }
+
+    val glyphRequest = GlyphRequest(emojiPageRequest, Rect(region))
+    glyphCache.get(glyphRequest)?.let { return RegionResult.Glyph(it) }
+
+    val sourceRegion = Rect(region.left * inSampleSize, region.top * inSampleSize, region.right * inSampleSize, region.bottom * inSampleSize)
+
+    return try {
+      val decoder: BitmapRegionDecoder = getRegionDecoder(context.applicationContext, emojiPage) ?: return null
+
+      // The decoder is recycled under its own lock when it's evicted, in which case we treat this like any other failed decode
+      val glyph: Bitmap? = synchronized(decoder) {
+        if (decoder.isRecycled) {
+          null
+        } else {
+          decoder.decodeRegion(sourceRegion, BitmapFactory.Options().apply { this.inSampleSize = inSampleSize })
+        }
+      }
+
+      glyph?.let {
+        glyphCache.put(glyphRequest, it)
+        RegionResult.Glyph(it)
+      }
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to decode region of page $emojiPageRequest", e)
+      null
+    } catch (e: IllegalArgumentException) {
+      Log.w(TAG, "Region $sourceRegion is outside of page $emojiPageRequest", e)
+      null
+    }
+  }
+
+  /**
+   * Starts decoding the pages that hold the user's most recently used emoji, so they're likely to be ready by the time the keyboard or a
+   * conversation needs them.
+   */
+  @AnyThread
+  fun preloadRecents(context: Context) {
+    if (SignalStore.settings.isPreferSystemEmoji) {
+      return
+    }
+
+    val applicationContext = context.applicationContext
+
+    SignalExecutors.BOUNDED.execute {
+      val emojiTree = EmojiSource.latest.emojiTree
+      val pages: List<EmojiPage> = RecentEmojiPageModel(applicationContext, TextSecurePreferences.RECENT_STORAGE_KEY).emoji
+        .mapNotNull { emojiTree.getEmoji(it, 0, it.length)?.page }
+        .distinct()
+        .take(MAX_PRELOAD_PAGES)
+
+      if (pages.isEmpty()) {
+        return@execute
+      }
+
+      val inSampleSize = if (DeviceProperties.isLowMemoryDevice(applicationContext)) 2 else 1
+
+      Log.i(TAG, "Preloading ${pages.size} page(s) for recent emoji.")
+      ThreadUtil.runOnMain {
+        pages.forEach { load(applicationContext, it, inSampleSize) }
+      }
+    }
+  }
+
   fun clear() {
-    cache.clear()
+    synchronized(pageLock) {
+      cache.evictAll()
+      softCache.clear()
+    }
+    glyphCache.evictAll()
+    regionDecoders.evictAll()
   }
 
   @WorkerThread
-  private fun loadInternal(context: Context, emojiPageRequest: EmojiPageRequest): Bitmap? {
-    val inputStream: InputStream = when (emojiPageRequest.emojiPage) {
-      is EmojiPage.Asset -> context.assets.open(emojiPageRequest.emojiPage.uri.toString().replace("file:///android_asset/", ""))
-      is EmojiPage.Disk -> EmojiFiles.openForReading(context, PartAuthority.getEmojiFilename(emojiPageRequest.emojiPage.uri))
+  @Throws(IOException::class)
+  private fun getRegionDecoder(context: Context, emojiPage: EmojiPage): BitmapRegionDecoder? {
+    // Held while creating, so that two threads don't both read the same page
+    synchronized(regionDecoders) {
+      regionDecoders.get(emojiPage)?.let { return it }
+
+      @Suppress("DEPRECATION")
+      val decoder: BitmapRegionDecoder = open(context, emojiPage).use { BitmapRegionDecoder.newInstance(it, false) } ?: return null
+      regionDecoders.put(emojiPage, decoder)
+
+      return decoder
     }
+  }
 
+  private fun getCached(emojiPageRequest: EmojiPageRequest): Bitmap? {
+    synchronized(pageLock) {
+      cache.get(emojiPageRequest)?.let { return it }
+
+      val softBitmap: Bitmap = softCache.remove(emojiPageRequest) ?: return null
+      cache.put(emojiPageRequest, softBitmap)
+
+      return softBitmap
+    }
+  }
+
+  @WorkerThread
+  private fun loadInternal(context: Context, emojiPageRequest: EmojiPageRequest): Bitmap? {
     val bitmapOptions = BitmapFactory.Options()
     bitmapOptions.inSampleSize = emojiPageRequest.inSampleSize
 
-    return inputStream.use { BitmapFactory.decodeStream(it, null, bitmapOptions) }
+    return open(context, emojiPageRequest.emojiPage).use { BitmapFactory.decodeStream(it, null, bitmapOptions) }
+  }
+
+  private fun open(context: Context, emojiPage: EmojiPage): InputStream {
+    return when (emojiPage) {
+      is EmojiPage.Asset -> context.assets.open(emojiPage.uri.toString().replace("file:///android_asset/", ""))
+      is EmojiPage.Disk -> EmojiFiles.openForReading(context, PartAuthority.getEmojiFilename(emojiPage.uri))
+    }
+  }
+
+  private fun getMaxCacheBytes(): Int {
+    return minOf(MAX_CACHE_BYTES.toLong(), Runtime.getRuntime().maxMemory() / 8).toInt()
   }
 
   private data class EmojiPageRequest(val emojiPage: EmojiPage, val inSampleSize: Int)
 
+  private data class GlyphRequest(val emojiPageRequest: EmojiPageRequest, val region: Rect)
+
   sealed class LoadResult {
     data class Immediate(val bitmap: Bitmap) : LoadResult()
     data class Async(val task: ListenableFutureTask<Bitmap>) : LoadResult()
   }
+
+  sealed class RegionResult {
+    data class Page(val bitmap: Bitmap) : RegionResult()
+    data class Glyph(val bitmap: Bitmap) : RegionResult()
+  }
 }
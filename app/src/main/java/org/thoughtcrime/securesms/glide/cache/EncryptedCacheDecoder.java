@@ -7,9 +7,12 @@ import com.bumptech.glide.load.Options;
 import com.bumptech.glide.load.ResourceDecoder;
 import com.bumptech.glide.load.engine.Resource;
 
+import org.signal.core.util.StreamUtil;
 import org.signal.core.util.logging.Log;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -18,16 +21,18 @@ public class EncryptedCacheDecoder<DecodeType> extends EncryptedCoder implements
   private static final String TAG = Log.tag(EncryptedCacheDecoder.class);
 
   private final byte[]                                   secret;
+  private final @Nullable EncryptedSegmentCache          segmentCache;
   private final ResourceDecoder<InputStream, DecodeType> decoder;
 
-  public EncryptedCacheDecoder(byte[] secret, ResourceDecoder<InputStream, DecodeType> decoder) {
-    this.secret  = secret;
-    this.decoder = decoder;
+  public EncryptedCacheDecoder(byte[] secret, @Nullable EncryptedSegmentCache segmentCache, ResourceDecoder<InputStream, DecodeType> decoder) {
+    this.secret       = secret;
+    this.segmentCache = segmentCache;
+    this.decoder      = decoder;
   }
 
   @Override
   public boolean handles(@NonNull File source, @NonNull Options options) throws IOException {
-    try (InputStream inputStream = createEncryptedInputStream(secret, source)) {
+    try (InputStream inputStream = openDecrypted(source)) {
       return decoder.handles(inputStream, options);
     } catch (IOException e) {
       Log.w(TAG, e);
@@ -37,8 +42,36 @@ public class EncryptedCacheDecoder<DecodeType> extends EncryptedCoder implements
 
   @Override
   public @Nullable Resource<DecodeType> decode(@NonNull File source, int width, int height, @NonNull Options options) throws IOException {
-    try (InputStream inputStream = createEncryptedInputStream(secret, source)) {
+    try (InputStream inputStream = openDecrypted(source)) {
       return decoder.decode(inputStream, width, height, options);
     }
   }
+
+  /**
+   * Every registered decoder calls {@link #handles(File, Options)} before one of them decodes, so a single load reads the same file
+   * several times. Small files are served from the {@link EncryptedSegmentCache} after the first read, if we have one.
+   */
+  private @NonNull InputStream openDecrypted(@NonNull File source) throws IOException {
+    if (segmentCache == null) {
+      return createEncryptedInputStream(secret, source);
+    }
+
+    byte[] blob = segmentCache.get(source);
+
+    if (blob == null && segmentCache.accepts(source.length())) {
+      blob = new byte[(int) source.length()];
+
+      try (InputStream fileInputStream = new FileInputStream(source)) {
+        StreamUtil.readFully(fileInputStream, blob);
+      }
+
+      segmentCache.put(source, blob);
+    }
+
+    if (blob != null) {
+      return createEncryptedInputStream(secret, new ByteArrayInputStream(blob));
+    } else {
+      return createEncryptedInputStream(secret, source);
+    }
+  }
 }
@@ -5,23 +5,23 @@ import androidx.annotation.NonNull;
 
 import org.signal.core.util.StreamUtil;
 import org.thoughtcrime.securesms.util.Util;
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
+import org.whispersystems.signalservice.internal.crypto.PooledCipherInputStream;
+import org.whispersystems.signalservice.internal.crypto.PooledCipherOutputStream;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -35,58 +35,44 @@ class EncryptedCoder {
   OutputStream createEncryptedOutputStream(@NonNull byte[] masterKey, @NonNull File file)
       throws IOException
   {
-    try {
-      byte[] random = Util.getSecretBytes(32);
-      Mac    mac    = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+    byte[] random = Util.getSecretBytes(32);
+    Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, masterKey, random);
 
-      FileOutputStream fileOutputStream = new FileOutputStream(file);
-      byte[]           iv               = new byte[16];
-      byte[]           key              = mac.doFinal(random);
+    FileOutputStream fileOutputStream = new FileOutputStream(file);
 
-      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    fileOutputStream.write(MAGIC_BYTES);
+    fileOutputStream.write(random);
 
-      fileOutputStream.write(MAGIC_BYTES);
-      fileOutputStream.write(random);
+    OutputStream outputStream = new PooledCipherOutputStream(fileOutputStream, CryptoInstancePool.AES_CTR, cipher);
+    outputStream.write(MAGIC_BYTES);
 
-      CipherOutputStream outputStream = new CipherOutputStream(fileOutputStream, cipher);
-      outputStream.write(MAGIC_BYTES);
+    return outputStream;
+  }
 
-      return outputStream;
-    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
-      throw new AssertionError(e);
-    }
+  InputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull File file) throws IOException {
+    return createEncryptedInputStream(masterKey, new FileInputStream(file));
   }
 
-  CipherInputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull File file) throws IOException {
-    Closeable cleanupFinally = null;
+  /**
+   * Decrypts the contents of a cache file from any source, such as the copy kept by {@link EncryptedSegmentCache}. Takes ownership of
+   * {@code encryptedInputStream}, and closes it if the header can't be read.
+   */
+  InputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull InputStream encryptedInputStream) throws IOException {
+    Closeable cleanupFinally = encryptedInputStream;
     try {
-      Mac    mac    = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
-
-      FileInputStream fileInputStream = new FileInputStream(file);
-
-      cleanupFinally = fileInputStream;
+      byte[] theirMagic          = new byte[MAGIC_BYTES.length];
+      byte[] theirRandom         = new byte[32];
+      byte[] theirEncryptedMagic = new byte[MAGIC_BYTES.length];
 
-      byte[]          theirMagic          = new byte[MAGIC_BYTES.length];
-      byte[]          theirRandom         = new byte[32];
-      byte[]          theirEncryptedMagic = new byte[MAGIC_BYTES.length];
-
-      StreamUtil.readFully(fileInputStream, theirMagic);
-      StreamUtil.readFully(fileInputStream, theirRandom);
+      StreamUtil.readFully(encryptedInputStream, theirMagic);
+      StreamUtil.readFully(encryptedInputStream, theirRandom);
 
       if (!MessageDigest.isEqual(theirMagic, MAGIC_BYTES)) {
         throw new IOException("Not an encrypted cache file!");
       }
 
-      byte[] iv  = new byte[16];
-      byte[] key = mac.doFinal(theirRandom);
-
-      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
-
-      CipherInputStream inputStream = new CipherInputStream(fileInputStream, cipher);
+      Cipher      cipher      = initCipher(Cipher.DECRYPT_MODE, masterKey, theirRandom);
+      InputStream inputStream = new PooledCipherInputStream(encryptedInputStream, CryptoInstancePool.AES_CTR, cipher);
 
       cleanupFinally = inputStream;
 
@@ -96,12 +82,26 @@ class EncryptedCoder {
       }
       cleanupFinally = null;
       return inputStream;
-    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
-      throw new AssertionError(e);
     } finally {
       StreamUtil.close(cleanupFinally);
     }
   }
 
+  private static Cipher initCipher(int mode, @NonNull byte[] masterKey, @NonNull byte[] random) {
+    Mac mac = CryptoInstancePool.HMAC_SHA256.acquire();
+
+    try {
+      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+
+      byte[] key    = mac.doFinal(random);
+      Cipher cipher = CryptoInstancePool.AES_CTR.acquire();
 
+      cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(new byte[16]));
+      return cipher;
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    } finally {
+      CryptoInstancePool.HMAC_SHA256.release(mac);
+    }
+  }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.glide.cache;
+
+import android.content.Context;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.util.DeviceProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A second tier in front of Glide's disk cache for the small entries we read over and over, like conversation thumbnails and avatars.
+ *
+ * Blobs are the exact bytes of the disk cache file, so they're still encrypted with that file's own key and the segment holds nothing that
+ * isn't already on disk. They're kept in a single memory-mapped file rather than on the Java heap, which saves an open and read per lookup
+ * and lets the OS page the segment out if it needs the memory. It doesn't save the decrypt, and each hit still copies the blob onto the
+ * heap, since its space can be evicted and overwritten as soon as we let go of the lock.
+ *
+ * Only used when {@link org.thoughtcrime.securesms.util.RemoteConfig#glideSegmentCache()} is enabled.
+ *
+ * Space is evicted least-recently-used first until there's a contiguous gap big enough for the new blob. The index isn't persisted, so the
+ * segment starts out empty each launch.
+ */
+public final class EncryptedSegmentCache {
+
+  private static final String TAG = Log.tag(EncryptedSegmentCache.class);
+
+  private static final String SEGMENT_FILE_NAME       = "glide_segment";
+  private static final int    SEGMENT_SIZE            = 16 * 1024 * 1024;
+  private static final int    SEGMENT_SIZE_LOW_MEMORY = 4 * 1024 * 1024;
+  private static final int    MAX_BLOB_SIZE           = 512 * 1024;
+
+  private static EncryptedSegmentCache instance;
+
+  private final ByteBuffer                   segment;
+  private final int                          maxBlobSize;
+  private final LinkedHashMap<String, Entry> entries     = new LinkedHashMap<>(64, 0.75f, true);
+  private final TreeMap<Integer, Integer>    freeExtents = new TreeMap<>();
+
+  private int  usedBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long rejected;
+  private long bytesServed;
+  private long bytesAdmitted;
+
+  public static synchronized @NonNull EncryptedSegmentCache getInstance(@NonNull Context context) {
+    if (instance == null) {
+      int size = DeviceProperties.isLowMemoryDevice(context) ? SEGMENT_SIZE_LOW_MEMORY : SEGMENT_SIZE;
+      instance = new EncryptedSegmentCache(mapSegment(new File(context.getCacheDir(), SEGMENT_FILE_NAME), size), MAX_BLOB_SIZE);
+    }
+
+    return instance;
+  }
+
+  @VisibleForTesting
+  EncryptedSegmentCache(@NonNull ByteBuffer segment, int maxBlobSize) {
+    this.segment     = segment;
+    this.maxBlobSize = maxBlobSize;
+
+    if (segment.capacity() > 0) {
+      freeExtents.put(0, segment.capacity());
+    }
+  }
+
+  /**
+   * @return A copy of the contents of {@code file} if we have them, otherwise null. Entries are dropped if the file has changed since it
+   *         was added, which is the case after Glide rewrites or deletes it.
+   */
+  @AnyThread
+  public @Nullable byte[] get(@NonNull File file) {
+    String key          = file.getPath();
+    long   length       = file.length();
+    long   lastModified = file.lastModified();
+
+    synchronized (this) {
+      Entry entry = entries.get(key);
+
+      if (entry == null) {
+        misses++;
+        return null;
+      }
+
+      if (entry.length != length || entry.lastModified != lastModified) {
+        remove(key);
+        misses++;
+        return null;
+      }
+
+      byte[]     blob   = new byte[entry.length];
+      ByteBuffer reader = segment.duplicate();
+
+      reader.position(entry.offset);
+      reader.get(blob);
+
+      hits++;
+      bytesServed += blob.length;
+
+      return blob;
+    }
+  }
+
+  /**
+   * Adds the full contents of {@code file}, evicting older entries to make room. Blobs that are too big to be worth keeping are ignored.
+   */
+  @AnyThread
+  public void put(@NonNull File file, @NonNull byte[] blob) {
+    String key          = file.getPath();
+    long   lastModified = file.lastModified();
+
+    if (blob.length == 0 || blob.length != file.length()) {
+      return;
+    }
+
+    synchronized (this) {
+      if (blob.length > maxBlobSize || blob.length > segment.capacity()) {
+        rejected++;
+        return;
+      }
+
+      remove(key);
+
+      int        offset = allocate(blob.length);
+      ByteBuffer writer = segment.duplicate();
+
+      writer.position(offset);
+      writer.put(blob);
+
+      entries.put(key, new Entry(offset, blob.length, lastModified));
+      usedBytes     += blob.length;
+      bytesAdmitted += blob.length;
+    }
+  }
+
+  /**
+   * Whether a file of this size could be added by {@link #put(File, byte[])}, so callers can avoid reading large files into memory.
+   */
+  @AnyThread
+  public boolean accepts(long length) {
+    return length > 0 && length <= Math.min(maxBlobSize, segment.capacity());
+  }
+
+  @AnyThread
+  public synchronized @NonNull Stats getStats() {
+    return new Stats(entries.size(), usedBytes, segment.capacity(), hits, misses, evictions, rejected, bytesServed, bytesAdmitted);
+  }
+
+  private int allocate(int length) {
+    while (true) {
+      for (Map.Entry<Integer, Integer> extent : freeExtents.entrySet()) {
+        int extentOffset = extent.getKey();
+        int extentLength = extent.getValue();
+
+        if (extentLength >= length) {
+          freeExtents.remove(extentOffset);
+
+          if (extentLength > length) {
+            freeExtents.put(extentOffset + length, extentLength - length);
+          }
+
+          return extentOffset;
+        }
+      }
+
+      evictEldest();
+    }
+  }
+
+  private void evictEldest() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+    if (!iterator.hasNext()) {
+      throw new AssertionError("Nothing left to evict, but no free extent fits!");
+    }
+
+    Entry eldest = iterator.next().getValue();
+    iterator.remove();
+
+    free(eldest);
+    evictions++;
+  }
+
+  private void remove(@NonNull String key) {
+    Entry entry = entries.remove(key);
+
+    if (entry != null) {
+      free(entry);
+    }
+  }
+
+  private void free(@NonNull Entry entry) {
+    int offset = entry.offset;
+    int length = entry.length;
+
+    Map.Entry<Integer, Integer> before = freeExtents.lowerEntry(offset);
+    if (before != null && before.getKey() + before.getValue() == offset) {
+      offset  = before.getKey();
+      length += before.getValue();
+      freeExtents.remove(offset);
+    }
+
+    Integer after = freeExtents.remove(entry.offset + entry.length);
+    if (after != null) {
+      length += after;
+    }
+
+    freeExtents.put(offset, length);
+    usedBytes -= entry.length;
+  }
+
+  private static @NonNull ByteBuffer mapSegment(@NonNull File file, int size) {
+    try (RandomAccessFile segmentFile = new RandomAccessFile(file, "rw")) {
+      segmentFile.setLength(size);
+      return segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to map the segment file. Continuing without it.", e);
+      return ByteBuffer.allocate(0);
+    }
+  }
+
+  private static final class Entry {
+    private final int  offset;
+    private final int  length;
+    private final long lastModified;
+
+    private Entry(int offset, int length, long lastModified) {
+      this.offset       = offset;
+      this.length       = length;
+      this.lastModified = lastModified;
+    }
+  }
+
+  public static final class Stats {
+    public final int  size;
+    public final int  usedBytes;
+    public final int  capacity;
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final long rejected;
+    public final long bytesServed;
+    public final long bytesAdmitted;
+
+    Stats(int size, int usedBytes, int capacity, long hits, long misses, long evictions, long rejected, long bytesServed, long bytesAdmitted) {
+      this.size          = size;
+      this.usedBytes     = usedBytes;
+      this.capacity      = capacity;
+      this.hits          = hits;
+      this.misses        = misses;
+      this.evictions     = evictions;
+      this.rejected      = rejected;
+      this.bytesServed   = bytesServed;
+      this.bytesAdmitted = bytesAdmitted;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      long  lookups = hits + misses;
+      float hitRate = lookups > 0 ? (hits * 100f) / lookups : 0f;
+
+      return String.format(Locale.US, "Entries: %d\nUsed: %d/%d KiB\nHits: %d (%.1f%%)\nMisses: %d\nEvictions: %d\nRejected (too big): %d\nServed: %d KiB\nAdmitted: %d KiB",
+                           size, usedBytes / 1024, capacity / 1024, hits, hitRate, misses, evictions, rejected, bytesServed / 1024, bytesAdmitted / 1024);
+    }
+  }
+}
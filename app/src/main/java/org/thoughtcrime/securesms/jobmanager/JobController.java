@@ -88,14 +88,17 @@ class JobController {
 
   @WorkerThread
   void submitNewJobChain(@NonNull List<List<Job>> chain) {
-    synchronized (this) {
-      chain = Stream.of(chain).filterNot(List::isEmpty).toList();
+    chain = Stream.of(chain).filterNot(List::isEmpty).toList();
 
-      if (chain.isEmpty()) {
-        Log.w(TAG, "Tried to submit an empty job chain. Skipping.");
-        return;
-      }
+    if (chain.isEmpty()) {
+      Log.w(TAG, "Tried to submit an empty job chain. Skipping.");
+      return;
+    }
+
+    // Serializing can be expensive and doesn't depend on any state we guard, so we do it before taking our lock
+    Map<String, byte[]> serializedData = serialize(Stream.of(chain).flatMap(Stream::of).toList());
 
+    synchronized (this) {
       if (chainExceedsMaximumInstances(chain)) {
         Job solo = chain.get(0).get(0);
         jobTracker.onStateChange(solo, JobTracker.JobState.IGNORED);
@@ -103,7 +106,7 @@ class JobController {
         return;
       }
 
-      insertJobChain(chain);
+      insertJobChain(chain, serializedData);
       scheduleJobs(chain.get(0));
     }
 
@@ -117,7 +120,9 @@ class JobController {
 
   @WorkerThread
   void submitJobWithExistingDependencies(@NonNull Job job, @NonNull Collection<String> dependsOn, @Nullable String dependsOnQueue) {
-    List<List<Job>> chain = Collections.singletonList(Collections.singletonList(job));
+    List<List<Job>>     chain          = Collections.singletonList(Collections.singletonList(job));
+    Map<String, byte[]> serializedData = serialize(Collections.singletonList(job));
+    List<Job>           failed;
 
     synchronized (this) {
       if (chainExceedsMaximumInstances(chain)) {
@@ -142,17 +147,23 @@ class JobController {
 
       if (jobTracker.haveAnyFailed(allDependsOn)) {
         Log.w(TAG, "This job depends on a job that failed! Failing this job immediately.");
-        List<Job> dependents = onFailure(job);
-        job.setContext(application);
-        job.onFailure();
-        Stream.of(dependents).forEach(Job::onFailure);
-        return;
-      }
+        failed = new ArrayList<>();
+        failed.add(job);
+        failed.addAll(onFailure(job));
+      } else {
+        failed = Collections.emptyList();
 
-      FullSpec fullSpec = buildFullSpec(job, aliveDependsOn);
-      jobStorage.insertJobs(Collections.singletonList(fullSpec));
+        FullSpec fullSpec = buildFullSpec(job, aliveDependsOn, serializedData.get(job.getId()));
+        jobStorage.insertJobs(Collections.singletonList(fullSpec));
 
-      scheduleJobs(Collections.singletonList(job));
+        scheduleJobs(Collections.singletonList(job));
+      }
+    }
+
+    if (!failed.isEmpty()) {
+      job.setContext(application);
+      triggerOnFailure(failed);
+      return;
     }
 
     // We have no control over what happens in jobs' onSubmit method, so we drop our lock to reduce the possibility of a deadlock
@@ -167,6 +178,9 @@ class JobController {
   void submitJobs(@NonNull List<Job> jobs) {
     List<Job> canRun = new ArrayList<>(jobs.size());
 
+    // Serializing can be expensive and doesn't depend on any state we guard, so we do it before taking our lock
+    Map<String, byte[]> serializedData = serialize(jobs);
+
     synchronized (this) {
       for (Job job : jobs) {
         if (exceedsMaximumInstances(job)) {
@@ -181,7 +195,7 @@ class JobController {
         return;
       }
 
-      List<FullSpec> fullSpecs = canRun.stream().map(it -> buildFullSpec(it, Collections.emptyList())).collect(java.util.stream.Collectors.toList());
+      List<FullSpec> fullSpecs = Stream.of(canRun).map(it -> buildFullSpec(it, Collections.emptyList(), serializedData.get(it.getId()))).toList();
       jobStorage.insertJobs(fullSpecs);
 
       scheduleJobs(canRun);
@@ -199,35 +213,28 @@ class JobController {
   }
 
   @WorkerThread
-  synchronized void cancelJob(@NonNull String id) {
-    Job runningJob = runningJobs.get(id);
+  void cancelJob(@NonNull String id) {
+    List<Job> failed;
 
-    if (runningJob != null) {
-      Log.w(TAG, JobLogger.format(runningJob, "Canceling while running."));
-      runningJob.cancel();
-    } else {
-      JobSpec jobSpec = jobStorage.getJobSpec(id);
+    synchronized (this) {
+      failed = cancelJobInternal(id);
+    }
 
-      if (jobSpec != null) {
-        Job job = createJob(jobSpec, jobStorage.getConstraintSpecs(id));
-        Log.w(TAG, JobLogger.format(job, "Canceling while inactive."));
-        Log.w(TAG, JobLogger.format(job, "Job failed."));
+    // Like onSubmit, we have no control over what happens in jobs' onFailure method, so we call it without holding our lock
+    triggerOnFailure(failed);
+  }
 
-        job.cancel();
-        List<Job> dependents = onFailure(job);
-        job.onFailure();
-        Stream.of(dependents).forEach(Job::onFailure);
-      } else {
-        Log.w(TAG, "Tried to cancel JOB::" + id + ", but it could not be found.");
+  @WorkerThread
+  void cancelAllInQueue(@NonNull String queue) {
+    List<Job> failed = new ArrayList<>();
+
+    synchronized (this) {
+      for (JobSpec jobSpec : jobStorage.getJobsInQueue(queue)) {
+        failed.addAll(cancelJobInternal(jobSpec.getId()));
       }
     }
-  }
 
-  @WorkerThread
-  synchronized void cancelAllInQueue(@NonNull String queue) {
-    Stream.of(jobStorage.getJobsInQueue(queue))
-          .map(JobSpec::getId)
-          .forEach(this::cancelJob);
+    triggerOnFailure(failed);
   }
 
   @WorkerThread
@@ -242,7 +249,7 @@ class JobController {
   }
 
   @WorkerThread
-  synchronized void onRetry(@NonNull Job job, long backoffInterval) {
+  void onRetry(@NonNull Job job, long backoffInterval) {
     if (backoffInterval <= 0) {
       throw new IllegalArgumentException("Invalid backoff interval! " + backoffInterval);
     }
@@ -250,19 +257,26 @@ class JobController {
     int    nextRunAttempt = job.getRunAttempt() + 1;
     byte[] serializedData = job.serialize();
 
-    jobStorage.updateJobAfterRetry(job.getId(), System.currentTimeMillis(), nextRunAttempt, backoffInterval, serializedData);
-    jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    List<ConstraintSpec> constraintSpecs;
+
+    synchronized (this) {
+      jobStorage.updateJobAfterRetry(job.getId(), System.currentTimeMillis(), nextRunAttempt, backoffInterval, serializedData);
+      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+
+      constraintSpecs = jobStorage.getConstraintSpecs(job.getId());
+    }
 
-    List<Constraint> constraints = Stream.of(jobStorage.getConstraintSpecs(job.getId()))
+    List<Constraint> constraints = Stream.of(constraintSpecs)
                                          .map(ConstraintSpec::getFactoryKey)
                                          .map(constraintInstantiator::instantiate)
                                          .toList();
 
-
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + backoffInterval + " ms."));
     scheduler.schedule(backoffInterval, constraints);
 
-    notifyAll();
+    synchronized (this) {
+      notifyAll();
+    }
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
@@ -407,6 +421,63 @@ class JobController {
     return exceedsQueue;
   }
 
+  /**
+   * Cancels the job with the provided id, returning the list of inactive jobs (the job itself followed by its dependents) whose
+   * {@link Job#onFailure()} still needs to be called once the lock has been released. Running jobs are only flagged as canceled,
+   * and their runner takes care of the rest.
+   */
+  @WorkerThread
+  private @NonNull List<Job> cancelJobInternal(@NonNull String id) {
+    Job runningJob = runningJobs.get(id);
+
+    if (runningJob != null) {
+      Log.w(TAG, JobLogger.format(runningJob, "Canceling while running."));
+      runningJob.cancel();
+      return Collections.emptyList();
+    }
+
+    JobSpec jobSpec = jobStorage.getJobSpec(id);
+
+    if (jobSpec == null) {
+      Log.w(TAG, "Tried to cancel JOB::" + id + ", but it could not be found.");
+      return Collections.emptyList();
+    }
+
+    Job job = createJob(jobSpec, jobStorage.getConstraintSpecs(id));
+    Log.w(TAG, JobLogger.format(job, "Canceling while inactive."));
+    Log.w(TAG, JobLogger.format(job, "Job failed."));
+
+    job.cancel();
+
+    List<Job> failed = new ArrayList<>();
+    failed.add(job);
+    failed.addAll(onFailure(job));
+
+    return failed;
+  }
+
+  @WorkerThread
+  private void triggerOnFailure(@NonNull List<Job> jobs) {
+    for (Job job : jobs) {
+      job.onFailure();
+    }
+  }
+
+  /**
+   * Serializes the provided jobs, keyed by job id. Intended to be called before acquiring our lock.
+   */
+  @WorkerThread
+  private @NonNull Map<String, byte[]> serialize(@NonNull List<Job> jobs) {
+    Map<String, byte[]> serialized = new HashMap<>(jobs.size());
+
+    for (Job job : jobs) {
+      job.setRunAttempt(0);
+      serialized.put(job.getId(), job.serialize());
+    }
+
+    return serialized;
+  }
+
   @WorkerThread
   private void triggerOnSubmit(@NonNull List<List<Job>> chain) {
     Stream.of(chain)
@@ -417,13 +488,13 @@ class JobController {
   }
 
   @WorkerThread
-  private void insertJobChain(@NonNull List<List<Job>> chain) {
+  private void insertJobChain(@NonNull List<List<Job>> chain, @NonNull Map<String, byte[]> serializedData) {
     List<FullSpec> fullSpecs = new LinkedList<>();
     List<String>   dependsOn = Collections.emptyList();
 
     for (List<Job> jobList : chain) {
       for (Job job : jobList) {
-        fullSpecs.add(buildFullSpec(job, dependsOn));
+        fullSpecs.add(buildFullSpec(job, dependsOn, serializedData.get(job.getId())));
       }
       dependsOn = Stream.of(jobList).map(Job::getId).toList();
     }
@@ -432,7 +503,7 @@ class JobController {
   }
 
   @WorkerThread
-  private @NonNull FullSpec buildFullSpec(@NonNull Job job, @NonNull Collection<String> dependsOn) {
+  private @NonNull FullSpec buildFullSpec(@NonNull Job job, @NonNull Collection<String> dependsOn, @Nullable byte[] serializedData) {
     job.setRunAttempt(0);
 
     JobSpec jobSpec = new JobSpec(job.getId(),
@@ -444,7 +515,7 @@ class JobController {
                                   job.getRunAttempt(),
                                   job.getParameters().getMaxAttempts(),
                                   job.getParameters().getLifespan(),
-                                  job.serialize(),
+                                  serializedData,
                                   null,
                                   false,
                                   job.getParameters().isMemoryOnly(),
@@ -18,6 +18,7 @@ import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint
 import org.thoughtcrime.securesms.jobmanager.impl.WifiConstraint
 import org.thoughtcrime.securesms.keyvalue.SignalStore
 import org.thoughtcrime.securesms.providers.BlobProvider
+import org.thoughtcrime.securesms.util.RemoteConfig
 import org.whispersystems.signalservice.api.NetworkResult
 import java.io.FileInputStream
 import java.io.FileOutputStream
@@ -126,7 +127,13 @@ class BackupMessagesJob private constructor(parameters: Parameters) : BaseJob(pa
     val tempBackupFile = BlobProvider.getInstance().forNonAutoEncryptingSingleSessionOnDisk(AppDependencies.application)
 
     val outputStream = FileOutputStream(tempBackupFile)
-    BackupRepository.export(outputStream = outputStream, append = { tempBackupFile.appendBytes(it) }, plaintext = false)
+    BackupRepository.export(
+      outputStream = outputStream,
+      append = { tempBackupFile.appendBytes(it) },
+      plaintext = false,
+      pipelined = RemoteConfig.pipelinedBackupExport,
+      progressListener = { EventBus.getDefault().postSticky(it) }
+    )
 
     FileInputStream(tempBackupFile).use {
       BackupRepository.uploadBackupFile(it, tempBackupFile.length())
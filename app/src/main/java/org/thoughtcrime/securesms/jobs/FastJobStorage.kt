@@ -14,7 +14,14 @@ import org.thoughtcrime.securesms.util.LRUCache
 import java.util.TreeSet
 import java.util.function.Predicate
 
-class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
+/**
+ * @param writeBehindJournal If present, writes that don't need to survive process death are buffered and batched by the journal
+ *                           instead of being written through to the [jobDatabase] immediately.
+ */
+class FastJobStorage @JvmOverloads constructor(
+  private val jobDatabase: JobDatabase,
+  private val writeBehindJournal: JobWriteBehindJournal? = null
+) : JobStorage {
 
   companion object {
     private val TAG = Log.tag(FastJobStorage::class)
@@ -22,8 +29,20 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     private const val DEBUG = false
   }
 
-  /** We keep a trimmed down version of every job in memory. */
-  private val minimalJobs: MutableList<MinimalJobSpec> = mutableListOf()
+  /** We keep a trimmed down version of every job in memory, keyed by job id. Iteration order matches insertion order. */
+  private val minimalJobs: LinkedHashMap<String, MinimalJobSpec> = LinkedHashMap()
+
+  /** The ids of every job in a given queue, in insertion order. Lets us answer queue-related questions without scanning every job. */
+  private val jobIdsByQueue: MutableMap<String, LinkedHashSet<String>> = hashMapOf()
+
+  /** The jobs in each queue, ordered by [EligibleMinJobComparator], so the most eligible job in a queue is always the first one. */
+  private val eligibleOrderByQueue: MutableMap<String, TreeSet<MinimalJobSpec>> = hashMapOf()
+
+  /** How many jobs exist for a given factory key. Kept in sync with [minimalJobs]. */
+  private val jobCountsByFactory: MutableMap<String, Int> = hashMapOf()
+
+  /** How many jobs exist for a given factory key within a given queue. Kept in sync with [minimalJobs]. */
+  private val jobCountsByQueueAndFactory: MutableMap<String, MutableMap<String, Int>> = hashMapOf()
 
   /**
    * We keep a set of job specs in memory to facilitate fast retrieval. This is important because the most common job storage pattern is
@@ -53,10 +72,12 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   @Synchronized
   override fun init() {
     val stopwatch = Stopwatch("init", decimalPlaces = 2)
-    minimalJobs += jobDatabase.getAllMinimalJobSpecs()
+    for (job in jobDatabase.getAllMinimalJobSpecs()) {
+      addMinimalJob(job)
+    }
     stopwatch.split("fetch-min-jobs")
 
-    for (job in minimalJobs) {
+    for (job in minimalJobs.values) {
       if (job.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
         migrationJobs += job
       } else {
@@ -97,7 +118,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
     for (fullSpec in fullSpecs) {
       val minimalJobSpec = fullSpec.jobSpec.toMinimalJobSpec()
-      minimalJobs += minimalJobSpec
+      addMinimalJob(minimalJobSpec)
       jobSpecCache[fullSpec.jobSpec.id] = fullSpec.jobSpec
 
       if (fullSpec.jobSpec.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
@@ -115,11 +136,12 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun getJobSpec(id: String): JobSpec? {
-    return minimalJobs.firstOrNull { it.id == id }?.toJobSpec()
+    return minimalJobs[id]?.toJobSpec()
   }
 
   @Synchronized
   override fun getAllMatchingFilter(predicate: Predicate<JobSpec>): List<JobSpec> {
+    writeBehindJournal?.flush()
     return jobDatabase.getAllMatchingFilter(predicate)
   }
 
@@ -150,54 +172,51 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun getJobsInQueue(queue: String): List<JobSpec> {
-    return minimalJobs
-      .filter { it.queueKey == queue }
-      .map { it.toJobSpec() }
+    return jobIdsByQueue[queue]
+      ?.map { minimalJobs.getValue(it).toJobSpec() }
+      ?: emptyList()
   }
 
   @Synchronized
   override fun getJobCountForFactory(factoryKey: String): Int {
-    return minimalJobs
-      .filter { it.factoryKey == factoryKey }
-      .size
+    return jobCountsByFactory[factoryKey] ?: 0
   }
 
   @Synchronized
   override fun getJobCountForFactoryAndQueue(factoryKey: String, queueKey: String): Int {
-    return minimalJobs
-      .filter { it.factoryKey == factoryKey && it.queueKey == queueKey }
-      .size
+    return jobCountsByQueueAndFactory[queueKey]?.get(factoryKey) ?: 0
   }
 
   @Synchronized
   override fun areQueuesEmpty(queueKeys: Set<String>): Boolean {
-    return minimalJobs.none { it.queueKey != null && queueKeys.contains(it.queueKey) }
+    return queueKeys.none { jobIdsByQueue.containsKey(it) }
   }
 
   @Synchronized
   override fun markJobAsRunning(id: String, currentTime: Long) {
-    val job: JobSpec? = getJobSpec(id)
+    val job: MinimalJobSpec? = minimalJobs[id]
     if (job == null || !job.isMemoryOnly) {
-      jobDatabase.markJobAsRunning(id, currentTime)
+      if (writeBehindJournal != null) {
+        writeBehindJournal.markJobAsRunning(id, currentTime)
+      } else {
+        jobDatabase.markJobAsRunning(id, currentTime)
+      }
       // Don't need to update jobSpecCache because all changed fields are in the min spec
     }
 
-    updateCachedJobSpecs(
-      filter = { it.id == id },
-      transformer = { jobSpec ->
-        jobSpec.copy(
-          isRunning = true,
-          lastRunAttemptTime = currentTime
-        )
-      },
-      singleUpdate = true
-    )
+    updateCachedJobSpec(id) { jobSpec ->
+      jobSpec.copy(
+        isRunning = true,
+        lastRunAttemptTime = currentTime
+      )
+    }
   }
 
   @Synchronized
   override fun updateJobAfterRetry(id: String, currentTime: Long, runAttempt: Int, nextBackoffInterval: Long, serializedData: ByteArray?) {
-    val job = getJobSpec(id)
+    val job: MinimalJobSpec? = minimalJobs[id]
     if (job == null || !job.isMemoryOnly) {
+      writeBehindJournal?.discard(listOf(id))
       jobDatabase.updateJobAfterRetry(id, currentTime, runAttempt, nextBackoffInterval, serializedData)
 
       // Note: All other fields are accounted for in the min spec. We only need to update from disk if serialized data changes.
@@ -209,21 +228,18 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       }
     }
 
-    updateCachedJobSpecs(
-      filter = { it.id == id },
-      transformer = { jobSpec ->
-        jobSpec.copy(
-          isRunning = false,
-          lastRunAttemptTime = currentTime,
-          nextBackoffInterval = nextBackoffInterval
-        )
-      },
-      singleUpdate = true
-    )
+    updateCachedJobSpec(id) { jobSpec ->
+      jobSpec.copy(
+        isRunning = false,
+        lastRunAttemptTime = currentTime,
+        nextBackoffInterval = nextBackoffInterval
+      )
+    }
   }
 
   @Synchronized
   override fun updateAllJobsToBePending() {
+    writeBehindJournal?.flush()
     jobDatabase.updateAllJobsToBePending()
     // Don't need to update jobSpecCache because all changed fields are in the min spec
 
@@ -241,11 +257,12 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   override fun updateJobs(jobSpecs: List<JobSpec>) {
     val durable: List<JobSpec> = jobSpecs
       .filter { updatedJob ->
-        val found = getJobSpec(updatedJob.id)
+        val found = minimalJobs[updatedJob.id]
         found != null && !found.isMemoryOnly
       }
 
     if (durable.isNotEmpty()) {
+      writeBehindJournal?.discard(durable.map { it.id })
       jobDatabase.updateJobs(durable)
     }
 
@@ -253,10 +270,9 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       .map { it.toMinimalJobSpec() }
       .associateBy { it.id }
 
-    updateCachedJobSpecs(
-      filter = { updatesById.containsKey(it.id) },
-      transformer = { updatesById.getValue(it.id) }
-    )
+    for ((id, update) in updatesById) {
+      updateCachedJobSpec(id) { update }
+    }
 
     for (update in jobSpecs) {
       jobSpecCache[update.id] = update
@@ -265,20 +281,18 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun transformJobs(transformer: (JobSpec) -> JobSpec) {
+    writeBehindJournal?.flush()
     val updated = jobDatabase.transformJobs(transformer)
     for (update in updated) {
       jobSpecCache[update.id] = update
     }
 
-    val iterator = minimalJobs.listIterator()
-    while (iterator.hasNext()) {
-      val current = iterator.next()
-      val updatedJob = updated.firstOrNull { it.id == current.id }
+    for (updatedJob in updated) {
+      val current = minimalJobs[updatedJob.id] ?: continue
+      val updatedMinimalJob = updatedJob.toMinimalJobSpec()
 
-      if (updatedJob != null) {
-        iterator.set(updatedJob.toMinimalJobSpec())
-        replaceJobInEligibleList(current, updatedJob.toMinimalJobSpec())
-      }
+      replaceMinimalJob(current, updatedMinimalJob)
+      replaceJobInEligibleList(current, updatedMinimalJob)
     }
   }
 
@@ -289,26 +303,25 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun deleteJobs(ids: List<String>) {
-    val jobsToDelete: Set<JobSpec> = ids
-      .mapNotNull { getJobSpec(it) }
+    val minimalJobsToDelete: Set<MinimalJobSpec> = ids
+      .mapNotNull { minimalJobs[it] }
       .toSet()
 
-    val durableJobIdsToDelete: List<String> = jobsToDelete
+    val durableJobIdsToDelete: List<String> = minimalJobsToDelete
       .filterNot { it.isMemoryOnly }
       .map { it.id }
 
-    val minimalJobsToDelete: Set<MinimalJobSpec> = jobsToDelete
-      .map { it.toMinimalJobSpec() }
-      .toSet()
-
     val affectedQueues: Set<String> = minimalJobsToDelete.mapNotNull { it.queueKey }.toSet()
 
     if (durableJobIdsToDelete.isNotEmpty()) {
+      writeBehindJournal?.discard(durableJobIdsToDelete)
       jobDatabase.deleteJobs(durableJobIdsToDelete)
     }
 
     val deleteIds: Set<String> = ids.toSet()
-    minimalJobs.removeIf { deleteIds.contains(it.id) }
+    for (id in deleteIds) {
+      minimalJobs.remove(id)?.let { removeFromIndexes(it) }
+    }
     jobSpecCache.keys.removeAll(deleteIds)
     eligibleJobs.removeAll(minimalJobsToDelete)
     migrationJobs.removeAll(minimalJobsToDelete)
@@ -316,9 +329,12 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     mostEligibleJobForQueue.keys.removeAll(affectedQueues)
 
     for (queue in affectedQueues) {
-      jobDatabase.getMostEligibleJobInQueue(queue)?.let {
-        jobSpecCache[it.id] = it
-        placeJobInEligibleList(it.toMinimalJobSpec())
+      if (queue == Job.Parameters.MIGRATION_QUEUE_KEY) {
+        continue
+      }
+
+      getMostEligibleJobInQueue(queue)?.let {
+        placeJobInEligibleList(it)
       }
     }
 
@@ -364,6 +380,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun debugGetJobSpecs(limit: Int): List<JobSpec> {
+    writeBehindJournal?.flush()
     return jobDatabase.getJobSpecs(limit)
   }
 
@@ -377,39 +394,117 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     return dependenciesByJobId.values.flatten()
   }
 
-  private fun updateCachedJobSpecs(filter: (MinimalJobSpec) -> Boolean, transformer: (MinimalJobSpec) -> MinimalJobSpec, singleUpdate: Boolean = false) {
-    val iterator = minimalJobs.listIterator()
-
-    while (iterator.hasNext()) {
-      val current = iterator.next()
-
-      if (filter(current)) {
-        val updated = transformer(current)
-        iterator.set(updated)
-        replaceJobInEligibleList(current, updated)
-
-        jobSpecCache.remove(current.id)?.let { currentJobSpec ->
-          val updatedJobSpec = currentJobSpec.copy(
-            id = updated.id,
-            factoryKey = updated.factoryKey,
-            queueKey = updated.queueKey,
-            createTime = updated.createTime,
-            lastRunAttemptTime = updated.lastRunAttemptTime,
-            nextBackoffInterval = updated.nextBackoffInterval,
-            priority = updated.priority,
-            isRunning = updated.isRunning,
-            isMemoryOnly = updated.isMemoryOnly
-          )
-          jobSpecCache[updatedJobSpec.id] = updatedJobSpec
-
-          if (singleUpdate) {
-            return
-          }
+  private fun updateCachedJobSpecs(filter: (MinimalJobSpec) -> Boolean, transformer: (MinimalJobSpec) -> MinimalJobSpec) {
+    val matches: List<MinimalJobSpec> = minimalJobs.values.filter(filter)
+
+    for (current in matches) {
+      applyCachedJobSpecUpdate(current, transformer(current))
+    }
+  }
+
+  private fun updateCachedJobSpec(id: String, transformer: (MinimalJobSpec) -> MinimalJobSpec) {
+    val current: MinimalJobSpec = minimalJobs[id] ?: return
+    applyCachedJobSpecUpdate(current, transformer(current))
+  }
+
+  private fun applyCachedJobSpecUpdate(current: MinimalJobSpec, updated: MinimalJobSpec) {
+    replaceMinimalJob(current, updated)
+    replaceJobInEligibleList(current, updated)
+
+    jobSpecCache.remove(current.id)?.let { currentJobSpec ->
+      val updatedJobSpec = currentJobSpec.copy(
+        id = updated.id,
+        factoryKey = updated.factoryKey,
+        queueKey = updated.queueKey,
+        createTime = updated.createTime,
+        lastRunAttemptTime = updated.lastRunAttemptTime,
+        nextBackoffInterval = updated.nextBackoffInterval,
+        priority = updated.priority,
+        isRunning = updated.isRunning,
+        isMemoryOnly = updated.isMemoryOnly
+      )
+      jobSpecCache[updatedJobSpec.id] = updatedJobSpec
+    }
+  }
+
+  private fun addMinimalJob(job: MinimalJobSpec) {
+    minimalJobs.put(job.id, job)?.let { removeFromIndexes(it) }
+    addToIndexes(job)
+  }
+
+  private fun replaceMinimalJob(current: MinimalJobSpec, updated: MinimalJobSpec) {
+    minimalJobs[updated.id] = updated
+
+    if (current.factoryKey != updated.factoryKey || current.queueKey != updated.queueKey) {
+      removeFromIndexes(current)
+      addToIndexes(updated)
+    } else {
+      updated.queueKey?.let { queueKey ->
+        eligibleOrderByQueue[queueKey]?.let { jobs ->
+          jobs -= current
+          jobs += updated
+        }
+      }
+    }
+  }
+
+  private fun addToIndexes(job: MinimalJobSpec) {
+    jobCountsByFactory.increment(job.factoryKey)
+
+    job.queueKey?.let { queueKey ->
+      jobIdsByQueue.getOrPut(queueKey) { LinkedHashSet() } += job.id
+      eligibleOrderByQueue.getOrPut(queueKey) { TreeSet(EligibleMinJobComparator) } += job
+      jobCountsByQueueAndFactory.getOrPut(queueKey) { hashMapOf() }.increment(job.factoryKey)
+    }
+  }
+
+  private fun removeFromIndexes(job: MinimalJobSpec) {
+    jobCountsByFactory.decrement(job.factoryKey)
+
+    job.queueKey?.let { queueKey ->
+      jobIdsByQueue[queueKey]?.let { ids ->
+        ids -= job.id
+        if (ids.isEmpty()) {
+          jobIdsByQueue.remove(queueKey)
+        }
+      }
+
+      eligibleOrderByQueue[queueKey]?.let { jobs ->
+        jobs -= job
+        if (jobs.isEmpty()) {
+          eligibleOrderByQueue.remove(queueKey)
+        }
+      }
+
+      jobCountsByQueueAndFactory[queueKey]?.let { counts ->
+        counts.decrement(job.factoryKey)
+        if (counts.isEmpty()) {
+          jobCountsByQueueAndFactory.remove(queueKey)
         }
       }
     }
   }
 
+  /**
+   * Finds the job that should run next in the given queue: the oldest job with the highest priority.
+   */
+  private fun getMostEligibleJobInQueue(queueKey: String): MinimalJobSpec? {
+    return eligibleOrderByQueue[queueKey]?.firstOrNull()
+  }
+
+  private fun MutableMap<String, Int>.increment(key: String) {
+    this[key] = (this[key] ?: 0) + 1
+  }
+
+  private fun MutableMap<String, Int>.decrement(key: String) {
+    val count = (this[key] ?: 0) - 1
+    if (count > 0) {
+      this[key] = count
+    } else {
+      this.remove(key)
+    }
+  }
+
   /**
    * Heart of a lot of the in-memory job management. Will ensure that we have an up-to-date list of eligible jobs in sorted order.
    */
@@ -445,7 +540,8 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   }
 
   /**
-   * Replaces a job in the eligible list with an updated version of the job.
+   * Replaces a job in the eligible list with an updated version of the job. Expects [minimalJobs] and its indexes to already hold the
+   * updated job, so that the queue's new head can be found.
    */
   private fun replaceJobInEligibleList(current: MinimalJobSpec?, updated: MinimalJobSpec?) {
     if (current == null || updated == null) {
@@ -460,9 +556,16 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       current.queueKey?.let { queueKey ->
         if (mostEligibleJobForQueue[queueKey] == current) {
           mostEligibleJobForQueue.remove(queueKey)
+
+          if (queueKey != updated.queueKey) {
+            getMostEligibleJobInQueue(queueKey)?.let { placeJobInEligibleList(it) }
+          }
         }
       }
-      placeJobInEligibleList(updated)
+
+      // The update may have changed which job is at the head of its queue, so we place whichever one is there now
+      val queueHead: MinimalJobSpec = updated.queueKey?.let { getMostEligibleJobInQueue(it) } ?: updated
+      placeJobInEligibleList(queueHead)
     }
   }
 
@@ -478,8 +581,8 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
    * serves the same effect and doesn't require new write methods. This should also be very rare.
    */
   private fun DependencySpec.hasCircularDependency(): Boolean {
-    val job = getJobSpec(this.jobId)
-    val dependsOnJob = getJobSpec(this.dependsOnJobId)
+    val job = minimalJobs[this.jobId]
+    val dependsOnJob = minimalJobs[this.dependsOnJobId]
 
     if (job == null || dependsOnJob == null) {
       return false
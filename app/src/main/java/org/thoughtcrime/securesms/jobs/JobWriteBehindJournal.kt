@@ -0,0 +1,124 @@
+package org.thoughtcrime.securesms.jobs
+
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.JobDatabase
+import java.util.concurrent.Executor
+
+/**
+ * Buffers job state transitions that don't need to survive process death and writes them to [JobDatabase] in grouped transactions.
+ *
+ * Right now that's only "job is running". Every job is reset to pending when the app starts (see [FastJobStorage.updateAllJobsToBePending]),
+ * so losing one of these writes in a crash is indistinguishable from the job having never started. Anything that affects what happens
+ * after a restart (inserts, retries, updates, deletes) is still written through immediately by [FastJobStorage].
+ *
+ * Pending writes collapse per job: a job that finishes (or is retried, updated or deleted) before the next flush never has its running
+ * state written at all, which is the common case for short jobs like receipts and typing indicators.
+ */
+class JobWriteBehindJournal @VisibleForTesting constructor(
+  private val jobDatabase: JobDatabase,
+  private val maxFlushDelayMs: Long,
+  private val executor: Executor
+) {
+
+  companion object {
+    private val TAG = Log.tag(JobWriteBehindJournal::class)
+    private const val DEFAULT_MAX_FLUSH_DELAY_MS = 1000L
+  }
+
+  constructor(jobDatabase: JobDatabase) : this(
+    jobDatabase = jobDatabase,
+    maxFlushDelayMs = DEFAULT_MAX_FLUSH_DELAY_MS,
+    executor = SignalExecutors.newCachedSingleThreadExecutor("signal-JobJournal", ThreadUtil.PRIORITY_BACKGROUND_THREAD)
+  )
+
+  /** Job id -> the time the job was marked as running. */
+  private val pendingRunTimes: MutableMap<String, Long> = LinkedHashMap()
+
+  private var flushScheduled = false
+
+  private var writesRequested = 0L
+  private var writesAvoided = 0L
+  private var flushCount = 0L
+  private var totalFlushTimeMs = 0L
+  private var maxFlushTimeMs = 0L
+
+  /**
+   * Records that a job started running. The write will happen on a background thread within [maxFlushDelayMs].
+   */
+  @Synchronized
+  fun markJobAsRunning(id: String, currentTime: Long) {
+    writesRequested++
+
+    if (pendingRunTimes.put(id, currentTime) != null) {
+      writesAvoided++
+    }
+
+    if (!flushScheduled) {
+      flushScheduled = true
+      executor.execute {
+        ThreadUtil.sleep(maxFlushDelayMs)
+        flush()
+      }
+    }
+  }
+
+  /**
+   * Drops any pending writes for the provided jobs. Must be called before writing anything else for these jobs to the database, so that
+   * a stale pending write can't land on top of it. If a flush is in progress, this will block until it's finished.
+   */
+  @Synchronized
+  fun discard(ids: Collection<String>) {
+    for (id in ids) {
+      if (pendingRunTimes.remove(id) != null) {
+        writesAvoided++
+      }
+    }
+  }
+
+  /**
+   * Writes all pending state to disk. Callers that are about to read jobs back from the database should call this first.
+   */
+  @Synchronized
+  fun flush() {
+    flushScheduled = false
+
+    if (pendingRunTimes.isEmpty()) {
+      return
+    }
+
+    val startTime = System.currentTimeMillis()
+    val count = pendingRunTimes.size
+
+    jobDatabase.markJobsAsRunning(pendingRunTimes.toMap())
+    pendingRunTimes.clear()
+
+    val duration = System.currentTimeMillis() - startTime
+    flushCount++
+    totalFlushTimeMs += duration
+    maxFlushTimeMs = maxOf(maxFlushTimeMs, duration)
+
+    Log.d(TAG, "Flushed $count writes in $duration ms. ${getMetrics()}")
+  }
+
+  @Synchronized
+  fun getMetrics(): Metrics {
+    return Metrics(
+      writesRequested = writesRequested,
+      writesAvoided = writesAvoided,
+      flushCount = flushCount,
+      averageFlushTimeMs = if (flushCount > 0) totalFlushTimeMs.toFloat() / flushCount else 0f,
+      maxFlushTimeMs = maxFlushTimeMs
+    )
+  }
+
+  data class Metrics(
+    val writesRequested: Long,
+    val writesAvoided: Long,
+    val flushCount: Long,
+    val averageFlushTimeMs: Float,
+    val maxFlushTimeMs: Long
+  )
+}
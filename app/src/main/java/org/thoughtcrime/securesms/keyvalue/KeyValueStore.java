@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.keyvalue;
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import org.signal.core.util.ThreadUtil;
@@ -14,7 +15,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 
 /**
  * An replacement for {@link android.content.SharedPreferences} that stores key-value pairs in our
@@ -22,71 +23,81 @@ import java.util.concurrent.ExecutorService;
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
  *
+ * Reads never lock. The cache is an immutable snapshot that writers replace wholesale, so readers
+ * only ever see a complete, consistent set of values. Writers are serialized with each other.
+ *
  * Writes are enqueued on a separate executor, but writes are finished up in
  * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
- * or the system killing us unexpectedly (i.e. a force-stop).
+ * or the system killing us unexpectedly (i.e. a force-stop). Writes that pile up while the
+ * executor is busy are merged and persisted together in a single transaction.
  */
 public final class KeyValueStore implements KeyValueReader {
 
   private static final String TAG = Log.tag(KeyValueStore.class);
 
-  private final ExecutorService           executor;
+  private final Executor                  executor;
   private final KeyValuePersistentStorage storage;
 
-  private KeyValueDataSet dataSet;
+  /** Never modified after being set. Writers publish a new copy instead. */
+  private volatile KeyValueDataSet dataSet;
+
+  /** Writes that have been applied to the cache but not yet handed to storage. Guarded by this. */
+  private KeyValueDataSet pendingWrites;
+  private Set<String>     pendingRemoves;
 
   public KeyValueStore(@NonNull KeyValuePersistentStorage storage) {
-    this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore", ThreadUtil.PRIORITY_BACKGROUND_THREAD);
+    this(storage, SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore", ThreadUtil.PRIORITY_BACKGROUND_THREAD));
+  }
+
+  /**
+   * @param executor Must run tasks one at a time, in order.
+   */
+  @VisibleForTesting
+  KeyValueStore(@NonNull KeyValuePersistentStorage storage, @NonNull Executor executor) {
+    this.executor = executor;
     this.storage  = storage;
   }
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return getSnapshot().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return getSnapshot().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return getSnapshot().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return getSnapshot().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return getSnapshot().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return getSnapshot().getString(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean containsKey(@NonNull String key) {
-    initializeIfNecessary();
-    return dataSet.containsKey(key);
+  public boolean containsKey(@NonNull String key) {
+    return getSnapshot().containsKey(key);
   }
 
   /**
@@ -104,20 +115,15 @@ public final class KeyValueStore implements KeyValueReader {
    *         efficient to use the various get* methods instead.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return getSnapshot();
   }
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
     executor.execute(latch::countDown);
@@ -140,15 +146,63 @@ public final class KeyValueStore implements KeyValueReader {
   private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
     initializeIfNecessary();
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+    KeyValueDataSet updated = new KeyValueDataSet();
+    updated.putAll(dataSet);
+    updated.putAll(newDataSet);
+    updated.removeAll(removes);
+    dataSet = updated;
+
+    boolean flushScheduled = pendingWrites != null;
 
-    executor.execute(() -> storage.writeDataSet(newDataSet, removes));
+    if (!flushScheduled) {
+      pendingWrites  = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+    }
+
+    pendingWrites.removeAll(removes);
+    pendingRemoves.removeAll(newDataSet.getValues().keySet());
+    pendingWrites.putAll(newDataSet);
+    pendingRemoves.addAll(removes);
+
+    if (!flushScheduled) {
+      executor.execute(this::flushPendingWrites);
+    }
+  }
+
+  private void flushPendingWrites() {
+    KeyValueDataSet writes;
+    Set<String>     removes;
+
+    synchronized (this) {
+      writes         = pendingWrites;
+      removes        = pendingRemoves;
+      pendingWrites  = null;
+      pendingRemoves = null;
+    }
+
+    storage.writeDataSet(writes, removes);
+  }
+
+  private @NonNull KeyValueDataSet getSnapshot() {
+    KeyValueDataSet snapshot = dataSet;
+
+    if (snapshot == null) {
+      synchronized (this) {
+        initializeIfNecessary();
+        snapshot = dataSet;
+      }
+    }
+
+    return snapshot;
   }
 
   private void initializeIfNecessary() {
     if (dataSet != null) return;
-    this.dataSet = storage.getDataSet();
+
+    // Copied so that nothing the storage does with its own instance can change our snapshot
+    KeyValueDataSet initial = new KeyValueDataSet();
+    initial.putAll(storage.getDataSet());
+    this.dataSet = initial;
   }
 
   class Writer {
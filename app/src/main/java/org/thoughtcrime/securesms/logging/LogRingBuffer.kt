@@ -0,0 +1,102 @@
+package org.thoughtcrime.securesms.logging
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * A bounded, lock-free queue that any number of threads can add to and a single thread drains.
+ *
+ * Each slot has a sequence number that says whose turn it is: a producer may fill slot `i` when its sequence equals the producer's position,
+ * and the consumer may empty it when its sequence is one past that. Producers only ever contend on a single compare-and-set, and never block.
+ * When the buffer is full, [offer] fails immediately and the item is counted in [droppedCount] rather than waiting for space.
+ */
+class LogRingBuffer<E : Any>(private val capacity: Int) {
+
+  init {
+    require(capacity > 0 && (capacity and (capacity - 1)) == 0) { "Capacity must be a power of two!" }
+  }
+
+  private val mask = capacity - 1L
+  private val sequences = AtomicLongArray(capacity).apply { for (i in 0 until capacity) set(i, i.toLong()) }
+  private val items = AtomicReferenceArray<E?>(capacity)
+
+  /** The position the next producer will claim. */
+  private val tail = AtomicLong(0)
+
+  /** The position the consumer will read next. Only touched by the consumer. */
+  private var head = 0L
+
+  private val dropped = AtomicLong(0)
+
+  /** The number of items that have been accepted by [offer] over the lifetime of the buffer. */
+  val acceptedCount: Long
+    get() = tail.get()
+
+  /** The number of items that have been removed by [drainTo] over the lifetime of the buffer. Only meaningful on the consumer thread. */
+  val drainedCount: Long
+    get() = head
+
+  /** The number of items that were rejected by [offer] because the buffer was full. */
+  val droppedCount: Long
+    get() = dropped.get()
+
+  /**
+   * Adds an item to the buffer. Safe to call from any thread.
+   *
+   * @return False if the buffer was full and the item was dropped, otherwise true.
+   */
+  fun offer(item: E): Boolean {
+    var position = tail.get()
+
+    while (true) {
+      val index = (position and mask).toInt()
+      val diff = sequences.get(index) - position
+
+      if (diff == 0L) {
+        if (tail.compareAndSet(position, position + 1)) {
+          items.set(index, item)
+          sequences.set(index, position + 1)
+          return true
+        }
+        position = tail.get()
+      } else if (diff < 0) {
+        dropped.incrementAndGet()
+        return false
+      } else {
+        position = tail.get()
+      }
+    }
+  }
+
+  /**
+   * Moves all available items into [out], in the order they were accepted. Must only be called from the consumer thread.
+   *
+   * @return The number of items moved.
+   */
+  fun drainTo(out: MutableList<E>): Int {
+    var count = 0
+
+    while (true) {
+      val index = (head and mask).toInt()
+      if (sequences.get(index) != head + 1) {
+        break
+      }
+
+      out += items.get(index)!!
+      items.set(index, null)
+      sequences.set(index, head + capacity)
+      head++
+      count++
+    }
+
+    return count
+  }
+
+  /**
+   * Whether there is anything for the consumer to read. Must only be called from the consumer thread.
+   */
+  fun isEmpty(): Boolean {
+    return sequences.get((head and mask).toInt()) != head + 1
+  }
+}
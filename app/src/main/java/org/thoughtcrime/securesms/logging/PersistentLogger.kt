@@ -2,6 +2,7 @@ package org.thoughtcrime.securesms.logging
 
 import android.app.Application
 import android.os.Looper
+import androidx.annotation.VisibleForTesting
 import org.signal.core.util.logging.Log
 import org.signal.core.util.logging.Scrubber
 import org.thoughtcrime.securesms.BuildConfig
@@ -14,6 +15,8 @@ import java.io.PrintStream
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.LockSupport
 
 /**
  * A logger that will persist log entries in [LogDatabase].
@@ -22,11 +25,14 @@ import java.util.Locale
  * This class takes special care to do as little as possible on the main thread, instead letting the background thread do the work.
  *
  * The process looks something like:
- * - Main thread creates a [LogRequest] object and puts it in a queue
- * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the database.
+ * - The calling thread creates a [LogRequest] object and puts it in a [LogRingBuffer]. This never blocks, regardless of how many threads are logging.
+ * - The [WriteThread] constantly drains that buffer, formats the logs, and writes them to the database.
+ *
+ * If logs come in faster than they can be written and the buffer fills up, new logs are dropped rather than making callers wait. The number
+ * dropped is written to the log once there's room again.
  */
-class PersistentLogger(
-  application: Application
+class PersistentLogger @VisibleForTesting constructor(
+  private val persist: (List<LogEntry>, Long) -> Unit
 ) : Log.Logger() {
 
   companion object {
@@ -35,16 +41,24 @@ class PersistentLogger(
     private const val LOG_I = "I"
     private const val LOG_W = "W"
     private const val LOG_E = "E"
+
+    private val TAG = Log.tag(PersistentLogger::class.java)
+    private const val BUFFER_CAPACITY = 8192
   }
 
-  private val logEntries = LogRequests()
-  private val logDatabase = LogDatabase.getInstance(application)
+  constructor(application: Application) : this(LogDatabase.getInstance(application).logs::insert)
+
+  private val requests = LogRingBuffer<LogRequest>(BUFFER_CAPACITY)
+  private val writerWaiting = AtomicBoolean(false)
+  private val flushLock = Object()
   private val cachedThreadString: ThreadLocal<String> = ThreadLocal()
 
-  init {
-    WriteThread(logEntries, logDatabase).apply {
-      priority = Thread.MIN_PRIORITY
-    }.start()
+  /** How many requests the [WriteThread] has fully written. Guarded by [flushLock]. */
+  private var persistedCount = 0L
+
+  private val writeThread = WriteThread().apply {
+    priority = Thread.MIN_PRIORITY
+    start()
   }
 
   override fun v(tag: String, message: String?, t: Throwable?, keepLonger: Boolean) {
@@ -67,12 +81,32 @@ class PersistentLogger(
     write(LOG_E, tag, message, t, keepLonger)
   }
 
+  /**
+   * Blocks until everything logged before this call has been written to disk.
+   */
   override fun flush() {
-    logEntries.blockForFlushed()
+    val target = requests.acceptedCount
+
+    synchronized(flushLock) {
+      while (persistedCount < target) {
+        flushLock.wait()
+      }
+    }
+  }
+
+  /**
+   * The number of logs that have been dropped because they came in faster than they could be written.
+   */
+  fun getDroppedCount(): Long {
+    return requests.droppedCount
   }
 
   private fun write(level: String, tag: String?, message: String?, t: Throwable?, keepLonger: Boolean) {
-    logEntries.add(LogRequest(level, tag ?: "null", message, System.currentTimeMillis(), getThreadString(), t, keepLonger))
+    if (requests.offer(LogRequest(level, tag ?: "null", message, System.currentTimeMillis(), getThreadString(), t, keepLonger))) {
+      if (writerWaiting.get() && writerWaiting.compareAndSet(true, false)) {
+        LockSupport.unpark(writeThread)
+      }
+    }
   }
 
   private fun getThreadString(): String {
@@ -101,21 +135,59 @@ class PersistentLogger(
     val keepLonger: Boolean
   )
 
-  private class WriteThread(
-    private val requests: LogRequests,
-    private val db: LogDatabase
-  ) : Thread("signal-logger") {
+  private inner class WriteThread : Thread("signal-logger") {
 
     private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
     private val buffer = mutableListOf<LogRequest>()
+    private val entries = mutableListOf<LogEntry>()
+    private var reportedDropCount = 0L
 
     override fun run() {
       while (true) {
-        requests.blockForRequests(buffer)
-        db.logs.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
+        if (requests.drainTo(buffer) == 0) {
+          awaitRequests()
+          continue
+        }
+
+        val currentTime = System.currentTimeMillis()
+
+        val droppedCount = requests.droppedCount
+        if (droppedCount > reportedDropCount) {
+          entries += droppedEntry(droppedCount - reportedDropCount, currentTime)
+          reportedDropCount = droppedCount
+        }
+
+        buffer.forEach { entries += requestToEntries(it) }
+        persist(entries, currentTime)
+
         buffer.clear()
-        requests.notifyFlushed()
+        entries.clear()
+
+        synchronized(flushLock) {
+          persistedCount = requests.drainedCount
+          flushLock.notifyAll()
+        }
+      }
+    }
+
+    /**
+     * Parks until a producer adds something. Producers only unpark us after seeing [writerWaiting], and we check for requests again after
+     * setting it, so a request can never be added without either us seeing it or the producer waking us.
+     */
+    private fun awaitRequests() {
+      writerWaiting.set(true)
+      if (requests.isEmpty()) {
+        LockSupport.park(this)
       }
+      writerWaiting.set(false)
+    }
+
+    private fun droppedEntry(count: Long, currentTime: Long): LogEntry {
+      return LogEntry(
+        createdAt = currentTime,
+        keepLonger = false,
+        body = formatBody("log  ", Date(currentTime), LOG_W, TAG, "Dropped $count log entries because they came in faster than they could be written.")
+      )
     }
 
     fun requestToEntries(request: LogRequest): List<LogEntry> {
@@ -156,50 +228,4 @@ class PersistentLogger(
       return "[${BuildConfig.VERSION_NAME}] [$threadString] ${dateFormat.format(date)} $level $tag: ${Scrubber.scrub(message ?: "")}"
     }
   }
-
-  private class LogRequests {
-    val logs = mutableListOf<LogRequest>()
-    val logLock = Object()
-
-    var flushed = false
-    val flushedLock = Object()
-
-    fun add(entry: LogRequest) {
-      synchronized(logLock) {
-        logs.add(entry)
-        logLock.notify()
-      }
-    }
-
-    /**
-     * Blocks until requests are available. When they are, the [buffer] will be populated with all pending requests.
-     * Note: This method gets hit a *lot*, which is why we're using a buffer instead of spamming out new lists every time.
-     */
-    fun blockForRequests(buffer: MutableList<LogRequest>) {
-      synchronized(logLock) {
-        while (logs.isEmpty()) {
-          logLock.wait()
-        }
-
-        buffer.addAll(logs)
-        logs.clear()
-        flushed = false
-      }
-    }
-
-    fun blockForFlushed() {
-      synchronized(flushedLock) {
-        while (!flushed) {
-          flushedLock.wait()
-        }
-      }
-    }
-
-    fun notifyFlushed() {
-      synchronized(flushedLock) {
-        flushed = true
-        flushedLock.notify()
-      }
-    }
-  }
 }
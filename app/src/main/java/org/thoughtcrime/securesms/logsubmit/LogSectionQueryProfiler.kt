@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.logsubmit
+
+import android.content.Context
+import org.thoughtcrime.securesms.database.QueryProfiler
+import java.util.Locale
+
+/**
+ * Prints off the statements that have taken the most database time since launch, as collected by [QueryProfiler].
+ */
+class LogSectionQueryProfiler : LogSection {
+
+  companion object {
+    private const val MAX_STATEMENTS = 40
+    private const val MAX_STATEMENT_LENGTH = 300
+  }
+
+  override fun getTitle(): String = "QUERY PROFILER"
+
+  override fun getContent(context: Context): CharSequence {
+    val statements = QueryProfiler.getStatementStats()
+    val output = StringBuilder()
+
+    output.append(QueryProfiler.getTransactionStats()).append("\n")
+    output.append("Distinct statements: ${statements.size}\n")
+    output.append("Flags: M = ran on the main thread, T = ran inside a long transaction\n\n")
+
+    if (statements.isEmpty()) {
+      output.append("No statements recorded.")
+      return output
+    }
+
+    output.append(String.format(Locale.US, "%-5s %8s %10s %9s %9s %9s %9s  %s\n", "Flags", "Count", "Total ms", "Mean ms", "p95 ms", "Max ms", "Rows", "Statement"))
+
+    for (stats in statements.take(MAX_STATEMENTS)) {
+      val flags = (if (stats.mainThreadCount > 0) "M" else "") + (if (stats.longTransactionCount > 0) "T" else "")
+
+      output.append(
+        String.format(
+          Locale.US,
+          "%-5s %8d %10.1f %9.2f %9.2f %9.2f %9d  %s\n",
+          flags,
+          stats.count,
+          stats.totalNanos / 1_000_000.0,
+          stats.meanNanos / 1_000_000.0,
+          stats.p95Nanos / 1_000_000.0,
+          stats.maxNanos / 1_000_000.0,
+          stats.rows,
+          stats.statement.take(MAX_STATEMENT_LENGTH)
+        )
+      )
+    }
+
+    if (statements.size > MAX_STATEMENTS) {
+      output.append("...and ${statements.size - MAX_STATEMENTS} more.")
+    }
+
+    return output
+  }
+}
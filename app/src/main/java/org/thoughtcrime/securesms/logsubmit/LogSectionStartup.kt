@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.logsubmit
+
+import android.content.Context
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.util.StartupProfiler
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * Prints off the profiles of the last few app starts, as recorded by [StartupProfiler], followed by the current one. The current one also
+ * includes any lazy tasks that have run since it was saved. All times are in milliseconds since the start of Application#onCreate().
+ */
+class LogSectionStartup : LogSection {
+
+  companion object {
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
+  }
+
+  override fun getTitle(): String = "STARTUP"
+
+  override fun getContent(context: Context): CharSequence {
+    val profiles = LogDatabase.getInstance(AppDependencies.application).startupProfiles.getAll()
+    val output = StringBuilder()
+
+    profiles.forEach {
+      val date = dateFormat.format(Date(it.createdAt))
+      output.append("------------- $date -------------\n${it.profile}\n")
+    }
+
+    output.append("------------- Current process -------------\n")
+    output.append(StartupProfiler.getCurrentProfile())
+
+    return output
+  }
+}
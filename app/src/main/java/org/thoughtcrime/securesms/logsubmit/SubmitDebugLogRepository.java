@@ -77,6 +77,7 @@ public class SubmitDebugLogRepository {
     add(new LogSectionCapabilities());
     add(new LogSectionMemory());
     add(new LogSectionLocalMetrics());
+    add(new LogSectionQueryProfiler());
     add(new LogSectionRemoteConfig());
     add(new LogSectionPin());
     if (Build.VERSION.SDK_INT >= 28) {
@@ -98,6 +99,7 @@ public class SubmitDebugLogRepository {
     add(new LogSectionDatabaseSchema());
     add(new LogSectionRemappedRecords());
     add(new LogSectionAnr());
+    add(new LogSectionStartup());
     add(new LogSectionLogcat());
     add(new LogSectionLoggerHeader());
   }};
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.logging.Log
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import java.io.Closeable
+import java.io.IOException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Acks envelopes once their effects have been committed to the database.
+ *
+ * In batched mode, acks from consecutive transactions are collected and sent together on a background thread, once either [maxBatchSize]
+ * acks are waiting or the oldest has waited [maxDelayMs]. That keeps socket writes out of the processing loop, which is holding the session
+ * and group processing locks while it runs. Otherwise each transaction's acks are sent right away on the calling thread.
+ *
+ * Either way, callers must only hand over envelopes whose transaction has committed. If the connection drops before a batch goes out, the
+ * server simply redelivers those envelopes and they're dropped as duplicates.
+ *
+ * Call [close] before the connection the acks are going out on is torn down. Nothing is sent after that.
+ */
+class EnvelopeAckBatcher @VisibleForTesting constructor(
+  private val batched: Boolean,
+  private val maxBatchSize: Int,
+  private val maxDelayMs: Long,
+  private val executor: ScheduledExecutorService,
+  private val sendAcks: AckSender
+) : Closeable {
+
+  constructor(batched: Boolean, sendAcks: AckSender) : this(batched, MAX_BATCH_SIZE, MAX_DELAY_MS, EXECUTOR, sendAcks)
+
+  companion object {
+    private val TAG = Log.tag(EnvelopeAckBatcher::class.java)
+
+    private const val MAX_BATCH_SIZE = 100
+    private const val MAX_DELAY_MS = 250L
+
+    private val EXECUTOR: ScheduledExecutorService by lazy {
+      Executors.newSingleThreadScheduledExecutor { runnable -> Thread(runnable, "signal-EnvelopeAcks").apply { isDaemon = true } }
+    }
+  }
+
+  private val pending: MutableList<EnvelopeResponse> = mutableListOf()
+  private var scheduledFlush: ScheduledFuture<*>? = null
+  private var closed: Boolean = false
+
+  /** Held while acks are being written, so that [close] can wait for a write that's already in progress. */
+  private val sendLock = Any()
+
+  private var ackCount: Long = 0
+  private var writeCount: Long = 0
+
+  /**
+   * Call with the envelopes from a transaction that has just committed.
+   */
+  @Throws(IOException::class)
+  fun onCommitted(committed: List<EnvelopeResponse>) {
+    if (committed.isEmpty()) {
+      return
+    }
+
+    if (!batched) {
+      if (synchronized(this) { closed }) {
+        return
+      }
+
+      for (response in committed) {
+        sendAcks.send(listOf(response))
+        recordWrite(1)
+      }
+      return
+    }
+
+    val flushNow = synchronized(this) {
+      if (closed) {
+        return
+      }
+
+      pending += committed
+
+      if (pending.size >= maxBatchSize) {
+        true
+      } else {
+        if (scheduledFlush == null) {
+          scheduledFlush = executor.schedule(::flush, maxDelayMs, TimeUnit.MILLISECONDS)
+        }
+        false
+      }
+    }
+
+    if (flushNow) {
+      executor.execute(::flush)
+    }
+  }
+
+  /**
+   * Sends anything that's waiting right away, on the calling thread. Does nothing once [close] has been called.
+   */
+  fun flush() {
+    synchronized(sendLock) {
+      val batch: List<EnvelopeResponse> = synchronized(this) {
+        scheduledFlush?.cancel(false)
+        scheduledFlush = null
+
+        if (closed || pending.isEmpty()) {
+          return
+        }
+
+        pending.toList().also { pending.clear() }
+      }
+
+      send(batch)
+    }
+  }
+
+  /**
+   * Cancels any scheduled flush, waits for a write that's already in progress, and sends whatever is still waiting on the calling thread.
+   * Acks handed over after this are dropped.
+   */
+  override fun close() {
+    synchronized(sendLock) {
+      val batch: List<EnvelopeResponse> = synchronized(this) {
+        if (closed) {
+          return
+        }
+
+        closed = true
+        scheduledFlush?.cancel(false)
+        scheduledFlush = null
+
+        pending.toList().also { pending.clear() }
+      }
+
+      if (batch.isNotEmpty()) {
+        send(batch)
+      }
+    }
+  }
+
+  @Synchronized
+  fun getStats(): Stats {
+    return Stats(acks = ackCount, writes = writeCount)
+  }
+
+  private fun send(batch: List<EnvelopeResponse>) {
+    try {
+      sendAcks.send(batch)
+      recordWrite(batch.size)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to send ${batch.size} acks. The server will redeliver them.", e)
+    }
+  }
+
+  @Synchronized
+  private fun recordWrite(acks: Int) {
+    ackCount += acks
+    writeCount++
+  }
+
+  fun interface AckSender {
+    @Throws(IOException::class)
+    fun send(responses: List<EnvelopeResponse>)
+  }
+
+  data class Stats(val acks: Long, val writes: Long) {
+    /** How many separate trips to the socket were avoided by sending acks together rather than one at a time. */
+    val writesSaved: Long
+      get() = acks - writes
+
+    override fun toString(): String {
+      return "$acks acks in $writes writes ($writesSaved saved)"
+    }
+  }
+}
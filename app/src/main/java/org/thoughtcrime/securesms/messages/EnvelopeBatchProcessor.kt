@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.messages
+
+import org.signal.core.util.logging.Log
+import org.signal.core.util.withinSavepoint
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.messages.MessageDecryptor.FollowUpOperation
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+
+/**
+ * Processes a batch of envelopes, committing as many consecutive envelopes as possible in a single database transaction.
+ *
+ * A transaction is closed early whenever an envelope produces follow-up operations. Those operations (e.g. deferring processing to a job
+ * on the sender's queue) have to run before the next envelope is processed in order to preserve ordering, and they may only run after the
+ * transaction has been committed. Envelopes are only handed to [onCommitted] once the transaction containing them is committed.
+ *
+ * Each envelope runs in its own savepoint, and the protocol store is flushed inside of it. If an envelope throws, only its own changes are
+ * rolled back: the envelopes before it are committed and acked just as they would have been with a transaction each, and the error is
+ * rethrown. Otherwise a failure would roll back the database writes of every earlier envelope in the batch while keeping the effects
+ * they had elsewhere (like jobs), which redelivery would then duplicate.
+ */
+class EnvelopeBatchProcessor(
+  private val transactions: Transactions,
+  private val processEnvelope: (EnvelopeResponse) -> List<FollowUpOperation>?,
+  private val flushProtocolStore: () -> Unit,
+  private val runFollowUpOperations: (List<FollowUpOperation>) -> Unit,
+  private val onCommitted: (List<EnvelopeResponse>) -> Unit
+) {
+
+  companion object {
+    private val TAG = Log.tag(EnvelopeBatchProcessor::class.java)
+  }
+
+  /**
+   * @return The number of transactions that were used to process the batch.
+   */
+  fun process(batch: List<EnvelopeResponse>): Int {
+    var index = 0
+    var transactionCount = 0
+
+    while (index < batch.size) {
+      val committed: MutableList<EnvelopeResponse> = ArrayList(batch.size - index)
+      var failure: Throwable? = null
+
+      Log.d(TAG, "Beginning database transaction...")
+      val followUpOperations: List<FollowUpOperation>? = transactions.inTransaction {
+        var followUps: List<FollowUpOperation>? = null
+        while (index < batch.size && followUps.isNullOrEmpty()) {
+          val response = batch[index]
+
+          try {
+            followUps = transactions.inSavepoint {
+              processEnvelope(response).also { flushProtocolStore() }
+            }
+          } catch (e: Throwable) {
+            failure = e
+            break
+          }
+
+          index++
+          committed += response
+        }
+        followUps
+      }
+      Log.d(TAG, "Ended database transaction. Committed ${committed.size} envelopes.")
+      transactionCount++
+
+      if (!followUpOperations.isNullOrEmpty()) {
+        Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
+        runFollowUpOperations(followUpOperations)
+      }
+
+      onCommitted(committed)
+
+      failure?.let {
+        Log.w(TAG, "Envelope ${index + 1} of ${batch.size} failed. Committed the ${committed.size} before it.")
+        throw it
+      }
+    }
+
+    return transactionCount
+  }
+
+  interface Transactions {
+    /** Runs [block] in a transaction that's committed if it returns. */
+    fun <T> inTransaction(block: () -> T): T
+
+    /** Runs [block] inside the open transaction, such that if it throws, only the changes it made are rolled back. */
+    fun <T> inSavepoint(block: () -> T): T
+  }
+
+  /**
+   * Coalesces thread updates for the whole transaction, so a thread that receives many messages in one batch is only recomputed once.
+   */
+  object DatabaseTransactions : Transactions {
+    override fun <T> inTransaction(block: () -> T): T {
+      return SignalDatabase.threads.withCoalescedUpdates(block)
+    }
+
+    override fun <T> inSavepoint(block: () -> T): T {
+      return SignalDatabase.rawDatabase.withinSavepoint("envelope") { block() }
+    }
+  }
+}
@@ -29,6 +29,7 @@ import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
 import org.thoughtcrime.securesms.notifications.NotificationChannels
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.util.AppForegroundObserver
+import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import org.thoughtcrime.securesms.util.asChain
 import org.whispersystems.signalservice.api.push.ServiceId
@@ -384,6 +385,8 @@ class IncomingMessageObserver(private val context: Application) {
           }
         }
 
+        val ackBatcher = EnvelopeAckBatcher(RemoteConfig.batchedEnvelopeAcks, signalWebSocket::sendAcks)
+
         signalWebSocket.connect()
         try {
           while (isConnectionNecessary()) {
@@ -395,30 +398,20 @@ class IncomingMessageObserver(private val context: Application) {
                 val bufferedStore = BufferedProtocolStore.create()
 
                 val startTime = System.currentTimeMillis()
-                GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
+                val transactionCount = GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
                   ReentrantSessionLock.INSTANCE.acquire().use {
-                    batch.forEach { response ->
-                      Log.d(TAG, "Beginning database transaction...")
-                      val followUpOperations = SignalDatabase.runInTransaction { db ->
-                        val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
-                        bufferedStore.flushToDisk()
-                        followUps
-                      }
-                      Log.d(TAG, "Ended database transaction.")
-
-                      if (followUpOperations != null) {
-                        Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
-                        val jobs = followUpOperations.mapNotNull { it.run() }
-                        AppDependencies.jobManager.addAllChains(jobs)
-                      }
-
-                      signalWebSocket.sendAck(response)
-                    }
+                    EnvelopeBatchProcessor(
+                      transactions = EnvelopeBatchProcessor.DatabaseTransactions,
+                      processEnvelope = { processEnvelope(bufferedStore, it.envelope, it.serverDeliveredTimestamp) },
+                      flushProtocolStore = bufferedStore::flushToDisk,
+                      runFollowUpOperations = { operations -> AppDependencies.jobManager.addAllChains(operations.mapNotNull { it.run() }) },
+                      onCommitted = ackBatcher::onCommitted
+                    ).process(batch)
                   }
                 }
                 val duration = System.currentTimeMillis() - startTime
                 val timePerMessage: Float = duration / batch.size.toFloat()
-                Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message)")
+                Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message, $transactionCount transactions). Thread updates: ${SignalDatabase.threads.getUpdateCoalescerStats()}. Acks: ${ackBatcher.getStats()}")
               }
               attempts = 0
               SignalLocalMetrics.PushWebsocketFetch.onProcessedBatch()
@@ -450,6 +443,7 @@ class IncomingMessageObserver(private val context: Application) {
           Log.w(TAG, e)
         } finally {
           Log.w(TAG, "Shutting down pipe...")
+          ackBatcher.close()
           disconnect()
           webSocketDisposable.dispose()
         }
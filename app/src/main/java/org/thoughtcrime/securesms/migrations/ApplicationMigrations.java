@@ -150,9 +150,10 @@ public class ApplicationMigrations {
     static final int SUBSCRIBER_ID                 = 105;
     static final int CONTACT_LINK_REBUILD          = 106;
     static final int DELETE_SYNC_CAPABILITY        = 107;
+    static final int REBUILD_MESSAGE_FTS_INDEX_5   = 108;
   }
 
-  public static final int CURRENT_VERSION = 107;
+  public static final int CURRENT_VERSION = 108;
 
  /**
    * This *must* be called after the {@link JobManager} has been instantiated, but *before* the call
@@ -683,6 +684,10 @@ public class ApplicationMigrations {
       jobs.put(Version.DELETE_SYNC_CAPABILITY, new AttributesMigrationJob());
     }
 
+    if (lastSeenVersion < Version.REBUILD_MESSAGE_FTS_INDEX_5) {
+      jobs.put(Version.REBUILD_MESSAGE_FTS_INDEX_5, new RebuildMessageSearchIndexMigrationJob());
+    }
+
     return jobs;
   }
 
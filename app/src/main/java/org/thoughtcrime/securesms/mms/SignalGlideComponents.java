@@ -40,6 +40,7 @@ import org.thoughtcrime.securesms.glide.cache.EncryptedBitmapResourceEncoder;
 import org.thoughtcrime.securesms.glide.cache.EncryptedCacheDecoder;
 import org.thoughtcrime.securesms.glide.cache.EncryptedCacheEncoder;
 import org.thoughtcrime.securesms.glide.cache.EncryptedGifDrawableResourceEncoder;
+import org.thoughtcrime.securesms.glide.cache.EncryptedSegmentCache;
 import org.thoughtcrime.securesms.glide.cache.WebpSanDecoder;
 import org.thoughtcrime.securesms.mms.AttachmentStreamUriLoader.AttachmentModel;
 import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
@@ -47,6 +48,7 @@ import org.thoughtcrime.securesms.stickers.StickerRemoteUri;
 import org.thoughtcrime.securesms.stickers.StickerRemoteUriLoader;
 import org.thoughtcrime.securesms.stories.StoryTextPostModel;
 import org.thoughtcrime.securesms.util.ConversationShortcutPhoto;
+import org.thoughtcrime.securesms.util.RemoteConfig;
 
 import java.io.File;
 import java.io.InputStream;
@@ -60,8 +62,9 @@ public class SignalGlideComponents implements RegisterGlideComponents {
 
   @Override
   public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
-    AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
-    byte[]           secret           = attachmentSecret.getModernKey();
+    AttachmentSecret      attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
+    byte[]                secret           = attachmentSecret.getModernKey();
+    EncryptedSegmentCache segmentCache     = RemoteConfig.glideSegmentCache() ? EncryptedSegmentCache.getInstance(context) : null;
 
     registry.prepend(File.class, File.class, UnitModelLoader.Factory.getInstance());
 
@@ -69,12 +72,12 @@ public class SignalGlideComponents implements RegisterGlideComponents {
 
     registry.prepend(InputStream.class, new EncryptedCacheEncoder(secret, glide.getArrayPool()));
 
-    registry.prepend(File.class, Bitmap.class, new EncryptedCacheDecoder<>(secret, new StreamBitmapDecoder(new Downsampler(registry.getImageHeaderParsers(), context.getResources().getDisplayMetrics(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool())));
+    registry.prepend(File.class, Bitmap.class, new EncryptedCacheDecoder<>(secret, segmentCache, new StreamBitmapDecoder(new Downsampler(registry.getImageHeaderParsers(), context.getResources().getDisplayMetrics(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool())));
 
     StreamGifDecoder streamGifDecoder = new StreamGifDecoder(registry.getImageHeaderParsers(), new ByteBufferGifDecoder(context, registry.getImageHeaderParsers(), glide.getBitmapPool(), glide.getArrayPool()), glide.getArrayPool());
     registry.prepend(InputStream.class, GifDrawable.class, streamGifDecoder);
     registry.prepend(GifDrawable.class, new EncryptedGifDrawableResourceEncoder(secret));
-    registry.prepend(File.class, GifDrawable.class, new EncryptedCacheDecoder<>(secret, streamGifDecoder));
+    registry.prepend(File.class, GifDrawable.class, new EncryptedCacheDecoder<>(secret, segmentCache, streamGifDecoder));
 
     EncryptedBitmapResourceEncoder encryptedBitmapResourceEncoder = new EncryptedBitmapResourceEncoder(secret);
     registry.prepend(Bitmap.class, new EncryptedBitmapResourceEncoder(secret));
@@ -86,7 +89,7 @@ public class SignalGlideComponents implements RegisterGlideComponents {
     registry.prepend(InputStream.class, APNGDecoder.class, apngStreamCacheDecoder);
     registry.prepend(ByteBuffer.class, APNGDecoder.class, apngBufferCacheDecoder);
     registry.prepend(APNGDecoder.class, new EncryptedApngCacheEncoder(secret));
-    registry.prepend(File.class, APNGDecoder.class, new EncryptedCacheDecoder<>(secret, apngStreamCacheDecoder));
+    registry.prepend(File.class, APNGDecoder.class, new EncryptedCacheDecoder<>(secret, segmentCache, apngStreamCacheDecoder));
     registry.register(APNGDecoder.class, Drawable.class, new ApngFrameDrawableTranscoder());
 
     registry.prepend(BlurHash.class, Bitmap.class, new BlurHashResourceDecoder());
@@ -86,6 +86,7 @@ public class OptimizedMessageNotifier implements MessageNotifier {
   @Override
   public void updateNotification(@NonNull Context context) {
     SignalDatabase.runPostSuccessfulTransaction(DEDUPE_KEY_GENERAL, () -> {
+      defaultMessageNotifier.markConversationChanged(null);
       runOnLimiter(() -> getNotifier().updateNotification(context));
     });
   }
@@ -93,6 +94,7 @@ public class OptimizedMessageNotifier implements MessageNotifier {
   @Override
   public void updateNotification(@NonNull Context context, @NonNull ConversationId conversationId) {
     SignalDatabase.runPostSuccessfulTransaction(DEDUPE_KEY_CHAT + conversationId.getThreadId(), () -> {
+      defaultMessageNotifier.markConversationChanged(conversationId);
       runOnLimiter(() -> getNotifier().updateNotification(context, conversationId));
     });
   }
@@ -100,6 +102,7 @@ public class OptimizedMessageNotifier implements MessageNotifier {
   @Override
   public void forceBubbleNotification(@NonNull Context context, @NonNull ConversationId conversationId) {
     SignalDatabase.runPostSuccessfulTransaction(() -> {
+      defaultMessageNotifier.markConversationChanged(conversationId);
       runOnLimiter(() -> getNotifier().forceBubbleNotification(context, conversationId));
     });
   }
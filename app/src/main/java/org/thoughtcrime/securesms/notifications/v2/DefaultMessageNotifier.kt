@@ -59,6 +59,12 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
 
   @Volatile private var previousState: NotificationState = NotificationState.EMPTY
 
+  /** What the database looked like at the end of the last pass, if we can vouch for it. Lets a pass rebuild only the changed threads. */
+  @Volatile private var incrementalBase: IncrementalBase? = null
+
+  /** Threads that have changed since the last pass, or null if everything needs to be rebuilt. */
+  private var changedThreads: MutableSet<Long>? = null
+
   private val threadReminders: MutableMap<ConversationId, Reminder> = ConcurrentHashMap()
   private val stickyThreads: MutableMap<ConversationId, StickyThread> = mutableMapOf()
   private val lastThreadNotification: MutableMap<ConversationId, Long> = ConcurrentHashMap()
@@ -101,11 +107,27 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
     executor.cancel()
   }
 
+  /**
+   * Records that a conversation changed, or that anything may have if [conversationId] is null. Callers that rate limit or drop passes
+   * should call this for every request, since the next pass only rebuilds the threads that were recorded here.
+   */
+  fun markConversationChanged(conversationId: ConversationId?) {
+    synchronized(this) {
+      if (conversationId == null) {
+        changedThreads = null
+      } else {
+        changedThreads?.add(conversationId.threadId)
+      }
+    }
+  }
+
   override fun updateNotification(context: Context) {
+    markConversationChanged(null)
     updateNotification(context, null, BubbleState.HIDDEN)
   }
 
   override fun updateNotification(context: Context, conversationId: ConversationId) {
+    markConversationChanged(conversationId)
     if (System.currentTimeMillis() - lastDesktopActivityTimestamp < DESKTOP_ACTIVITY_PERIOD) {
       Log.i(TAG, "Scheduling delayed notification...")
       executor.enqueue(context, conversationId)
@@ -115,6 +137,7 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
   }
 
   override fun forceBubbleNotification(context: Context, conversationId: ConversationId) {
+    markConversationChanged(conversationId)
     updateNotification(context, conversationId, BubbleState.SHOWN)
   }
 
@@ -137,8 +160,22 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
 
     val notificationProfile: NotificationProfile? = NotificationProfiles.getActiveProfile(SignalDatabase.notificationProfiles.getProfiles())
 
-    Log.internal().i(TAG, "sticky thread: $stickyThreads active profile: ${notificationProfile?.id ?: "none" }")
-    var state: NotificationState = NotificationStateProvider.constructNotificationState(stickyThreads, notificationProfile)
+    val threadsToRebuild: Set<Long>? = synchronized(this) {
+      val changed = changedThreads
+      changedThreads = mutableSetOf()
+      changed
+    }
+
+    val base: IncrementalBase? = incrementalBase?.takeIf { threadsToRebuild != null && !notificationConfigurationChanged && it.canUpdate(stickyThreads, notificationProfile) }
+    incrementalBase = null
+
+    Log.internal().i(TAG, "sticky thread: $stickyThreads active profile: ${notificationProfile?.id ?: "none" } rebuilding: ${if (base != null) threadsToRebuild else "all"}")
+    var state: NotificationState = if (base != null && threadsToRebuild != null) {
+      NotificationStateProvider.updateNotificationState(base.state, threadsToRebuild, stickyThreads, notificationProfile)
+    } else {
+      NotificationStateProvider.constructNotificationState(stickyThreads, notificationProfile)
+    }
+    val fullRebuildTimestamp: Long = base?.fullRebuildTimestamp ?: System.currentTimeMillis()
     Log.internal().i(TAG, "state: $state")
 
     if (state.muteFilteredMessages.isNotEmpty()) {
@@ -162,6 +199,7 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
           SignalDatabase.messages.markAsNotified(item.id)
         }
       }
+      incrementalBase = IncrementalBase(NotificationState.EMPTY, stickyThreads.toMap(), notificationProfile, fullRebuildTimestamp)
       return
     }
 
@@ -189,6 +227,7 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
       NotificationCancellationHelper.cancelAllMessageNotifications(context, stickyThreads.map { it.value.notificationId }.toSet())
       updateBadge(context, 0)
       clearReminderInternal(context)
+      incrementalBase = IncrementalBase(NotificationState.EMPTY, stickyThreads.toMap(), notificationProfile, fullRebuildTimestamp)
       return
     }
 
@@ -217,7 +256,9 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
     updateBadge(context, state.messageCount)
 
     val messageIds: List<Long> = state.notificationItems.map { it.id }
-    SignalDatabase.messages.setNotifiedTimestamp(System.currentTimeMillis(), messageIds)
+    val notifiedTimestamp: Long = System.currentTimeMillis()
+    SignalDatabase.messages.setNotifiedTimestamp(notifiedTimestamp, messageIds)
+    incrementalBase = IncrementalBase(state.withNotifiedTimestamp(notifiedTimestamp), stickyThreads.toMap(), notificationProfile, fullRebuildTimestamp)
 
     Log.i(TAG, "threads: ${state.threadCount} messages: ${state.messageCount}")
 
@@ -298,6 +339,12 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
     val TAG: String = Log.tag(DefaultMessageNotifier::class.java)
 
     private val REMINDER_TIMEOUT: Long = TimeUnit.MINUTES.toMillis(2)
+
+    /**
+     * Some changes that affect notifications (like muting a chat) don't request a pass of their own, so every so often we rebuild from
+     * scratch even if only one thread changed.
+     */
+    private val MAX_INCREMENTAL_PERIOD: Long = TimeUnit.MINUTES.toMillis(1)
     val MIN_AUDIBLE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(2)
     val DESKTOP_ACTIVITY_PERIOD = TimeUnit.MINUTES.toMillis(1)
 
@@ -315,6 +362,19 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
 
   data class StickyThread(val conversationId: ConversationId, val notificationId: Int, val earliestTimestamp: Long)
   private data class Reminder(val lastNotified: Long, val count: Int = 0)
+
+  private data class IncrementalBase(
+    val state: NotificationState,
+    val stickyThreads: Map<ConversationId, StickyThread>,
+    val notificationProfile: NotificationProfile?,
+    val fullRebuildTimestamp: Long
+  ) {
+    fun canUpdate(currentStickyThreads: Map<ConversationId, StickyThread>, currentNotificationProfile: NotificationProfile?): Boolean {
+      return stickyThreads == currentStickyThreads &&
+        notificationProfile == currentNotificationProfile &&
+        System.currentTimeMillis() - fullRebuildTimestamp < MAX_INCREMENTAL_PERIOD
+    }
+  }
 }
 
 private fun StatusBarNotification.isMessageNotification(): Boolean {
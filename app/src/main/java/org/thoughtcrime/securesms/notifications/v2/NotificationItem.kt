@@ -42,7 +42,7 @@ private const val MAX_DISPLAY_LENGTH = 500
 /**
  * Base for messaged-based notifications. Represents a single notification.
  */
-sealed class NotificationItem(val threadRecipient: Recipient, protected val record: MessageRecord) : Comparable<NotificationItem> {
+sealed class NotificationItem(val threadRecipient: Recipient, protected val record: MessageRecord, protected val notifiedTimestamp: Long) : Comparable<NotificationItem> {
 
   val id: Long = record.id
   val thread = ConversationId.fromMessageRecord(record)
@@ -52,8 +52,6 @@ sealed class NotificationItem(val threadRecipient: Recipient, protected val reco
   val isPersonSelf: Boolean
     get() = authorRecipient.isSelf
 
-  protected val notifiedTimestamp: Long = record.notifiedTimestamp
-
   abstract val timestamp: Long
   abstract val authorRecipient: Recipient
   abstract val isNewNotification: Boolean
@@ -65,6 +63,11 @@ sealed class NotificationItem(val threadRecipient: Recipient, protected val reco
   abstract fun getThumbnailInfo(context: Context): ThumbnailInfo
   abstract fun canReply(context: Context): Boolean
 
+  /**
+   * A copy of this item as it would be read back from the database after being marked notified at [timestamp].
+   */
+  abstract fun withNotifiedTimestamp(timestamp: Long): NotificationItem
+
   protected fun getMessageContentType(messageRecord: MmsMessageRecord): String {
     val thumbnailSlide: Slide? = messageRecord.slideDeck.thumbnailSlide
 
@@ -206,7 +209,7 @@ sealed class NotificationItem(val threadRecipient: Recipient, protected val reco
 /**
  * Represents a notification associated with a new message.
  */
-class MessageNotification(threadRecipient: Recipient, record: MessageRecord) : NotificationItem(threadRecipient, record) {
+class MessageNotification(threadRecipient: Recipient, record: MessageRecord, notifiedTimestamp: Long = record.notifiedTimestamp) : NotificationItem(threadRecipient, record, notifiedTimestamp) {
   override val timestamp: Long = record.timestamp
   override val authorRecipient: Recipient = record.fromRecipient.resolve()
   override val isNewNotification: Boolean = notifiedTimestamp == 0L && !record.isEditMessage
@@ -298,6 +301,10 @@ class MessageNotification(threadRecipient: Recipient, record: MessageRecord) : N
     return super.hasSameContent(other) && thumbnailInfo == (other as? MessageNotification)?.thumbnailInfo
   }
 
+  override fun withNotifiedTimestamp(timestamp: Long): NotificationItem {
+    return MessageNotification(threadRecipient, record, timestamp)
+  }
+
   override fun toString(): String {
     return "MessageNotification(timestamp=$timestamp, isNewNotification=$isNewNotification)"
   }
@@ -306,7 +313,7 @@ class MessageNotification(threadRecipient: Recipient, record: MessageRecord) : N
 /**
  * Represents a notification associated with a new reaction.
  */
-class ReactionNotification(threadRecipient: Recipient, record: MessageRecord, val reaction: ReactionRecord) : NotificationItem(threadRecipient, record) {
+class ReactionNotification(threadRecipient: Recipient, record: MessageRecord, val reaction: ReactionRecord, notifiedTimestamp: Long = record.notifiedTimestamp) : NotificationItem(threadRecipient, record, notifiedTimestamp) {
   override val timestamp: Long = reaction.dateReceived
   override val authorRecipient: Recipient = Recipient.resolved(reaction.author)
   override val isNewNotification: Boolean = timestamp > notifiedTimestamp
@@ -370,6 +377,10 @@ class ReactionNotification(threadRecipient: Recipient, record: MessageRecord, va
   override fun getThumbnailInfo(context: Context): ThumbnailInfo = ThumbnailInfo()
   override fun canReply(context: Context): Boolean = false
 
+  override fun withNotifiedTimestamp(timestamp: Long): NotificationItem {
+    return ReactionNotification(threadRecipient, record, reaction, timestamp)
+  }
+
   override fun toString(): String {
     return "ReactionNotification(timestamp=$timestamp, isNewNotification=$isNewNotification)"
   }
@@ -86,6 +86,17 @@ data class NotificationState(val conversations: List<NotificationConversation>,
       .toSet()
   }
 
+  /**
+   * A copy of this state as it would be read back from the database after every item was marked notified at [timestamp].
+   */
+  fun withNotifiedTimestamp(timestamp: Long): NotificationState {
+    return NotificationState(
+      conversations = conversations.map { conversation -> conversation.copy(notificationItems = conversation.notificationItems.map { it.withNotifiedTimestamp(timestamp) }) },
+      muteFilteredMessages = emptyList(),
+      profileFilteredMessages = emptyList()
+    )
+  }
+
   data class FilteredMessage(val id: Long, val isMms: Boolean)
 
   companion object {
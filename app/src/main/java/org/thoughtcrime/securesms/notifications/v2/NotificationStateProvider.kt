@@ -3,11 +3,10 @@ package org.thoughtcrime.securesms.notifications.v2
 import androidx.annotation.WorkerThread
 import org.signal.core.util.CursorUtil
 import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.database.MessageTable
-import org.thoughtcrime.securesms.database.NoSuchMessageException
 import org.thoughtcrime.securesms.database.RecipientTable
 import org.thoughtcrime.securesms.database.SignalDatabase
-import org.thoughtcrime.securesms.database.model.MessageId
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord
 import org.thoughtcrime.securesms.database.model.ReactionRecord
@@ -22,55 +21,64 @@ object NotificationStateProvider {
 
   private val TAG = Log.tag(NotificationStateProvider::class.java)
 
+  /** Keeps the message id lists we bind as query arguments well under SQLite's limit. */
+  private const val BULK_QUERY_SIZE = 500
+
   @WorkerThread
   fun constructNotificationState(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, notificationProfile: NotificationProfile?): NotificationState {
-    val messages: MutableList<NotificationMessage> = mutableListOf()
+    val messages: List<NotificationMessage> = readNotificationMessages(stickyThreads, threadIds = null)
+    if (messages.isEmpty()) {
+      return NotificationState.EMPTY
+    }
+
+    return buildNotificationState(messages, stickyThreads, notificationProfile)
+  }
+
+  /**
+   * Rebuilds the conversations for [changedThreadIds] only, keeping every other conversation in [previousState] as it is.
+   *
+   * This is only correct if nothing outside of [changedThreadIds] has changed since [previousState] was built, including it having been
+   * marked notified (see [NotificationState.withNotifiedTimestamp]), and the sticky threads and notification profile being the same.
+   */
+  @WorkerThread
+  fun updateNotificationState(
+    previousState: NotificationState,
+    changedThreadIds: Set<Long>,
+    stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>,
+    notificationProfile: NotificationProfile?
+  ): NotificationState {
+    val messages: List<NotificationMessage> = readNotificationMessages(stickyThreads, changedThreadIds)
+    val changedState: NotificationState = buildNotificationState(messages, stickyThreads, notificationProfile)
+
+    return NotificationState(
+      conversations = previousState.conversations.filterNot { changedThreadIds.contains(it.thread.threadId) } + changedState.conversations,
+      muteFilteredMessages = changedState.muteFilteredMessages,
+      profileFilteredMessages = changedState.profileFilteredMessages
+    )
+  }
+
+  /**
+   * Reads every message that may need a notification in a single pass, then fills in everything else we need about them with one query
+   * per kind of data, rather than a handful of queries per message.
+   */
+  private fun readNotificationMessages(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, threadIds: Set<Long>?): List<NotificationMessage> {
+    val rows: MutableList<UnreadRow> = mutableListOf()
 
-    SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values).use { unreadMessages ->
+    SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values, threadIds).use { unreadMessages ->
       if (unreadMessages.count == 0) {
-        return NotificationState.EMPTY
+        return emptyList()
       }
 
       MessageTable.mmsReaderFor(unreadMessages).use { reader ->
         var record: MessageRecord? = reader.getNext()
         while (record != null) {
-          val threadRecipient: Recipient? = SignalDatabase.threads.getRecipientForThreadId(record.threadId)
-          if (threadRecipient != null) {
-            val hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MessageTable.REACTIONS_UNREAD) == 1
-            val conversationId = ConversationId.fromMessageRecord(record)
-
-            val parentRecord = conversationId.groupStoryId?.let {
-              try {
-                SignalDatabase.messages.getMessageRecord(it)
-              } catch (e: NoSuchMessageException) {
-                null
-              }
-            }
-
-            val hasSelfRepliedToGroupStory = conversationId.groupStoryId?.let {
-              SignalDatabase.messages.hasGroupReplyOrReactionInStory(it)
-            }
+          rows += UnreadRow(
+            record = record,
+            hasUnreadReactions = CursorUtil.requireInt(unreadMessages, MessageTable.REACTIONS_UNREAD) == 1,
+            isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
+            lastReactionRead = CursorUtil.requireLong(unreadMessages, MessageTable.REACTIONS_LAST_SEEN)
+          )
 
-            if (record is MmsMessageRecord) {
-              val attachments = SignalDatabase.attachments.getAttachmentsForMessage(record.id)
-              if (attachments.isNotEmpty()) {
-                record = record.withAttachments(attachments)
-              }
-            }
-
-            messages += NotificationMessage(
-              messageRecord = record,
-              reactions = if (hasUnreadReactions) SignalDatabase.reactions.getReactions(MessageId(record.id)) else emptyList(),
-              threadRecipient = threadRecipient,
-              thread = conversationId,
-              stickyThread = stickyThreads.containsKey(conversationId),
-              isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
-              hasUnreadReactions = hasUnreadReactions,
-              lastReactionRead = CursorUtil.requireLong(unreadMessages, MessageTable.REACTIONS_LAST_SEEN),
-              isParentStorySentBySelf = parentRecord?.isOutgoing ?: false,
-              hasSelfRepliedToStory = hasSelfRepliedToGroupStory ?: false
-            )
-          }
           try {
             record = reader.getNext()
           } catch (e: IllegalStateException) {
@@ -82,6 +90,59 @@ object NotificationStateProvider {
       }
     }
 
+    val threadRecipients: Map<Long, Recipient> = SignalDatabase.threads
+      .getRecipientIdsByThreadId(rows.map { it.record.threadId }.toSet())
+      .mapValues { (_, recipientId) -> Recipient.resolved(recipientId) }
+
+    val groupStoryIds: Set<Long> = rows.mapNotNull { ConversationId.fromMessageRecord(it.record).groupStoryId }.toSet()
+
+    val parentStories: Map<Long, MessageRecord> = if (groupStoryIds.isNotEmpty()) {
+      SignalDatabase.messages.getMessages(groupStoryIds).use { reader -> reader.associateBy { it.id } }
+    } else {
+      emptyMap()
+    }
+
+    val storiesWithSelfReplies: Set<Long> = SignalDatabase.messages.getGroupStoriesWithReplyOrReaction(groupStoryIds)
+
+    val attachments: Map<Long, List<DatabaseAttachment>> = rows
+      .filter { it.record is MmsMessageRecord }
+      .map { it.record.id }
+      .chunked(BULK_QUERY_SIZE)
+      .flatMap { SignalDatabase.attachments.getAttachmentsForMessages(it).entries }
+      .associate { it.key to it.value }
+
+    val reactions: Map<Long, List<ReactionRecord>> = SignalDatabase.reactions.getReactionsForMessages(rows.filter { it.hasUnreadReactions }.map { it.record.id })
+
+    return rows.mapNotNull { row ->
+      val threadRecipient: Recipient = threadRecipients[row.record.threadId] ?: return@mapNotNull null
+      val conversationId = ConversationId.fromMessageRecord(row.record)
+
+      var record: MessageRecord = row.record
+      val messageAttachments: List<DatabaseAttachment>? = attachments[record.id]
+      if (record is MmsMessageRecord && !messageAttachments.isNullOrEmpty()) {
+        record = record.withAttachments(messageAttachments)
+      }
+
+      NotificationMessage(
+        messageRecord = record,
+        reactions = if (row.hasUnreadReactions) reactions[record.id] ?: emptyList() else emptyList(),
+        threadRecipient = threadRecipient,
+        thread = conversationId,
+        stickyThread = stickyThreads.containsKey(conversationId),
+        isUnreadMessage = row.isUnreadMessage,
+        hasUnreadReactions = row.hasUnreadReactions,
+        lastReactionRead = row.lastReactionRead,
+        isParentStorySentBySelf = conversationId.groupStoryId?.let { parentStories[it]?.isOutgoing } ?: false,
+        hasSelfRepliedToStory = conversationId.groupStoryId?.let { storiesWithSelfReplies.contains(it) } ?: false
+      )
+    }
+  }
+
+  private fun buildNotificationState(
+    messages: List<NotificationMessage>,
+    stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>,
+    notificationProfile: NotificationProfile?
+  ): NotificationState {
     val conversations: MutableList<NotificationConversation> = mutableListOf()
     val muteFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
     val profileFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
@@ -124,6 +185,13 @@ object NotificationStateProvider {
     return NotificationState(conversations, muteFilteredMessages, profileFilteredMessages)
   }
 
+  private class UnreadRow(
+    val record: MessageRecord,
+    val hasUnreadReactions: Boolean,
+    val isUnreadMessage: Boolean,
+    val lastReactionRead: Long
+  )
+
   private data class NotificationMessage(
     val messageRecord: MessageRecord,
     val reactions: List<ReactionRecord>,
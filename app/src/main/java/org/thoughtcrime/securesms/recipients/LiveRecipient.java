@@ -163,6 +163,19 @@ public final class LiveRecipient {
     return updated;
   }
 
+  /**
+   * Resolves the recipient using a record that was already read from disk, e.g. as part of a batch lookup.
+   * Does nothing if the recipient has already been resolved.
+   */
+  @WorkerThread
+  void resolve(@NonNull RecipientRecord record) {
+    if (!recipient.get().isResolving()) {
+      return;
+    }
+
+    set(createAndCacheRecipient(record));
+  }
+
   @WorkerThread
   public LiveRecipient refresh() {
     refresh(getId());
@@ -198,8 +211,10 @@ public final class LiveRecipient {
   }
 
   private @NonNull Recipient fetchAndCacheRecipientFromDisk(@NonNull RecipientId id) {
-    RecipientRecord record = recipientTable.getRecord(id);
+    return createAndCacheRecipient(recipientTable.getRecord(id));
+  }
 
+  private @NonNull Recipient createAndCacheRecipient(@NonNull RecipientRecord record) {
     Recipient recipient;
     if (record.getGroupId() != null) {
       recipient = getGroupRecipientDetails(record);
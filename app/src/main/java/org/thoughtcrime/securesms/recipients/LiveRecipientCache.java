@@ -7,6 +7,7 @@ import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.concurrent.SignalExecutors;
@@ -15,9 +16,11 @@ import org.thoughtcrime.securesms.database.RecipientTable;
 import org.thoughtcrime.securesms.database.RecipientTable.MissingRecipientException;
 import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.database.ThreadTable;
+import org.thoughtcrime.securesms.database.model.RecipientRecord;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.signal.core.util.CursorUtil;
+import org.thoughtcrime.securesms.util.DeviceProperties;
 import org.thoughtcrime.securesms.util.LRUCache;
 import org.signal.core.util.Stopwatch;
 import org.thoughtcrime.securesms.util.concurrent.FilteredExecutor;
@@ -25,17 +28,23 @@ import org.whispersystems.signalservice.api.push.ServiceId.ACI;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 public final class LiveRecipientCache {
 
   private static final String TAG = Log.tag(LiveRecipientCache.class);
 
+  private static final int CACHE_MAX_LOW_MEMORY   = 500;
   private static final int CACHE_MAX              = 1000;
+  private static final int CACHE_MAX_HIGH_MEMORY  = 2000;
+  private static final int HIGH_MEMORY_CLASS      = 256;
   private static final int THREAD_CACHE_WARM_MAX  = 500;
   private static final int CONTACT_CACHE_WARM_MAX = 50;
 
@@ -44,10 +53,21 @@ public final class LiveRecipientCache {
   private final Map<RecipientId, LiveRecipient> recipients;
   private final LiveRecipient                   unknown;
   private final Executor                        resolveExecutor;
+  private final int                             maxSize;
 
   private final AtomicReference<RecipientId> localRecipientId;
   private final AtomicBoolean                warmedUp;
 
+  /** Recipients that missed the cache and are waiting to be resolved in the next batch. Guarded by itself. */
+  private final List<LiveRecipient> pendingResolves;
+  private       boolean             resolveScheduled;
+
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+  private final AtomicLong batches;
+  private final AtomicLong batchedResolves;
+
   public LiveRecipientCache(@NonNull Context context) {
     this(context, new FilteredExecutor(SignalExecutors.newCachedBoundedExecutor("signal-recipients", ThreadUtil.PRIORITY_UI_BLOCKING_THREAD, 1, 4, 15), () -> !SignalDatabase.inTransaction()));
   }
@@ -56,11 +76,18 @@ public final class LiveRecipientCache {
   public LiveRecipientCache(@NonNull Context context, @NonNull Executor executor) {
     this.context        = context.getApplicationContext();
     this.recipientTable = SignalDatabase.recipients();
-    this.recipients     = new LRUCache<>(CACHE_MAX);
+    this.maxSize           = getMaxSize(context);
+    this.recipients        = new EvictionCountingLRUCache(maxSize);
     this.warmedUp          = new AtomicBoolean(false);
     this.localRecipientId  = new AtomicReference<>(null);
     this.unknown           = new LiveRecipient(context, Recipient.UNKNOWN);
     this.resolveExecutor   = executor;
+    this.pendingResolves   = new ArrayList<>();
+    this.hits              = new AtomicLong(0);
+    this.misses            = new AtomicLong(0);
+    this.evictions         = new AtomicLong(0);
+    this.batches           = new AtomicLong(0);
+    this.batchedResolves   = new AtomicLong(0);
   }
 
   @AnyThread
@@ -83,12 +110,91 @@ public final class LiveRecipientCache {
     }
 
     if (needsResolve) {
-      resolveExecutor.execute(live::resolve);
+      misses.incrementAndGet();
+      enqueueResolve(live);
+    } else {
+      hits.incrementAndGet();
     }
 
     return live;
   }
 
+  /**
+   * Queues a recipient to be resolved. Misses that arrive while a batch is waiting to run are coalesced into it, so that a screen
+   * faulting in many recipients at once results in a handful of queries rather than one per recipient.
+   */
+  private void enqueueResolve(@NonNull LiveRecipient live) {
+    boolean schedule;
+
+    synchronized (pendingResolves) {
+      pendingResolves.add(live);
+      schedule         = !resolveScheduled;
+      resolveScheduled = true;
+    }
+
+    if (schedule) {
+      resolveExecutor.execute(this::resolvePending);
+    }
+  }
+
+  @WorkerThread
+  private void resolvePending() {
+    List<LiveRecipient> batch;
+
+    synchronized (pendingResolves) {
+      batch = new ArrayList<>(pendingResolves);
+      pendingResolves.clear();
+      resolveScheduled = false;
+    }
+
+    List<LiveRecipient> unresolved = new ArrayList<>(batch.size());
+    List<RecipientId>   ids        = new ArrayList<>(batch.size());
+
+    for (LiveRecipient live : batch) {
+      if (live.get().isResolving()) {
+        unresolved.add(live);
+        ids.add(live.getId());
+      }
+    }
+
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    batches.incrementAndGet();
+    batchedResolves.addAndGet(unresolved.size());
+
+    Map<RecipientId, RecipientRecord> records;
+    try {
+      records = unresolved.size() > 1 ? recipientTable.getRecords(ids) : Collections.emptyMap();
+    } catch (MissingRecipientException e) {
+      Log.w(TAG, "Batch contained a missing recipient. Falling back to individual lookups.");
+      records = Collections.emptyMap();
+    }
+
+    RuntimeException firstError = null;
+
+    for (LiveRecipient live : unresolved) {
+      try {
+        RecipientRecord record = records.get(live.getId());
+
+        if (record != null) {
+          live.resolve(record);
+        } else {
+          live.resolve();
+        }
+      } catch (RuntimeException e) {
+        if (firstError == null) {
+          firstError = e;
+        }
+      }
+    }
+
+    if (firstError != null) {
+      throw firstError;
+    }
+  }
+
   /**
    * Handles remapping cache entries when recipients are merged.
    */
@@ -265,7 +371,73 @@ public final class LiveRecipientCache {
     }
   }
 
+  @AnyThread
+  public @NonNull Stats getStats() {
+    int size;
+
+    synchronized (recipients) {
+      size = recipients.size();
+    }
+
+    return new Stats(size, maxSize, hits.get(), misses.get(), evictions.get(), batches.get(), batchedResolves.get());
+  }
+
+  private static int getMaxSize(@NonNull Context context) {
+    if (DeviceProperties.isLowMemoryDevice(context)) {
+      return CACHE_MAX_LOW_MEMORY;
+    } else if (DeviceProperties.getMemoryClass(context) >= HIGH_MEMORY_CLASS) {
+      return CACHE_MAX_HIGH_MEMORY;
+    } else {
+      return CACHE_MAX;
+    }
+  }
+
   private boolean isValidForCache(@NonNull Recipient recipient) {
     return !recipient.getId().isUnknown() && (recipient.getHasServiceId() || recipient.getGroupId().isPresent() || recipient.getHasSmsAddress());
   }
+
+  private final class EvictionCountingLRUCache extends LRUCache<RecipientId, LiveRecipient> {
+    EvictionCountingLRUCache(int maxSize) {
+      super(maxSize);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<RecipientId, LiveRecipient> eldest) {
+      boolean evict = super.removeEldestEntry(eldest);
+      if (evict) {
+        evictions.incrementAndGet();
+      }
+      return evict;
+    }
+  }
+
+  public static final class Stats {
+    public final int  size;
+    public final int  maxSize;
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final long batches;
+    public final long batchedResolves;
+
+    Stats(int size, int maxSize, long hits, long misses, long evictions, long batches, long batchedResolves) {
+      this.size            = size;
+      this.maxSize         = maxSize;
+      this.hits            = hits;
+      this.misses          = misses;
+      this.evictions       = evictions;
+      this.batches         = batches;
+      this.batchedResolves = batchedResolves;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      long  lookups      = hits + misses;
+      float hitRate      = lookups > 0 ? (hits * 100f) / lookups : 0f;
+      float averageBatch = batches > 0 ? (float) batchedResolves / batches : 0f;
+
+      return String.format(Locale.US, "Size: %d/%d\nHits: %d (%.1f%%)\nMisses: %d\nEvictions: %d\nResolve batches: %d (avg %.1f recipients)",
+                           size, maxSize, hits, hitRate, misses, evictions, batches, averageBatch);
+    }
+  }
 }
@@ -35,6 +35,7 @@ import org.thoughtcrime.securesms.database.model.databaseprotos.BodyRangeList;
 import org.thoughtcrime.securesms.dependencies.AppDependencies;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.RemoteConfig;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.concurrent.SerialExecutor;
 
@@ -50,6 +51,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.thoughtcrime.securesms.database.SearchTable.SNIPPET_WRAP;
 
@@ -69,7 +71,8 @@ public class SearchRepository {
   private final MentionTable      mentionTable;
   private final MessageTable      messageTable;
 
-  private final Executor serialExecutor;
+  private final Executor   serialExecutor;
+  private final AtomicLong latestQueryId;
 
   public SearchRepository(@NonNull String noteToSelfTitle) {
     this.context           = AppDependencies.getApplication().getApplicationContext();
@@ -81,6 +84,7 @@ public class SearchRepository {
     this.messageTable      = SignalDatabase.messages();
     this.contactRepository = new ContactRepository(context, noteToSelfTitle);
     this.serialExecutor    = new SerialExecutor(SignalExecutors.BOUNDED);
+    this.latestQueryId     = new AtomicLong(0);
   }
 
   @WorkerThread
@@ -97,29 +101,41 @@ public class SearchRepository {
   public @NonNull MessageSearchResult queryMessagesSync(@NonNull String query) {
     long start = System.currentTimeMillis();
 
-    List<MessageResult> messages        = queryMessages(query);
+    boolean             orderByRank     = RemoteConfig.messageSearchRanking();
+    List<MessageResult> messages        = queryMessages(query, orderByRank);
     List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query));
-    List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages);
+    List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages, orderByRank);
 
     Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
 
     return new MessageSearchResult(combined, query);
   }
 
+  /**
+   * Searches for messages in the specified thread. Queries are run serially, and any query that is superseded by a newer one before it gets
+   * a chance to run (e.g. the user kept typing) is skipped without a callback.
+   */
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
+    long queryId = latestQueryId.incrementAndGet();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(Collections.emptyList());
       return;
     }
 
     serialExecutor.execute(() -> {
+      if (queryId != latestQueryId.get()) {
+        Log.d(TAG, "[ConversationQuery] Skipping superseded query.");
+        return;
+      }
+
       long                startTime       = System.currentTimeMillis();
       List<MessageResult> messages        = queryMessages(query, threadId);
       List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query), threadId);
 
       Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
 
-      callback.onResult(mergeMessagesAndMentions(messages, mentionMessages));
+      callback.onResult(mergeMessagesAndMentions(messages, mentionMessages, false));
     });
   }
 
@@ -164,13 +180,13 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
+  private @NonNull List<MessageResult> queryMessages(@NonNull String query, boolean orderByRank) {
     if (Util.isEmpty(query)) {
       return Collections.emptyList();
     }
 
     List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
+    try (Cursor cursor = searchDatabase.queryMessages(query, orderByRank)) {
       results = readToList(cursor, new MessageModelBuilder());
     }
 
@@ -414,7 +430,11 @@ public class SearchRepository {
     }
   }
 
-  private static @NonNull List<MessageResult> mergeMessagesAndMentions(@NonNull List<MessageResult> messages, @NonNull List<MessageResult> mentionMessages) {
+  /**
+   * Combines full-text and mention results, dropping duplicates. If the full-text results are ranked by relevance, that order is kept and
+   * mention-only matches follow them. Otherwise everything is sorted by date.
+   */
+  private static @NonNull List<MessageResult> mergeMessagesAndMentions(@NonNull List<MessageResult> messages, @NonNull List<MessageResult> mentionMessages, boolean orderByRank) {
     Set<Long> includedMmsMessages = new HashSet<>();
 
     List<MessageResult> combined = new ArrayList<>(messages.size() + mentionMessages.size());
@@ -431,7 +451,9 @@ public class SearchRepository {
       }
     }
 
-    Collections.sort(combined, Collections.reverseOrder((left, right) -> Long.compare(left.getReceivedTimestampMs(), right.getReceivedTimestampMs())));
+    if (!orderByRank) {
+      Collections.sort(combined, Collections.reverseOrder((left, right) -> Long.compare(left.getReceivedTimestampMs(), right.getReceivedTimestampMs())));
+    }
 
     return combined;
   }
@@ -15,7 +15,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Manages our app startup flow.
+ * Manages our app startup flow. Every task is recorded by {@link StartupProfiler}.
  */
 public final class AppStartup {
 
@@ -29,10 +29,11 @@ public final class AppStartup {
 
   private static final AppStartup INSTANCE = new AppStartup();
 
-  private final List<Task> blocking;
-  private final List<Task> nonBlocking;
-  private final List<Task> postRender;
-  private final Handler    postRenderHandler;
+  private final List<Task>            blocking;
+  private final List<Task>            nonBlocking;
+  private final List<Task>            postRender;
+  private final List<LazyStartupTask> lazy;
+  private final Handler               postRenderHandler;
 
   private int outstandingCriticalRenderEvents;
 
@@ -48,11 +49,13 @@ public final class AppStartup {
     this.blocking          = new LinkedList<>();
     this.nonBlocking       = new LinkedList<>();
     this.postRender        = new LinkedList<>();
+    this.lazy              = new LinkedList<>();
     this.postRenderHandler = new Handler(Looper.getMainLooper());
   }
 
   public void onApplicationCreate() {
     this.applicationStartTime = System.currentTimeMillis();
+    StartupProfiler.onApplicationCreate();
   }
 
   /**
@@ -69,8 +72,8 @@ public final class AppStartup {
    * possible.
    */
   @MainThread
-  public @NonNull AppStartup addNonBlocking(@NonNull Runnable task) {
-    nonBlocking.add(new Task("", task));
+  public @NonNull AppStartup addNonBlocking(@NonNull String name, @NonNull Runnable task) {
+    nonBlocking.add(new Task(name, task));
     return this;
   }
 
@@ -78,18 +81,26 @@ public final class AppStartup {
    * Schedules a task that should only be executed after all critical UI has been rendered. If no
    * UI will be shown (i.e. the Application was created in the background), this will simply happen
    * a short delay after {@link Application#onCreate()}.
-   * @param task
-   * @return
    */
   @MainThread
-  public @NonNull AppStartup addPostRender(@NonNull Runnable task) {
-    postRender.add(new Task("", task));
+  public @NonNull AppStartup addPostRender(@NonNull String name, @NonNull Runnable task) {
+    postRender.add(new Task(name, task));
+    return this;
+  }
+
+  /**
+   * Registers a task that only runs once something calls {@link LazyStartupTask#ensureInitialized()}. If nothing has needed it by the
+   * time post-render tasks run, it's run alongside them.
+   */
+  @MainThread
+  public @NonNull AppStartup addLazy(@NonNull LazyStartupTask task) {
+    lazy.add(task);
     return this;
   }
 
   /**
    * Indicates a UI event critical to initial rendering has started. This will delay tasks that were
-   * scheduled via {@link #addPostRender(Runnable)}. You MUST call
+   * scheduled via {@link #addPostRender(String, Runnable)}. You MUST call
    * {@link #onCriticalRenderEventEnd()} for each invocation of this method.
    */
   @MainThread
@@ -124,6 +135,7 @@ public final class AppStartup {
     if (outstandingCriticalRenderEvents == 0 && postRender.size() > 0) {
       renderEndTime = System.currentTimeMillis();
       SignalLocalMetrics.ColdStart.onRenderFinished();
+      StartupProfiler.onFirstRender();
 
       Log.i(TAG, "First render has finished. " +
                  "Cold Start: " + (renderEndTime - applicationStartTime) + " ms, " +
@@ -142,13 +154,14 @@ public final class AppStartup {
     Stopwatch stopwatch = new Stopwatch("init");
 
     for (Task task : blocking) {
-      task.getRunnable().run();
+      StartupProfiler.run(task.getName(), StartupProfiler.Phase.BLOCKING, null, task.getRunnable());
       stopwatch.split(task.getName());
     }
     blocking.clear();
+    StartupProfiler.onBlockingFinished();
 
     for (Task task : nonBlocking) {
-      SignalExecutors.BOUNDED.execute(task.getRunnable());
+      SignalExecutors.BOUNDED.execute(StartupProfiler.wrap(task.getName(), StartupProfiler.Phase.NON_BLOCKING, task.getRunnable()));
     }
     nonBlocking.clear();
 
@@ -163,9 +176,16 @@ public final class AppStartup {
 
   private void executePostRender() {
     for (Task task : postRender) {
-      SignalExecutors.BOUNDED.execute(task.getRunnable());
+      SignalExecutors.BOUNDED.execute(StartupProfiler.wrap(task.getName(), StartupProfiler.Phase.POST_RENDER, task.getRunnable()));
     }
     postRender.clear();
+
+    for (LazyStartupTask task : lazy) {
+      SignalExecutors.BOUNDED.execute(StartupProfiler.track(task::initializeWhenIdle));
+    }
+    lazy.clear();
+
+    StartupProfiler.onPostRenderScheduled();
   }
 
   private class Task {
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.util
+
+import androidx.annotation.AnyThread
+
+/**
+ * Initialization for a subsystem that doesn't need to be ready for the first frame. Rather than running as part of app startup, it runs the
+ * first time something calls [ensureInitialized], on that caller's thread. If nothing has needed it by the time [AppStartup] runs its
+ * post-render tasks, it's run then in the background, so it still happens exactly once per process either way.
+ */
+class LazyStartupTask(val name: String, private val task: Runnable) {
+
+  @Volatile
+  private var initialized = false
+
+  /**
+   * Runs the task if it hasn't run yet, or waits for it to finish if it's running on another thread.
+   */
+  @AnyThread
+  fun ensureInitialized() {
+    initialize("first use")
+  }
+
+  /**
+   * Used by [AppStartup] as the fallback for when nothing has needed the task by the time startup is done.
+   */
+  @AnyThread
+  fun initializeWhenIdle() {
+    initialize("idle")
+  }
+
+  private fun initialize(trigger: String) {
+    if (initialized) {
+      return
+    }
+
+    synchronized(this) {
+      if (!initialized) {
+        StartupProfiler.run(name, StartupProfiler.Phase.LAZY, trigger, task)
+        initialized = true
+      }
+    }
+  }
+}
@@ -601,6 +601,33 @@ object RemoteConfig {
     hotSwappable = true
   )
 
+  /** Whether to build, serialize and encrypt backup frames concurrently when exporting a backup. */
+  @JvmStatic
+  @get:JvmName("pipelinedBackupExport")
+  val pipelinedBackupExport: Boolean by remoteBoolean(
+    key = "android.pipelinedBackupExport",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
+  /** Whether to collect acks for processed envelopes and send them together, off the message processing thread. */
+  @JvmStatic
+  @get:JvmName("batchedEnvelopeAcks")
+  val batchedEnvelopeAcks: Boolean by remoteBoolean(
+    key = "android.batchedEnvelopeAcks",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
+  /** Whether Glide keeps small cache files in a memory-mapped segment. Read once when Glide registers its components. */
+  @JvmStatic
+  @get:JvmName("glideSegmentCache")
+  val glideSegmentCache: Boolean by remoteBoolean(
+    key = "android.glideSegmentCache",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
   /** The minimum memory class required for rendering animated stickers in the keyboard and such  */
   @JvmStatic
   @get:JvmName("animatedStickerMinimumMemoryClass")
@@ -1104,6 +1131,24 @@ object RemoteConfig {
     }
   )
 
+  /** Whether job state writes that don't need to survive process death should be buffered and batched instead of written immediately. */
+  @JvmStatic
+  @get:JvmName("jobStorageWriteBehind")
+  val jobStorageWriteBehind: Boolean by remoteBoolean(
+    key = "android.jobStorageWriteBehind",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /** Whether message search results should be ordered by relevance instead of by date. */
+  @JvmStatic
+  @get:JvmName("messageSearchRanking")
+  val messageSearchRanking: Boolean by remoteBoolean(
+    key = "android.messageSearchRanking",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
   /** JSON object representing some details about how we might want to warn the user around connectivity issues. */
   val connectivityWarningConfig: String by remoteString(
     key = "android.connectivityWarningConfig",
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.util
+
+import androidx.annotation.AnyThread
+import androidx.annotation.MainThread
+import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records every task [AppStartup] runs: when it became runnable, when it actually started, how long it took and on which thread. Each phase
+ * is gated on the one before it (blocking tasks run in order before anything else, non-blocking tasks are released once they're done, and
+ * post-render tasks once the first frame is drawn), so the gap between a task being queued and starting is time it spent waiting on the
+ * executor rather than on its dependencies.
+ *
+ * Once every task from a launch has finished, the profile is written to the [LogDatabase] so the last few are available in the debug log.
+ */
+object StartupProfiler {
+
+  private val TAG = Log.tag(StartupProfiler::class.java)
+
+  private const val SECTION_PREFIX = "Startup:"
+
+  private val lock = Any()
+  private val tasks: MutableList<TaskRecord> = mutableListOf()
+
+  private var applicationStartNanos: Long = 0
+  private var applicationStartTime: Long = 0
+  private var blockingFinishedNanos: Long = -1
+  private var firstRenderNanos: Long = -1
+  private var outstanding: Int = 0
+  private var postRenderScheduled: Boolean = false
+  private var saved: Boolean = false
+
+  @JvmStatic
+  @MainThread
+  fun onApplicationCreate() {
+    synchronized(lock) {
+      applicationStartNanos = System.nanoTime()
+      applicationStartTime = System.currentTimeMillis()
+    }
+  }
+
+  /**
+   * Runs [task] right away on the calling thread, recording it as part of this launch.
+   */
+  @JvmStatic
+  @AnyThread
+  fun run(name: String, phase: Phase, trigger: String?, task: Runnable) {
+    record(name, phase, trigger, System.nanoTime(), task)
+  }
+
+  /**
+   * Wraps [task] so it's recorded once it eventually runs. The time it spent waiting to run is measured from now.
+   */
+  @JvmStatic
+  @AnyThread
+  fun wrap(name: String, phase: Phase, task: Runnable): Runnable {
+    val queuedNanos = System.nanoTime()
+    return track { record(name, phase, null, queuedNanos, task) }
+  }
+
+  /**
+   * Wraps [task] so that the launch isn't considered finished until it has run. [task] is expected to record itself.
+   */
+  @JvmStatic
+  @AnyThread
+  fun track(task: Runnable): Runnable {
+    synchronized(lock) {
+      outstanding++
+    }
+
+    return Runnable {
+      try {
+        task.run()
+      } finally {
+        val finished = synchronized(lock) {
+          outstanding--
+          isFinished()
+        }
+
+        if (finished) {
+          save()
+        }
+      }
+    }
+  }
+
+  @JvmStatic
+  @MainThread
+  fun onBlockingFinished() {
+    synchronized(lock) {
+      blockingFinishedNanos = System.nanoTime()
+    }
+  }
+
+  @JvmStatic
+  @MainThread
+  fun onFirstRender() {
+    synchronized(lock) {
+      if (firstRenderNanos < 0) {
+        firstRenderNanos = System.nanoTime()
+      }
+    }
+  }
+
+  /**
+   * Call once every post-render task has been handed off. The profile is saved as soon as the last one finishes.
+   */
+  @JvmStatic
+  @MainThread
+  fun onPostRenderScheduled() {
+    val finished = synchronized(lock) {
+      postRenderScheduled = true
+      isFinished()
+    }
+
+    if (finished) {
+      SignalExecutors.BOUNDED.execute { save() }
+    }
+  }
+
+  /**
+   * @return A human-readable summary of everything recorded so far in this process, including lazy tasks that ran after the profile was saved.
+   */
+  @JvmStatic
+  @AnyThread
+  fun getCurrentProfile(): String {
+    return synchronized(lock) { format() }
+  }
+
+  private fun record(name: String, phase: Phase, trigger: String?, queuedNanos: Long, task: Runnable) {
+    val thread = Thread.currentThread().name
+    val startNanos = System.nanoTime()
+
+    SignalTrace.beginSection(SECTION_PREFIX + name)
+    try {
+      task.run()
+    } finally {
+      SignalTrace.endSection()
+
+      val endNanos = System.nanoTime()
+
+      synchronized(lock) {
+        tasks += TaskRecord(
+          name = name,
+          phase = phase,
+          trigger = trigger,
+          thread = thread,
+          queuedNanos = queuedNanos - applicationStartNanos,
+          startNanos = startNanos - applicationStartNanos,
+          durationNanos = endNanos - startNanos
+        )
+      }
+    }
+  }
+
+  private fun isFinished(): Boolean {
+    return postRenderScheduled && outstanding == 0 && !saved
+  }
+
+  private fun save() {
+    val profile = synchronized(lock) {
+      if (saved) {
+        return
+      }
+      saved = true
+      format()
+    }
+
+    Log.i(TAG, "App startup finished. Saving profile.")
+    LogDatabase.getInstance(AppDependencies.application).startupProfiles.save(applicationStartTime, profile)
+  }
+
+  private fun format(): String {
+    val output = StringBuilder()
+
+    output.append("Blocking tasks finished: ${formatOffset(blockingFinishedNanos)}\n")
+    output.append("First render: ${if (firstRenderNanos >= 0) formatOffset(firstRenderNanos) else "none, started in the background"}\n\n")
+
+    output.append(String.format(Locale.US, "%-13s %-40s %8s %8s %8s  %s\n", "Phase", "Task", "Queued", "Start", "Took", "Thread"))
+
+    for (task in tasks.sortedBy { it.startNanos }) {
+      val name = if (task.trigger != null) "${task.name} (${task.trigger})" else task.name
+
+      output.append(
+        String.format(
+          Locale.US,
+          "%-13s %-40s %8d %8d %8d  %s\n",
+          task.phase.label,
+          name,
+          TimeUnit.NANOSECONDS.toMillis(task.queuedNanos),
+          TimeUnit.NANOSECONDS.toMillis(task.startNanos),
+          TimeUnit.NANOSECONDS.toMillis(task.durationNanos),
+          task.thread
+        )
+      )
+    }
+
+    return output.toString()
+  }
+
+  private fun formatOffset(nanos: Long): String {
+    return if (nanos >= 0) "${TimeUnit.NANOSECONDS.toMillis(nanos - applicationStartNanos)} ms" else "not yet"
+  }
+
+  enum class Phase(val label: String) {
+    BLOCKING("blocking"),
+    NON_BLOCKING("non-blocking"),
+    POST_RENDER("post-render"),
+    LAZY("lazy")
+  }
+
+  private data class TaskRecord(
+    val name: String,
+    val phase: Phase,
+    val trigger: String?,
+    val thread: String,
+    val queuedNanos: Long,
+    val startNanos: Long,
+    val durationNanos: Long
+  )
+}
@@ -2,16 +2,17 @@ package org.thoughtcrime.securesms.video.exo
 
 import android.content.Context
 import android.net.Uri
-import androidx.annotation.WorkerThread
 import org.signal.core.util.StreamUtil
 import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.util.LazyStartupTask
 import org.thoughtcrime.securesms.util.storage.FileStorage
 import java.io.IOException
 import java.io.InputStream
 
 /**
  * A simple disk cache for MP4 GIFS. While entries are stored on disk, the data has lifecycle of a single application session and will be cleared every app
- * start. This lets us keep stuff simple and maintain all of our metadata and state in memory.
+ * start, see [startupTask]. This lets us keep stuff simple and maintain all of our metadata and state in memory.
  *
  * Features
  * - Write entire files into the cache
@@ -26,25 +27,30 @@ class GiphyMp4Cache(private val maxSize: Long) {
     private const val DIRECTORY = "mp4gif_cache"
     private const val PREFIX = "entry_"
     private const val EXTENSION = "mp4"
-  }
-
-  private val lockedUris: MutableSet<Uri> = mutableSetOf()
-  private val uriToEntry: MutableMap<Uri, Entry> = mutableMapOf()
 
-  @WorkerThread
-  fun onAppStart(context: Context) {
-    synchronized(DATA_LOCK) {
-      lockedUris.clear()
-      for (file in FileStorage.getAllFiles(context, DIRECTORY, PREFIX)) {
-        if (!file.delete()) {
-          Log.w(TAG, "Failed to delete: " + file.name)
+    /**
+     * Clears out the files from the previous session. This happens right before the cache is first used, or once app startup is done if
+     * it isn't used by then, so it stays out of the way of the first frame.
+     */
+    @JvmStatic
+    val startupTask = LazyStartupTask("giphy-mp4-cache") {
+      synchronized(DATA_LOCK) {
+        for (file in FileStorage.getAllFiles(AppDependencies.application, DIRECTORY, PREFIX)) {
+          if (!file.delete()) {
+            Log.w(TAG, "Failed to delete: " + file.name)
+          }
         }
       }
     }
   }
 
+  private val lockedUris: MutableSet<Uri> = mutableSetOf()
+  private val uriToEntry: MutableMap<Uri, Entry> = mutableMapOf()
+
   @Throws(IOException::class)
   fun write(context: Context, uri: Uri, inputStream: InputStream): ReadData {
+    startupTask.ensureInitialized()
+
     synchronized(DATA_LOCK) {
       lockedUris.add(uri)
     }
@@ -65,6 +71,8 @@ class GiphyMp4Cache(private val maxSize: Long) {
   }
 
   fun read(context: Context, uri: Uri): ReadData? {
+    startupTask.ensureInitialized()
+
     synchronized(DATA_LOCK) {
       lockedUris.add(uri)
     }
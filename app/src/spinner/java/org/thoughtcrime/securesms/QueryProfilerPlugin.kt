@@ -0,0 +1,45 @@
+package org.thoughtcrime.securesms
+
+import org.signal.spinner.Plugin
+import org.signal.spinner.PluginResult
+import org.thoughtcrime.securesms.database.QueryProfiler
+import java.util.Locale
+
+/**
+ * Shows everything [QueryProfiler] has collected, slowest in total first.
+ */
+class QueryProfilerPlugin : Plugin {
+  override val name: String = "Queries"
+  override val path: String = PATH
+
+  override fun get(): PluginResult {
+    val columns = listOf("Statement", "Count", "Total ms", "Mean ms", "p95 ms", "Max ms", "Rows", "Main thread", "In long transaction")
+
+    val rows = QueryProfiler.getStatementStats().map { stats ->
+      listOf(
+        stats.statement,
+        stats.count.toString(),
+        formatMillis(stats.totalNanos),
+        formatMillis(stats.meanNanos),
+        formatMillis(stats.p95Nanos),
+        formatMillis(stats.maxNanos),
+        stats.rows.toString(),
+        stats.mainThreadCount.toString(),
+        stats.longTransactionCount.toString()
+      )
+    }
+
+    return PluginResult.TableResult(
+      columns = columns,
+      rows = rows
+    )
+  }
+
+  private fun formatMillis(nanos: Long): String {
+    return String.format(Locale.US, "%.2f", nanos / 1_000_000.0)
+  }
+
+  companion object {
+    const val PATH = "/queries"
+  }
+}
@@ -82,7 +82,8 @@ class SpinnerApplicationContext : ApplicationContext() {
         )
       ),
       linkedMapOf(
-        StorageServicePlugin.PATH to StorageServicePlugin()
+        StorageServicePlugin.PATH to StorageServicePlugin(),
+        QueryProfilerPlugin.PATH to QueryProfilerPlugin()
       )
     )
 
@@ -17,6 +17,7 @@ import org.whispersystems.signalservice.api.backup.BackupKey
 import org.whispersystems.signalservice.api.push.ServiceId.ACI
 import java.io.ByteArrayOutputStream
 import java.util.UUID
+import java.util.concurrent.Executors
 
 class EncryptedBackupReaderWriterTest {
 
@@ -52,6 +53,39 @@ class EncryptedBackupReaderWriterTest {
     }
   }
 
+  @Test
+  fun `can read back all of the frames we write when pipelined`() {
+    val key = BackupKey(Util.getSecretBytes(32))
+    val aci = ACI.from(UUID.randomUUID())
+
+    val outputStream = ByteArrayOutputStream()
+
+    val frameCount = 10_000
+    val executor = Executors.newCachedThreadPool()
+    PipelinedBackupExportWriter(EncryptedBackupWriter(key, aci, outputStream, append = { outputStream.write(it) }, pipelined = true, pipelineExecutor = executor), executor).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+      for (i in 0 until frameCount) {
+        writer.write(Frame(account = AccountData(username = "username-$i")))
+      }
+    }
+
+    executor.shutdown()
+
+    val ciphertext: ByteArray = outputStream.toByteArray()
+
+    val frames: List<Frame> = EncryptedBackupReader(key, aci, ciphertext.size.toLong()) { ciphertext.inputStream() }.use { reader ->
+      assertEquals(reader.backupInfo?.version, 1L)
+      reader.asSequence().toList()
+    }
+
+    assertEquals(frameCount, frames.size)
+
+    for (i in 0 until frameCount) {
+      assertEquals("username-$i", frames[i].account?.username)
+    }
+  }
+
   @Test
   fun `padding limits number of sizes`() {
     val key = BackupKey(Util.getSecretBytes(32))
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.util.Util
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.zip.GZIPOutputStream
+
+class PipelinedBackupExportWriterTest {
+
+  companion object {
+    private const val FRAME_COUNT = 5_000
+  }
+
+  private val executor: ExecutorService = Executors.newCachedThreadPool()
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun `pipelined output is identical to direct output`() {
+    val direct = ByteArrayOutputStream()
+    PlainTextBackupWriter(direct).use { writeFrames(it) }
+
+    val pipelined = ByteArrayOutputStream()
+    PipelinedBackupExportWriter(PlainTextBackupWriter(pipelined), executor, queueCapacity = 4).use { writeFrames(it) }
+
+    assertArrayEquals(direct.toByteArray(), pipelined.toByteArray())
+  }
+
+  @Test
+  fun `queued compressed output is identical to direct compressed output`() {
+    val input = Util.getSecretBytes(1024 * 1024)
+
+    val direct = ByteArrayOutputStream()
+    GZIPOutputStream(direct).use { it.write(input) }
+
+    val queued = ByteArrayOutputStream()
+    GZIPOutputStream(QueuedOutputStream(queued, "test", executor, chunkSize = 1000, queueCapacity = 2)).use { it.write(input) }
+
+    assertArrayEquals(direct.toByteArray(), queued.toByteArray())
+  }
+
+  @Test
+  fun `stage metrics count every frame`() {
+    val writer = PipelinedBackupExportWriter(PlainTextBackupWriter(ByteArrayOutputStream()), executor)
+    writer.use { writeFrames(it) }
+
+    val metrics = writer.getStageMetrics().associateBy { it.name }
+    assertEquals(FRAME_COUNT + 1L, metrics["build"]!!.itemCount)
+    assertEquals(FRAME_COUNT + 1L, metrics["serialize"]!!.itemCount)
+  }
+
+  @Test(expected = IOException::class)
+  fun `failures on the writing thread are surfaced to the caller`() {
+    val failingStream = object : OutputStream() {
+      override fun write(b: Int) = throw IOException("Disk full")
+    }
+
+    PipelinedBackupExportWriter(PlainTextBackupWriter(failingStream), executor, queueCapacity = 4).use { writeFrames(it) }
+  }
+
+  private fun writeFrames(writer: BackupExportWriter) {
+    writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+    for (i in 0 until FRAME_COUNT) {
+      writer.write(Frame(account = AccountData(username = "username-$i")))
+    }
+  }
+}
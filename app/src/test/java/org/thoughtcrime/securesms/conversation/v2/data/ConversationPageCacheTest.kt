@@ -0,0 +1,91 @@
+package org.thoughtcrime.securesms.conversation.v2.data
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ConversationPageCacheTest {
+
+  @Test
+  fun `getAll returns only cached ids and counts hits and misses`() {
+    val cache = ConversationPageCache<String>(10)
+    val generation = cache.currentGeneration()
+    cache.put(generation, 1, "one")
+    cache.put(generation, 2, "two")
+
+    val found = cache.getAll(listOf(1L, 2L, 3L))
+
+    assertEquals(mapOf(1L to "one", 2L to "two"), found)
+    assertEquals(ConversationPageCache.Stats(hits = 2, misses = 1, size = 2), cache.getStats())
+  }
+
+  @Test
+  fun `getMissing does not count towards stats`() {
+    val cache = ConversationPageCache<String>(10)
+    cache.put(cache.currentGeneration(), 1, "one")
+
+    assertEquals(listOf(2L, 3L), cache.getMissing(listOf(1L, 2L, 3L)))
+    assertEquals(ConversationPageCache.Stats(hits = 0, misses = 0, size = 1), cache.getStats())
+  }
+
+  @Test
+  fun `remove only drops the changed message`() {
+    val cache = ConversationPageCache<String>(10)
+    val generation = cache.currentGeneration()
+    cache.put(generation, 1, "one")
+    cache.put(generation, 2, "two")
+
+    cache.remove(1)
+
+    assertEquals(mapOf(2L to "two"), cache.getAll(listOf(1L, 2L)))
+  }
+
+  @Test
+  fun `put from before a remove is ignored`() {
+    val cache = ConversationPageCache<String>(10)
+    val generation = cache.currentGeneration()
+
+    cache.remove(1)
+    cache.put(generation, 1, "stale")
+
+    assertEquals(emptyMap<Long, String>(), cache.getAll(listOf(1L)))
+  }
+
+  @Test
+  fun `put from before a clear is ignored`() {
+    val cache = ConversationPageCache<String>(10)
+    val generation = cache.currentGeneration()
+    cache.put(generation, 1, "one")
+
+    cache.clear()
+    cache.put(generation, 2, "stale")
+    cache.put(cache.currentGeneration(), 3, "three")
+
+    assertEquals(mapOf(3L to "three"), cache.getAll(listOf(1L, 2L, 3L)))
+  }
+
+  @Test
+  fun `least recently used entries are evicted past max size`() {
+    val cache = ConversationPageCache<String>(2)
+    val generation = cache.currentGeneration()
+    cache.put(generation, 1, "one")
+    cache.put(generation, 2, "two")
+    cache.getAll(listOf(1L))
+    cache.put(generation, 3, "three")
+
+    assertEquals(listOf(2L), cache.getMissing(listOf(1L, 2L, 3L)))
+  }
+
+  @Test
+  fun `isEmpty is true until something is put and again after clear`() {
+    val cache = ConversationPageCache<String>(10)
+    assertTrue(cache.isEmpty())
+
+    cache.put(cache.currentGeneration(), 1, "one")
+    assertFalse(cache.isEmpty())
+
+    cache.clear()
+    assertTrue(cache.isEmpty())
+  }
+}
@@ -0,0 +1,95 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class QueryProfilerTest {
+
+  @After
+  fun tearDown() {
+    QueryProfiler.clear()
+  }
+
+  @Test
+  fun normalize_replacesStringAndNumericLiterals() {
+    assertEquals(
+      "SELECT * FROM message WHERE thread_id = ? AND body = ? AND date > ?",
+      QueryProfiler.normalize("SELECT * FROM message WHERE thread_id = 12 AND body = 'it''s a secret' AND date > 1.5e3")
+    )
+  }
+
+  @Test
+  fun normalize_replacesBlobLiterals() {
+    assertEquals("SELECT * FROM recipient WHERE profile_key = ?", QueryProfiler.normalize("SELECT * FROM recipient WHERE profile_key = X'0a1b'"))
+  }
+
+  @Test
+  fun normalize_keepsIdentifiersAndNumberedParameters() {
+    assertEquals(
+      "SELECT \"group\", table2.col_3 FROM table2 WHERE _id = ?1",
+      QueryProfiler.normalize("SELECT \"group\", table2.col_3 FROM table2 WHERE _id = ?1")
+    )
+  }
+
+  @Test
+  fun normalize_collapsesWhitespaceAndComments() {
+    assertEquals("SELECT _id FROM thread WHERE archived = ?", QueryProfiler.normalize("  SELECT _id\n    FROM thread -- only the archived ones\n   WHERE archived = 1  "))
+  }
+
+  @Test
+  fun normalize_collapsesInLists() {
+    assertEquals(QueryProfiler.normalize("DELETE FROM message WHERE _id IN (1, 2, 3)"), QueryProfiler.normalize("DELETE FROM message WHERE _id IN (?,?,?,?,?)"))
+    assertEquals("DELETE FROM message WHERE _id IN (?...)", QueryProfiler.normalize("DELETE FROM message WHERE _id IN (1, 2, 3)"))
+  }
+
+  @Test
+  fun normalize_collapsesMultiRowValues() {
+    assertEquals(
+      "INSERT INTO reaction (a, b) VALUES (?...), ...",
+      QueryProfiler.normalize("INSERT INTO reaction (a, b) VALUES (1, 'x'), (2, 'y'), (3, 'z')")
+    )
+  }
+
+  @Test
+  fun record_aggregatesByNormalizedStatement() {
+    for (i in 1..100) {
+      QueryProfiler.record("rawQuery(2a)", null, "SELECT * FROM message WHERE _id = $i", i * 1_000_000L, 1, mainThread = false, inLongTransaction = false)
+    }
+
+    val stats = QueryProfiler.getStatementStats().single()
+
+    assertEquals("SELECT * FROM message WHERE _id = ?", stats.statement)
+    assertEquals(100L, stats.count)
+    assertEquals(5050 * 1_000_000L, stats.totalNanos)
+    assertEquals(50_500_000L, stats.meanNanos)
+    assertEquals(95_000_000L, stats.p95Nanos)
+    assertEquals(100_000_000L, stats.maxNanos)
+    assertEquals(100L, stats.rows)
+    assertFalse(stats.flagged)
+  }
+
+  @Test
+  fun record_flagsMainThreadAndLongTransactions() {
+    QueryProfiler.record("update()", "thread", "_id = ?", 1_000, -1, mainThread = true, inLongTransaction = false)
+    QueryProfiler.record("update()", "thread", "_id = ?", 1_000, -1, mainThread = false, inLongTransaction = true)
+
+    val stats = QueryProfiler.getStatementStats().single()
+
+    assertEquals("update thread WHERE _id = ?", stats.statement)
+    assertEquals(1L, stats.mainThreadCount)
+    assertEquals(1L, stats.longTransactionCount)
+    assertEquals(0L, stats.rows)
+    assertTrue(stats.flagged)
+  }
+
+  @Test
+  fun getStatementStats_sortsByTotalTime() {
+    QueryProfiler.record("insert()", "message", null, 10, -1, mainThread = false, inLongTransaction = false)
+    QueryProfiler.record("delete()", "message", "_id = ?", 20, -1, mainThread = false, inLongTransaction = false)
+
+    assertEquals(listOf("delete message WHERE _id = ?", "insert message"), QueryProfiler.getStatementStats().map { it.statement })
+  }
+}
@@ -0,0 +1,141 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Test
+import org.thoughtcrime.securesms.assertIs
+import org.thoughtcrime.securesms.database.ThreadUpdateCoalescer.UpdateRequest
+
+class ThreadUpdateCoalescerTest {
+
+  private val updates: MutableList<Pair<Long, UpdateRequest>> = mutableListOf()
+  private val receiptUpdates: MutableList<Pair<Long, Set<Long>>> = mutableListOf()
+
+  private val subject = ThreadUpdateCoalescer(
+    performUpdate = { threadId, request -> updates += threadId to request },
+    performReceiptUpdate = { threadId, messageIds -> receiptUpdates += threadId to messageIds }
+  )
+
+  @Test
+  fun `deferUpdate - outside of a block, nothing is deferred`() {
+    subject.deferUpdate(1, request()) assertIs false
+    subject.deferReceiptUpdate(1, 10) assertIs false
+  }
+
+  @Test
+  fun `coalesce - each thread is updated once, after the block`() {
+    subject.coalesce {
+      subject.deferUpdate(1, request())
+      subject.deferUpdate(2, request())
+      subject.deferUpdate(1, request())
+      subject.deferUpdate(1, request())
+
+      updates.size assertIs 0
+    }
+
+    updates.map { it.first } assertIs listOf(1L, 2L)
+    subject.getStats().requested assertIs 4L
+    subject.getStats().performed assertIs 2L
+    subject.getStats().collapsed assertIs 2L
+  }
+
+  @Test
+  fun `coalesce - requests for the same thread are merged conservatively`() {
+    subject.coalesce {
+      subject.deferUpdate(1, request(unarchive = false, allowDeletion = true, notifyListeners = false, syncThreadDelete = true))
+      subject.deferUpdate(1, request(unarchive = true, allowDeletion = false, notifyListeners = true, syncThreadDelete = false))
+    }
+
+    updates.single().second assertIs request(unarchive = true, allowDeletion = false, notifyListeners = true, syncThreadDelete = false)
+  }
+
+  @Test
+  fun `coalesce - receipt updates are dropped for threads that get a full update`() {
+    subject.coalesce {
+      subject.deferReceiptUpdate(1, 10)
+      subject.deferUpdate(1, request())
+      subject.deferReceiptUpdate(1, 11)
+    }
+
+    updates.map { it.first } assertIs listOf(1L)
+    receiptUpdates.size assertIs 0
+  }
+
+  @Test
+  fun `coalesce - receipt updates for the same thread are combined`() {
+    subject.coalesce {
+      subject.deferReceiptUpdate(1, 10)
+      subject.deferReceiptUpdate(1, 11)
+      subject.deferReceiptUpdate(2, 20)
+    }
+
+    receiptUpdates assertIs listOf(1L to setOf(10L, 11L), 2L to setOf(20L))
+  }
+
+  @Test
+  fun `takePendingUpdate - removes the pending update so it doesn't run again after the block`() {
+    subject.coalesce {
+      subject.deferReceiptUpdate(2, 20)
+      subject.deferUpdate(1, request(unarchive = true))
+
+      subject.takePendingUpdate(1) assertIs request(unarchive = true)
+      subject.takePendingUpdate(2) assertIs null
+      subject.takePendingUpdate(1) assertIs null
+    }
+
+    updates.size assertIs 0
+    receiptUpdates.size assertIs 0
+  }
+
+  @Test
+  fun `takePendingUpdate - outside of a block, there is nothing pending`() {
+    subject.takePendingUpdate(1) assertIs null
+  }
+
+  @Test
+  fun `coalesce - nested blocks are folded into the outermost one`() {
+    subject.coalesce {
+      subject.coalesce {
+        subject.deferUpdate(1, request())
+      }
+      updates.size assertIs 0
+      subject.deferUpdate(1, request())
+    }
+
+    updates.size assertIs 1
+  }
+
+  @Test
+  fun `coalesce - pending updates are dropped if the block throws`() {
+    try {
+      subject.coalesce {
+        subject.deferUpdate(1, request())
+        throw IllegalStateException()
+      }
+    } catch (e: IllegalStateException) {
+      // Expected
+    }
+
+    updates.size assertIs 0
+    subject.deferUpdate(1, request()) assertIs false
+  }
+
+  @Test
+  fun `coalesce - updates requested while performing updates run immediately`() {
+    lateinit var reentrant: ThreadUpdateCoalescer
+    var deferredWhilePerforming: Boolean? = null
+
+    reentrant = ThreadUpdateCoalescer(
+      performUpdate = { _, request -> deferredWhilePerforming = reentrant.deferUpdate(2, request) },
+      performReceiptUpdate = { _, _ -> }
+    )
+
+    reentrant.coalesce {
+      reentrant.deferUpdate(1, request())
+    }
+
+    deferredWhilePerforming assertIs false
+  }
+
+  private fun request(unarchive: Boolean = false, allowDeletion: Boolean = true, notifyListeners: Boolean = true, syncThreadDelete: Boolean = true): UpdateRequest {
+    return UpdateRequest(unarchive, allowDeletion, notifyListeners, syncThreadDelete)
+  }
+}
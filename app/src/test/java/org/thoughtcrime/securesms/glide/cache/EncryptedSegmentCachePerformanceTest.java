@@ -0,0 +1,140 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.resource.SimpleResource;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.core.util.StreamUtil;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fetches a screenful of encrypted thumbnails through {@link EncryptedCacheDecoder} the way Glide does, with a handles() call per
+ * registered decoder followed by a decode, and reports per-fetch latency without the segment cache, on a cold segment, and on a warm one.
+ * The OS page cache is warm in every case, so the cold numbers are a best case for reading from disk.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class EncryptedSegmentCachePerformanceTest {
+
+  private static final int THUMBNAIL_COUNT   = 500;
+  private static final int THUMBNAIL_SIZE    = 24 * 1024;
+  private static final int HANDLES_PER_FETCH = 3;
+  private static final int ROUNDS            = 5;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void thumbnailFetchLatency() throws IOException {
+    byte[]     secret     = Util.getSecretBytes(32);
+    List<File> thumbnails = writeThumbnails(secret);
+
+    EncryptedCacheDecoder<byte[]> uncached = new EncryptedCacheDecoder<>(secret, new EncryptedSegmentCache(ByteBuffer.allocate(0), 0), new ReadingDecoder());
+    EncryptedCacheDecoder<byte[]> cached   = new EncryptedCacheDecoder<>(secret, new EncryptedSegmentCache(ByteBuffer.allocateDirect(16 * 1024 * 1024), 512 * 1024), new ReadingDecoder());
+
+    // Warm up the JIT on a decoder we throw away
+    fetchAll(new EncryptedCacheDecoder<>(secret, new EncryptedSegmentCache(ByteBuffer.allocate(0), 0), new ReadingDecoder()), thumbnails);
+
+    for (int round = 0; round < ROUNDS; round++) {
+      report("No segment", fetchAll(uncached, thumbnails));
+    }
+
+    report("Cold segment", fetchAll(cached, thumbnails));
+
+    for (int round = 0; round < ROUNDS; round++) {
+      report("Warm segment", fetchAll(cached, thumbnails));
+    }
+  }
+
+  private List<File> writeThumbnails(byte[] secret) throws IOException {
+    EncryptedCoder coder      = new EncryptedCoder();
+    List<File>     thumbnails = new ArrayList<>(THUMBNAIL_COUNT);
+
+    for (int i = 0; i < THUMBNAIL_COUNT; i++) {
+      File file = temporaryFolder.newFile();
+
+      try (OutputStream outputStream = coder.createEncryptedOutputStream(secret, file)) {
+        outputStream.write(Util.getSecretBytes(THUMBNAIL_SIZE));
+      }
+
+      thumbnails.add(file);
+    }
+
+    return thumbnails;
+  }
+
+  private static long[] fetchAll(EncryptedCacheDecoder<byte[]> decoder, List<File> thumbnails) throws IOException {
+    Options options   = new Options();
+    long[]  latencies = new long[thumbnails.size()];
+
+    for (int i = 0; i < thumbnails.size(); i++) {
+      File file  = thumbnails.get(i);
+      long start = System.nanoTime();
+
+      for (int j = 0; j < HANDLES_PER_FETCH; j++) {
+        decoder.handles(file, options);
+      }
+
+      decoder.decode(file, THUMBNAIL_SIZE, THUMBNAIL_SIZE, options);
+
+      latencies[i] = System.nanoTime() - start;
+    }
+
+    return latencies;
+  }
+
+  private static void report(String name, long[] latencies) {
+    Arrays.sort(latencies);
+
+    long total = 0;
+    for (long latency : latencies) {
+      total += latency;
+    }
+
+    System.out.println(String.format(Locale.US, "[%s] %d fetches in %d ms. p50: %d us, p99: %d us, max: %d us",
+                                     name,
+                                     latencies.length,
+                                     total / 1_000_000,
+                                     latencies[latencies.length / 2] / 1000,
+                                     latencies[(int) (latencies.length * 0.99)] / 1000,
+                                     latencies[latencies.length - 1] / 1000));
+  }
+
+  /**
+   * Stands in for a real image decoder, which would cost the same with or without the segment, by just reading everything.
+   */
+  private static final class ReadingDecoder implements ResourceDecoder<InputStream, byte[]> {
+    @Override
+    public boolean handles(@NonNull InputStream source, @NonNull Options options) throws IOException {
+      return source.read(new byte[64]) > 0;
+    }
+
+    @Override
+    public Resource<byte[]> decode(@NonNull InputStream source, int width, int height, @NonNull Options options) throws IOException {
+      return new SimpleResource<>(StreamUtil.readFully(source));
+    }
+  }
+}
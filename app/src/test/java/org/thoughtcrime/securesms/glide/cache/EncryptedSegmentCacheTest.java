@@ -0,0 +1,133 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public final class EncryptedSegmentCacheTest {
+
+  private static final int CAPACITY      = 100;
+  private static final int MAX_BLOB_SIZE = 100;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private EncryptedSegmentCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new EncryptedSegmentCache(ByteBuffer.allocate(CAPACITY), MAX_BLOB_SIZE);
+  }
+
+  @Test
+  public void get_returnsWhatWasPut() throws IOException {
+    byte[] blob = randomBytes(40);
+    File   file = writeFile("a", blob);
+
+    cache.put(file, blob);
+
+    assertArrayEquals(blob, cache.get(file));
+    assertEquals(1, cache.getStats().hits);
+    assertEquals(40, cache.getStats().bytesServed);
+  }
+
+  @Test
+  public void get_whenNeverPut_isAMiss() throws IOException {
+    assertNull(cache.get(writeFile("a", randomBytes(10))));
+    assertEquals(1, cache.getStats().misses);
+  }
+
+  @Test
+  public void get_afterFileIsRewritten_dropsEntry() throws IOException {
+    byte[] blob = randomBytes(40);
+    File   file = writeFile("a", blob);
+
+    cache.put(file, blob);
+    writeFile("a", randomBytes(41));
+
+    assertNull(cache.get(file));
+    assertEquals(0, cache.getStats().size);
+    assertEquals(0, cache.getStats().usedBytes);
+  }
+
+  @Test
+  public void put_whenFull_evictsLeastRecentlyUsed() throws IOException {
+    byte[] blobA = randomBytes(40);
+    byte[] blobB = randomBytes(40);
+    byte[] blobC = randomBytes(40);
+    File   a     = writeFile("a", blobA);
+    File   b     = writeFile("b", blobB);
+    File   c     = writeFile("c", blobC);
+
+    cache.put(a, blobA);
+    cache.put(b, blobB);
+    cache.get(a);
+    cache.put(c, blobC);
+
+    assertArrayEquals(blobA, cache.get(a));
+    assertNull(cache.get(b));
+    assertArrayEquals(blobC, cache.get(c));
+    assertEquals(1, cache.getStats().evictions);
+    assertEquals(80, cache.getStats().usedBytes);
+  }
+
+  @Test
+  public void put_whenFragmented_coalescesFreedSpace() throws IOException {
+    byte[] blobA = randomBytes(30);
+    byte[] blobB = randomBytes(30);
+    byte[] blobC = randomBytes(40);
+    byte[] blobD = randomBytes(100);
+
+    cache.put(writeFile("a", blobA), blobA);
+    cache.put(writeFile("b", blobB), blobB);
+    cache.put(writeFile("c", blobC), blobC);
+
+    File d = writeFile("d", blobD);
+    cache.put(d, blobD);
+
+    assertArrayEquals(blobD, cache.get(d));
+    assertEquals(3, cache.getStats().evictions);
+    assertEquals(1, cache.getStats().size);
+  }
+
+  @Test
+  public void put_whenTooBig_isRejected() throws IOException {
+    byte[] blob = randomBytes(MAX_BLOB_SIZE + 1);
+    File   file = writeFile("a", blob);
+
+    assertFalse(cache.accepts(blob.length));
+
+    cache.put(file, blob);
+
+    assertNull(cache.get(file));
+    assertEquals(1, cache.getStats().rejected);
+  }
+
+  private File writeFile(String name, byte[] contents) throws IOException {
+    File file = new File(temporaryFolder.getRoot(), name);
+
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(contents);
+    }
+
+    return file;
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random().nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,126 @@
+package org.thoughtcrime.securesms.jobmanager
+
+import android.app.Application
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Ignore
+import org.junit.Test
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
+import org.thoughtcrime.securesms.jobs.FastJobStorage
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Runs many job runners against thousands of independent queues while other threads keep submitting jobs, and reports throughput
+ * along with how long threads spent blocked waiting on the [JobController] monitor.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+class JobControllerStressTest {
+
+  companion object {
+    private const val RUNNER_COUNT = 16
+    private const val SUBMITTER_COUNT = 4
+    private const val QUEUE_COUNT = 5_000
+    private const val JOBS_PER_QUEUE = 4
+  }
+
+  @Test
+  fun `many runners against many independent queues`() {
+    val threadMXBean = ManagementFactory.getThreadMXBean()
+    threadMXBean.isThreadContentionMonitoringEnabled = true
+
+    val jobCount = QUEUE_COUNT * JOBS_PER_QUEUE
+    val completed = CountDownLatch(jobCount)
+    val submitterBlockedMs = AtomicLong(0)
+
+    val jobStorage = FastJobStorage(mockDatabase())
+    jobStorage.init()
+
+    val controller = JobController(
+      mockk<Application>(relaxed = true),
+      jobStorage,
+      JobInstantiator(mapOf(TestJob.KEY to TestJob.Factory())),
+      ConstraintInstantiator(emptyMap()),
+      JobTracker(),
+      { _, _ -> },
+      mockk(relaxed = true),
+      { }
+    )
+    controller.init()
+
+    val runners: List<Thread> = (0 until RUNNER_COUNT).map { i ->
+      Thread({
+        while (true) {
+          val job = controller.pullNextEligibleJobForExecution { true }
+          val result = job.run()
+          controller.onJobFinished(job)
+          controller.onSuccess(job, result.outputData)
+          completed.countDown()
+        }
+      }, "runner-$i").apply { isDaemon = true }
+    }
+
+    val submitters: List<Thread> = (0 until SUBMITTER_COUNT).map { i ->
+      Thread({
+        for (queue in i until QUEUE_COUNT step SUBMITTER_COUNT) {
+          controller.submitJobs((0 until JOBS_PER_QUEUE).map { TestJob("queue-$queue") })
+        }
+        submitterBlockedMs.addAndGet(threadMXBean.getThreadInfo(Thread.currentThread().id).blockedTime)
+      }, "submitter-$i")
+    }
+
+    val start = System.nanoTime()
+    runners.forEach { it.start() }
+    submitters.forEach { it.start() }
+    submitters.forEach { it.join() }
+    completed.await()
+    val durationMs = (System.nanoTime() - start) / 1_000_000
+
+    val runnerBlockedMs = runners.sumOf { threadMXBean.getThreadInfo(it.id)?.blockedTime ?: 0 }
+
+    println("Ran $jobCount jobs across $QUEUE_COUNT queues with $RUNNER_COUNT runners and $SUBMITTER_COUNT submitters in $durationMs ms (${jobCount * 1000L / durationMs.coerceAtLeast(1)} jobs/sec)")
+    println("Lock wait: runners ${runnerBlockedMs}ms total (${runnerBlockedMs / RUNNER_COUNT}ms avg), submitters ${submitterBlockedMs.get()}ms total (${submitterBlockedMs.get() / SUBMITTER_COUNT}ms avg)")
+  }
+
+  private fun mockDatabase(): JobDatabase {
+    val jobs: MutableMap<String, JobSpec> = ConcurrentHashMap()
+
+    val mock = mockk<JobDatabase>(relaxed = true)
+    every { mock.getAllMinimalJobSpecs() } returns emptyList()
+    every { mock.getJobSpecs(any()) } returns emptyList()
+    every { mock.getConstraintSpecsForJobs(any()) } returns emptyList()
+    every { mock.getAllDependencySpecs() } returns emptyList()
+    every { mock.getJobSpec(any()) } answers { jobs[firstArg()] }
+    every { mock.insertJobs(any()) } answers {
+      firstArg<List<FullSpec>>().forEach { jobs[it.jobSpec.id] = it.jobSpec }
+    }
+    every { mock.deleteJobs(any()) } answers {
+      firstArg<List<String>>().forEach { jobs.remove(it) }
+    }
+
+    return mock
+  }
+
+  private class TestJob(params: Parameters) : Job(params) {
+    companion object {
+      const val KEY = "test"
+    }
+
+    constructor(queue: String) : this(Parameters.Builder().setQueue(queue).build())
+
+    override fun serialize(): ByteArray? = null
+    override fun getFactoryKey(): String = KEY
+    override fun run(): Result = Result.success()
+    override fun onFailure() = Unit
+
+    class Factory : Job.Factory<TestJob> {
+      override fun create(parameters: Parameters, serializedData: ByteArray?): TestJob {
+        return TestJob(parameters)
+      }
+    }
+  }
+}
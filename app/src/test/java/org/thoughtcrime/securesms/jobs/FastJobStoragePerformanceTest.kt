@@ -0,0 +1,113 @@
+package org.thoughtcrime.securesms.jobs
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Ignore
+import org.junit.Test
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Measures the in-memory bookkeeping cost of [FastJobStorage] as the number of pending jobs grows.
+ *
+ * Drains the storage the same way the JobController does: find the next eligible job, mark it as running, check counts and queue
+ * state, then delete it.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+class FastJobStoragePerformanceTest {
+
+  companion object {
+    private const val JOBS_PER_QUEUE = 10
+    private const val FACTORY_COUNT = 20
+  }
+
+  @Test
+  fun `drain 1k jobs`() {
+    measure(1_000)
+  }
+
+  @Test
+  fun `drain 10k jobs`() {
+    measure(10_000)
+  }
+
+  @Test
+  fun `drain 100k jobs`() {
+    measure(100_000)
+  }
+
+  private fun measure(jobCount: Int) {
+    val jobs: List<FullSpec> = (0 until jobCount).map { i ->
+      FullSpec(
+        jobSpec = jobSpec(
+          id = "id$i",
+          factoryKey = "f${i % FACTORY_COUNT}",
+          queueKey = "q${i / JOBS_PER_QUEUE}",
+          createTime = i.toLong(),
+          priority = i % 3
+        ),
+        constraintSpecs = emptyList(),
+        dependencySpecs = emptyList()
+      )
+    }
+
+    val subject = FastJobStorage(mockDatabase(jobs.map { it.jobSpec }))
+    subject.init()
+
+    var nextJobTime = 0L
+    var bookkeepingTime = 0L
+    var drained = 0
+
+    while (true) {
+      val start = System.nanoTime()
+      val job = subject.getNextEligibleJob(System.currentTimeMillis()) { true } ?: break
+      nextJobTime += System.nanoTime() - start
+
+      val bookkeepingStart = System.nanoTime()
+      subject.markJobAsRunning(job.id, System.currentTimeMillis())
+      subject.getJobCountForFactory(job.factoryKey)
+      subject.getJobCountForFactoryAndQueue(job.factoryKey, job.queueKey!!)
+      subject.areQueuesEmpty(setOf(job.queueKey!!))
+      subject.deleteJob(job.id)
+      bookkeepingTime += System.nanoTime() - bookkeepingStart
+
+      drained++
+    }
+
+    println("[$jobCount jobs] Drained $drained jobs. getNextEligibleJob: ${(nextJobTime / drained).nanoseconds} avg, bookkeeping: ${(bookkeepingTime / drained).nanoseconds} avg")
+  }
+
+  private fun mockDatabase(jobSpecs: List<JobSpec>): JobDatabase {
+    val jobsById: Map<String, JobSpec> = jobSpecs.associateBy { it.id }
+
+    val mock = mockk<JobDatabase>(relaxed = true)
+    every { mock.getAllMinimalJobSpecs() } returns jobSpecs.map { it.toMinimalJobSpec() }
+    every { mock.getJobSpecs(any()) } returns emptyList()
+    every { mock.getConstraintSpecsForJobs(any()) } returns emptyList()
+    every { mock.getAllDependencySpecs() } returns emptyList()
+    every { mock.getJobSpec(any()) } answers { jobsById[firstArg()] }
+
+    return mock
+  }
+
+  private fun jobSpec(id: String, factoryKey: String, queueKey: String, createTime: Long, priority: Int): JobSpec {
+    return JobSpec(
+      id = id,
+      factoryKey = factoryKey,
+      queueKey = queueKey,
+      createTime = createTime,
+      lastRunAttemptTime = 0,
+      nextBackoffInterval = 0,
+      runAttempt = 0,
+      maxAttempts = 1,
+      lifespan = -1,
+      serializedData = null,
+      serializedInputData = null,
+      isRunning = false,
+      isMemoryOnly = false,
+      priority = priority
+    )
+  }
+}
@@ -651,6 +651,32 @@ class FastJobStorageTest {
     subject.getNextEligibleJob(100, NO_PREDICATE) assertIs higherPriorityJob
   }
 
+  @Test
+  fun `getNextEligibleJob - updating the head of a queue re-orders the queue`() {
+    val first = jobSpec(id = "1", factoryKey = "f1", queueKey = "q", createTime = 2, priority = Job.Parameters.PRIORITY_HIGH)
+    val second = jobSpec(id = "2", factoryKey = "f2", queueKey = "q", createTime = 1, priority = Job.Parameters.PRIORITY_DEFAULT)
+
+    val subject = FastJobStorage(mockDatabase(listOf(FullSpec(first, emptyList(), emptyList()), FullSpec(second, emptyList(), emptyList()))))
+    subject.init()
+
+    subject.getNextEligibleJob(100, NO_PREDICATE)?.id assertIs first.id
+
+    // A running head blocks the rest of its queue
+    subject.updateJobs(listOf(first.copy(isRunning = true)))
+    subject.getNextEligibleJob(100, NO_PREDICATE).assertIsNull()
+
+    // Once it's demoted, the other job takes its place at the head
+    subject.updateJobs(listOf(first.copy(isRunning = false, lastRunAttemptTime = 50, priority = Job.Parameters.PRIORITY_LOW)))
+    subject.getNextEligibleJob(100, NO_PREDICATE)?.id assertIs second.id
+
+    // And the new head reflects later updates to it
+    subject.updateJobs(listOf(second.copy(lastRunAttemptTime = 5)))
+    subject.getNextEligibleJob(100, NO_PREDICATE)?.lastRunAttemptTime assertIs 5L
+
+    subject.deleteJob(second.id)
+    subject.getNextEligibleJob(100, NO_PREDICATE)?.id assertIs first.id
+  }
+
   @Test
   fun `getNextEligibleJob - updating job to have an older createTime replaces newer in queue`() {
     val subject = FastJobStorage(mockDatabase(DataSet1.FULL_SPECS))
@@ -807,6 +833,34 @@ class FastJobStorageTest {
     subject.areQueuesEmpty(TestHelpers.setOf("q4", "q5")) assertIs true
   }
 
+  @Test
+  fun `areQueuesEmpty - empty after all jobs in queue deleted`() {
+    val subject = FastJobStorage(mockDatabase(DataSet1.FULL_SPECS))
+    subject.init()
+
+    subject.deleteJobs(listOf("id1"))
+
+    subject.areQueuesEmpty(TestHelpers.setOf("q1")) assertIs true
+    subject.getJobCountForFactory("f1") assertIs 0
+    subject.getJobCountForFactoryAndQueue("f1", "q1") assertIs 0
+    subject.getJobsInQueue("q1").size assertIs 0
+  }
+
+  @Test
+  fun `getJobCountForFactoryAndQueue - reflects updated queue and factory`() {
+    val subject = FastJobStorage(mockDatabase(DataSet1.FULL_SPECS))
+    subject.init()
+
+    subject.updateJobs(listOf(DataSet1.JOB_1.copy(factoryKey = "f2", queueKey = "q2")))
+
+    subject.getJobCountForFactory("f1") assertIs 0
+    subject.getJobCountForFactory("f2") assertIs 2
+    subject.getJobCountForFactoryAndQueue("f1", "q1") assertIs 0
+    subject.getJobCountForFactoryAndQueue("f2", "q2") assertIs 2
+    subject.areQueuesEmpty(TestHelpers.setOf("q1")) assertIs true
+    subject.getJobsInQueue("q2").map { it.id } assertIs listOf("id2", "id1")
+  }
+
   private fun mockDatabase(fullSpecs: List<FullSpec> = emptyList()): JobDatabase {
     val jobs = fullSpecs.map { it.jobSpec }.toMutableList()
     val constraints = fullSpecs.map { it.constraintSpecs }.flatten().toMutableList()
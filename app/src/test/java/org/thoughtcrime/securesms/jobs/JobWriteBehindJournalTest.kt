@@ -0,0 +1,86 @@
+package org.thoughtcrime.securesms.jobs
+
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Test
+import org.thoughtcrime.securesms.assertIs
+import org.thoughtcrime.securesms.database.JobDatabase
+import java.util.concurrent.Executor
+
+class JobWriteBehindJournalTest {
+
+  private val database: JobDatabase = mockk(relaxed = true)
+  private val scheduledFlushes: MutableList<Runnable> = mutableListOf()
+  private val subject = JobWriteBehindJournal(database, 0, Executor { scheduledFlushes += it })
+
+  @Test
+  fun `markJobAsRunning - does not write immediately`() {
+    subject.markJobAsRunning("id1", 100)
+
+    verify(exactly = 0) { database.markJobAsRunning(any(), any()) }
+    verify(exactly = 0) { database.markJobsAsRunning(any()) }
+  }
+
+  @Test
+  fun `markJobAsRunning - schedules a single flush`() {
+    subject.markJobAsRunning("id1", 100)
+    subject.markJobAsRunning("id2", 200)
+
+    scheduledFlushes.size assertIs 1
+  }
+
+  @Test
+  fun `flush - writes all pending state in one batch`() {
+    subject.markJobAsRunning("id1", 100)
+    subject.markJobAsRunning("id2", 200)
+
+    scheduledFlushes.single().run()
+
+    verify(exactly = 1) { database.markJobsAsRunning(mapOf("id1" to 100L, "id2" to 200L)) }
+    subject.getMetrics().flushCount assertIs 1L
+  }
+
+  @Test
+  fun `flush - repeated updates to the same job collapse`() {
+    subject.markJobAsRunning("id1", 100)
+    subject.markJobAsRunning("id1", 200)
+
+    subject.flush()
+
+    verify(exactly = 1) { database.markJobsAsRunning(mapOf("id1" to 200L)) }
+    subject.getMetrics().writesAvoided assertIs 1L
+  }
+
+  @Test
+  fun `discard - discarded jobs are never written`() {
+    subject.markJobAsRunning("id1", 100)
+    subject.markJobAsRunning("id2", 200)
+
+    subject.discard(listOf("id1"))
+    subject.flush()
+
+    verify(exactly = 1) { database.markJobsAsRunning(mapOf("id2" to 200L)) }
+    subject.getMetrics().writesRequested assertIs 2L
+    subject.getMetrics().writesAvoided assertIs 1L
+  }
+
+  @Test
+  fun `flush - nothing pending does not touch the database`() {
+    subject.markJobAsRunning("id1", 100)
+    subject.discard(listOf("id1"))
+
+    subject.flush()
+
+    verify(exactly = 0) { database.markJobsAsRunning(any()) }
+  }
+
+  @Test
+  fun `markJobAsRunning - schedules another flush after the previous one ran`() {
+    subject.markJobAsRunning("id1", 100)
+    scheduledFlushes.single().run()
+
+    subject.markJobAsRunning("id2", 200)
+
+    scheduledFlushes.size assertIs 2
+  }
+}
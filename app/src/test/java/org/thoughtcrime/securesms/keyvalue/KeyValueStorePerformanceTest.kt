@@ -0,0 +1,100 @@
+package org.thoughtcrime.securesms.keyvalue
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.dependencies.MockApplicationDependencyProvider
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Reads a handful of commonly-used [SignalStore] values from an increasing number of threads while another thread keeps writing, and
+ * reports read latency and how many writes got through.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class KeyValueStorePerformanceTest {
+
+  companion object {
+    private const val READS_PER_THREAD = 500_000
+  }
+
+  private lateinit var store: KeyValueStore
+
+  @Before
+  fun setup() {
+    if (!AppDependencies.isInitialized) {
+      AppDependencies.init(ApplicationProvider.getApplicationContext(), MockApplicationDependencyProvider())
+    }
+
+    store = KeyValueStore(
+      MockKeyValuePersistentStorage.withDataSet(
+        KeyValueDataSet().apply {
+          putString(AccountValues.KEY_ACI, "")
+          putBoolean(AccountValues.KEY_IS_REGISTERED, true)
+          putString(AccountValues.KEY_E164, "+15551234567")
+        }
+      )
+    )
+    SignalStore.testInject(store)
+  }
+
+  @Test
+  fun `reads while writing`() {
+    for (threadCount in listOf(1, 4, 16)) {
+      val latencies = LongArray(threadCount * READS_PER_THREAD)
+      val start = CountDownLatch(1)
+      val done = AtomicBoolean(false)
+      var writes = 0L
+
+      val writer = Thread {
+        start.await()
+        while (!done.get()) {
+          store.beginWrite().putLong("benchmark.counter", writes++).apply()
+        }
+      }.apply { start() }
+
+      val readers = (0 until threadCount).map { t ->
+        Thread {
+          val offset = t * READS_PER_THREAD
+          start.await()
+          for (i in 0 until READS_PER_THREAD) {
+            val readStart = System.nanoTime()
+            when (i % 4) {
+              0 -> SignalStore.account.isRegistered
+              1 -> SignalStore.account.e164
+              2 -> SignalStore.settings.isLinkPreviewsEnabled
+              else -> SignalStore.remoteConfig.lastFetchTime
+            }
+            latencies[offset + i] = System.nanoTime() - readStart
+          }
+        }.apply { start() }
+      }
+
+      val startTime = System.nanoTime()
+      start.countDown()
+      readers.forEach { it.join() }
+      val durationMs = (System.nanoTime() - startTime) / 1_000_000
+      done.set(true)
+      writer.join()
+      store.blockUntilAllWritesFinished()
+
+      latencies.sort()
+      println(
+        "[$threadCount readers] ${latencies.size} reads in $durationMs ms (${latencies.size * 1000L / durationMs.coerceAtLeast(1)} reads/sec). " +
+          "p50: ${latencies.percentile(50)} ns, p99: ${latencies.percentile(99)} ns, max: ${latencies.last()} ns. Concurrent writes: $writes"
+      )
+    }
+  }
+
+  private fun LongArray.percentile(p: Int): Long {
+    return this[(size - 1) * p / 100]
+  }
+}
@@ -0,0 +1,93 @@
+package org.thoughtcrime.securesms.keyvalue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.Executor
+
+class KeyValueStoreTest {
+
+  private val persisted = KeyValueDataSet()
+  private val storage = CountingStorage(MockKeyValuePersistentStorage.withDataSet(persisted))
+  private val tasks: MutableList<Runnable> = mutableListOf()
+  private val subject = KeyValueStore(storage, Executor { tasks += it })
+
+  @Test
+  fun `apply - value is readable immediately, before it is persisted`() {
+    subject.beginWrite().putLong("a", 1).apply()
+
+    assertEquals(1L, subject.getLong("a", 0))
+    assertFalse(persisted.containsKey("a"))
+  }
+
+  @Test
+  fun `apply - writes made before the flush runs are persisted together`() {
+    subject.beginWrite().putLong("a", 1).apply()
+    subject.beginWrite().putLong("b", 2).apply()
+    subject.beginWrite().putLong("a", 3).apply()
+
+    assertEquals(1, tasks.size)
+    tasks.single().run()
+
+    assertEquals(1, storage.writeCount)
+    assertEquals(3L, persisted.getLong("a", 0))
+    assertEquals(2L, persisted.getLong("b", 0))
+  }
+
+  @Test
+  fun `apply - a remove after a put in the same batch removes the value`() {
+    persisted.putString("a", "old")
+
+    subject.beginWrite().putString("a", "new").apply()
+    subject.beginWrite().remove("a").apply()
+    tasks.single().run()
+
+    assertFalse(subject.containsKey("a"))
+    assertFalse(persisted.containsKey("a"))
+  }
+
+  @Test
+  fun `apply - a put after a remove in the same batch keeps the value`() {
+    persisted.putString("a", "old")
+
+    subject.beginWrite().remove("a").apply()
+    subject.beginWrite().putString("a", "new").apply()
+    tasks.single().run()
+
+    assertEquals("new", subject.getString("a", null))
+    assertEquals("new", persisted.getString("a", null))
+  }
+
+  @Test
+  fun `apply - schedules another flush after the previous one ran`() {
+    subject.beginWrite().putLong("a", 1).apply()
+    tasks.single().run()
+
+    subject.beginWrite().putLong("a", 2).apply()
+
+    assertEquals(2, tasks.size)
+    tasks[1].run()
+    assertEquals(2L, persisted.getLong("a", 0))
+  }
+
+  @Test
+  fun `beginRead - snapshot does not change after later writes`() {
+    subject.beginWrite().putBoolean("a", false).apply()
+    val snapshot = subject.beginRead()
+
+    subject.beginWrite().putBoolean("a", true).apply()
+
+    assertFalse(snapshot.getBoolean("a", true))
+    assertTrue(subject.getBoolean("a", false))
+  }
+
+  private class CountingStorage(private val delegate: KeyValuePersistentStorage) : KeyValuePersistentStorage by delegate {
+    var writeCount = 0
+
+    override fun writeDataSet(dataSet: KeyValueDataSet, removes: Collection<String>) {
+      writeCount++
+      delegate.writeDataSet(dataSet, removes)
+    }
+  }
+}
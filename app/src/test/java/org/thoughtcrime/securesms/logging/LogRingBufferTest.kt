@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.logging
+
+import org.junit.Test
+import org.thoughtcrime.securesms.assertIs
+import java.util.concurrent.CountDownLatch
+
+class LogRingBufferTest {
+
+  @Test
+  fun `drainTo - returns items in the order they were offered`() {
+    val buffer = LogRingBuffer<Int>(8)
+    (1..5).forEach { buffer.offer(it) }
+
+    val out = mutableListOf<Int>()
+    buffer.drainTo(out) assertIs 5
+
+    out assertIs listOf(1, 2, 3, 4, 5)
+    buffer.isEmpty() assertIs true
+  }
+
+  @Test
+  fun `offer - drops items when full`() {
+    val buffer = LogRingBuffer<Int>(4)
+
+    (1..6).map { buffer.offer(it) } assertIs listOf(true, true, true, true, false, false)
+
+    buffer.acceptedCount assertIs 4L
+    buffer.droppedCount assertIs 2L
+  }
+
+  @Test
+  fun `offer - accepts items again after draining`() {
+    val buffer = LogRingBuffer<Int>(4)
+    (1..4).forEach { buffer.offer(it) }
+    buffer.drainTo(mutableListOf())
+
+    buffer.offer(5) assertIs true
+
+    val out = mutableListOf<Int>()
+    buffer.drainTo(out)
+    out assertIs listOf(5)
+    buffer.drainedCount assertIs 5L
+  }
+
+  @Test
+  fun `drainTo - nothing available`() {
+    val buffer = LogRingBuffer<Int>(4)
+
+    buffer.drainTo(mutableListOf()) assertIs 0
+    buffer.isEmpty() assertIs true
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun `constructor - capacity must be a power of two`() {
+    LogRingBuffer<Int>(6)
+  }
+
+  @Test
+  fun `offer - concurrent producers, every accepted item is drained exactly once`() {
+    val buffer = LogRingBuffer<Int>(1024)
+    val threadCount = 8
+    val perThread = 10_000
+    val start = CountDownLatch(1)
+
+    val producers = (0 until threadCount).map { t ->
+      Thread {
+        start.await()
+        for (i in 0 until perThread) {
+          buffer.offer(t * perThread + i)
+        }
+      }.apply { start() }
+    }
+
+    val out = mutableListOf<Int>()
+    start.countDown()
+    while (producers.any { it.isAlive }) {
+      buffer.drainTo(out)
+    }
+    buffer.drainTo(out)
+
+    out.size.toLong() assertIs buffer.acceptedCount
+    out.toSet().size assertIs out.size
+    (buffer.acceptedCount + buffer.droppedCount) assertIs (threadCount * perThread).toLong()
+
+    // Items from a single producer must stay in order
+    out.groupBy { it / perThread }.values.forEach { items ->
+      items assertIs items.sorted()
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package org.thoughtcrime.securesms.logging
+
+import android.app.Application
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Logs from an increasing number of threads at once and reports how long each individual log call takes, along with how many logs had
+ * to be dropped. The database write is replaced with a short sleep, so this only measures the cost of getting logs off of the calling thread.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class PersistentLoggerPerformanceTest {
+
+  companion object {
+    private const val CALLS_PER_THREAD = 200_000
+    private const val SIMULATED_WRITE_MS = 2L
+  }
+
+  @Test
+  fun `per-call latency`() {
+    for (threadCount in listOf(1, 4, 16)) {
+      val persisted = AtomicLong(0)
+      val logger = PersistentLogger { entries, _ ->
+        Thread.sleep(SIMULATED_WRITE_MS)
+        persisted.addAndGet(entries.size.toLong())
+      }
+
+      val latencies = LongArray(threadCount * CALLS_PER_THREAD)
+      val start = CountDownLatch(1)
+
+      val threads = (0 until threadCount).map { t ->
+        Thread {
+          val offset = t * CALLS_PER_THREAD
+          start.await()
+          for (i in 0 until CALLS_PER_THREAD) {
+            val callStart = System.nanoTime()
+            logger.i("Benchmark", "Message $i from thread $t", null, false)
+            latencies[offset + i] = System.nanoTime() - callStart
+          }
+        }.apply { start() }
+      }
+
+      val startTime = System.nanoTime()
+      start.countDown()
+      threads.forEach { it.join() }
+      val logTimeMs = (System.nanoTime() - startTime) / 1_000_000
+
+      logger.flush()
+
+      latencies.sort()
+      println(
+        "[$threadCount threads] ${latencies.size} calls in $logTimeMs ms. " +
+          "p50: ${latencies.percentile(50)} ns, p99: ${latencies.percentile(99)} ns, p99.9: ${latencies.percentile(99.9)} ns, max: ${latencies.last()} ns. " +
+          "Persisted: ${persisted.get()}, dropped: ${logger.getDroppedCount()}"
+      )
+    }
+  }
+
+  private fun LongArray.percentile(p: Number): Long {
+    return this[((size - 1) * p.toDouble() / 100).toInt()]
+  }
+}
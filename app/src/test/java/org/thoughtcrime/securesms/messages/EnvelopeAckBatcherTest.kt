@@ -0,0 +1,143 @@
+package org.thoughtcrime.securesms.messages
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.internal.push.Envelope
+import org.whispersystems.signalservice.internal.websocket.WebSocketRequestMessage
+import java.io.IOException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class EnvelopeAckBatcherTest {
+
+  private val executor = Executors.newSingleThreadScheduledExecutor()
+  private val writes: MutableList<List<Long>> = CopyOnWriteArrayList()
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun unbatched_sendsEachAckRightAway() {
+    val batcher = EnvelopeAckBatcher(false, 100, 60_000, executor, ::record)
+
+    batcher.onCommitted(responses(1L..3L))
+
+    assertEquals(listOf(listOf(1L), listOf(2L), listOf(3L)), writes)
+    assertEquals(EnvelopeAckBatcher.Stats(acks = 3, writes = 3), batcher.getStats())
+  }
+
+  @Test
+  fun batched_holdsAcksFromSeveralTransactionsUntilFlushed() {
+    val batcher = EnvelopeAckBatcher(true, 100, 60_000, executor, ::record)
+
+    batcher.onCommitted(responses(1L..3L))
+    batcher.onCommitted(responses(4L..5L))
+
+    assertTrue(writes.isEmpty())
+
+    batcher.flush()
+
+    assertEquals(listOf((1L..5L).toList()), writes)
+    assertEquals(3L, batcher.getStats().writesSaved)
+  }
+
+  @Test
+  fun batched_flushesOnceMaxBatchSizeIsReached() {
+    val latch = CountDownLatch(1)
+    val batcher = EnvelopeAckBatcher(true, 4, 60_000, executor) { record(it); latch.countDown() }
+
+    batcher.onCommitted(responses(1L..3L))
+    batcher.onCommitted(responses(4L..6L))
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS))
+    assertEquals(listOf((1L..6L).toList()), writes)
+  }
+
+  @Test
+  fun batched_flushesAfterMaxDelay() {
+    val latch = CountDownLatch(1)
+    val batcher = EnvelopeAckBatcher(true, 100, 50, executor) { record(it); latch.countDown() }
+
+    batcher.onCommitted(responses(1L..2L))
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS))
+    assertEquals(listOf(listOf(1L, 2L)), writes)
+  }
+
+  @Test
+  fun batched_failedWriteIsDroppedAndDoesNotThrow() {
+    val batcher = EnvelopeAckBatcher(true, 100, 60_000, executor) { throw IOException("Connection closed!") }
+
+    batcher.onCommitted(responses(1L..2L))
+    batcher.flush()
+    batcher.flush()
+
+    assertEquals(EnvelopeAckBatcher.Stats(acks = 0, writes = 0), batcher.getStats())
+  }
+
+  @Test
+  fun close_sendsWhatIsWaitingThenDropsEverythingAfter() {
+    val batcher = EnvelopeAckBatcher(true, 100, 60_000, executor, ::record)
+
+    batcher.onCommitted(responses(1L..2L))
+    batcher.close()
+
+    batcher.onCommitted(responses(3L..4L))
+    batcher.flush()
+    batcher.close()
+
+    assertEquals(listOf(listOf(1L, 2L)), writes)
+  }
+
+  @Test
+  fun close_unbatchedDropsAcksAfterClose() {
+    val batcher = EnvelopeAckBatcher(false, 100, 60_000, executor, ::record)
+
+    batcher.onCommitted(responses(1L..1L))
+    batcher.close()
+    batcher.onCommitted(responses(2L..2L))
+
+    assertEquals(listOf(listOf(1L)), writes)
+  }
+
+  @Test
+  fun close_waitsForAWriteInProgress() {
+    val writing = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val batcher = EnvelopeAckBatcher(true, 2, 60_000, executor) {
+      writing.countDown()
+      release.await(5, TimeUnit.SECONDS)
+      record(it)
+    }
+
+    batcher.onCommitted(responses(1L..2L))
+    assertTrue(writing.await(5, TimeUnit.SECONDS))
+
+    val closer = Thread { batcher.close() }
+    closer.start()
+    closer.join(100)
+    assertTrue(closer.isAlive)
+
+    release.countDown()
+    closer.join(5_000)
+
+    assertFalse(closer.isAlive)
+    assertEquals(listOf(listOf(1L, 2L)), writes)
+  }
+
+  private fun record(responses: List<EnvelopeResponse>) {
+    writes += responses.map { it.websocketRequest.id!! }
+  }
+
+  private fun responses(ids: LongRange): List<EnvelopeResponse> {
+    return ids.map { EnvelopeResponse(Envelope(), 0, WebSocketRequestMessage(id = it)) }
+  }
+}
@@ -0,0 +1,125 @@
+package org.thoughtcrime.securesms.messages
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.fail
+import org.junit.Test
+import org.thoughtcrime.securesms.messages.MessageDecryptor.FollowUpOperation
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.internal.push.Envelope
+import org.whispersystems.signalservice.internal.websocket.WebSocketRequestMessage
+
+class EnvelopeBatchProcessorTest {
+
+  private val transactions = FakeTransactions()
+  private val acked: MutableList<List<Long>> = mutableListOf()
+  private val followUpsRun: MutableList<Int> = mutableListOf()
+
+  @Test
+  fun process_commitsEveryEnvelopeInOneTransaction() {
+    val processor = processor { null }
+
+    val transactionCount = processor.process(responses(1L..5L))
+
+    assertEquals(1, transactionCount)
+    assertEquals(listOf((1L..5L).toList()), transactions.committed)
+    assertEquals(listOf((1L..5L).toList()), acked)
+  }
+
+  @Test
+  fun process_closesTheTransactionAfterAnEnvelopeWithFollowUps() {
+    val processor = processor { if (it == 2L) listOf(FollowUpOperation { null }) else null }
+
+    val transactionCount = processor.process(responses(1L..4L))
+
+    assertEquals(2, transactionCount)
+    assertEquals(listOf(listOf(1L, 2L), listOf(3L, 4L)), transactions.committed)
+    assertEquals(listOf(1), followUpsRun)
+    assertEquals(listOf(listOf(1L, 2L), listOf(3L, 4L)), acked)
+  }
+
+  @Test
+  fun process_whenEnvelopeKOfNThrows_commitsAndAcksTheOnesBeforeItAndRethrows() {
+    val error = IllegalStateException("Bad envelope!")
+    val processor = processor { if (it == 4L) throw error else null }
+
+    try {
+      processor.process(responses(1L..6L))
+      fail("Expected the failure to be rethrown")
+    } catch (e: IllegalStateException) {
+      assertSame(error, e)
+    }
+
+    assertEquals(listOf(4L), transactions.rolledBack)
+    assertEquals(listOf((1L..3L).toList()), transactions.committed)
+    assertEquals(listOf((1L..3L).toList()), acked)
+  }
+
+  @Test
+  fun process_whenTheFirstEnvelopeThrows_nothingIsAcked() {
+    val processor = processor { throw IllegalStateException("Bad envelope!") }
+
+    try {
+      processor.process(responses(1L..3L))
+      fail("Expected the failure to be rethrown")
+    } catch (e: IllegalStateException) {
+      // Expected
+    }
+
+    assertEquals(listOf(1L), transactions.rolledBack)
+    assertEquals(listOf(emptyList<Long>()), transactions.committed)
+    assertEquals(listOf(emptyList<Long>()), acked)
+  }
+
+  private fun processor(onEnvelope: (Long) -> List<FollowUpOperation>?): EnvelopeBatchProcessor {
+    return EnvelopeBatchProcessor(
+      transactions = transactions,
+      processEnvelope = { response ->
+        val id = response.websocketRequest.id!!
+        transactions.write(id)
+        onEnvelope(id)
+      },
+      flushProtocolStore = {},
+      runFollowUpOperations = { followUpsRun += it.size },
+      onCommitted = { responses -> acked += responses.map { it.websocketRequest.id!! } }
+    )
+  }
+
+  private fun responses(ids: LongRange): List<EnvelopeResponse> {
+    return ids.map { EnvelopeResponse(Envelope(), 0, WebSocketRequestMessage(id = it)) }
+  }
+
+  /**
+   * Records which envelope ids were written in each committed transaction, dropping the writes made inside a savepoint that threw.
+   */
+  private class FakeTransactions : EnvelopeBatchProcessor.Transactions {
+    val committed: MutableList<List<Long>> = mutableListOf()
+    val rolledBack: MutableList<Long> = mutableListOf()
+
+    private var transaction: MutableList<Long>? = null
+
+    fun write(id: Long) {
+      transaction!! += id
+    }
+
+    override fun <T> inTransaction(block: () -> T): T {
+      transaction = mutableListOf()
+      val result = block()
+      committed += transaction!!
+      transaction = null
+      return result
+    }
+
+    override fun <T> inSavepoint(block: () -> T): T {
+      val savepoint = transaction!!.size
+      try {
+        return block()
+      } catch (e: Throwable) {
+        val writes = transaction!!.subList(savepoint, transaction!!.size)
+        rolledBack += writes
+        writes.clear()
+        throw e
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.recipients
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import io.mockk.every
+import io.mockk.justRun
+import io.mockk.mockk
+import io.mockk.mockkConstructor
+import io.mockk.mockkObject
+import io.mockk.unmockkConstructor
+import io.mockk.unmockkObject
+import io.mockk.verify
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.database.RecipientTable
+import org.thoughtcrime.securesms.database.RecipientTable.MissingRecipientException
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.database.model.RecipientRecord
+import java.util.concurrent.Executor
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class LiveRecipientCacheTest {
+
+  private val pending = ArrayDeque<Runnable>()
+  private val executor = Executor { pending += it }
+
+  private lateinit var recipientTable: RecipientTable
+  private lateinit var cache: LiveRecipientCache
+
+  @Before
+  fun setUp() {
+    recipientTable = mockk()
+
+    mockkObject(SignalDatabase)
+    every { SignalDatabase.recipients } returns recipientTable
+    every { SignalDatabase.groups } returns mockk()
+    every { SignalDatabase.distributionLists } returns mockk()
+
+    // Resolving for real builds a whole Recipient from the record, which isn't what's under test here
+    mockkConstructor(LiveRecipient::class)
+    justRun { anyConstructed<LiveRecipient>().resolve(any<RecipientRecord>()) }
+    every { anyConstructed<LiveRecipient>().resolve() } returns Recipient.UNKNOWN
+
+    cache = LiveRecipientCache(ApplicationProvider.getApplicationContext(), executor)
+  }
+
+  @After
+  fun tearDown() {
+    unmockkConstructor(LiveRecipient::class)
+    unmockkObject(SignalDatabase)
+  }
+
+  @Test
+  fun givenSeveralMisses_whenTheBatchRuns_thenIExpectOneGetRecordsCallForAllOfThem() {
+    val ids = listOf(RecipientId.from(1), RecipientId.from(2), RecipientId.from(3))
+    every { recipientTable.getRecords(any()) } returns ids.associateWith { mockk<RecipientRecord>() }
+
+    ids.forEach { cache.getLive(it) }
+
+    assertEquals(1, pending.size)
+    runPending()
+
+    verify(exactly = 1) { recipientTable.getRecords(match { it.toSet() == ids.toSet() }) }
+    verify(exactly = 3) { anyConstructed<LiveRecipient>().resolve(any<RecipientRecord>()) }
+    verify(exactly = 0) { anyConstructed<LiveRecipient>().resolve() }
+  }
+
+  @Test
+  fun givenMissesAfterABatchRan_whenTheyAreResolved_thenIExpectASecondBatch() {
+    val first = listOf(RecipientId.from(1), RecipientId.from(2))
+    val second = listOf(RecipientId.from(3), RecipientId.from(4))
+    every { recipientTable.getRecords(any()) } answers { firstArg<Collection<RecipientId>>().associateWith { mockk<RecipientRecord>() } }
+
+    first.forEach { cache.getLive(it) }
+    runPending()
+    second.forEach { cache.getLive(it) }
+    runPending()
+
+    verify(exactly = 1) { recipientTable.getRecords(match { it.toSet() == first.toSet() }) }
+    verify(exactly = 1) { recipientTable.getRecords(match { it.toSet() == second.toSet() }) }
+  }
+
+  @Test
+  fun givenASingleMiss_whenTheBatchRuns_thenIExpectASingleResolveWithoutGetRecords() {
+    cache.getLive(RecipientId.from(1))
+    runPending()
+
+    verify(exactly = 0) { recipientTable.getRecords(any()) }
+    verify(exactly = 1) { anyConstructed<LiveRecipient>().resolve() }
+  }
+
+  @Test
+  fun givenAnIdMissingFromTheBatch_whenTheBatchRuns_thenIExpectASingleResolveForIt() {
+    val found = listOf(RecipientId.from(1), RecipientId.from(2))
+    val remapped = RecipientId.from(3)
+
+    // A remapped id comes back from the batch under the id it was merged into, so it's missing from the results
+    every { recipientTable.getRecords(any()) } returns found.associateWith { mockk<RecipientRecord>() }
+
+    (found + remapped).forEach { cache.getLive(it) }
+    runPending()
+
+    verify(exactly = 1) { recipientTable.getRecords(any()) }
+    verify(exactly = 2) { anyConstructed<LiveRecipient>().resolve(any<RecipientRecord>()) }
+    verify(exactly = 1) { anyConstructed<LiveRecipient>().resolve() }
+  }
+
+  @Test
+  fun givenTheBatchThrowsMissingRecipient_whenTheBatchRuns_thenIExpectEachToBeResolvedSingly() {
+    val ids = listOf(RecipientId.from(1), RecipientId.from(2), RecipientId.from(3))
+    every { recipientTable.getRecords(any()) } throws MissingRecipientException(ids[1])
+
+    ids.forEach { cache.getLive(it) }
+    runPending()
+
+    verify(exactly = 0) { anyConstructed<LiveRecipient>().resolve(any<RecipientRecord>()) }
+    verify(exactly = 3) { anyConstructed<LiveRecipient>().resolve() }
+  }
+
+  private fun runPending() {
+    while (pending.isNotEmpty()) {
+      pending.removeFirst().run()
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.thoughtcrime.securesms.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class LazyStartupTaskTest {
+
+  @Test
+  fun ensureInitialized_runsTaskOnce() {
+    val runs = AtomicInteger()
+    val task = LazyStartupTask("test") { runs.incrementAndGet() }
+
+    task.ensureInitialized()
+    task.ensureInitialized()
+    task.initializeWhenIdle()
+
+    assertEquals(1, runs.get())
+  }
+
+  @Test
+  fun initializeWhenIdle_afterIdle_doesNotRunAgainOnFirstUse() {
+    val runs = AtomicInteger()
+    val task = LazyStartupTask("test") { runs.incrementAndGet() }
+
+    task.initializeWhenIdle()
+    task.ensureInitialized()
+
+    assertEquals(1, runs.get())
+  }
+
+  @Test
+  fun ensureInitialized_fromManyThreads_runsTaskOnce() {
+    val runs = AtomicInteger()
+    val task = LazyStartupTask("test") {
+      Thread.sleep(10)
+      runs.incrementAndGet()
+    }
+
+    val executor = Executors.newFixedThreadPool(8)
+    val start = CountDownLatch(1)
+    val done = CountDownLatch(8)
+
+    repeat(8) {
+      executor.execute {
+        start.await()
+        task.ensureInitialized()
+        assertEquals(1, runs.get())
+        done.countDown()
+      }
+    }
+
+    start.countDown()
+    done.await(5, TimeUnit.SECONDS)
+    executor.shutdown()
+
+    assertEquals(0, done.count)
+    assertEquals(1, runs.get())
+  }
+}
@@ -4,6 +4,7 @@ import android.Manifest
 import android.os.Build
 import androidx.benchmark.macro.CompilationMode
 import androidx.benchmark.macro.ExperimentalMetricApi
+import androidx.benchmark.macro.FrameTimingMetric
 import androidx.benchmark.macro.TraceSectionMetric
 import androidx.benchmark.macro.junit4.MacrobenchmarkRule
 import androidx.test.ext.junit.runners.AndroidJUnit4
@@ -51,4 +52,40 @@ class ConversationBenchmarks {
       device.wait(Until.hasObject(By.textContains("Test")), 5_000L)
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Opens a conversation where every message is dense with emoji from many different sprite pages, from a fresh process so that none of
+   * the pages are decoded yet. Frame timing covers the frames drawn while the pages arrive.
+   */
+  @OptIn(ExperimentalMetricApi::class)
+  @Test
+  fun emojiConversationOpen() {
+    var setup = false
+    benchmarkRule.measureRepeated(
+      packageName = "org.thoughtcrime.securesms",
+      metrics = listOf(
+        TraceSectionMetric("6-ConversationOpen"),
+        TraceSectionMetric("5-ConversationOpen-Render"),
+        FrameTimingMetric()
+      ),
+      iterations = 10,
+      compilationMode = CompilationMode.Partial(),
+      setupBlock = {
+        if (!setup) {
+          BenchmarkSetup.setup("emoji-conversation-open", device)
+          setup = true
+        }
+        killProcess()
+        if (Build.VERSION.SDK_INT >= 33) {
+          device.executeShellCommand("pm grant $packageName ${Manifest.permission.POST_NOTIFICATIONS}")
+        }
+        startActivityAndWait()
+        device.waitForIdle()
+      }) {
+      device.findObject(By.textContains("Buddy")).click()
+      device.wait(Until.hasObject(By.textContains("Signal message")), 10_000L)
+      device.wait(Until.hasObject(By.textContains("Test")), 5_000L)
+      device.waitForIdle()
+    }
+  }
+}
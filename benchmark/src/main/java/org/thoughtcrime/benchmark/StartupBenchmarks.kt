@@ -7,6 +7,9 @@ import androidx.benchmark.macro.StartupTimingMetric
 import androidx.benchmark.macro.TraceSectionMetric
 import androidx.benchmark.macro.junit4.MacrobenchmarkRule
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.uiautomator.UiDevice
+import org.junit.Assert.assertTrue
 import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -18,6 +21,15 @@ import org.junit.runner.RunWith
  */
 @RunWith(AndroidJUnit4::class)
 class StartupBenchmarks {
+
+  companion object {
+    private const val PACKAGE_NAME = "org.thoughtcrime.securesms"
+    private const val DEFAULT_COLD_START_BUDGET_MS = 2000L
+    private const val BUDGET_ITERATIONS = 5
+
+    private val TOTAL_TIME = Regex("""TotalTime: (\d+)""")
+  }
+
   @get:Rule
   val benchmarkRule = MacrobenchmarkRule()
 
@@ -31,12 +43,45 @@ class StartupBenchmarks {
     measureStartup(5, CompilationMode.Partial())
   }
 
+  /**
+   * Fails if the median time to the first frame of a cold start is over budget, so regressions show up as a failure rather than only as a
+   * number to compare by hand. The budget defaults to [DEFAULT_COLD_START_BUDGET_MS] and can be set per device with the `coldStartBudgetMs`
+   * instrumentation argument.
+   */
+  @Test
+  fun coldStartTimeToFirstFrame() {
+    val device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation())
+    val budget = InstrumentationRegistry.getArguments().getString("coldStartBudgetMs")?.toLong() ?: DEFAULT_COLD_START_BUDGET_MS
+
+    BenchmarkSetup.setup("cold-start", device)
+
+    val launcherActivity = device.executeShellCommand("cmd package resolve-activity --brief -c android.intent.category.LAUNCHER $PACKAGE_NAME").trim().lines().last()
+
+    val times: List<Long> = (1..BUDGET_ITERATIONS).map {
+      device.executeShellCommand("am force-stop $PACKAGE_NAME")
+
+      val output = device.executeShellCommand("am start -W -n $launcherActivity")
+      TOTAL_TIME.find(output)?.groupValues?.get(1)?.toLong() ?: throw AssertionError("No startup time reported! Output: $output")
+    }.sorted()
+
+    val median = times[times.size / 2]
+
+    assertTrue("Median cold start to first frame was $median ms, over the budget of $budget ms. All runs: $times", median <= budget)
+  }
+
   @OptIn(ExperimentalMetricApi::class)
   private fun measureStartup(iterations: Int, compilationMode: CompilationMode) {
     var setup = false
     benchmarkRule.measureRepeated(
-      packageName = "org.thoughtcrime.securesms",
-      metrics = listOf(StartupTimingMetric(), TraceSectionMetric("ConversationListDataSource#load")),
+      packageName = PACKAGE_NAME,
+      metrics = listOf(
+        StartupTimingMetric(),
+        TraceSectionMetric("ConversationListDataSource#load"),
+        TraceSectionMetric("Startup:sqlcipher-init"),
+        TraceSectionMetric("Startup:app-dependencies"),
+        TraceSectionMetric("Startup:app-migrations"),
+        TraceSectionMetric("Startup:ring-rtc")
+      ),
       iterations = iterations,
       startupMode = StartupMode.COLD,
       compilationMode = compilationMode,
@@ -24,6 +24,28 @@ fun <T : SupportSQLiteDatabase, R> T.withinTransaction(block: (T) -> R): R {
   }
 }
 
+/**
+ * Runs the provided [block] inside a savepoint of the transaction that's already open on `this` database. If [block] throws, only the
+ * changes it made are rolled back, and the surrounding transaction can still be committed.
+ *
+ * @return The value returned by [block] if any
+ */
+fun <T : SupportSQLiteDatabase, R> T.withinSavepoint(name: String, block: (T) -> R): R {
+  check(inTransaction()) { "Savepoints can only be used inside of a transaction!" }
+
+  execSQL("SAVEPOINT $name")
+  try {
+    val toReturn = block(this)
+    execSQL("RELEASE $name")
+    return toReturn
+  } catch (e: Throwable) {
+    // The leading semicolon keeps Android from mistaking this for a rollback of the entire transaction
+    execSQL(";ROLLBACK TO $name")
+    execSQL("RELEASE $name")
+    throw e
+  }
+}
+
 fun SupportSQLiteDatabase.getTableRowCount(table: String): Int {
   return this.query("SELECT COUNT(*) FROM $table").use {
     if (it.moveToFirst()) {
@@ -101,6 +101,7 @@ dependencies {
   testImplementation(testLibs.conscrypt.openjdk.uber)
   testImplementation(testLibs.mockito.core)
   testImplementation(testLibs.mockk)
+  testImplementation(testLibs.square.okhttp.mockserver)
 
   testFixturesImplementation(libs.libsignal.client)
   testFixturesImplementation(testLibs.junit.junit)
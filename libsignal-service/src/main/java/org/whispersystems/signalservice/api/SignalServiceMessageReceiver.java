@@ -15,6 +15,7 @@ import org.signal.libsignal.zkgroup.profiles.ClientZkProfileOperations;
 import org.signal.libsignal.zkgroup.profiles.ProfileKey;
 import org.whispersystems.signalservice.api.backup.BackupKey;
 import org.whispersystems.signalservice.api.crypto.AttachmentCipherInputStream;
+import org.whispersystems.signalservice.api.crypto.AttachmentMacVerifier;
 import org.whispersystems.signalservice.api.crypto.AttachmentCipherStreamUtil;
 import org.whispersystems.signalservice.api.crypto.ProfileCipherInputStream;
 import org.whispersystems.signalservice.api.crypto.SealedSenderAccess;
@@ -154,6 +155,9 @@ public class SignalServiceMessageReceiver {
    * Retrieves a SignalServiceAttachment. The encrypted data is written to @{code destination}, and then an {@link InputStream} is returned that decrypts the
    * contents of the destination file, giving you access to the plaintext content.
    *
+   * The download is split into byte ranges that are fetched in parallel, and the MAC and digest are checked while the download is still in
+   * progress, so the returned stream doesn't need to make a verification pass over the file first.
+   *
    * @param pointer The {@link SignalServiceAttachmentPointer}
    *                received in a {@link SignalServiceDataMessage}.
    * @param destination The download destination for this attachment. If this file exists, it is
@@ -168,8 +172,10 @@ public class SignalServiceMessageReceiver {
       throws IOException, InvalidMessageException, MissingConfigurationException {
     if (!pointer.getDigest().isPresent()) throw new InvalidMessageException("No attachment digest!");
 
-    socket.retrieveAttachment(pointer.getCdnNumber(), Collections.emptyMap(), pointer.getRemoteId(), destination, maxSizeBytes, listener);
-    return AttachmentCipherInputStream.createForAttachment(destination, pointer.getSize().orElse(0), pointer.getKey(), pointer.getDigest().get(), null, 0);
+    AttachmentMacVerifier verifier = new AttachmentMacVerifier(pointer.getKey(), pointer.getDigest().get());
+
+    socket.retrieveAttachmentInRanges(pointer.getCdnNumber(), Collections.emptyMap(), pointer.getRemoteId(), destination, maxSizeBytes, listener, verifier::update);
+    return AttachmentCipherInputStream.createForVerifiedAttachment(destination, pointer.getSize().orElse(0), pointer.getKey(), verifier.verify());
   }
 
   /**
@@ -148,6 +148,10 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -172,6 +176,17 @@ public class SignalServiceMessageSender {
 
   private static final int RETRY_COUNT = 4;
 
+  /**
+   * Sends to at least this many recipients encrypt each recipient's envelopes in parallel on {@link #FAN_OUT_SCHEDULER}. Below it, the
+   * cost of hopping threads isn't worth it.
+   */
+  private static final int FAN_OUT_THRESHOLD = 4;
+
+  /**
+   * Shared by every sender, so that a handful of large sends at once can't use more than a bounded number of cores between them.
+   */
+  private static final Scheduler FAN_OUT_SCHEDULER = Schedulers.from(createFanOutExecutor(), false, false);
+
   private final PushServiceSocket             socket;
   private final SignalServiceAccountDataStore aciStore;
   private final SignalSessionLock             sessionLock;
@@ -1914,13 +1929,16 @@ public class SignalServiceMessageSender {
       }
 
       try {
-        OutgoingPushMessageList messages = getEncryptedMessages(recipient,
-                                                                sealedSenderAccess,
-                                                                timestamp,
-                                                                content,
-                                                                online,
-                                                                urgent,
-                                                                story);
+        long                    encryptStart = System.currentTimeMillis();
+        OutgoingPushMessageList messages     = getEncryptedMessages(recipient,
+                                                                    sealedSenderAccess,
+                                                                    timestamp,
+                                                                    content,
+                                                                    online,
+                                                                    urgent,
+                                                                    story);
+        long                    encryptedAt  = System.currentTimeMillis();
+
         if (i == 0 && sendEvents != null) {
           sendEvents.onMessageEncrypted();
         }
@@ -1937,7 +1955,7 @@ public class SignalServiceMessageSender {
 
         try {
           SendMessageResponse response = new MessagingService.SendResponseProcessor<>(messagingService.send(messages, sealedSenderAccess, story).blockingGet()).getResultOrThrow();
-          return SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync() || aciStore.isMultiDevice(), System.currentTimeMillis() - startTime, content.getContent());
+          return SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync() || aciStore.isMultiDevice(), System.currentTimeMillis() - startTime, encryptedAt - encryptStart, System.currentTimeMillis() - encryptedAt, content.getContent());
         } catch (InvalidUnidentifiedAccessHeaderException | UnregisteredUserException | MismatchedDevicesException | StaleDevicesException e) {
           // Non-technical failures shouldn't be retried with socket
           throw e;
@@ -1959,7 +1977,7 @@ public class SignalServiceMessageSender {
 
         SendMessageResponse response = socket.sendMessage(messages, sealedSenderAccess, story);
 
-        return SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync() || aciStore.isMultiDevice(), System.currentTimeMillis() - startTime, content.getContent());
+        return SendMessageResult.success(recipient, messages.getDevices(), response.sentUnidentified(), response.getNeedsSync() || aciStore.isMultiDevice(), System.currentTimeMillis() - startTime, encryptedAt - encryptStart, System.currentTimeMillis() - encryptedAt, content.getContent());
 
       } catch (InvalidKeyException ike) {
         Log.w(TAG, ike);
@@ -1988,6 +2006,10 @@ public class SignalServiceMessageSender {
 
   /**
    * Send a message to multiple recipients.
+   * <p>
+   * For larger sends, each recipient's send is subscribed on {@link #FAN_OUT_SCHEDULER}, so envelopes are encrypted in parallel and each one
+   * is put on the wire as soon as it's ready rather than after every recipient has been encrypted. Access to the protocol store is still
+   * serialized by the {@link SignalSessionLock}.
    *
    * @return An unordered list of a {@link SendMessageResult} for each send.
    * @throws IOException - Unknown failure or a failure not representable by an unsuccessful {@code SendMessageResult}.
@@ -2004,7 +2026,9 @@ public class SignalServiceMessageSender {
                                               boolean story)
       throws IOException
   {
-    Log.d(TAG, "[" + timestamp + "] Sending to " + recipients.size() + " recipients.");
+    boolean fanOut = recipients.size() >= FAN_OUT_THRESHOLD && !sessionLock.isHeldByCurrentThread();
+
+    Log.d(TAG, "[" + timestamp + "] Sending to " + recipients.size() + " recipients." + (fanOut ? " Encrypting in parallel." : ""));
     enforceMaxContentSize(content);
 
     long                                startTime                  = System.currentTimeMillis();
@@ -2016,7 +2040,13 @@ public class SignalServiceMessageSender {
       SignalServiceAddress recipient          = recipientIterator.next();
       SealedSenderAccess   sealedSenderAccess = sealedSenderAccessIterator.next();
 
-      singleResults.add(sendMessageRx(recipient, sealedSenderAccess, timestamp, content, online, cancelationSignal, sendEvents, urgent, story, 0).toObservable());
+      Single<SendMessageResult> result = sendMessageRx(recipient, sealedSenderAccess, timestamp, content, online, cancelationSignal, sendEvents, urgent, story, 0);
+
+      if (fanOut) {
+        result = result.subscribeOn(FAN_OUT_SCHEDULER);
+      }
+
+      singleResults.add(result.toObservable());
     }
 
     List<SendMessageResult> results;
@@ -2052,16 +2082,20 @@ public class SignalServiceMessageSender {
       }
     }
 
-    double average = 0;
+    double average        = 0;
+    double encryptAverage = 0;
+    double networkAverage = 0;
     if (sendsForAverage > 0) {
       for (SendMessageResult result : results) {
         if (result.getSuccess() != null && result.getSuccess().getDuration() != -1) {
-          average += result.getSuccess().getDuration() / sendsForAverage;
+          average        += result.getSuccess().getDuration() / sendsForAverage;
+          encryptAverage += Math.max(result.getSuccess().getEncryptDuration(), 0) / sendsForAverage;
+          networkAverage += Math.max(result.getSuccess().getNetworkDuration(), 0) / sendsForAverage;
         }
       }
     }
 
-    Log.d(TAG, "[" + timestamp + "] Completed send to " + recipients.size() + " recipients in " + (System.currentTimeMillis() - startTime) + " ms, with an average time of " + Math.round(average) + " ms per send via Rx.");
+    Log.d(TAG, "[" + timestamp + "] Completed send to " + recipients.size() + " recipients in " + (System.currentTimeMillis() - startTime) + " ms, with an average time of " + Math.round(average) + " ms per send (" + Math.round(encryptAverage) + " ms encrypting, " + Math.round(networkAverage) + " ms on the network) via Rx.");
     return results;
   }
 
@@ -2095,8 +2129,15 @@ public class SignalServiceMessageSender {
     long startTime = System.currentTimeMillis();
     enforceMaxContentSize(content);
 
+    AtomicLong encryptDuration = new AtomicLong(-1);
+    AtomicLong encryptedAt     = new AtomicLong(-1);
+
     Single<OutgoingPushMessageList> messagesSingle = Single.fromCallable(() -> {
-      OutgoingPushMessageList messages = getEncryptedMessages(recipient, sealedSenderAccess, timestamp, content, online, urgent, story);
+      long                    encryptStart = System.currentTimeMillis();
+      OutgoingPushMessageList messages     = getEncryptedMessages(recipient, sealedSenderAccess, timestamp, content, online, urgent, story);
+
+      encryptedAt.set(System.currentTimeMillis());
+      encryptDuration.set(encryptedAt.get() - encryptStart);
 
       if (retryCount == 0 && sendEvents != null) {
         sendEvents.onMessageEncrypted();
@@ -2133,6 +2174,8 @@ public class SignalServiceMessageSender {
                 response.sentUnidentified(),
                 response.getNeedsSync() || aciStore.isMultiDevice(),
                 System.currentTimeMillis() - startTime,
+                encryptDuration.get(),
+                System.currentTimeMillis() - encryptedAt.get(),
                 content.getContent()
             );
             return Single.just(result);
@@ -2166,6 +2209,8 @@ public class SignalServiceMessageSender {
                   response.sentUnidentified(),
                   response.getNeedsSync() || aciStore.isMultiDevice(),
                   System.currentTimeMillis() - startTime,
+                  encryptDuration.get(),
+                  System.currentTimeMillis() - encryptedAt.get(),
                   content.getContent()
               );
             }).subscribeOn(scheduler);
@@ -2475,6 +2520,21 @@ public class SignalServiceMessageSender {
   }
 
 
+  /**
+   * Encryption is CPU bound, so we leave a core free for everything else. Threads time out when idle, as large sends are rare.
+   */
+  private static ExecutorService createFanOutExecutor() {
+    int                threads  = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "signal-FanOut");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   private static final class GroupTargetInfo {
     private final List<SignalProtocolAddress>               destinations;
     private final Map<SignalServiceAddress, List<Integer>>  devices;
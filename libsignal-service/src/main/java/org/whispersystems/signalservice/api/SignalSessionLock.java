@@ -10,6 +10,14 @@ public interface SignalSessionLock {
 
   Lock acquire();
 
+  /**
+   * Whether the calling thread already holds this lock. If it does, we can't hand encryption off to other threads and then wait for them,
+   * because they'd never be able to acquire it. Implementations that can't tell should leave this returning true.
+   */
+  default boolean isHeldByCurrentThread() {
+    return true;
+  }
+
   interface Lock extends Closeable {
     @Override
     void close();
@@ -39,15 +39,15 @@ public final class SignalWebSocket {
 
   private final WebSocketFactory webSocketFactory;
 
-  private       WebSocketConnection                       webSocket;
-  private final BehaviorSubject<WebSocketConnectionState> webSocketState;
-  private       CompositeDisposable                       webSocketStateDisposable;
+  private volatile WebSocketConnection                       webSocket;
+  private final    BehaviorSubject<WebSocketConnectionState> webSocketState;
+  private          CompositeDisposable                       webSocketStateDisposable;
 
-  private       WebSocketConnection                       unidentifiedWebSocket;
-  private final BehaviorSubject<WebSocketConnectionState> unidentifiedWebSocketState;
-  private       CompositeDisposable                       unidentifiedWebSocketStateDisposable;
+  private volatile WebSocketConnection                       unidentifiedWebSocket;
+  private final    BehaviorSubject<WebSocketConnectionState> unidentifiedWebSocketState;
+  private          CompositeDisposable                       unidentifiedWebSocketStateDisposable;
 
-  private boolean canConnect;
+  private volatile boolean canConnect;
 
   public SignalWebSocket(WebSocketFactory webSocketFactory) {
     this.webSocketFactory                     = webSocketFactory;
@@ -137,7 +137,21 @@ public final class SignalWebSocket {
     }
   }
 
-  private synchronized WebSocketConnection getWebSocket() throws WebSocketUnavailableException {
+  /**
+   * Every request, read and ack goes through here, so the common case of an already connected socket doesn't take the lock. Creating or
+   * replacing a socket does.
+   */
+  private WebSocketConnection getWebSocket() throws WebSocketUnavailableException {
+    WebSocketConnection current = webSocket;
+
+    if (canConnect && current != null && !current.isDead()) {
+      return current;
+    }
+
+    return getOrCreateWebSocket();
+  }
+
+  private synchronized WebSocketConnection getOrCreateWebSocket() throws WebSocketUnavailableException {
     if (!canConnect) {
       throw new WebSocketUnavailableException();
     }
@@ -157,7 +171,17 @@ public final class SignalWebSocket {
     return webSocket;
   }
 
-  private synchronized WebSocketConnection getUnidentifiedWebSocket() throws WebSocketUnavailableException {
+  private WebSocketConnection getUnidentifiedWebSocket() throws WebSocketUnavailableException {
+    WebSocketConnection current = unidentifiedWebSocket;
+
+    if (canConnect && current != null && !current.isDead()) {
+      return current;
+    }
+
+    return getOrCreateUnidentifiedWebSocket();
+  }
+
+  private synchronized WebSocketConnection getOrCreateUnidentifiedWebSocket() throws WebSocketUnavailableException {
     if (!canConnect) {
       throw new WebSocketUnavailableException();
     }
@@ -285,6 +309,17 @@ public final class SignalWebSocket {
     getWebSocket().sendResponse(createWebSocketResponse(response.getWebsocketRequest()));
   }
 
+  /**
+   * Acks several envelopes at once. Each ack is still its own frame on the wire, but they're handed to the socket back to back.
+   */
+  public void sendAcks(List<EnvelopeResponse> responses) throws IOException {
+    WebSocketConnection connection = getWebSocket();
+
+    for (EnvelopeResponse response : responses) {
+      connection.sendResponse(createWebSocketResponse(response.getWebsocketRequest()));
+    }
+  }
+
   @SuppressWarnings("DuplicateThrows")
   private Optional<EnvelopeResponse> waitForSingleMessage(long timeout)
       throws TimeoutException, WebSocketUnavailableException, IOException
@@ -11,6 +11,7 @@ import org.signal.libsignal.protocol.incrementalmac.ChunkSizeChoice;
 import org.signal.libsignal.protocol.incrementalmac.IncrementalMacInputStream;
 import org.signal.libsignal.protocol.kdf.HKDF;
 import org.whispersystems.signalservice.api.backup.BackupKey;
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
 import org.whispersystems.signalservice.internal.util.ContentLengthInputStream;
 import org.whispersystems.signalservice.internal.util.Util;
 
@@ -24,7 +25,6 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -32,7 +32,6 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -45,16 +44,23 @@ import javax.crypto.spec.SecretKeySpec;
 
 public class AttachmentCipherInputStream extends FilterInputStream {
 
-  private static final int BLOCK_SIZE      = 16;
-  private static final int CIPHER_KEY_SIZE = 32;
-  private static final int MAC_KEY_SIZE    = 32;
+  static final int BLOCK_SIZE      = 16;
+  static final int CIPHER_KEY_SIZE = 32;
+  static final int MAC_KEY_SIZE    = 32;
+
+  private static final int BUFFER_SIZE = 16 * 1024;
 
   private final Cipher cipher;
   private final long   totalDataSize;
+  private final byte[] ciphertextBuffer;
+  private final byte[] plaintextBuffer;
+  private final byte[] singleByte;
 
   private boolean done;
+  private boolean released;
   private long    totalRead;
-  private byte[]  overflowBuffer;
+  private int     plaintextOffset;
+  private int     plaintextLength;
 
   /**
    * Passing in a null incrementalDigest and/or 0 for the chunk size at the call site disables incremental mac validation.
@@ -113,6 +119,28 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     return inputStream;
   }
 
+  /**
+   * For an attachment whose MAC and digest were already checked by an {@link AttachmentMacVerifier} while it was being downloaded, so the
+   * file only needs to be read once more to decrypt it.
+   */
+  public static InputStream createForVerifiedAttachment(File file, long plaintextLength, byte[] combinedKeyMaterial, @Nonnull AttachmentMacVerifier.Verified verified)
+      throws InvalidMessageException, IOException
+  {
+    if (file.length() != verified.getLength()) {
+      throw new InvalidMessageException("File length changed after verification!");
+    }
+
+    byte[][]    parts       = Util.split(combinedKeyMaterial, CIPHER_KEY_SIZE, MAC_KEY_SIZE);
+    Mac         mac         = initMac(parts[1]);
+    InputStream inputStream = new AttachmentCipherInputStream(new FileInputStream(file), parts[0], file.length() - BLOCK_SIZE - mac.getMacLength());
+
+    if (plaintextLength != 0) {
+      inputStream = new ContentLengthInputStream(inputStream, plaintextLength);
+    }
+
+    return inputStream;
+  }
+
   /**
    * Decrypt archived media to it's original attachment encrypted blob.
    */
@@ -202,26 +230,24 @@ public class AttachmentCipherInputStream extends FilterInputStream {
       byte[] iv = new byte[BLOCK_SIZE];
       readFully(iv);
 
-      this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      this.cipher = CryptoInstancePool.AES_CBC_PKCS5.acquire();
       this.cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
 
-      this.done          = false;
-      this.totalRead     = 0;
-      this.totalDataSize = totalDataSize;
-    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
+      this.done             = false;
+      this.totalRead        = 0;
+      this.totalDataSize    = totalDataSize;
+      this.ciphertextBuffer = new byte[BUFFER_SIZE];
+      this.plaintextBuffer  = new byte[BUFFER_SIZE + BLOCK_SIZE];
+      this.singleByte       = new byte[1];
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
       throw new AssertionError(e);
     }
   }
 
   @Override
   public int read() throws IOException {
-    byte[] buffer = new byte[1];
-    int    read;
-
-    //noinspection StatementWithEmptyBody
-    while ((read = read(buffer)) == 0) ;
-
-    return (read == -1) ? -1 : ((int) buffer[0]) & 0xFF;
+    int read = read(singleByte, 0, 1);
+    return (read == -1) ? -1 : ((int) singleByte[0]) & 0xFF;
   }
 
   @Override
@@ -229,15 +255,26 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     return read(buffer, 0, buffer.length);
   }
 
+  /**
+   * Decrypts a buffer's worth of ciphertext at a time into a reusable plaintext buffer, and hands out reads from that.
+   */
   @Override
   public int read(@Nonnull byte[] buffer, int offset, int length) throws IOException {
-    if (totalRead != totalDataSize) {
-      return readIncremental(buffer, offset, length);
-    } else if (!done) {
-      return readFinal(buffer, offset, length);
-    } else {
+    if (length == 0) {
+      return 0;
+    }
+
+    if (!fillPlaintext()) {
       return -1;
     }
+
+    int read = Math.min(length, plaintextLength);
+
+    System.arraycopy(plaintextBuffer, plaintextOffset, buffer, offset, read);
+    plaintextOffset += read;
+    plaintextLength -= read;
+
+    return read;
   }
 
   @Override
@@ -248,81 +285,70 @@ public class AttachmentCipherInputStream extends FilterInputStream {
   @Override
   public long skip(long byteCount) throws IOException {
     long skipped = 0L;
-    while (skipped < byteCount) {
-      byte[] buf  = new byte[Math.min(4096, (int) (byteCount - skipped))];
-      int    read = read(buf);
 
-      skipped += read;
+    while (skipped < byteCount && fillPlaintext()) {
+      int toSkip = (int) Math.min(plaintextLength, byteCount - skipped);
+
+      plaintextOffset += toSkip;
+      plaintextLength -= toSkip;
+      skipped         += toSkip;
     }
 
     return skipped;
   }
 
-  private int readFinal(byte[] buffer, int offset, int length) throws IOException {
+  @Override
+  public void close() throws IOException {
     try {
-      byte[] internal     = new byte[buffer.length];
-      int    actualLength = Math.min(length, cipher.doFinal(internal, 0));
-      System.arraycopy(internal, 0, buffer, offset, actualLength);
-
-      done = true;
-      return actualLength;
-    } catch (IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
-      throw new IOException(e);
+      super.close();
+    } finally {
+      if (!released) {
+        released = true;
+        CryptoInstancePool.AES_CBC_PKCS5.release(cipher);
+      }
     }
   }
 
-  private int readIncremental(byte[] buffer, int offset, int length) throws IOException {
-    int readLength = 0;
-    if (null != overflowBuffer) {
-      if (overflowBuffer.length > length) {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, length);
-        overflowBuffer = Arrays.copyOfRange(overflowBuffer, length, overflowBuffer.length);
-        return length;
-      } else if (overflowBuffer.length == length) {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, length);
-        overflowBuffer = null;
-        return length;
-      } else {
-        System.arraycopy(overflowBuffer, 0, buffer, offset, overflowBuffer.length);
-        readLength += overflowBuffer.length;
-        offset += readLength;
-        length -= readLength;
-        overflowBuffer = null;
+  /**
+   * @return False if there's nothing left to decrypt, otherwise there's at least one byte of plaintext ready.
+   */
+  private boolean fillPlaintext() throws IOException {
+    while (plaintextLength == 0) {
+      if (done) {
+        return false;
       }
-    }
 
-    if (length + totalRead > totalDataSize)
-      length = (int) (totalDataSize - totalRead);
+      decryptNext();
+    }
 
-    byte[] internalBuffer = new byte[length];
-    int    read           = super.read(internalBuffer, 0, internalBuffer.length <= cipher.getBlockSize() ? internalBuffer.length : internalBuffer.length - cipher.getBlockSize());
-    totalRead += read;
+    return true;
+  }
 
+  private void decryptNext() throws IOException {
     try {
-      int outputLen = cipher.getOutputSize(read);
+      plaintextOffset = 0;
 
-      if (outputLen <= length) {
-        readLength += cipher.update(internalBuffer, 0, read, buffer, offset);
-        return readLength;
-      }
+      if (totalRead < totalDataSize) {
+        int read = super.read(ciphertextBuffer, 0, (int) Math.min(ciphertextBuffer.length, totalDataSize - totalRead));
+
+        if (read == -1) {
+          throw new IOException("Prematurely reached end of stream!");
+        }
 
-      byte[] transientBuffer = new byte[outputLen];
-      outputLen = cipher.update(internalBuffer, 0, read, transientBuffer, 0);
-      if (outputLen <= length) {
-        System.arraycopy(transientBuffer, 0, buffer, offset, outputLen);
-        readLength += outputLen;
+        totalRead       += read;
+        plaintextLength  = cipher.update(ciphertextBuffer, 0, read, plaintextBuffer, 0);
       } else {
-        System.arraycopy(transientBuffer, 0, buffer, offset, length);
-        overflowBuffer = Arrays.copyOfRange(transientBuffer, length, outputLen);
-        readLength += length;
+        plaintextLength = cipher.doFinal(plaintextBuffer, 0);
+        done            = true;
       }
-      return readLength;
+    } catch (IllegalBlockSizeException | BadPaddingException e) {
+      throw new IOException(e);
     } catch (ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
 
-  private static Mac initMac(byte[] key) {
+  static Mac initMac(byte[] key) {
     try {
       Mac mac = Mac.getInstance("HmacSHA256");
       mac.init(new SecretKeySpec(key, "HmacSHA256"));
@@ -335,10 +361,11 @@ public class AttachmentCipherInputStream extends FilterInputStream {
   private static void verifyMac(@Nonnull InputStream inputStream, long length, @Nonnull Mac mac, @Nullable byte[] theirDigest)
       throws InvalidMessageException
   {
+    MessageDigest digest = CryptoInstancePool.SHA256.acquire();
+
     try {
-      MessageDigest digest        = MessageDigest.getInstance("SHA256");
-      int           remainingData = Util.toIntExact(length) - mac.getMacLength();
-      byte[]        buffer        = new byte[4096];
+      int    remainingData = Util.toIntExact(length) - mac.getMacLength();
+      byte[] buffer        = new byte[BUFFER_SIZE];
 
       while (remainingData > 0) {
         int read = inputStream.read(buffer, 0, Math.min(buffer.length, remainingData));
@@ -363,8 +390,8 @@ public class AttachmentCipherInputStream extends FilterInputStream {
 
     } catch (IOException | ArithmeticException e1) {
       throw new InvalidMessageException(e1);
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
+    } finally {
+      CryptoInstancePool.SHA256.release(digest);
     }
   }
 
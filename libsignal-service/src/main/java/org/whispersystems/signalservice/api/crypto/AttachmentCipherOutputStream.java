@@ -6,26 +6,32 @@
 
 package org.whispersystems.signalservice.api.crypto;
 
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
 import org.whispersystems.signalservice.internal.util.Util;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 public class AttachmentCipherOutputStream extends DigestingOutputStream {
 
+  private static final int MAX_UPDATE_SIZE = 64 * 1024;
+  private static final int BLOCK_SIZE      = 16;
+
   private final Cipher cipher;
   private final Mac    mac;
+  private final byte[] ciphertextBuffer;
+
+  private boolean released;
 
   public AttachmentCipherOutputStream(byte[] combinedKeyMaterial,
                                       byte[] iv,
@@ -34,9 +40,10 @@ public class AttachmentCipherOutputStream extends DigestingOutputStream {
   {
     super(outputStream);
     try {
-      this.cipher       = initializeCipher();
-      this.mac          = initializeMac();
-      byte[][] keyParts = Util.split(combinedKeyMaterial, 32, 32);
+      this.cipher           = CryptoInstancePool.AES_CBC_PKCS5.acquire();
+      this.mac              = CryptoInstancePool.HMAC_SHA256.acquire();
+      this.ciphertextBuffer = new byte[MAX_UPDATE_SIZE + BLOCK_SIZE];
+      byte[][] keyParts     = Util.split(combinedKeyMaterial, 32, 32);
 
       if (iv == null) {
         this.cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyParts[0], "AES"));
@@ -58,13 +65,26 @@ public class AttachmentCipherOutputStream extends DigestingOutputStream {
     write(buffer, 0, buffer.length);
   }
 
+  /**
+   * Encrypts into a buffer that's reused for every write, a slice at a time so that the buffer stays small no matter how much is written.
+   */
   @Override
   public void write(byte[] buffer, int offset, int length) throws IOException {
-    byte[] ciphertext = cipher.update(buffer, offset, length);
+    try {
+      while (length > 0) {
+        int slice     = Math.min(length, MAX_UPDATE_SIZE);
+        int encrypted = cipher.update(buffer, offset, slice, ciphertextBuffer, 0);
+
+        if (encrypted > 0) {
+          mac.update(ciphertextBuffer, 0, encrypted);
+          super.write(ciphertextBuffer, 0, encrypted);
+        }
 
-    if (ciphertext != null) {
-      mac.update(ciphertext);
-      super.write(ciphertext);
+        offset += slice;
+        length -= slice;
+      }
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
     }
   }
 
@@ -76,31 +96,30 @@ public class AttachmentCipherOutputStream extends DigestingOutputStream {
   @Override
   public void flush() throws IOException {
     try {
-      byte[] ciphertext = cipher.doFinal();
-      byte[] auth       = mac.doFinal(ciphertext);
+      int encrypted = cipher.doFinal(ciphertextBuffer, 0);
 
-      super.write(ciphertext);
+      mac.update(ciphertextBuffer, 0, encrypted);
+      byte[] auth = mac.doFinal();
+
+      super.write(ciphertextBuffer, 0, encrypted);
       super.write(auth);
 
       super.flush();
-    } catch (IllegalBlockSizeException | BadPaddingException e) {
+    } catch (IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
 
-  private Mac initializeMac() {
-    try {
-      return Mac.getInstance("HmacSHA256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    }
-  }
-
-  private Cipher initializeCipher() {
+  @Override
+  public void close() throws IOException {
     try {
-      return Cipher.getInstance("AES/CBC/PKCS5Padding");
-    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-      throw new AssertionError(e);
+      super.close();
+    } finally {
+      if (!released) {
+        released = true;
+        CryptoInstancePool.AES_CBC_PKCS5.release(cipher);
+        CryptoInstancePool.HMAC_SHA256.release(mac);
+      }
     }
   }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.api.crypto;
+
+import org.signal.libsignal.protocol.InvalidMessageException;
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+
+import javax.annotation.Nonnull;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks the MAC and digest of an encrypted attachment from ciphertext that's given to it in order, as it arrives. This lets verification
+ * keep pace with a download, rather than being a separate pass over the whole file once the download is complete.
+ *
+ * The last {@code macLength} bytes seen are always held back, since we don't know they're the MAC until there's nothing after them.
+ */
+public final class AttachmentMacVerifier {
+
+  private final Mac           mac;
+  private final MessageDigest digest;
+  private final byte[]        theirDigest;
+  private final byte[]        tail;
+
+  private int  tailLength;
+  private long totalLength;
+
+  public AttachmentMacVerifier(@Nonnull byte[] combinedKeyMaterial, @Nonnull byte[] theirDigest) {
+    byte[][] parts = Util.split(combinedKeyMaterial, AttachmentCipherInputStream.CIPHER_KEY_SIZE, AttachmentCipherInputStream.MAC_KEY_SIZE);
+
+    this.mac         = CryptoInstancePool.HMAC_SHA256.acquire();
+    this.digest      = CryptoInstancePool.SHA256.acquire();
+    this.theirDigest = theirDigest;
+
+    try {
+      mac.init(new SecretKeySpec(parts[1], "HmacSHA256"));
+    } catch (InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+
+    this.tail = new byte[mac.getMacLength()];
+  }
+
+  public void update(@Nonnull byte[] buffer, int offset, int length) {
+    totalLength += length;
+
+    if (tailLength + length <= tail.length) {
+      System.arraycopy(buffer, offset, tail, tailLength, length);
+      tailLength += length;
+      return;
+    }
+
+    int overflow = tailLength + length - tail.length;
+    int fromTail = Math.min(overflow, tailLength);
+    int fromData = overflow - fromTail;
+
+    mac.update(tail, 0, fromTail);
+    digest.update(tail, 0, fromTail);
+    mac.update(buffer, offset, fromData);
+    digest.update(buffer, offset, fromData);
+
+    int keptFromTail = tailLength - fromTail;
+
+    System.arraycopy(tail, fromTail, tail, 0, keptFromTail);
+    System.arraycopy(buffer, offset + fromData, tail, keptFromTail, length - fromData);
+
+    tailLength = tail.length;
+  }
+
+  /**
+   * Call once all of the ciphertext has been given to {@link #update(byte[], int, int)}. The verifier can't be used again afterwards.
+   *
+   * @return Proof of verification that can be passed to {@link AttachmentCipherInputStream#createForVerifiedAttachment}.
+   */
+  public @Nonnull Verified verify() throws InvalidMessageException {
+    try {
+      if (totalLength <= AttachmentCipherInputStream.BLOCK_SIZE + tail.length) {
+        throw new InvalidMessageException("Message shorter than crypto overhead!");
+      }
+
+      byte[] ourMac = mac.doFinal();
+
+      if (!MessageDigest.isEqual(ourMac, tail)) {
+        throw new InvalidMessageException("MAC doesn't match!");
+      }
+
+      byte[] ourDigest = digest.digest(tail);
+
+      if (!MessageDigest.isEqual(ourDigest, theirDigest)) {
+        throw new InvalidMessageException("Digest doesn't match!");
+      }
+
+      return new Verified(totalLength);
+    } finally {
+      CryptoInstancePool.HMAC_SHA256.release(mac);
+      CryptoInstancePool.SHA256.release(digest);
+    }
+  }
+
+  public static final class Verified {
+    private final long length;
+
+    private Verified(long length) {
+      this.length = length;
+    }
+
+    long getLength() {
+      return length;
+    }
+  }
+}
@@ -1,27 +1,24 @@
 package org.whispersystems.signalservice.api.crypto;
 
+import org.whispersystems.signalservice.internal.crypto.CryptoInstancePool;
 
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 public abstract class DigestingOutputStream extends FilterOutputStream {
 
   private final MessageDigest runningDigest;
 
-  private byte[] digest;
-  private long   totalBytesWritten = 0;
+  private byte[]  digest;
+  private long    totalBytesWritten = 0;
+  private boolean digestReleased;
 
   public DigestingOutputStream(OutputStream outputStream) {
     super(outputStream);
 
-    try {
-      this.runningDigest = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    }
+    this.runningDigest = CryptoInstancePool.SHA256.acquire();
   }
 
   @Override
@@ -49,7 +46,14 @@ public abstract class DigestingOutputStream extends FilterOutputStream {
   }
 
   public void close() throws IOException {
-    out.close();
+    try {
+      out.close();
+    } finally {
+      if (!digestReleased) {
+        digestReleased = true;
+        CryptoInstancePool.SHA256.release(runningDigest);
+      }
+    }
   }
 
   public byte[] getTransmittedDigest() {
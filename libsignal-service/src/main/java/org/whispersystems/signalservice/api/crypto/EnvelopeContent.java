@@ -67,6 +67,12 @@ public interface EnvelopeContent {
     private final ContentHint      contentHint;
     private final Optional<byte[]> groupId;
 
+    /**
+     * The same content is encrypted once per recipient device, so we only encode and pad it once. Encoding is deterministic, so it doesn't
+     * matter if two threads race to fill this in.
+     */
+    private volatile byte[] paddedBody;
+
     public Encrypted(Content content, ContentHint contentHint, Optional<byte[]> groupId) {
       this.content     = content;
       this.contentHint = contentHint;
@@ -80,8 +86,7 @@ public interface EnvelopeContent {
                                                    SenderCertificate senderCertificate)
         throws UntrustedIdentityException, InvalidKeyException, NoSessionException
     {
-      PushTransportDetails             transportDetails = new PushTransportDetails();
-      CiphertextMessage                message          = sessionCipher.encrypt(transportDetails.getPaddedMessageBody(content.encode()));
+      CiphertextMessage                message          = sessionCipher.encrypt(getPaddedBody());
       UnidentifiedSenderMessageContent messageContent   = new UnidentifiedSenderMessageContent(message,
                                                                                                senderCertificate,
                                                                                                contentHint.getType(),
@@ -96,8 +101,7 @@ public interface EnvelopeContent {
 
     @Override
     public OutgoingPushMessage processUnsealedSender(SignalSessionCipher sessionCipher, SignalProtocolAddress destination) throws UntrustedIdentityException, NoSessionException {
-      PushTransportDetails transportDetails     = new PushTransportDetails();
-      CiphertextMessage    message              = sessionCipher.encrypt(transportDetails.getPaddedMessageBody(content.encode()));
+      CiphertextMessage    message              = sessionCipher.encrypt(getPaddedBody());
       int                  remoteRegistrationId = sessionCipher.getRemoteRegistrationId();
       String               body                 = Base64.encodeWithPadding(message.serialize());
 
@@ -121,6 +125,17 @@ public interface EnvelopeContent {
     public Optional<Content> getContent() {
       return Optional.of(content);
     }
+
+    private byte[] getPaddedBody() {
+      byte[] body = paddedBody;
+
+      if (body == null) {
+        body       = new PushTransportDetails().getPaddedMessageBody(content.encode());
+        paddedBody = body;
+      }
+
+      return body;
+    }
   }
 
   class Plaintext implements EnvelopeContent {
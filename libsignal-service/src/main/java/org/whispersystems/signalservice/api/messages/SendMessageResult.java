@@ -22,7 +22,15 @@ public class SendMessageResult {
   private final boolean                invalidPreKeyFailure;
 
   public static SendMessageResult success(SignalServiceAddress address, List<Integer> devices, boolean unidentified, boolean needsSync, long duration, Optional<Content> content) {
-    return new SendMessageResult(address, new Success(unidentified, needsSync, duration, content, devices), false, false, null, null, null, false);
+    return success(address, devices, unidentified, needsSync, duration, -1, -1, content);
+  }
+
+  /**
+   * @param encryptDuration How long it took to encrypt the message for every device, including waiting for the session lock, or -1 if unknown.
+   * @param networkDuration How long it took from the message being encrypted to the server accepting it, or -1 if unknown.
+   */
+  public static SendMessageResult success(SignalServiceAddress address, List<Integer> devices, boolean unidentified, boolean needsSync, long duration, long encryptDuration, long networkDuration, Optional<Content> content) {
+    return new SendMessageResult(address, new Success(unidentified, needsSync, duration, encryptDuration, networkDuration, content, devices), false, false, null, null, null, false);
   }
 
   public static SendMessageResult networkFailure(SignalServiceAddress address) {
@@ -108,15 +116,19 @@ public class SendMessageResult {
     private final boolean           unidentified;
     private final boolean           needsSync;
     private final long              duration;
+    private final long              encryptDuration;
+    private final long              networkDuration;
     private final Optional<Content> content;
     private final List<Integer>     devices;
 
-    private Success(boolean unidentified, boolean needsSync, long duration, Optional<Content> content, List<Integer> devices) {
-      this.unidentified = unidentified;
-      this.needsSync    = needsSync;
-      this.duration     = duration;
-      this.content      = content;
-      this.devices      = devices;
+    private Success(boolean unidentified, boolean needsSync, long duration, long encryptDuration, long networkDuration, Optional<Content> content, List<Integer> devices) {
+      this.unidentified    = unidentified;
+      this.needsSync       = needsSync;
+      this.duration        = duration;
+      this.encryptDuration = encryptDuration;
+      this.networkDuration = networkDuration;
+      this.content         = content;
+      this.devices         = devices;
     }
 
     public boolean isUnidentified() {
@@ -131,6 +143,20 @@ public class SendMessageResult {
       return duration;
     }
 
+    /**
+     * @return Time spent encrypting the final, successful attempt, in milliseconds, or -1 if unknown.
+     */
+    public long getEncryptDuration() {
+      return encryptDuration;
+    }
+
+    /**
+     * @return Time spent between the final attempt being encrypted and the server accepting it, in milliseconds, or -1 if unknown.
+     */
+    public long getNetworkDuration() {
+      return networkDuration;
+    }
+
     public Optional<Content> getContent() {
       return content;
     }
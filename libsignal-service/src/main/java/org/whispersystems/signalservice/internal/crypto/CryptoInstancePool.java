@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * A small pool of JCA instances, since looking up a {@link Cipher}, {@link Mac} or {@link MessageDigest} through the provider list is far
+ * more expensive than re-initializing one we already have, and media-heavy work creates a lot of short-lived attachment streams.
+ *
+ * Instances are owned by whoever acquired them until they're released, so unlike a thread-local they can safely be used by streams that
+ * are created on one thread and read or written on another. Every instance must be initialized after it's acquired, and must not be
+ * touched after it's released. Forgetting to release is harmless, the instance is just garbage collected as it would have been anyway.
+ */
+public final class CryptoInstancePool<T> {
+
+  private static final int MAX_POOLED = 8;
+
+  public static final CryptoInstancePool<Cipher>        AES_CBC_PKCS5 = new CryptoInstancePool<>(() -> Cipher.getInstance("AES/CBC/PKCS5Padding"));
+  public static final CryptoInstancePool<Cipher>        AES_CTR       = new CryptoInstancePool<>(() -> Cipher.getInstance("AES/CTR/NoPadding"));
+  public static final CryptoInstancePool<Mac>           HMAC_SHA256   = new CryptoInstancePool<>(() -> Mac.getInstance("HmacSHA256"));
+  public static final CryptoInstancePool<MessageDigest> SHA256        = new CryptoInstancePool<>(() -> MessageDigest.getInstance("SHA-256"));
+
+  private final Factory<T>    factory;
+  private final Queue<T>      pool = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  CryptoInstancePool(@Nonnull Factory<T> factory) {
+    this.factory = factory;
+  }
+
+  public @Nonnull T acquire() {
+    T instance = pool.poll();
+
+    if (instance != null) {
+      size.decrementAndGet();
+      return instance;
+    }
+
+    try {
+      return factory.create();
+    } catch (GeneralSecurityException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public void release(@Nonnull T instance) {
+    if (instance instanceof MessageDigest) {
+      ((MessageDigest) instance).reset();
+    }
+
+    if (size.incrementAndGet() <= MAX_POOLED) {
+      pool.offer(instance);
+    } else {
+      size.decrementAndGet();
+    }
+  }
+
+  interface Factory<T> {
+    @Nonnull T create() throws GeneralSecurityException;
+  }
+}
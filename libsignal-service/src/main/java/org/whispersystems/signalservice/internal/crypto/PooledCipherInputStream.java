@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+/**
+ * A replacement for {@link javax.crypto.CipherInputStream} that decrypts through a pair of buffers it keeps for its whole lifetime, and
+ * gives its cipher back to the pool it came from when it's closed.
+ */
+public final class PooledCipherInputStream extends FilterInputStream {
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final CryptoInstancePool<Cipher> pool;
+  private final Cipher                     cipher;
+  private final byte[]                     inputBuffer;
+  private final byte[]                     outputBuffer;
+  private final byte[]                     singleByte;
+
+  private int     outputOffset;
+  private int     outputLength;
+  private boolean done;
+  private boolean closed;
+
+  /**
+   * @param cipher An initialized cipher that was acquired from {@code pool}. It now belongs to this stream.
+   */
+  public PooledCipherInputStream(@Nonnull InputStream in, @Nonnull CryptoInstancePool<Cipher> pool, @Nonnull Cipher cipher) {
+    super(in);
+    this.pool         = pool;
+    this.cipher       = cipher;
+    this.inputBuffer  = new byte[BUFFER_SIZE];
+    this.outputBuffer = new byte[cipher.getOutputSize(BUFFER_SIZE) + cipher.getBlockSize()];
+    this.singleByte   = new byte[1];
+  }
+
+  @Override
+  public int read() throws IOException {
+    int read = read(singleByte, 0, 1);
+    return read == -1 ? -1 : singleByte[0] & 0xFF;
+  }
+
+  @Override
+  public int read(@Nonnull byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(@Nonnull byte[] b, int offset, int length) throws IOException {
+    ensureOpen();
+
+    if (length == 0) {
+      return 0;
+    }
+
+    if (!fillOutput()) {
+      return -1;
+    }
+
+    int read = Math.min(length, outputLength);
+
+    System.arraycopy(outputBuffer, outputOffset, b, offset, read);
+    outputOffset += read;
+    outputLength -= read;
+
+    return read;
+  }
+
+  /**
+   * Decrypts and discards, since the underlying stream can't be skipped without losing our place in the cipher.
+   */
+  @Override
+  public long skip(long n) throws IOException {
+    ensureOpen();
+
+    long skipped = 0;
+
+    while (skipped < n && fillOutput()) {
+      int toSkip = (int) Math.min(outputLength, n - skipped);
+
+      outputOffset += toSkip;
+      outputLength -= toSkip;
+      skipped      += toSkip;
+    }
+
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return outputLength;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    try {
+      in.close();
+    } finally {
+      pool.release(cipher);
+    }
+  }
+
+  /**
+   * The cipher goes back to the pool on close, after which another stream may be using it.
+   */
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private boolean fillOutput() throws IOException {
+    while (outputLength == 0) {
+      if (done) {
+        return false;
+      }
+
+      try {
+        int read = in.read(inputBuffer, 0, inputBuffer.length);
+
+        outputOffset = 0;
+
+        if (read == -1) {
+          outputLength = cipher.doFinal(outputBuffer, 0);
+          done         = true;
+        } else {
+          outputLength = cipher.update(inputBuffer, 0, read, outputBuffer, 0);
+        }
+      } catch (IllegalBlockSizeException | BadPaddingException e) {
+        throw new IOException(e);
+      } catch (ShortBufferException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+/**
+ * A replacement for {@link javax.crypto.CipherOutputStream} that encrypts into one buffer for its whole lifetime, rather than getting a
+ * new array back from {@link Cipher#update(byte[], int, int)} for every write, and gives its cipher back to the pool it came from when
+ * it's closed.
+ */
+public final class PooledCipherOutputStream extends FilterOutputStream {
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private final CryptoInstancePool<Cipher> pool;
+  private final Cipher                     cipher;
+  private final byte[]                     buffer;
+  private final byte[]                     singleByte;
+
+  private boolean closed;
+
+  /**
+   * @param cipher An initialized cipher that was acquired from {@code pool}. It now belongs to this stream.
+   */
+  public PooledCipherOutputStream(@Nonnull OutputStream out, @Nonnull CryptoInstancePool<Cipher> pool, @Nonnull Cipher cipher) {
+    super(out);
+    this.pool       = pool;
+    this.cipher     = cipher;
+    this.buffer     = new byte[cipher.getOutputSize(BUFFER_SIZE) + cipher.getBlockSize()];
+    this.singleByte = new byte[1];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    singleByte[0] = (byte) b;
+    write(singleByte, 0, 1);
+  }
+
+  @Override
+  public void write(@Nonnull byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(@Nonnull byte[] b, int offset, int length) throws IOException {
+    ensureOpen();
+
+    try {
+      while (length > 0) {
+        int slice     = Math.min(length, BUFFER_SIZE);
+        int encrypted = cipher.update(b, offset, slice, buffer, 0);
+
+        out.write(buffer, 0, encrypted);
+
+        offset += slice;
+        length -= slice;
+      }
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    try {
+      int encrypted = cipher.doFinal(buffer, 0);
+
+      out.write(buffer, 0, encrypted);
+      out.flush();
+    } catch (IllegalBlockSizeException | BadPaddingException e) {
+      throw new IOException(e);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    } finally {
+      try {
+        out.close();
+      } finally {
+        pool.release(cipher);
+      }
+    }
+  }
+
+  /**
+   * The cipher goes back to the pool on close, after which another stream may be using it.
+   */
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The {@link OkHttpClient}s we use to talk to a single endpoint as a single identity.
+ * <p>
+ * Every client handed out shares one {@link ConnectionPool} and one {@link Dispatcher}, so a burst of requests reuses the connections
+ * that are already open (or multiplexes over one HTTP/2 connection) rather than dialing new ones. Clients are built once per combination
+ * of options and then cached, so making a request doesn't allocate a new client.
+ * <p>
+ * Connections are never shared between pools, which is what keeps unidentified requests off the connections we've authenticated on.
+ */
+public final class EndpointClientPool {
+
+  private static final int  MAX_IDLE_CONNECTIONS  = 5;
+  private static final long KEEP_ALIVE_SECONDS    = 45;
+  private static final int  MAX_REQUESTS          = 64;
+  private static final int  MAX_REQUESTS_PER_HOST = 16;
+
+  private final String                     name;
+  private final OkHttpClient               root;
+  private final ConnectionPool             connectionPool;
+  private final CountingEventListener      eventListener;
+  private final Map<Options, OkHttpClient> clients = new ConcurrentHashMap<>();
+
+  EndpointClientPool(@Nonnull String name, @Nonnull OkHttpClient baseClient) {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(MAX_REQUESTS);
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+    this.name           = name;
+    this.connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    this.eventListener  = new CountingEventListener();
+    this.root           = baseClient.newBuilder()
+                                    .connectionPool(connectionPool)
+                                    .dispatcher(dispatcher)
+                                    .eventListener(eventListener)
+                                    .build();
+  }
+
+  /**
+   * A client with OkHttp's default timeouts.
+   */
+  OkHttpClient getClient() {
+    return root;
+  }
+
+  /**
+   * A client with the provided connect and read timeout.
+   */
+  OkHttpClient getClient(long timeoutMillis) {
+    return getClient(timeoutMillis, true, true);
+  }
+
+  OkHttpClient getClient(long timeoutMillis, boolean retryOnConnectionFailure, boolean followRedirects) {
+    return clients.computeIfAbsent(new Options(timeoutMillis, retryOnConnectionFailure, followRedirects),
+                                   options -> root.newBuilder()
+                                                  .connectTimeout(options.timeoutMillis, TimeUnit.MILLISECONDS)
+                                                  .readTimeout(options.timeoutMillis, TimeUnit.MILLISECONDS)
+                                                  .retryOnConnectionFailure(options.retryOnConnectionFailure)
+                                                  .followRedirects(options.followRedirects)
+                                                  .build());
+  }
+
+  public @Nonnull Stats getStats() {
+    return new Stats(name,
+                     eventListener.connectionsOpened.get(),
+                     eventListener.connectionsAcquired.get(),
+                     eventListener.inFlight.get(),
+                     connectionPool.connectionCount(),
+                     connectionPool.idleConnectionCount());
+  }
+
+  public static final class Stats {
+    private final String name;
+    private final long   connectionsOpened;
+    private final long   connectionsAcquired;
+    private final int    inFlight;
+    private final int    pooledConnections;
+    private final int    idleConnections;
+
+    Stats(String name, long connectionsOpened, long connectionsAcquired, int inFlight, int pooledConnections, int idleConnections) {
+      this.name                = name;
+      this.connectionsOpened   = connectionsOpened;
+      this.connectionsAcquired = connectionsAcquired;
+      this.inFlight            = inFlight;
+      this.pooledConnections   = pooledConnections;
+      this.idleConnections     = idleConnections;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** How many new connections have been established. */
+    public long getConnectionsOpened() {
+      return connectionsOpened;
+    }
+
+    /** How many times a request went out over a connection that was already open. */
+    public long getConnectionsReused() {
+      return Math.max(0, connectionsAcquired - connectionsOpened);
+    }
+
+    /** Calls that have started but not yet completed, including reading their response bodies. */
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    public int getPooledConnections() {
+      return pooledConnections;
+    }
+
+    public int getIdleConnections() {
+      return idleConnections;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+      return name + ": " + inFlight + " in flight, " + connectionsOpened + " opened, " + getConnectionsReused() + " reused, " + pooledConnections + " pooled (" + idleConnections + " idle)";
+    }
+  }
+
+  private static final class Options {
+    private final long    timeoutMillis;
+    private final boolean retryOnConnectionFailure;
+    private final boolean followRedirects;
+
+    private Options(long timeoutMillis, boolean retryOnConnectionFailure, boolean followRedirects) {
+      this.timeoutMillis            = timeoutMillis;
+      this.retryOnConnectionFailure = retryOnConnectionFailure;
+      this.followRedirects          = followRedirects;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Options options = (Options) o;
+      return timeoutMillis == options.timeoutMillis &&
+             retryOnConnectionFailure == options.retryOnConnectionFailure &&
+             followRedirects == options.followRedirects;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(timeoutMillis, retryOnConnectionFailure, followRedirects);
+    }
+  }
+
+  private static final class CountingEventListener extends EventListener {
+    private final AtomicLong    connectionsOpened   = new AtomicLong();
+    private final AtomicLong    connectionsAcquired = new AtomicLong();
+    private final AtomicInteger inFlight            = new AtomicInteger();
+
+    @Override
+    public void callStart(@Nonnull Call call) {
+      inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void callEnd(@Nonnull Call call) {
+      inFlight.decrementAndGet();
+    }
+
+    @Override
+    public void callFailed(@Nonnull Call call, @Nonnull IOException ioe) {
+      inFlight.decrementAndGet();
+    }
+
+    @Override
+    public void connectEnd(@Nonnull Call call, @Nonnull InetSocketAddress inetSocketAddress, @Nonnull Proxy proxy, Protocol protocol) {
+      connectionsOpened.incrementAndGet();
+    }
+
+    @Override
+    public void connectionAcquired(@Nonnull Call call, @Nonnull Connection connection) {
+      connectionsAcquired.incrementAndGet();
+    }
+  }
+}
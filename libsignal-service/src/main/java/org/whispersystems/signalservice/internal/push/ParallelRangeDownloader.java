@@ -0,0 +1,575 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push;
+
+import org.signal.libsignal.protocol.logging.Log;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.api.push.exceptions.RangeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads a file from the CDN as byte ranges that are fetched in parallel and written straight to their place in the destination file.
+ *
+ * The first range is requested on the calling thread so that we learn the total size from its Content-Range, and the rest are shared out
+ * between up to {@link #MAX_PARALLEL_RANGES} workers. Every range request needs a permit from a budget that's shared by all downloads, so
+ * many attachments downloading at once share a fixed number of connections rather than each opening as many as they like.
+ *
+ * While the workers download, the calling thread hands the contiguous prefix of the file that's been written so far to an optional
+ * {@link InOrderConsumer}, which lets things like MAC verification keep pace with the download instead of happening afterwards.
+ *
+ * Like a sequential download, this resumes from whatever is already in the destination file. If it fails, the file is truncated to the
+ * contiguous prefix that was written, so that a retry can pick up from there.
+ */
+public final class ParallelRangeDownloader {
+
+  private static final String TAG = ParallelRangeDownloader.class.getSimpleName();
+
+  static final int RANGE_SIZE          = 1024 * 1024;
+  static final int MAX_PARALLEL_RANGES = 4;
+
+  private static final int     MAX_CONNECTIONS      = 8;
+  private static final int     BUFFER_SIZE          = 32768;
+  private static final Pattern CONTENT_RANGE_HEADER = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private static final Semaphore SHARED_BUDGET   = new Semaphore(MAX_CONNECTIONS, true);
+  private static final Executor  SHARED_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "signal-RangeDownload");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final OkHttpClient client;
+  private final Request      request;
+  private final Set<Call>    connections;
+  private final Semaphore    budget;
+  private final Executor     executor;
+  private final int          rangeSize;
+  private final int          maxParallelRanges;
+
+  private final Object    lock        = new Object();
+  private final Set<Call> activeCalls = new HashSet<>();
+
+  private List<Range> ranges;
+  private long        downloaded;
+  private int         contiguousIndex;
+  private int         runningWorkers;
+  private IOException failure;
+
+  /**
+   * @param request     The GET request for the whole file. A Range header is added for each part.
+   * @param connections Calls are added to this set while they're in flight, and removed when they're done, so that they can be canceled.
+   */
+  ParallelRangeDownloader(@Nonnull OkHttpClient client, @Nonnull Request request, @Nonnull Set<Call> connections) {
+    this(client, request, connections, SHARED_BUDGET, SHARED_EXECUTOR, RANGE_SIZE, MAX_PARALLEL_RANGES);
+  }
+
+  ParallelRangeDownloader(@Nonnull OkHttpClient client,
+                          @Nonnull Request request,
+                          @Nonnull Set<Call> connections,
+                          @Nonnull Semaphore budget,
+                          @Nonnull Executor executor,
+                          int rangeSize,
+                          int maxParallelRanges)
+  {
+    this.client            = client;
+    this.request           = request;
+    this.connections       = connections;
+    this.budget            = budget;
+    this.executor          = executor;
+    this.rangeSize         = rangeSize;
+    this.maxParallelRanges = maxParallelRanges;
+  }
+
+  /**
+   * Can only be called once per instance.
+   */
+  public void download(@Nonnull File destination, long maxSizeBytes, @Nullable ProgressListener listener, @Nullable InOrderConsumer consumer)
+      throws IOException
+  {
+    try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+      FileChannel channel = file.getChannel();
+
+      try {
+        downloadInternal(channel, maxSizeBytes, listener, consumer);
+      } catch (IOException e) {
+        long contiguousEnd = getContiguousEnd();
+
+        if (contiguousEnd >= 0 && contiguousEnd < channel.size()) {
+          Log.i(TAG, "Download failed, truncating to the contiguous prefix of " + contiguousEnd + " bytes");
+          channel.truncate(contiguousEnd);
+        }
+
+        throw e;
+      }
+    }
+  }
+
+  private void downloadInternal(@Nonnull FileChannel channel, long maxSizeBytes, @Nullable ProgressListener listener, @Nullable InOrderConsumer consumer)
+      throws IOException
+  {
+    long           offset = channel.size();
+    CountDownLatch workersDone;
+    Response       firstResponse;
+    Range          firstRange;
+
+    acquirePermit();
+
+    try {
+      firstResponse = execute(request.newBuilder().header("Range", "bytes=" + offset + "-" + (offset + rangeSize - 1)).build());
+    } catch (IOException e) {
+      budget.release();
+      throw e;
+    }
+
+    try (Response response = firstResponse) {
+      ResponseBody body = response.body();
+
+      if (response.code() == 416) {
+        throw new RangeException(offset);
+      } else if (!response.isSuccessful()) {
+        throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
+      } else if (body == null) {
+        throw new PushNetworkException("No response body!");
+      }
+
+      long total;
+
+      if (response.code() == 206) {
+        long[] contentRange = parseContentRange(response.header("Content-Range"));
+
+        if (contentRange == null || contentRange[0] != offset) {
+          throw new PushNetworkException("Unexpected Content-Range: " + response.header("Content-Range"));
+        }
+
+        total      = contentRange[2];
+        firstRange = new Range(offset, contentRange[1] + 1);
+      } else {
+        Log.w(TAG, "Server ignored the range request, downloading the whole file sequentially");
+        channel.truncate(0);
+        offset     = 0;
+        total      = body.contentLength();
+        firstRange = new Range(0, total >= 0 ? total : Long.MAX_VALUE);
+      }
+
+      if (total > maxSizeBytes) {
+        throw new PushNetworkException("Response exceeds max size!");
+      }
+
+      List<Range> planned = new ArrayList<>();
+      planned.add(firstRange);
+
+      for (long start = firstRange.end; start < total; start += rangeSize) {
+        planned.add(new Range(start, Math.min(start + rangeSize, total)));
+      }
+
+      int workerCount = Math.min(maxParallelRanges, planned.size() - 1);
+
+      synchronized (lock) {
+        ranges          = planned;
+        downloaded      = offset;
+        contiguousIndex = 0;
+        runningWorkers  = workerCount;
+      }
+
+      workersDone = new CountDownLatch(workerCount);
+
+      AtomicInteger nextRange = new AtomicInteger(1);
+
+      for (int i = 0; i < workerCount; i++) {
+        executor.execute(() -> {
+          try {
+            runWorker(channel, nextRange);
+          } finally {
+            synchronized (lock) {
+              runningWorkers--;
+              lock.notifyAll();
+            }
+            workersDone.countDown();
+          }
+        });
+      }
+
+      try {
+        writeBody(channel, 0, body, maxSizeBytes);
+      } catch (IOException e) {
+        fail(e);
+      }
+    } catch (IOException e) {
+      fail(e);
+      throw e;
+    } finally {
+      budget.release();
+    }
+
+    try {
+      consumeInOrder(channel, listener, consumer);
+    } catch (IOException e) {
+      fail(e);
+    }
+
+    awaitWorkers(workersDone);
+
+    synchronized (lock) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * Runs on the calling thread until everything has been downloaded, reporting progress and passing each newly contiguous stretch of the
+   * file to the consumer.
+   */
+  private void consumeInOrder(@Nonnull FileChannel channel, @Nullable ProgressListener listener, @Nullable InOrderConsumer consumer)
+      throws IOException
+  {
+    ByteBuffer buffer       = ByteBuffer.allocate(BUFFER_SIZE);
+    long       consumed     = 0;
+    long       lastReported = -1;
+
+    while (true) {
+      long    contiguousEnd;
+      long    progress;
+      boolean finished;
+
+      synchronized (lock) {
+        while (failure == null && downloaded == lastReported && getContiguousEnd() == consumed && runningWorkers > 0) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while downloading");
+          }
+        }
+
+        if (failure != null) {
+          return;
+        }
+
+        contiguousEnd = getContiguousEnd();
+        progress      = downloaded;
+        finished      = contiguousIndex == ranges.size();
+
+        if (!finished && runningWorkers == 0 && contiguousEnd == consumed) {
+          throw new PushNetworkException("Workers finished without downloading the whole file!");
+        }
+      }
+
+      if (listener != null && progress != lastReported) {
+        listener.onAttachmentProgress(getTotal(), progress);
+
+        if (listener.shouldCancel()) {
+          throw new PushNetworkException("Canceled by listener check.");
+        }
+      }
+
+      lastReported = progress;
+
+      if (consumer != null) {
+        while (consumed < contiguousEnd) {
+          buffer.clear();
+          buffer.limit((int) Math.min(buffer.capacity(), contiguousEnd - consumed));
+
+          int read = channel.read(buffer, consumed);
+
+          if (read < 0) {
+            throw new IOException("File ended before " + contiguousEnd);
+          }
+
+          consumer.accept(buffer.array(), 0, read);
+          consumed += read;
+        }
+      } else {
+        consumed = contiguousEnd;
+      }
+
+      if (finished) {
+        return;
+      }
+    }
+  }
+
+  private void runWorker(@Nonnull FileChannel channel, @Nonnull AtomicInteger nextRange) {
+    while (!hasFailed()) {
+      int index = nextRange.getAndIncrement();
+
+      if (index >= ranges.size()) {
+        return;
+      }
+
+      Range range = ranges.get(index);
+
+      try {
+        acquirePermit();
+
+        try {
+          downloadRange(channel, index, range);
+        } finally {
+          budget.release();
+        }
+      } catch (IOException e) {
+        fail(e);
+        return;
+      }
+    }
+  }
+
+  private void downloadRange(@Nonnull FileChannel channel, int index, @Nonnull Range range) throws IOException {
+    try (Response response = execute(request.newBuilder().header("Range", "bytes=" + range.start + "-" + (range.end - 1)).build())) {
+      ResponseBody body = response.body();
+
+      if (response.code() == 416) {
+        throw new RangeException(range.start);
+      } else if (response.code() != 206) {
+        throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
+      } else if (body == null) {
+        throw new PushNetworkException("No response body!");
+      }
+
+      long[] contentRange = parseContentRange(response.header("Content-Range"));
+
+      if (contentRange == null || contentRange[0] != range.start || contentRange[1] != range.end - 1) {
+        throw new PushNetworkException("Unexpected Content-Range: " + response.header("Content-Range"));
+      }
+
+      writeBody(channel, index, body, Long.MAX_VALUE);
+    }
+  }
+
+  private void writeBody(@Nonnull FileChannel channel, int index, @Nonnull ResponseBody body, long maxSizeBytes) throws IOException {
+    Range       range    = ranges.get(index);
+    InputStream in       = body.byteStream();
+    byte[]      buffer   = new byte[BUFFER_SIZE];
+    long        position = range.start;
+    int         read;
+
+    while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+      if (position + read > range.end) {
+        throw new PushNetworkException("Range response was longer than requested!");
+      }
+
+      if (position + read > maxSizeBytes) {
+        throw new PushNetworkException("Response exceeded max size!");
+      }
+
+      ByteBuffer toWrite = ByteBuffer.wrap(buffer, 0, read);
+
+      while (toWrite.hasRemaining()) {
+        channel.write(toWrite, position + toWrite.position());
+      }
+
+      position += read;
+
+      synchronized (lock) {
+        if (failure != null) {
+          throw new PushNetworkException("Canceled after another range failed.");
+        }
+
+        range.written += read;
+        downloaded    += read;
+        lock.notifyAll();
+      }
+    }
+
+    synchronized (lock) {
+      if (range.end == Long.MAX_VALUE) {
+        range.end = position;
+      } else if (position != range.end) {
+        throw new PushNetworkException("Range response ended early! Expected " + range.end + " but got " + position);
+      }
+
+      lock.notifyAll();
+    }
+  }
+
+  private @Nonnull Response execute(@Nonnull Request rangeRequest) throws IOException {
+    Call call = client.newCall(rangeRequest);
+
+    synchronized (lock) {
+      if (failure != null) {
+        throw new PushNetworkException("Canceled after another range failed.");
+      }
+
+      activeCalls.add(call);
+    }
+
+    synchronized (connections) {
+      connections.add(call);
+    }
+
+    try {
+      return call.execute();
+    } catch (IOException e) {
+      throw new PushNetworkException(e);
+    } finally {
+      synchronized (connections) {
+        connections.remove(call);
+      }
+
+      synchronized (lock) {
+        activeCalls.remove(call);
+      }
+    }
+  }
+
+  /**
+   * Records the first failure, and cancels whatever else is in flight so that the other workers stop promptly.
+   */
+  private void fail(@Nonnull IOException e) {
+    List<Call> toCancel;
+
+    synchronized (lock) {
+      if (failure == null) {
+        failure = e;
+      }
+
+      toCancel = new ArrayList<>(activeCalls);
+      lock.notifyAll();
+    }
+
+    for (Call call : toCancel) {
+      call.cancel();
+    }
+  }
+
+  private boolean hasFailed() {
+    synchronized (lock) {
+      return failure != null;
+    }
+  }
+
+  private void acquirePermit() throws InterruptedIOException {
+    try {
+      budget.acquire();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for a connection");
+    }
+  }
+
+  /**
+   * If we're interrupted, the workers are cancelled and we still wait for them to stop before throwing. Otherwise they could keep writing to
+   * the file after the caller has truncated it. The interrupt isn't restored, since the file's channel would close on its next use.
+   */
+  private void awaitWorkers(@Nonnull CountDownLatch workersDone) throws InterruptedIOException {
+    try {
+      workersDone.await();
+    } catch (InterruptedException e) {
+      InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for workers");
+      fail(interrupted);
+
+      boolean done = false;
+      while (!done) {
+        try {
+          workersDone.await();
+          done = true;
+        } catch (InterruptedException ignored) {
+          // Keep waiting, the workers have been told to stop
+        }
+      }
+
+      throw interrupted;
+    }
+  }
+
+  /**
+   * @return The end of the prefix of the file that's been completely written, or -1 if nothing has been requested yet.
+   */
+  private long getContiguousEnd() {
+    synchronized (lock) {
+      if (ranges == null) {
+        return -1;
+      }
+
+      while (contiguousIndex < ranges.size() && ranges.get(contiguousIndex).isComplete()) {
+        contiguousIndex++;
+      }
+
+      if (contiguousIndex == ranges.size()) {
+        return ranges.get(ranges.size() - 1).end;
+      }
+
+      Range partial = ranges.get(contiguousIndex);
+      return partial.start + partial.written;
+    }
+  }
+
+  /**
+   * @return The size of the whole file, or -1 if the server didn't tell us and we haven't reached the end yet.
+   */
+  private long getTotal() {
+    synchronized (lock) {
+      long end = ranges.get(ranges.size() - 1).end;
+      return end == Long.MAX_VALUE ? -1 : end;
+    }
+  }
+
+  /**
+   * @return The start, inclusive end, and total size from a Content-Range header, or null if it can't be parsed.
+   */
+  static @Nullable long[] parseContentRange(@Nullable String header) {
+    if (header == null) {
+      return null;
+    }
+
+    Matcher matcher = CONTENT_RANGE_HEADER.matcher(header);
+
+    if (!matcher.matches()) {
+      return null;
+    }
+
+    return new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)) };
+  }
+
+  /**
+   * Receives the downloaded file in order, from the start, regardless of the order the ranges arrive in.
+   */
+  public interface InOrderConsumer {
+    void accept(@Nonnull byte[] buffer, int offset, int length) throws IOException;
+  }
+
+  private static final class Range {
+    private final long start;
+    private       long end;
+    private       long written;
+
+    private Range(long start, long end) {
+      this.start = start;
+      this.end   = end;
+    }
+
+    private boolean isComplete() {
+      return start + written == end;
+    }
+  }
+}
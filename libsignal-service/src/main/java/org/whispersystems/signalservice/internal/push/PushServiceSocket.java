@@ -202,7 +202,6 @@ import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
 import okhttp3.Credentials;
 import okhttp3.Dns;
@@ -371,7 +370,7 @@ public class PushServiceSocket {
     this.automaticNetworkRetry     = automaticNetworkRetry;
     this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
     this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
-    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
+    this.storageClients            = createConnectionHolders("storage", configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
     this.random                    = new SecureRandom();
     this.clientZkProfileOperations = clientZkProfileOperations;
   }
@@ -728,7 +727,7 @@ public class PushServiceSocket {
       requestBuilder.addHeader("Host", connectionHolder.getHostHeader().get());
     }
 
-    Call call = connectionHolder.getUnidentifiedClient().newCall(requestBuilder.build());
+    Call call = connectionHolder.getUnidentifiedClients().getClient().newCall(requestBuilder.build());
 
     synchronized (connections) {
       connections.add(call);
@@ -972,18 +971,41 @@ public class PushServiceSocket {
   public void retrieveAttachment(int cdnNumber, Map<String, String> headers, SignalServiceAttachmentRemoteId cdnPath, File destination, long maxSizeBytes, ProgressListener listener)
       throws IOException, MissingConfigurationException
   {
-    final String path;
+    downloadFromCdn(destination, cdnNumber, headers, getAttachmentDownloadPath(cdnPath), maxSizeBytes, listener);
+  }
+
+  /**
+   * Like {@link #retrieveAttachment}, but fetches the attachment as byte ranges in parallel. See {@link ParallelRangeDownloader}.
+   *
+   * @param consumer If present, is given the whole file in order while the download is still in progress.
+   */
+  public void retrieveAttachmentInRanges(int cdnNumber,
+                                         Map<String, String> headers,
+                                         SignalServiceAttachmentRemoteId cdnPath,
+                                         File destination,
+                                         long maxSizeBytes,
+                                         @Nullable ProgressListener listener,
+                                         @Nullable ParallelRangeDownloader.InOrderConsumer consumer)
+      throws IOException, MissingConfigurationException
+  {
+    ConnectionHolder connectionHolder = getRandomCdnConnectionHolder(cdnNumber);
+    OkHttpClient     okHttpClient     = buildCdnClient(connectionHolder);
+    Request          request          = buildCdnRequest(connectionHolder, headers, getAttachmentDownloadPath(cdnPath)).build();
+
+    new ParallelRangeDownloader(okHttpClient, request, connections).download(destination, maxSizeBytes, listener, consumer);
+  }
+
+  private static String getAttachmentDownloadPath(SignalServiceAttachmentRemoteId cdnPath) {
     if (cdnPath instanceof SignalServiceAttachmentRemoteId.V2) {
-      path = String.format(Locale.US, ATTACHMENT_ID_DOWNLOAD_PATH, ((SignalServiceAttachmentRemoteId.V2) cdnPath).getCdnId());
+      return String.format(Locale.US, ATTACHMENT_ID_DOWNLOAD_PATH, ((SignalServiceAttachmentRemoteId.V2) cdnPath).getCdnId());
     } else if (cdnPath instanceof SignalServiceAttachmentRemoteId.V4) {
-      path = String.format(Locale.US, ATTACHMENT_KEY_DOWNLOAD_PATH, ((SignalServiceAttachmentRemoteId.V4) cdnPath).getCdnKey());
+      return String.format(Locale.US, ATTACHMENT_KEY_DOWNLOAD_PATH, ((SignalServiceAttachmentRemoteId.V4) cdnPath).getCdnKey());
     } else if (cdnPath instanceof SignalServiceAttachmentRemoteId.Backup) {
       SignalServiceAttachmentRemoteId.Backup backupCdnId = (SignalServiceAttachmentRemoteId.Backup) cdnPath;
-      path = String.format(Locale.US, ARCHIVE_MEDIA_DOWNLOAD_PATH, backupCdnId.getBackupDir(), backupCdnId.getMediaDir(), backupCdnId.getMediaId());
+      return String.format(Locale.US, ARCHIVE_MEDIA_DOWNLOAD_PATH, backupCdnId.getBackupDir(), backupCdnId.getMediaDir(), backupCdnId.getMediaId());
     } else {
       throw new IllegalArgumentException("Invalid cdnPath type: " + cdnPath.getClass().getSimpleName());
     }
-    downloadFromCdn(destination, cdnNumber, headers, path, maxSizeBytes, listener);
   }
 
   public byte[] retrieveSticker(byte[] packId, int stickerId)
@@ -1534,7 +1556,36 @@ public class PushServiceSocket {
     this.soTimeoutMillis = soTimeoutMillis;
   }
 
+  /**
+   * Connection reuse and in-flight counts for every endpoint we talk to, with authenticated and unidentified service traffic listed
+   * separately.
+   */
+  public List<EndpointClientPool.Stats> getConnectionStats() {
+    List<EndpointClientPool.Stats> stats = new LinkedList<>();
+
+    for (ServiceConnectionHolder holder : serviceClients) {
+      stats.add(holder.getClients().getStats());
+      stats.add(holder.getUnidentifiedClients().getStats());
+    }
+
+    for (ConnectionHolder[] holders : cdnClientsMap.values()) {
+      for (ConnectionHolder holder : holders) {
+        stats.add(holder.getClients().getStats());
+      }
+    }
+
+    for (ConnectionHolder holder : storageClients) {
+      stats.add(holder.getClients().getStats());
+    }
+
+    return stats;
+  }
+
   public void cancelInFlightRequests() {
+    for (EndpointClientPool.Stats stats : getConnectionStats()) {
+      Log.i(TAG, "[cancelInFlightRequests] " + stats);
+    }
+
     synchronized (connections) {
       Log.w(TAG, "Canceling: " + connections.size());
       for (Call connection : connections) {
@@ -1642,26 +1693,9 @@ public class PushServiceSocket {
 
   private void downloadFromCdn(OutputStream outputStream, long offset, int cdnNumber, Map<String, String> headers, String path, long maxSizeBytes, ProgressListener listener)
       throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException {
-    ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
-    if (cdnNumberClients == null) {
-      throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
-    }
-    ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
-
-    Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
-
-    if (connectionHolder.getHostHeader().isPresent()) {
-      request.addHeader("Host", connectionHolder.getHostHeader().get());
-    }
-
-    for (Map.Entry<String, String> header : headers.entrySet()) {
-      request.addHeader(header.getKey(), header.getValue());
-    }
+    ConnectionHolder connectionHolder = getRandomCdnConnectionHolder(cdnNumber);
+    OkHttpClient     okHttpClient     = buildCdnClient(connectionHolder);
+    Request.Builder  request          = buildCdnRequest(connectionHolder, headers, path);
 
     if (offset > 0) {
       Log.i(TAG, "Starting download from CDN with offset " + offset);
@@ -1715,6 +1749,32 @@ public class PushServiceSocket {
     }
   }
 
+  private ConnectionHolder getRandomCdnConnectionHolder(int cdnNumber) throws MissingConfigurationException {
+    ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
+    if (cdnNumberClients == null) {
+      throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
+    }
+    return getRandom(cdnNumberClients, random);
+  }
+
+  private OkHttpClient buildCdnClient(ConnectionHolder connectionHolder) {
+    return connectionHolder.getClient(soTimeoutMillis);
+  }
+
+  private Request.Builder buildCdnRequest(ConnectionHolder connectionHolder, Map<String, String> headers, String path) {
+    Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
+
+    if (connectionHolder.getHostHeader().isPresent()) {
+      request.addHeader("Host", connectionHolder.getHostHeader().get());
+    }
+
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.addHeader(header.getKey(), header.getValue());
+    }
+
+    return request;
+  }
+
   @Nullable
   public ZonedDateTime getCdnLastModifiedTime(int cdnNumber, Map<String, String> headers, String path) throws MissingConfigurationException, PushNetworkException, NonSuccessfulResponseCodeException {
     ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
@@ -1722,11 +1782,7 @@ public class PushServiceSocket {
       throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
     }
     ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
+    OkHttpClient       okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
 
@@ -1773,11 +1829,7 @@ public class PushServiceSocket {
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(0), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     DigestingRequestBody file = new DigestingRequestBody(data, outputStreamFactory, contentType, length, incremental, progressListener, cancelationSignal, 0);
 
@@ -1824,11 +1876,7 @@ public class PushServiceSocket {
 
   public String getResumableUploadUrl(AttachmentUploadForm uploadForm) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(uploadForm.cdn), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     Request.Builder request = new Request.Builder().url(buildConfiguredUrl(connectionHolder, uploadForm.signedUploadLocation))
                                                    .post(RequestBody.create(null, ""));
@@ -1879,11 +1927,7 @@ public class PushServiceSocket {
 
   private AttachmentDigest uploadToCdn2(String resumableUrl, InputStream data, String contentType, long length, boolean incremental, OutputStreamFactory outputStreamFactory, ProgressListener progressListener, CancelationSignal cancelationSignal) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     ResumeInfo           resumeInfo = getResumeInfoCdn2(resumableUrl, length);
     DigestingRequestBody file       = new DigestingRequestBody(data, outputStreamFactory, contentType, length, incremental, progressListener, cancelationSignal, resumeInfo.contentStart);
@@ -1943,11 +1987,7 @@ public class PushServiceSocket {
       throws IOException
   {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(3), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     ResumeInfo           resumeInfo = getResumeInfoCdn3(resumableUrl, headers);
     DigestingRequestBody file       = new DigestingRequestBody(data, outputStreamFactory, contentType, length, incremental, progressListener, cancelationSignal, resumeInfo.contentStart);
@@ -2004,11 +2044,7 @@ public class PushServiceSocket {
 
   private ResumeInfo getResumeInfoCdn2(String resumableUrl, long contentLength) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     final long   offset;
     final String contentRange;
@@ -2061,11 +2097,7 @@ public class PushServiceSocket {
 
   private ResumeInfo getResumeInfoCdn3(String resumableUrl, Map<String, String> headers) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(3), random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     final long   offset;
 
@@ -2309,13 +2341,9 @@ public class PushServiceSocket {
 
   private OkHttpClient buildOkHttpClient(boolean unidentified) {
     ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
-    OkHttpClient            baseClient       = unidentified ? connectionHolder.getUnidentifiedClient() : connectionHolder.getClient();
+    EndpointClientPool      clients          = unidentified ? connectionHolder.getUnidentifiedClients() : connectionHolder.getClients();
 
-    return baseClient.newBuilder()
-                     .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .retryOnConnectionFailure(automaticNetworkRetry)
-                     .build();
+    return clients.getClient(soTimeoutMillis, automaticNetworkRetry, true);
   }
 
   private Request buildServiceRequest(String urlFragment,
@@ -2364,11 +2392,7 @@ public class PushServiceSocket {
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
     ConnectionHolder connectionHolder = getRandom(storageClients, random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClient(soTimeoutMillis);
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + path);
     request.method(method, body);
@@ -2436,12 +2460,7 @@ public class PushServiceSocket {
 
   public CallingResponse makeCallingRequest(long requestId, String url, String httpMethod, List<Pair<String, String>> headers, byte[] body) {
     ConnectionHolder connectionHolder = getRandom(serviceClients, random);
-    OkHttpClient     okHttpClient     = connectionHolder.getClient()
-                                                        .newBuilder()
-                                                        .followRedirects(false)
-                                                        .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                        .build();
+    OkHttpClient     okHttpClient     = connectionHolder.getClients().getClient(soTimeoutMillis, true, false);
 
     RequestBody     requestBody = body != null ? RequestBody.create(null, body) : null;
     Request.Builder builder     = new Request.Builder()
@@ -2492,8 +2511,8 @@ public class PushServiceSocket {
     List<ServiceConnectionHolder> serviceConnectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns, proxy),
-                                                               createConnectionClient(url, interceptors, dns, proxy),
+      serviceConnectionHolders.add(new ServiceConnectionHolder(new EndpointClientPool("service " + url.getUrl(), createConnectionClient(url, interceptors, dns, proxy)),
+                                                               new EndpointClientPool("service " + url.getUrl() + " (unidentified)", createConnectionClient(url, interceptors, dns, proxy)),
                                                                url.getUrl(), url.getHostHeader()));
     }
 
@@ -2508,7 +2527,7 @@ public class PushServiceSocket {
     final Map<Integer, ConnectionHolder[]> result = new HashMap<>();
     for (Map.Entry<Integer, SignalCdnUrl[]> entry : signalCdnUrlMap.entrySet()) {
       result.put(entry.getKey(),
-                 createConnectionHolders(entry.getValue(), interceptors, dns, proxy));
+                 createConnectionHolders("cdn" + entry.getKey(), entry.getValue(), interceptors, dns, proxy));
     }
     return Collections.unmodifiableMap(result);
   }
@@ -2519,11 +2538,11 @@ public class PushServiceSocket {
     }
   }
 
-  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, List<Interceptor> interceptors, Optional<Dns> dns, Optional<SignalProxy> proxy) {
+  private static ConnectionHolder[] createConnectionHolders(String name, SignalUrl[] urls, List<Interceptor> interceptors, Optional<Dns> dns, Optional<SignalProxy> proxy) {
     List<ConnectionHolder> connectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns, proxy), url.getUrl(), url.getHostHeader()));
+      connectionHolders.add(new ConnectionHolder(new EndpointClientPool(name + " " + url.getUrl(), createConnectionClient(url, interceptors, dns, proxy)), url.getUrl(), url.getHostHeader()));
     }
 
     return connectionHolders.toArray(new ConnectionHolder[0]);
@@ -2549,8 +2568,6 @@ public class PushServiceSocket {
              .connectionSpecs(url.getConnectionSpecs().orElse(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
              .build();
 
-      builder.connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS));
-
       for (Interceptor interceptor : interceptors) {
         builder.addInterceptor(interceptor);
       }
@@ -2701,18 +2718,22 @@ public class PushServiceSocket {
 
   private static class ConnectionHolder {
 
-    private final OkHttpClient     client;
-    private final String           url;
-    private final Optional<String> hostHeader;
+    private final EndpointClientPool clients;
+    private final String             url;
+    private final Optional<String>   hostHeader;
 
-    private ConnectionHolder(OkHttpClient client, String url, Optional<String> hostHeader) {
-      this.client     = client;
+    private ConnectionHolder(EndpointClientPool clients, String url, Optional<String> hostHeader) {
+      this.clients    = clients;
       this.url        = url;
       this.hostHeader = hostHeader;
     }
 
-    OkHttpClient getClient() {
-      return client;
+    EndpointClientPool getClients() {
+      return clients;
+    }
+
+    OkHttpClient getClient(long timeoutMillis) {
+      return clients.getClient(timeoutMillis);
     }
 
     public String getUrl() {
@@ -2726,15 +2747,15 @@ public class PushServiceSocket {
 
   private static class ServiceConnectionHolder extends ConnectionHolder {
 
-    private final OkHttpClient unidentifiedClient;
+    private final EndpointClientPool unidentifiedClients;
 
-    private ServiceConnectionHolder(OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader) {
-      super(identifiedClient, url, hostHeader);
-      this.unidentifiedClient = unidentifiedClient;
+    private ServiceConnectionHolder(EndpointClientPool identifiedClients, EndpointClientPool unidentifiedClients, String url, Optional<String> hostHeader) {
+      super(identifiedClients, url, hostHeader);
+      this.unidentifiedClients = unidentifiedClients;
     }
 
-    OkHttpClient getUnidentifiedClient() {
-      return unidentifiedClient;
+    EndpointClientPool getUnidentifiedClients() {
+      return unidentifiedClients;
     }
   }
 
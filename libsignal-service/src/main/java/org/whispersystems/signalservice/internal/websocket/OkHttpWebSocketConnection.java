@@ -18,14 +18,8 @@ import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -36,9 +30,7 @@ import javax.net.ssl.X509TrustManager;
 
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
-import io.reactivex.rxjava3.schedulers.Schedulers;
 import io.reactivex.rxjava3.subjects.BehaviorSubject;
-import io.reactivex.rxjava3.subjects.SingleSubject;
 import okhttp3.ConnectionSpec;
 import okhttp3.Dns;
 import okhttp3.Interceptor;
@@ -54,15 +46,10 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   private static final String TAG                         = OkHttpWebSocketConnection.class.getSimpleName();
   public static final  int    KEEPALIVE_FREQUENCY_SECONDS = 30;
 
-  private final LinkedList<WebSocketRequestMessage> incomingRequests = new LinkedList<>();
-  private final Map<Long, OutgoingRequest>          outgoingRequests = new HashMap<>();
-  private final Set<Long>                           keepAlives       = new HashSet<>();
-
   private final String                                    name;
   private final TrustStore                                trustStore;
   private final Optional<CredentialsProvider>             credentialsProvider;
   private final String                                    signalAgent;
-  private final HealthMonitor                             healthMonitor;
   private final List<Interceptor>                         interceptors;
   private final Optional<Dns>                             dns;
   private final Optional<SignalProxy>                     signalProxy;
@@ -71,8 +58,9 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   private final SignalServiceUrl[]                        serviceUrls;
   private final String                                    extraPathUri;
   private final SecureRandom                              random;
+  private final WebSocketMultiplexer                      multiplexer;
 
-  private WebSocket client;
+  private volatile WebSocket client;
 
   public OkHttpWebSocketConnection(String name,
                                    SignalServiceConfiguration serviceConfiguration,
@@ -98,12 +86,12 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
     this.interceptors        = serviceConfiguration.getNetworkInterceptors();
     this.dns                 = serviceConfiguration.getDns();
     this.signalProxy         = serviceConfiguration.getSignalProxy();
-    this.healthMonitor       = healthMonitor;
     this.webSocketState      = BehaviorSubject.createDefault(WebSocketConnectionState.DISCONNECTED);
     this.allowStories        = allowStories;
     this.serviceUrls         = serviceConfiguration.getSignalServiceUrls();
     this.extraPathUri        = extraPathUri;
     this.random              = new SecureRandom();
+    this.multiplexer         = new WebSocketMultiplexer(healthMonitor, credentialsProvider.isPresent());
   }
 
   @Override
@@ -173,12 +161,13 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
       webSocketState.onNext(WebSocketConnectionState.CONNECTING);
 
       this.client = okHttpClient.newWebSocket(requestBuilder.build(), this);
+      multiplexer.attach(client);
     }
     return webSocketState;
   }
 
   @Override
-  public synchronized boolean isDead() {
+  public boolean isDead() {
     return client == null;
   }
 
@@ -192,99 +181,36 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
       webSocketState.onNext(WebSocketConnectionState.DISCONNECTING);
     }
 
-    notifyAll();
+    multiplexer.detach();
   }
 
   @Override
-  public synchronized Optional<WebSocketRequestMessage> readRequestIfAvailable() {
-    if (incomingRequests.size() > 0) {
-      return Optional.of(incomingRequests.removeFirst());
-    } else {
-      return Optional.empty();
-    }
+  public Optional<WebSocketRequestMessage> readRequestIfAvailable() {
+    return multiplexer.readRequestIfAvailable();
   }
 
   @Override
-  public synchronized WebSocketRequestMessage readRequest(long timeoutMillis)
+  public WebSocketRequestMessage readRequest(long timeoutMillis)
       throws TimeoutException, IOException
   {
-    if (client == null) {
-      throw new IOException("Connection closed!");
-    }
-
-    long startTime = System.currentTimeMillis();
-
-    while (client != null && incomingRequests.isEmpty() && elapsedTime(startTime) < timeoutMillis) {
-      Util.wait(this, Math.max(1, timeoutMillis - elapsedTime(startTime)));
-    }
-
-    if (incomingRequests.isEmpty() && client == null) {
-      throw new IOException("Connection closed!");
-    } else if (incomingRequests.isEmpty()) {
-      throw new TimeoutException("Timeout exceeded");
-    } else {
-      return incomingRequests.removeFirst();
-    }
+    return multiplexer.readRequest(timeoutMillis);
   }
 
   @Override
-  public synchronized Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
-    if (client == null) {
-      throw new IOException("No connection!");
-    }
-
-    WebSocketMessage message = new WebSocketMessage.Builder()
-                                                   .type(WebSocketMessage.Type.REQUEST)
-                                                   .request(request)
-                                                   .build();
-
-    SingleSubject<WebsocketResponse> single = SingleSubject.create();
-
-    outgoingRequests.put(request.id, new OutgoingRequest(single));
-
-    if (!client.send(ByteString.of(message.encode()))) {
-      throw new IOException("Write failed!");
-    }
-
-    return single.subscribeOn(Schedulers.io())
-                 .observeOn(Schedulers.io())
-                 .timeout(10, TimeUnit.SECONDS, Schedulers.io());
+  public Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+    return multiplexer.sendRequest(request);
   }
 
   @Override
-  public synchronized void sendResponse(WebSocketResponseMessage response) throws IOException {
-    if (client == null) {
-      throw new IOException("Connection closed!");
-    }
-
-    WebSocketMessage message = new WebSocketMessage.Builder()
-                                                   .type(WebSocketMessage.Type.RESPONSE)
-                                                   .response(response)
-                                                   .build();
-
-    if (!client.send(ByteString.of(message.encode()))) {
-      throw new IOException("Write failed!");
-    }
+  public void sendResponse(WebSocketResponseMessage response) throws IOException {
+    multiplexer.sendResponse(response);
   }
 
   @Override
-  public synchronized void sendKeepAlive() throws IOException {
+  public void sendKeepAlive() throws IOException {
     if (client != null) {
       log("Sending keep alive...");
-      long id = System.currentTimeMillis();
-      byte[] message = new WebSocketMessage.Builder()
-                                           .type(WebSocketMessage.Type.REQUEST)
-                                           .request(new WebSocketRequestMessage.Builder()
-                                                                               .id(id)
-                                                                               .path("/v1/keepalive")
-                                                                               .verb("GET")
-                                                                               .build())
-                                           .build()
-                                           .encode();
-      keepAlives.add(id);
-      if (!client.send(ByteString.of(message))) {
-        throw new IOException("Write failed!");
-      }
+      multiplexer.sendKeepAlive();
     }
   }
 
@@ -297,28 +223,9 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   }
 
   @Override
-  public synchronized void onMessage(WebSocket webSocket, ByteString payload) {
+  public void onMessage(WebSocket webSocket, ByteString payload) {
     try {
-      WebSocketMessage message = WebSocketMessage.ADAPTER.decode(payload.toByteArray());
-
-      if (message.type == WebSocketMessage.Type.REQUEST) {
-        incomingRequests.add(message.request);
-      } else if (message.type == WebSocketMessage.Type.RESPONSE) {
-        OutgoingRequest listener = outgoingRequests.remove(message.response.id);
-        if (listener != null) {
-          listener.onSuccess(new WebsocketResponse(message.response.status,
-                                                   message.response.body == null ? "" : new String(message.response.body.toByteArray()),
-                                                   message.response.headers,
-                                                   !credentialsProvider.isPresent()));
-          if (message.response.status >= 400) {
-            healthMonitor.onMessageError(message.response.status, credentialsProvider.isPresent());
-          }
-        } else if (keepAlives.remove(message.response.id)) {
-          healthMonitor.onKeepAliveResponse(message.response.id, credentialsProvider.isPresent());
-        }
-      }
-
-      notifyAll();
+      multiplexer.onMessage(payload);
     } catch (IOException e) {
       warn(e);
     }
@@ -330,8 +237,6 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
     webSocketState.onNext(WebSocketConnectionState.DISCONNECTED);
 
     cleanupAfterShutdown();
-
-    notifyAll();
   }
 
   @Override
@@ -345,18 +250,10 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
     }
 
     cleanupAfterShutdown();
-
-    notifyAll();
   }
 
   private void cleanupAfterShutdown() {
-    Iterator<Map.Entry<Long, OutgoingRequest>> iterator = outgoingRequests.entrySet().iterator();
-
-    while (iterator.hasNext()) {
-      Map.Entry<Long, OutgoingRequest> entry = iterator.next();
-      entry.getValue().onError(new IOException("Closed unexpectedly"));
-      iterator.remove();
-    }
+    multiplexer.shutdown();
 
     if (client != null) {
       log("Client not null when closed");
@@ -377,10 +274,6 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
     webSocket.close(1000, "OK");
   }
 
-  private long elapsedTime(long startTime) {
-    return System.currentTimeMillis() - startTime;
-  }
-
   private Pair<SSLSocketFactory, X509TrustManager> createTlsSocketFactory(TrustStore trustStore) {
     try {
       SSLContext     context       = SSLContext.getInstance("TLS");
@@ -410,20 +303,4 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
   private void warn(String message, Throwable e) {
     Log.w(TAG, name + " " + message, e);
   }
-
-  private static class OutgoingRequest {
-    private final SingleSubject<WebsocketResponse> responseSingle;
-
-    private OutgoingRequest(SingleSubject<WebsocketResponse> future) {
-      this.responseSingle = future;
-    }
-
-    public void onSuccess(WebsocketResponse response) {
-      responseSingle.onSuccess(response);
-    }
-
-    public void onError(Throwable throwable) {
-      responseSingle.onError(throwable);
-    }
-  }
 }
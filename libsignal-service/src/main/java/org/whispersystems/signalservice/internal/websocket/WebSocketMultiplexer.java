@@ -0,0 +1,221 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.websocket;
+
+import org.whispersystems.signalservice.api.websocket.HealthMonitor;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+import okhttp3.WebSocket;
+import okio.ByteString;
+
+/**
+ * Everything that happens on an open websocket once it's connected: sending requests and matching them up with their responses, queueing
+ * the requests the server sends us until they're read, and sending our responses to them.
+ * <p>
+ * None of these paths share a lock. Outstanding requests live in a concurrent map keyed by request id, incoming requests go through their
+ * own blocking queue, and frames are encoded on the caller's thread and handed straight to the {@link WebSocket}, which already has a
+ * single writer draining its own queue. So a large fan-out send, a bulk envelope drain and the acks for it can all share one socket without
+ * waiting on each other.
+ */
+final class WebSocketMultiplexer {
+
+  private static final long REQUEST_TIMEOUT_SECONDS = 10;
+
+  /** Queued when the socket goes away, to wake up anyone blocked reading. Compared by identity. */
+  private static final WebSocketRequestMessage CLOSED = new WebSocketRequestMessage.Builder().build();
+
+  private final Map<Long, SingleSubject<WebsocketResponse>> outgoingRequests = new ConcurrentHashMap<>();
+  private final Set<Long>                                   keepAlives       = ConcurrentHashMap.newKeySet();
+  private final LinkedBlockingQueue<WebSocketRequestMessage> incomingRequests = new LinkedBlockingQueue<>();
+
+  private final HealthMonitor healthMonitor;
+  private final boolean       authenticated;
+
+  private volatile WebSocket socket;
+
+  WebSocketMultiplexer(HealthMonitor healthMonitor, boolean authenticated) {
+    this.healthMonitor = healthMonitor;
+    this.authenticated = authenticated;
+  }
+
+  /**
+   * Starts sending over the provided socket. OkHttp will hold on to anything we send before the socket has actually opened.
+   */
+  void attach(WebSocket socket) {
+    incomingRequests.removeIf(request -> request == CLOSED);
+    this.socket = socket;
+  }
+
+  /**
+   * Stops sending and wakes up any blocked readers. Requests that are already queued can still be read.
+   */
+  void detach() {
+    socket = null;
+    incomingRequests.offer(CLOSED);
+  }
+
+  /**
+   * Detaches and fails every request that's still waiting on a response.
+   */
+  void shutdown() {
+    detach();
+
+    Iterator<Map.Entry<Long, SingleSubject<WebsocketResponse>>> iterator = outgoingRequests.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      Map.Entry<Long, SingleSubject<WebsocketResponse>> entry = iterator.next();
+      iterator.remove();
+      entry.getValue().onError(new IOException("Closed unexpectedly"));
+    }
+  }
+
+  Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+    WebSocket socket = this.socket;
+
+    if (socket == null) {
+      throw new IOException("No connection!");
+    }
+
+    WebSocketMessage message = new WebSocketMessage.Builder()
+                                                   .type(WebSocketMessage.Type.REQUEST)
+                                                   .request(request)
+                                                   .build();
+
+    SingleSubject<WebsocketResponse> single = SingleSubject.create();
+
+    outgoingRequests.put(request.id, single);
+
+    if (!socket.send(ByteString.of(message.encode()))) {
+      outgoingRequests.remove(request.id);
+      throw new IOException("Write failed!");
+    }
+
+    if (this.socket == null && outgoingRequests.remove(request.id) != null) {
+      // We were shut down while sending, possibly after the outstanding requests were failed
+      single.onError(new IOException("Closed unexpectedly"));
+    }
+
+    return single.subscribeOn(Schedulers.io())
+                 .observeOn(Schedulers.io())
+                 .timeout(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS, Schedulers.io())
+                 .doOnError(t -> outgoingRequests.remove(request.id, single));
+  }
+
+  void sendResponse(WebSocketResponseMessage response) throws IOException {
+    WebSocket socket = this.socket;
+
+    if (socket == null) {
+      throw new IOException("Connection closed!");
+    }
+
+    WebSocketMessage message = new WebSocketMessage.Builder()
+                                                   .type(WebSocketMessage.Type.RESPONSE)
+                                                   .response(response)
+                                                   .build();
+
+    if (!socket.send(ByteString.of(message.encode()))) {
+      throw new IOException("Write failed!");
+    }
+  }
+
+  void sendKeepAlive() throws IOException {
+    WebSocket socket = this.socket;
+
+    if (socket == null) {
+      return;
+    }
+
+    long id = System.currentTimeMillis();
+    byte[] message = new WebSocketMessage.Builder()
+                                         .type(WebSocketMessage.Type.REQUEST)
+                                         .request(new WebSocketRequestMessage.Builder()
+                                                                             .id(id)
+                                                                             .path("/v1/keepalive")
+                                                                             .verb("GET")
+                                                                             .build())
+                                         .build()
+                                         .encode();
+    keepAlives.add(id);
+
+    if (!socket.send(ByteString.of(message))) {
+      throw new IOException("Write failed!");
+    }
+  }
+
+  Optional<WebSocketRequestMessage> readRequestIfAvailable() {
+    WebSocketRequestMessage request = incomingRequests.poll();
+
+    if (request == CLOSED) {
+      incomingRequests.offer(CLOSED);
+      return Optional.empty();
+    }
+
+    return Optional.ofNullable(request);
+  }
+
+  WebSocketRequestMessage readRequest(long timeoutMillis) throws TimeoutException, IOException {
+    if (socket == null) {
+      throw new IOException("Connection closed!");
+    }
+
+    WebSocketRequestMessage request;
+    try {
+      request = incomingRequests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+
+    if (request == CLOSED) {
+      incomingRequests.offer(CLOSED);
+      throw new IOException("Connection closed!");
+    } else if (request == null) {
+      throw new TimeoutException("Timeout exceeded");
+    } else {
+      return request;
+    }
+  }
+
+  /**
+   * Routes a message from the server. Called on OkHttp's reader thread.
+   */
+  void onMessage(ByteString payload) throws IOException {
+    WebSocketMessage message = WebSocketMessage.ADAPTER.decode(payload.toByteArray());
+
+    if (message.type == WebSocketMessage.Type.REQUEST) {
+      incomingRequests.offer(message.request);
+    } else if (message.type == WebSocketMessage.Type.RESPONSE) {
+      SingleSubject<WebsocketResponse> listener = outgoingRequests.remove(message.response.id);
+
+      if (listener != null) {
+        listener.onSuccess(new WebsocketResponse(message.response.status,
+                                                 message.response.body == null ? "" : new String(message.response.body.toByteArray()),
+                                                 message.response.headers,
+                                                 !authenticated));
+        if (message.response.status >= 400) {
+          healthMonitor.onMessageError(message.response.status, authenticated);
+        }
+      } else if (keepAlives.remove(message.response.id)) {
+        healthMonitor.onKeepAliveResponse(message.response.id, authenticated);
+      }
+    }
+  }
+
+  int getOutstandingRequestCount() {
+    return outgoingRequests.size();
+  }
+}
@@ -0,0 +1,137 @@
+package org.whispersystems.signalservice.api.crypto;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.signal.libsignal.protocol.incrementalmac.ChunkSizeChoice;
+import org.whispersystems.signalservice.internal.push.http.AttachmentCipherOutputStreamFactory;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static org.whispersystems.signalservice.testutil.LibSignalLibraryUtil.assumeLibSignalSupportedOnOS;
+
+/**
+ * Encrypts and decrypts attachments of a few sizes and reports throughput along with how much the calling thread allocated along the way,
+ * which is the number that matters for GC pressure when a lot of media is moving at once. Each size is run a few times first to warm up.
+ */
+@Ignore("This is just for testing performance, not correctness, and can therefore take a long time. Run it manually when you need to.")
+public final class AttachmentCipherPerformanceTest {
+
+  private static final int KIBIBYTE = 1024;
+  private static final int MEBIBYTE = 1024 * KIBIBYTE;
+
+  private static final int[] SIZES         = { KIBIBYTE, MEBIBYTE, 100 * MEBIBYTE };
+  private static final int   WRITE_SIZE    = 64 * KIBIBYTE;
+  private static final int   WARMUP_ROUNDS = 3;
+
+  private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  @Test
+  public void encrypt() throws Exception {
+    for (int size : SIZES) {
+      measure("encrypt", size, () -> encrypt(size, false, OutputStream.nullOutputStream()));
+    }
+  }
+
+  @Test
+  public void encrypt_incremental() throws Exception {
+    assumeLibSignalSupportedOnOS();
+
+    for (int size : SIZES) {
+      measure("encrypt (incremental)", size, () -> encrypt(size, true, OutputStream.nullOutputStream()));
+    }
+  }
+
+  @Test
+  public void decrypt() throws Exception {
+    byte[] key    = Util.getSecretBytes(64);
+    byte[] buffer = new byte[WRITE_SIZE];
+
+    for (int size : SIZES) {
+      File   file = File.createTempFile("attachment", ".encrypted");
+      byte[] digest;
+
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+        digest = encrypt(key, size, false, out, new ByteArrayOutputStream());
+      }
+
+      measure("decrypt", size, () -> {
+        try (InputStream in = AttachmentCipherInputStream.createForAttachment(file, size, key, digest, null, 0)) {
+          while (in.read(buffer) != -1) {
+            // Just reading
+          }
+        }
+      });
+
+      file.delete();
+    }
+  }
+
+  private static void encrypt(int size, boolean incremental, OutputStream out) throws IOException {
+    ByteArrayOutputStream incrementalDigest = incremental ? new ByteArrayOutputStream() : null;
+    encrypt(Util.getSecretBytes(64), size, incremental, out, incrementalDigest);
+  }
+
+  private static byte[] encrypt(byte[] key, int size, boolean incremental, OutputStream out, ByteArrayOutputStream incrementalDigest) throws IOException {
+    AttachmentCipherOutputStreamFactory factory = new AttachmentCipherOutputStreamFactory(key, Util.getSecretBytes(16));
+    byte[]                              chunk   = new byte[Math.min(size, WRITE_SIZE)];
+
+    DigestingOutputStream encryptStream = incremental ? factory.createIncrementalFor(out, size, ChunkSizeChoice.inferChunkSize(size), incrementalDigest)
+                                                      : factory.createFor(out);
+
+    for (int written = 0; written < size; written += chunk.length) {
+      encryptStream.write(chunk, 0, Math.min(chunk.length, size - written));
+    }
+
+    encryptStream.flush();
+    encryptStream.close();
+
+    return encryptStream.getTransmittedDigest();
+  }
+
+  private static void measure(String name, int size, Action action) throws Exception {
+    int iterations = Math.max(1, 100 * MEBIBYTE / size);
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      action.run();
+    }
+
+    long threadId       = Thread.currentThread().getId();
+    long startAllocated = THREADS.getThreadAllocatedBytes(threadId);
+    long startTime      = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      action.run();
+    }
+
+    long   elapsedNanos = System.nanoTime() - startTime;
+    long   allocated    = THREADS.getThreadAllocatedBytes(threadId) - startAllocated;
+    double megabytes    = (double) size * iterations / MEBIBYTE;
+    double seconds      = elapsedNanos / 1_000_000_000.0;
+
+    System.out.println(String.format(Locale.US,
+                                     "[%s, %s] %d iterations. %.1f MB/s, %d bytes allocated per iteration (%.3f bytes per byte processed)",
+                                     name,
+                                     formatSize(size),
+                                     iterations,
+                                     megabytes / seconds,
+                                     allocated / iterations,
+                                     (double) allocated / ((long) size * iterations)));
+  }
+
+  private static String formatSize(int size) {
+    return size >= MEBIBYTE ? (size / MEBIBYTE) + " MiB" : (size / KIBIBYTE) + " KiB";
+  }
+
+  private interface Action {
+    void run() throws Exception;
+  }
+}
@@ -121,6 +121,57 @@ public final class AttachmentCipherTest {
       }
     }
   }
+  @Test
+  public void attachment_verifyWhileStreaming_thenDecrypt() throws IOException, InvalidMessageException {
+    byte[]                key            = Util.getSecretBytes(64);
+    byte[]                plaintextInput = Util.getSecretBytes(MEBIBYTE + 17);
+    EncryptResult         encryptResult  = encryptData(plaintextInput, key, false);
+    File                  cipherFile     = writeToFile(encryptResult.ciphertext);
+    AttachmentMacVerifier verifier       = new AttachmentMacVerifier(key, encryptResult.digest);
+
+    // Odd sizes, including ones smaller than the MAC, to exercise holding back the tail
+    Random random = new Random();
+    int    offset = 0;
+
+    while (offset < encryptResult.ciphertext.length) {
+      int length = Math.min(random.nextInt(1, 5000), encryptResult.ciphertext.length - offset);
+      verifier.update(encryptResult.ciphertext, offset, length);
+      offset += length;
+    }
+
+    InputStream inputStream     = AttachmentCipherInputStream.createForVerifiedAttachment(cipherFile, plaintextInput.length, key, verifier.verify());
+    byte[]      plaintextOutput = readInputStreamFully(inputStream);
+
+    assertArrayEquals(plaintextInput, plaintextOutput);
+
+    cipherFile.delete();
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void attachment_verifyWhileStreaming_failOnBadMac() throws IOException, InvalidMessageException {
+    byte[]        key              = Util.getSecretBytes(64);
+    byte[]        plaintextInput   = Util.getSecretBytes(MEBIBYTE);
+    EncryptResult encryptResult    = encryptData(plaintextInput, key, false);
+    byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+    badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+    AttachmentMacVerifier verifier = new AttachmentMacVerifier(key, encryptResult.digest);
+    verifier.update(badMacCiphertext, 0, badMacCiphertext.length);
+    verifier.verify();
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void attachment_verifyWhileStreaming_failOnBadDigest() throws IOException, InvalidMessageException {
+    byte[]        key            = Util.getSecretBytes(64);
+    byte[]        plaintextInput = Util.getSecretBytes(MEBIBYTE);
+    EncryptResult encryptResult  = encryptData(plaintextInput, key, false);
+
+    AttachmentMacVerifier verifier = new AttachmentMacVerifier(key, Util.getSecretBytes(32));
+    verifier.update(encryptResult.ciphertext, 0, encryptResult.ciphertext.length);
+    verifier.verify();
+  }
+
   @Test(expected = InvalidMessageException.class)
   public void attachment_decryptFailOnBadMac_nonIncremental() throws IOException, InvalidMessageException {
     attachment_decryptFailOnBadMac(false);
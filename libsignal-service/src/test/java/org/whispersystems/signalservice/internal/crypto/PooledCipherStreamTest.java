@@ -0,0 +1,167 @@
+package org.whispersystems.signalservice.internal.crypto;
+
+import org.junit.Test;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public final class PooledCipherStreamTest {
+
+  private static final int SIZE = 1024 * 1024 + 7;
+
+  @Test
+  public void ctr_matchesJcaCipher() throws Exception {
+    roundTrip(CryptoInstancePool.AES_CTR, "AES/CTR/NoPadding");
+  }
+
+  @Test
+  public void cbc_matchesJcaCipher() throws Exception {
+    roundTrip(CryptoInstancePool.AES_CBC_PKCS5, "AES/CBC/PKCS5Padding");
+  }
+
+  @Test
+  public void skip_decryptsAndDiscards() throws Exception {
+    byte[] key       = Util.getSecretBytes(32);
+    byte[] iv        = Util.getSecretBytes(16);
+    byte[] plaintext = Util.getSecretBytes(SIZE);
+    byte[] encrypted = jcaCipher("AES/CTR/NoPadding", Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext);
+
+    try (InputStream in = new PooledCipherInputStream(new ByteArrayInputStream(encrypted), CryptoInstancePool.AES_CTR, pooledCipher(CryptoInstancePool.AES_CTR, Cipher.DECRYPT_MODE, key, iv))) {
+      assertEquals(100_000, in.skip(100_000));
+      assertEquals(plaintext[100_000] & 0xFF, in.read());
+    }
+  }
+
+  @Test
+  public void close_returnsCipherToPoolOnce() throws Exception {
+    CryptoInstancePool<Cipher> pool   = new CryptoInstancePool<>(() -> Cipher.getInstance("AES/CTR/NoPadding"));
+    Cipher                     cipher = pooledCipher(pool, Cipher.ENCRYPT_MODE, Util.getSecretBytes(32), Util.getSecretBytes(16));
+
+    PooledCipherOutputStream out = new PooledCipherOutputStream(new ByteArrayOutputStream(), pool, cipher);
+    out.close();
+    out.close();
+
+    assertSame(cipher, pool.acquire());
+    assertNotSame(cipher, pool.acquire());
+  }
+
+  @Test
+  public void write_afterClose_throws() throws Exception {
+    CryptoInstancePool<Cipher> pool = new CryptoInstancePool<>(() -> Cipher.getInstance("AES/CTR/NoPadding"));
+    ByteArrayOutputStream      sink = new ByteArrayOutputStream();
+
+    PooledCipherOutputStream out = new PooledCipherOutputStream(sink, pool, pooledCipher(pool, Cipher.ENCRYPT_MODE, Util.getSecretBytes(32), Util.getSecretBytes(16)));
+    out.write(new byte[100]);
+    out.close();
+
+    try {
+      out.write(new byte[100]);
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertEquals("Stream closed", e.getMessage());
+    }
+
+    try {
+      out.write(1);
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertEquals("Stream closed", e.getMessage());
+    }
+
+    assertEquals(100, sink.size());
+  }
+
+  @Test
+  public void read_afterClose_throws() throws Exception {
+    CryptoInstancePool<Cipher> pool = new CryptoInstancePool<>(() -> Cipher.getInstance("AES/CTR/NoPadding"));
+
+    PooledCipherInputStream in = new PooledCipherInputStream(new ByteArrayInputStream(new byte[100]), pool, pooledCipher(pool, Cipher.DECRYPT_MODE, Util.getSecretBytes(32), Util.getSecretBytes(16)));
+    in.close();
+
+    try {
+      in.read();
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertEquals("Stream closed", e.getMessage());
+    }
+
+    try {
+      in.skip(10);
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertEquals("Stream closed", e.getMessage());
+    }
+  }
+
+  private static void roundTrip(CryptoInstancePool<Cipher> pool, String transformation) throws Exception {
+    byte[] key       = Util.getSecretBytes(32);
+    byte[] iv        = Util.getSecretBytes(16);
+    byte[] plaintext = Util.getSecretBytes(SIZE);
+    byte[] expected  = jcaCipher(transformation, Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext);
+
+    ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+    Random                random    = new Random();
+
+    try (PooledCipherOutputStream out = new PooledCipherOutputStream(encrypted, pool, pooledCipher(pool, Cipher.ENCRYPT_MODE, key, iv))) {
+      int offset = 0;
+
+      // Odd write sizes, including single bytes and ones bigger than the internal buffer
+      while (offset < plaintext.length) {
+        int length = Math.min(1 + random.nextInt(40_000), plaintext.length - offset);
+
+        if (length == 1) {
+          out.write(plaintext[offset]);
+        } else {
+          out.write(plaintext, offset, length);
+        }
+
+        offset += length;
+      }
+    }
+
+    assertArrayEquals(expected, encrypted.toByteArray());
+
+    try (InputStream in = new PooledCipherInputStream(new ByteArrayInputStream(expected), pool, pooledCipher(pool, Cipher.DECRYPT_MODE, key, iv))) {
+      assertArrayEquals(plaintext, readAll(in));
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out    = new ByteArrayOutputStream();
+    byte[]                buffer = new byte[7919];
+    int                   read;
+
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+
+    return out.toByteArray();
+  }
+
+  private static Cipher pooledCipher(CryptoInstancePool<Cipher> pool, int mode, byte[] key, byte[] iv) throws GeneralSecurityException {
+    Cipher cipher = pool.acquire();
+    cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    return cipher;
+  }
+
+  private static Cipher jcaCipher(String transformation, int mode, byte[] key, byte[] iv) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(transformation);
+    cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    return cipher;
+  }
+}
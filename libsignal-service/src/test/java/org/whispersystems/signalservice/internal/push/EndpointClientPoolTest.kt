@@ -0,0 +1,142 @@
+package org.whispersystems.signalservice.internal.push
+
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class EndpointClientPoolTest {
+
+  private val server = MockWebServer()
+  private val executor: ExecutorService = Executors.newFixedThreadPool(THREADS)
+
+  companion object {
+    private const val THREADS = 4
+    private const val REQUESTS = 200
+  }
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+    server.shutdown()
+  }
+
+  @Test
+  fun getClient_sameOptionsReturnTheSameClient() {
+    val pool = EndpointClientPool("test", OkHttpClient())
+
+    assertSame(pool.getClient(30_000), pool.getClient(30_000))
+    assertNotSame(pool.getClient(30_000), pool.getClient(10_000))
+    assertNotSame(pool.getClient(30_000), pool.getClient(30_000, false, true))
+    assertEquals(false, pool.getClient(30_000, true, false).followRedirects)
+    assertEquals(30_000, pool.getClient(30_000).readTimeoutMillis)
+  }
+
+  @Test
+  fun http1_concurrentRequestsReuseABoundedNumberOfConnections() {
+    server.dispatcher = EchoDispatcher()
+    server.start()
+
+    val pool = EndpointClientPool("test", OkHttpClient())
+
+    runConcurrently(REQUESTS) { i -> get(pool.getClient(30_000), "/v1/profile/$i") }
+
+    val stats = pool.stats
+    assertThat(connectionsAcceptedByServer()).isLessThanOrEqualTo(THREADS)
+    assertThat(stats.connectionsOpened).isLessThanOrEqualTo(THREADS.toLong())
+    assertThat(stats.connectionsReused).isGreaterThanOrEqualTo((REQUESTS - THREADS).toLong())
+    assertEquals(0, stats.inFlight)
+  }
+
+  @Test
+  fun http2_concurrentRequestsShareOneConnection() {
+    val started = CountDownLatch(THREADS)
+    val release = CountDownLatch(1)
+
+    server.protocols = listOf(Protocol.H2_PRIOR_KNOWLEDGE)
+    server.dispatcher = object : Dispatcher() {
+      override fun dispatch(request: RecordedRequest): MockResponse {
+        if (request.path!!.startsWith("/v2/keys/")) {
+          started.countDown()
+          release.await(5, TimeUnit.SECONDS)
+        }
+        return MockResponse().setBody(request.path!!)
+      }
+    }
+    server.start()
+
+    val pool = EndpointClientPool("test", OkHttpClient.Builder().protocols(listOf(Protocol.H2_PRIOR_KNOWLEDGE)).build())
+    val client = pool.getClient(30_000)
+
+    get(client, "/v1/config")
+
+    val futures = (1..THREADS).map { i -> executor.submit<String> { get(client, "/v2/keys/$i") } }
+
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue()
+    assertEquals(THREADS, pool.stats.inFlight)
+
+    release.countDown()
+    futures.forEach { it.get(5, TimeUnit.SECONDS) }
+
+    assertEquals(1, connectionsAcceptedByServer())
+    assertEquals(1L, pool.stats.connectionsOpened)
+    assertEquals(THREADS.toLong(), pool.stats.connectionsReused)
+    assertEquals(0, pool.stats.inFlight)
+  }
+
+  @Test
+  fun separatePools_neverShareConnections() {
+    server.dispatcher = EchoDispatcher()
+    server.start()
+
+    val identified = EndpointClientPool("identified", OkHttpClient())
+    val unidentified = EndpointClientPool("unidentified", OkHttpClient())
+
+    get(identified.getClient(30_000), "/v1/messages")
+    get(unidentified.getClient(30_000), "/v1/messages")
+    get(identified.getClient(10_000), "/v1/messages")
+
+    assertEquals(2, connectionsAcceptedByServer())
+    assertEquals(1L, identified.stats.connectionsOpened)
+    assertEquals(1L, identified.stats.connectionsReused)
+    assertEquals(1L, unidentified.stats.connectionsOpened)
+  }
+
+  private fun get(client: OkHttpClient, path: String): String {
+    val request = Request.Builder().url(server.url(path)).build()
+
+    client.newCall(request).execute().use { response ->
+      return response.body!!.string()
+    }
+  }
+
+  private fun runConcurrently(count: Int, block: (Int) -> String) {
+    (1..count)
+      .map { i -> executor.submit<String> { block(i) } }
+      .forEach { it.get(10, TimeUnit.SECONDS) }
+  }
+
+  /** Each connection's first request has a sequence number of zero. */
+  private fun connectionsAcceptedByServer(): Int {
+    return (1..server.requestCount).count { server.takeRequest().sequenceNumber == 0 }
+  }
+
+  private class EchoDispatcher : Dispatcher() {
+    override fun dispatch(request: RecordedRequest): MockResponse {
+      return MockResponse().setBody(request.path!!)
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package org.whispersystems.signalservice.internal.push;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.RangeException;
+import org.whispersystems.signalservice.internal.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public final class ParallelRangeDownloaderTest {
+
+  private static final int RANGE_SIZE   = 64 * 1024;
+  private static final int PARALLELISM  = 4;
+  private static final int CONNECTIONS  = 3;
+
+  private final byte[] data = Util.getSecretBytes(10 * RANGE_SIZE + 1234);
+
+  private MockWebServer   server;
+  private ExecutorService executor;
+  private Semaphore       budget;
+  private CdnDispatcher   dispatcher;
+  private File            destination;
+
+  @Before
+  public void setUp() throws IOException {
+    dispatcher  = new CdnDispatcher(data);
+    server      = new MockWebServer();
+    executor    = Executors.newCachedThreadPool();
+    budget      = new Semaphore(CONNECTIONS);
+    destination = File.createTempFile("download", ".tmp");
+
+    destination.delete();
+    server.setDispatcher(dispatcher);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+    executor.shutdownNow();
+    destination.delete();
+  }
+
+  @Test
+  public void download_writesWholeFileAndConsumesItInOrder() throws IOException {
+    ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+
+    newDownloader().download(destination, Long.MAX_VALUE, null, consumed::write);
+
+    assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    assertArrayEquals(data, consumed.toByteArray());
+    assertEquals(11, server.getRequestCount());
+  }
+
+  @Test
+  public void download_neverExceedsTheConnectionBudget() throws IOException {
+    newDownloader().download(destination, Long.MAX_VALUE, null, null);
+
+    assertThat(dispatcher.maxConcurrentRequests.get()).isLessThanOrEqualTo(CONNECTIONS);
+    assertThat(dispatcher.maxConcurrentRequests.get()).isGreaterThan(1);
+  }
+
+  @Test
+  public void download_resumesFromExistingPrefix() throws IOException {
+    int existing = RANGE_SIZE + 100;
+
+    try (FileOutputStream out = new FileOutputStream(destination)) {
+      out.write(data, 0, existing);
+    }
+
+    ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+
+    newDownloader().download(destination, Long.MAX_VALUE, null, consumed::write);
+
+    assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    assertArrayEquals(data, consumed.toByteArray());
+    assertEquals("bytes=" + existing + "-" + (existing + RANGE_SIZE - 1), dispatcher.firstRange);
+  }
+
+  @Test
+  public void download_serverIgnoresRange_downloadsWholeFile() throws IOException {
+    dispatcher.ignoreRanges = true;
+
+    newDownloader().download(destination, Long.MAX_VALUE, null, null);
+
+    assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  public void download_rangeFails_truncatesToContiguousPrefix() throws IOException {
+    dispatcher.failAtOffset = 5L * RANGE_SIZE;
+
+    try {
+      newDownloader().download(destination, Long.MAX_VALUE, null, null);
+      fail("Expected an exception");
+    } catch (NonSuccessfulResponseCodeException e) {
+      assertEquals(500, e.getCode());
+    }
+
+    byte[] written = Files.readAllBytes(destination.toPath());
+
+    assertThat(written.length).isLessThanOrEqualTo(5 * RANGE_SIZE);
+    assertArrayEquals(Arrays.copyOf(data, written.length), written);
+  }
+
+  @Test(expected = RangeException.class)
+  public void download_alreadyComplete_throwsRangeException() throws IOException {
+    try (FileOutputStream out = new FileOutputStream(destination)) {
+      out.write(data);
+    }
+
+    newDownloader().download(destination, Long.MAX_VALUE, null, null);
+  }
+
+  @Test
+  public void download_interrupted_workersStopBeforeItReturns() throws Exception {
+    dispatcher.throttleAfterFirstRange = true;
+
+    AtomicReference<IOException> thrown = new AtomicReference<>();
+    Thread downloadThread = new Thread(() -> {
+      try {
+        newDownloader().download(destination, Long.MAX_VALUE, null, null);
+      } catch (IOException e) {
+        thrown.set(e);
+      }
+    });
+
+    downloadThread.start();
+
+    while (server.getRequestCount() < CONNECTIONS) {
+      Thread.sleep(5);
+    }
+
+    Thread.sleep(50);
+    downloadThread.interrupt();
+    downloadThread.join(5000);
+
+    assertFalse(downloadThread.isAlive());
+    assertThat(thrown.get()).isInstanceOf(IOException.class);
+
+    long lengthOnReturn = destination.length();
+    Thread.sleep(200);
+
+    assertEquals(lengthOnReturn, destination.length());
+  }
+
+  @Test(expected = IOException.class)
+  public void download_tooLarge_throws() throws IOException {
+    newDownloader().download(destination, data.length - 1, null, null);
+  }
+
+  private @Nonnull ParallelRangeDownloader newDownloader() {
+    Request   request     = new Request.Builder().url(server.url("/attachments/abc")).get().build();
+    Set<Call> connections = new HashSet<>();
+
+    return new ParallelRangeDownloader(new OkHttpClient(), request, connections, budget, executor, RANGE_SIZE, PARALLELISM);
+  }
+
+  /**
+   * A stand-in for the CDN that serves byte ranges of a fixed blob.
+   */
+  private static final class CdnDispatcher extends Dispatcher {
+    private final byte[]        data;
+    private final AtomicInteger concurrentRequests    = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    private volatile boolean ignoreRanges;
+    private volatile boolean throttleAfterFirstRange;
+    private volatile long    failAtOffset = -1;
+    private volatile String  firstRange;
+
+    private CdnDispatcher(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public @Nonnull MockResponse dispatch(@Nonnull RecordedRequest request) throws InterruptedException {
+      int concurrent = concurrentRequests.incrementAndGet();
+      maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+
+      try {
+        // Gives overlapping requests a chance to actually overlap
+        Thread.sleep(10);
+
+        String range = request.getHeader("Range");
+
+        if (firstRange == null) {
+          firstRange = range;
+        }
+
+        if (range == null || ignoreRanges) {
+          return new MockResponse().setResponseCode(200).setBody(new Buffer().write(data));
+        }
+
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        long     start  = Long.parseLong(bounds[0]);
+        long     end    = Math.min(Long.parseLong(bounds[1]), data.length - 1);
+
+        if (start >= data.length) {
+          return new MockResponse().setResponseCode(416);
+        }
+
+        if (start == failAtOffset) {
+          return new MockResponse().setResponseCode(500);
+        }
+
+        MockResponse response = new MockResponse().setResponseCode(206)
+                                                  .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + data.length)
+                                                  .setBody(new Buffer().write(data, (int) start, (int) (end - start + 1)));
+
+        if (throttleAfterFirstRange && start >= RANGE_SIZE) {
+          response.throttleBody(1024, 10, TimeUnit.MILLISECONDS);
+        }
+
+        return response;
+      } finally {
+        concurrentRequests.decrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package org.whispersystems.signalservice.internal.websocket
+
+import io.mockk.mockk
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.ByteString
+import okio.ByteString.Companion.toByteString
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.whispersystems.signalservice.api.websocket.HealthMonitor
+import java.io.IOException
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+class WebSocketMultiplexerTest {
+
+  private val healthMonitor = mockk<HealthMonitor>(relaxed = true)
+  private val multiplexer = WebSocketMultiplexer(healthMonitor, true)
+  private val nextId = AtomicLong(1)
+
+  private lateinit var server: MockWebServer
+  private lateinit var executor: ExecutorService
+  private lateinit var client: WebSocket
+  private lateinit var fakeServer: FakeServer
+
+  @Before
+  fun setUp() {
+    fakeServer = FakeServer()
+    server = MockWebServer()
+    server.enqueue(MockResponse().withWebSocketUpgrade(fakeServer))
+    server.start()
+
+    executor = Executors.newFixedThreadPool(16)
+
+    client = OkHttpClient().newWebSocket(
+      Request.Builder().url(server.url("/v1/websocket/")).build(),
+      object : WebSocketListener() {
+        override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+          multiplexer.onMessage(bytes)
+        }
+      }
+    )
+    multiplexer.attach(client)
+
+    assertThat(fakeServer.opened.await(5, TimeUnit.SECONDS)).isTrue()
+  }
+
+  @After
+  fun tearDown() {
+    client.cancel()
+    executor.shutdownNow()
+    server.shutdown()
+  }
+
+  @Test
+  fun sendRequest_concurrentRequestsAreAllMatchedWithTheirResponses() {
+    val requests = (1..500).map { request("/v1/messages/$it") }
+
+    val statuses = requests
+      .map { request -> executor.submit<WebsocketResponse> { multiplexer.sendRequest(request).blockingGet() } }
+      .map { it.get(10, TimeUnit.SECONDS) }
+
+    assertThat(statuses.map { it.body }).containsExactlyElementsOf(requests.map { it.path })
+    assertEquals(0, multiplexer.outstandingRequestCount)
+  }
+
+  @Test
+  fun sendRequest_slowResponseDoesNotBlockLaterRequests() {
+    val slow = multiplexer.sendRequest(request(FakeServer.SLOW_PATH)).toFuture()
+
+    val fast = (1..50).map { multiplexer.sendRequest(request("/v1/messages/$it")).toFuture() }
+    fast.forEach { assertEquals(200, it.get(5, TimeUnit.SECONDS).status) }
+
+    assertFalse(slow.isDone)
+    assertEquals(1, multiplexer.outstandingRequestCount)
+
+    fakeServer.releaseSlow()
+
+    assertEquals(FakeServer.SLOW_PATH, slow.get(5, TimeUnit.SECONDS).body)
+  }
+
+  @Test
+  fun readRequest_drainAndAcksShareTheSocketWithOutgoingRequests() {
+    val envelopeCount = 200
+
+    val sends = executor.submit<List<WebsocketResponse>> {
+      (1..200).map { multiplexer.sendRequest(request("/v1/messages/$it")).blockingGet() }
+    }
+
+    fakeServer.pushEnvelopes(envelopeCount)
+
+    for (i in 1..envelopeCount) {
+      val envelope = multiplexer.readRequest(5_000)
+      multiplexer.sendResponse(WebSocketResponseMessage.Builder().id(envelope.id).status(200).message("OK").build())
+    }
+
+    assertEquals(200, sends.get(10, TimeUnit.SECONDS).size)
+    assertThat(fakeServer.awaitAcks(envelopeCount)).containsExactlyInAnyOrderElementsOf((1L..envelopeCount).toList())
+    assertFalse(multiplexer.readRequestIfAvailable().isPresent)
+  }
+
+  @Test
+  fun shutdown_failsOutstandingRequestsAndWakesReaders() {
+    val slow = multiplexer.sendRequest(request(FakeServer.SLOW_PATH)).toFuture()
+    val readError = AtomicReference<Throwable>()
+    val readerBlocked = CountDownLatch(1)
+
+    val reader = executor.submit {
+      readerBlocked.countDown()
+      try {
+        multiplexer.readRequest(30_000)
+      } catch (e: Throwable) {
+        readError.set(e)
+      }
+    }
+
+    readerBlocked.await()
+    multiplexer.shutdown()
+    reader.get(5, TimeUnit.SECONDS)
+
+    assertThat(readError.get()).isInstanceOf(IOException::class.java)
+
+    try {
+      slow.get(5, TimeUnit.SECONDS)
+      fail("Expected the request to fail")
+    } catch (e: Exception) {
+      assertThat(e.cause).isInstanceOf(IOException::class.java)
+    }
+
+    assertEquals(0, multiplexer.outstandingRequestCount)
+  }
+
+  private fun request(path: String): WebSocketRequestMessage {
+    return WebSocketRequestMessage.Builder()
+      .id(nextId.getAndIncrement())
+      .verb("PUT")
+      .path(path)
+      .build()
+  }
+
+  /**
+   * Answers every request with its path as the body, except for [SLOW_PATH], which is held until [releaseSlow], and records the ids of any
+   * responses we send it.
+   */
+  private class FakeServer : WebSocketListener() {
+
+    companion object {
+      const val SLOW_PATH = "/v1/slow"
+    }
+
+    val opened = CountDownLatch(1)
+
+    private val acks: MutableList<Long> = Collections.synchronizedList(mutableListOf())
+    private var socket: WebSocket? = null
+    private var slow: WebSocketRequestMessage? = null
+
+    override fun onOpen(webSocket: WebSocket, response: Response) {
+      socket = webSocket
+      opened.countDown()
+    }
+
+    override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+      val message = WebSocketMessage.ADAPTER.decode(bytes)
+
+      if (message.type == WebSocketMessage.Type.REQUEST) {
+        if (message.request!!.path == SLOW_PATH) {
+          synchronized(this) { slow = message.request }
+        } else {
+          respond(webSocket, message.request!!)
+        }
+      } else if (message.type == WebSocketMessage.Type.RESPONSE) {
+        acks += message.response!!.id!!
+      }
+    }
+
+    fun releaseSlow() {
+      val request = synchronized(this) { slow }
+      respond(socket!!, request!!)
+    }
+
+    fun pushEnvelopes(count: Int) {
+      for (id in 1L..count) {
+        val request = WebSocketRequestMessage.Builder()
+          .id(id)
+          .verb("PUT")
+          .path("/api/v1/message")
+          .body(ByteArray(64).toByteString())
+          .build()
+
+        socket!!.send(WebSocketMessage.Builder().type(WebSocketMessage.Type.REQUEST).request(request).build().encodeByteString())
+      }
+    }
+
+    fun awaitAcks(count: Int): List<Long> {
+      val deadline = System.currentTimeMillis() + 5_000
+      while (acks.size < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10)
+      }
+      return synchronized(acks) { acks.toList() }
+    }
+
+    private fun respond(webSocket: WebSocket, request: WebSocketRequestMessage) {
+      val response = WebSocketResponseMessage.Builder()
+        .id(request.id)
+        .status(200)
+        .message("OK")
+        .body(request.path!!.toByteArray().toByteString())
+        .build()
+
+      webSocket.send(WebSocketMessage.Builder().type(WebSocketMessage.Type.RESPONSE).response(response).build().encodeByteString())
+    }
+  }
+}
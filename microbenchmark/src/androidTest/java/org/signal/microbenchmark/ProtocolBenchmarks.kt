@@ -13,6 +13,7 @@ import org.signal.libsignal.protocol.logging.SignalProtocolLoggerProvider
 import org.signal.util.SignalClient
 import org.whispersystems.signalservice.api.push.DistributionId
 import java.util.Optional
+import java.util.concurrent.Executors
 
 /**
  * Benchmarks for decrypting messages.
@@ -23,6 +24,10 @@ import java.util.Optional
 @RunWith(AndroidJUnit4::class)
 class ProtocolBenchmarks {
 
+  companion object {
+    private const val FAN_OUT_RECIPIENT_COUNT = 1000
+  }
+
   @get:Rule
   val benchmarkRule = BenchmarkRule()
 
@@ -93,6 +98,43 @@ class ProtocolBenchmarks {
     }
   }
 
+  @Test
+  fun fan_out_encrypt_serial() {
+    val (alice, others) = buildFanOutClients(FAN_OUT_RECIPIENT_COUNT)
+
+    benchmarkRule.measureRepeated {
+      alice.encryptFanOut(others, null)
+    }
+  }
+
+  @Test
+  fun fan_out_encrypt_parallel() {
+    val (alice, others) = buildFanOutClients(FAN_OUT_RECIPIENT_COUNT)
+    val threads = maxOf(2, minOf(4, Runtime.getRuntime().availableProcessors() - 1))
+    val executor = Executors.newFixedThreadPool(threads)
+
+    try {
+      benchmarkRule.measureRepeated {
+        alice.encryptFanOut(others, executor)
+      }
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  /**
+   * Unlike [buildAndInitializeClients], only the sender has sessions with everyone else, since building every pair of sessions doesn't
+   * scale to a fan-out sized group.
+   */
+  private fun buildFanOutClients(recipientCount: Int): Pair<SignalClient, List<SignalClient>> {
+    val alice = SignalClient()
+    val others = (1..recipientCount).map { SignalClient() }
+
+    others.forEach { bob -> alice.initializeSession(bob) }
+
+    return alice to others
+  }
+
   private fun buildAndInitializeClients(): Pair<SignalClient, SignalClient> {
     val clients = buildAndInitializeClients(2)
     return clients[0] to clients[1]
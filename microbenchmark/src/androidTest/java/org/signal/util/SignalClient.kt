@@ -35,6 +35,8 @@ import org.whispersystems.signalservice.internal.push.OutgoingPushMessage
 import org.whispersystems.signalservice.internal.util.Util
 import java.util.Optional
 import java.util.UUID
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.random.Random
 
@@ -160,6 +162,37 @@ class SignalClient {
     return cipher.encryptForGroup(distributionId, destinations, null, senderCertificate, content.encode(), ContentHint.DEFAULT, groupId)
   }
 
+  /**
+   * Encrypts one message for every client in [to] using sealed sender, the way a client-side fan-out send does. If an [executor] is provided,
+   * each recipient is encrypted as a separate task on it, otherwise they're encrypted one after another on the calling thread.
+   */
+  fun encryptFanOut(to: List<SignalClient>, executor: ExecutorService?): List<OutgoingPushMessage> {
+    val content = EnvelopeContent.encrypted(
+      Content(
+        dataMessage = DataMessage(
+          body = "Test Message",
+          timestamp = System.currentTimeMillis()
+        )
+      ),
+      ContentHint.RESENDABLE,
+      Optional.empty()
+    )
+
+    val encrypt = { other: SignalClient ->
+      cipher.encrypt(
+        SignalProtocolAddress(other.aci.toString(), 1),
+        SealedSenderAccess.forIndividual(UnidentifiedAccess(other.unidentifiedAccessKey, senderCertificate.serialized, false)),
+        content
+      )
+    }
+
+    return if (executor == null) {
+      to.map(encrypt)
+    } else {
+      to.map { executor.submit(Callable { encrypt(it) }) }.map { it.get() }
+    }
+  }
+
   fun decryptMessage(envelope: Envelope) {
     cipher.decrypt(envelope, System.currentTimeMillis())
   }
@@ -200,4 +233,8 @@ private class TestSessionLock : SignalSessionLock {
     lock.lock()
     return SignalSessionLock.Lock { lock.unlock() }
   }
+
+  override fun isHeldByCurrentThread(): Boolean {
+    return lock.isHeldByCurrentThread
+  }
 }
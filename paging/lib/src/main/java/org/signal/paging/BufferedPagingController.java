@@ -16,7 +16,7 @@ import java.util.concurrent.Executors;
  *
  * It's also worth noting that this controller has lifecycle that matches the {@link PagedData} that
  * contains it. When invalidations come in, this class will just swap out the active controller with
- * a new one.
+ * a new one. Keyed changes are passed along to the active controller to patch in place instead.
  */
 class BufferedPagingController<Key, Data> implements PagingController<Key> {
 
@@ -58,7 +58,7 @@ class BufferedPagingController<Key, Data> implements PagingController<Key> {
         activeController.onDataInvalidated();
       }
 
-      activeController = new FixedSizePagingController<>(dataSource, config, dataStream, dataSource.size());
+      activeController = new FixedSizePagingController<>(dataSource, config, dataStream, dataSource.size(), this::onDataInvalidated);
       activeController.onDataNeededAroundIndex(lastRequestedIndex);
     });
   }
@@ -80,4 +80,18 @@ class BufferedPagingController<Key, Data> implements PagingController<Key> {
       }
     });
   }
+
+  @Override
+  public void onDataItemRemoved(Key key) {
+    onDataChanged(new DataChanges.Builder<Key>().remove(key).build());
+  }
+
+  @Override
+  public void onDataChanged(@NonNull DataChanges<Key> changes) {
+    serializationExecutor.execute(() -> {
+      if (activeController != null) {
+        activeController.onDataChanged(changes);
+      }
+    });
+  }
 }
@@ -45,4 +45,9 @@ public class CompressedList<E> extends AbstractList<E> {
   public void add(int index, E element) {
     wrapped.add(index, element);
   }
+
+  @Override
+  public E remove(int index) {
+    return wrapped.remove(index);
+  }
 }
@@ -0,0 +1,103 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a change to a data set in terms of keys, so that a {@link PagingController} can patch the data it has already loaded rather
+ * than loading it all over again.
+ *
+ * Changes are applied in a fixed order: removals first, then insertions in the order they were added (with positions relative to the list
+ * as it is at that point), then changes.
+ */
+public final class DataChanges<Key> {
+
+  private final Set<Key>             removed;
+  private final List<Insertion<Key>> inserted;
+  private final Set<Key>             changed;
+
+  private DataChanges(@NonNull Builder<Key> builder) {
+    this.removed  = Collections.unmodifiableSet(new LinkedHashSet<>(builder.removed));
+    this.inserted = Collections.unmodifiableList(new ArrayList<>(builder.inserted));
+    this.changed  = Collections.unmodifiableSet(new LinkedHashSet<>(builder.changed));
+  }
+
+  public @NonNull Set<Key> getRemoved() {
+    return removed;
+  }
+
+  public @NonNull List<Insertion<Key>> getInserted() {
+    return inserted;
+  }
+
+  public @NonNull Set<Key> getChanged() {
+    return changed;
+  }
+
+  public boolean isEmpty() {
+    return removed.isEmpty() && inserted.isEmpty() && changed.isEmpty();
+  }
+
+  /**
+   * @return How much the size of the data set changes by once these changes are applied.
+   */
+  int getSizeDelta() {
+    return inserted.size() - removed.size();
+  }
+
+  @Override
+  public @NonNull String toString() {
+    return "DataChanges{removed=" + removed.size() + ", inserted=" + inserted.size() + ", changed=" + changed.size() + "}";
+  }
+
+  public static final class Insertion<Key> {
+    private final Key key;
+    private final int position;
+
+    Insertion(@NonNull Key key, int position) {
+      this.key      = key;
+      this.position = position;
+    }
+
+    public @NonNull Key getKey() {
+      return key;
+    }
+
+    /**
+     * @return The position to insert at, or {@link PagingController#POSITION_END}.
+     */
+    public int getPosition() {
+      return position;
+    }
+  }
+
+  public static final class Builder<Key> {
+    private final Set<Key>             removed  = new LinkedHashSet<>();
+    private final List<Insertion<Key>> inserted = new ArrayList<>();
+    private final Set<Key>             changed  = new LinkedHashSet<>();
+
+    public @NonNull Builder<Key> remove(@NonNull Key key) {
+      removed.add(key);
+      return this;
+    }
+
+    public @NonNull Builder<Key> insert(@NonNull Key key, int position) {
+      inserted.add(new Insertion<>(key, position));
+      return this;
+    }
+
+    public @NonNull Builder<Key> change(@NonNull Key key) {
+      changed.add(key);
+      return this;
+    }
+
+    public @NonNull DataChanges<Key> build() {
+      return new DataChanges<>(this);
+    }
+  }
+}
@@ -76,6 +76,20 @@ class DataStatus {
     this.size = size + 1;
   }
 
+  void removeState(int position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    for (int i = position; i < size - 1; i++) {
+      state.set(i, state.get(i + 1));
+    }
+
+    state.set(size - 1, false);
+
+    this.size = size - 1;
+  }
+
   int size() {
     return size;
   }
@@ -6,6 +6,7 @@ import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -32,6 +33,7 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
   private final DataStream<Data>            dataStream;
   private final DataStatus                  loadState;
   private final Map<Key, Integer>           keyToPosition;
+  private final Runnable                    onPatchFailed;
 
   private List<Data> data;
 
@@ -40,7 +42,8 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
   FixedSizePagingController(@NonNull PagedDataSource<Key, Data> dataSource,
                             @NonNull PagingConfig config,
                             @NonNull DataStream<Data> dataStream,
-                            int size)
+                            int size,
+                            @NonNull Runnable onPatchFailed)
   {
     this.dataSource    = dataSource;
     this.config        = config;
@@ -48,6 +51,7 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
     this.loadState     = DataStatus.obtain(size);
     this.data          = new CompressedList<>(loadState.size());
     this.keyToPosition = new HashMap<>();
+    this.onPatchFailed = onPatchFailed;
 
     if (DEBUG) Log.d(TAG, "[Constructor] Creating with size " + size + " (loadState.size() = " + loadState.size() + ")");
   }
@@ -232,6 +236,128 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
     });
   }
 
+  @Override
+  public void onDataItemRemoved(Key key) {
+    onDataChanged(new DataChanges.Builder<Key>().remove(key).build());
+  }
+
+  /**
+   * Applies the changes to the loaded data on the fetch executor, loading only the inserted and changed items. If a removed key was
+   * never loaded, or an insertion is out of bounds, we can't know what the data looks like anymore and ask to be invalidated instead.
+   */
+  @Override
+  public void onDataChanged(@NonNull DataChanges<Key> changes) {
+    if (DEBUG) Log.d(TAG, buildDataChangedLog(changes, ""));
+
+    FETCH_EXECUTOR.execute(() -> {
+      if (invalidated) {
+        Log.w(TAG, buildDataChangedLog(changes, "Invalidated! Just before changes were loaded."));
+        return;
+      }
+
+      List<Integer> removedPositions = new ArrayList<>(changes.getRemoved().size());
+
+      for (Key key : changes.getRemoved()) {
+        Integer position = keyToPosition.get(key);
+
+        if (position == null) {
+          Log.w(TAG, buildDataChangedLog(changes, "Removed key " + key + " wasn't in the cache! Falling back to invalidation."));
+          onPatchFailed.run();
+          return;
+        }
+
+        removedPositions.add(position);
+      }
+
+      // Checked against the size each insertion will actually see, before anything is loaded or mutated, so a bad one can't leave the
+      // load state half-patched
+      List<Integer> insertedPositions = new ArrayList<>(changes.getInserted().size());
+      int           size              = data.size() - removedPositions.size();
+
+      for (DataChanges.Insertion<Key> insertion : changes.getInserted()) {
+        int position = insertion.getPosition() == POSITION_END ? size : insertion.getPosition();
+
+        if (position < 0 || position > size) {
+          Log.w(TAG, buildDataChangedLog(changes, "Insertion of " + insertion.getKey() + " at " + position + " is out of bounds! Falling back to invalidation."));
+          onPatchFailed.run();
+          return;
+        }
+
+        insertedPositions.add(position);
+        size++;
+      }
+
+      Map<Key, Data> loadedItems = new HashMap<>();
+
+      for (DataChanges.Insertion<Key> insertion : changes.getInserted()) {
+        if (keyToPosition.containsKey(insertion.getKey()) && !changes.getRemoved().contains(insertion.getKey())) {
+          Log.w(TAG, buildDataChangedLog(changes, "Inserted key " + insertion.getKey() + " already exists! Falling back to invalidation."));
+          onPatchFailed.run();
+          return;
+        }
+
+        Data item = dataSource.load(insertion.getKey());
+
+        if (item == null) {
+          Log.w(TAG, buildDataChangedLog(changes, "Inserted key " + insertion.getKey() + " loaded as null! Falling back to invalidation."));
+          onPatchFailed.run();
+          return;
+        }
+
+        loadedItems.put(insertion.getKey(), item);
+      }
+
+      for (Key key : changes.getChanged()) {
+        if (keyToPosition.containsKey(key) && !loadedItems.containsKey(key)) {
+          Data item = dataSource.load(key);
+
+          if (item != null) {
+            loadedItems.put(key, item);
+          }
+        }
+      }
+
+      if (invalidated) {
+        Log.w(TAG, buildDataChangedLog(changes, "Invalidated! Just after changes were loaded."));
+        return;
+      }
+
+      List<Data> updatedList = new CompressedList<>(data);
+
+      Collections.sort(removedPositions, Collections.reverseOrder());
+
+      synchronized (loadState) {
+        for (int position : removedPositions) {
+          loadState.removeState(position);
+          updatedList.remove(position);
+        }
+
+        for (int i = 0; i < insertedPositions.size(); i++) {
+          int position = insertedPositions.get(i);
+
+          loadState.insertState(position, true);
+          updatedList.add(position, loadedItems.get(changes.getInserted().get(i).getKey()));
+        }
+      }
+
+      rebuildKeyToPositionMap(keyToPosition, updatedList, dataSource);
+
+      for (Key key : changes.getChanged()) {
+        Integer position = keyToPosition.get(key);
+        Data    item     = loadedItems.get(key);
+
+        if (position != null && item != null) {
+          updatedList.set(position, item);
+        }
+      }
+
+      data = updatedList;
+      dataStream.next(updatedList);
+
+      if (DEBUG) Log.d(TAG, buildDataChangedLog(changes, "Published updated data, loaded " + loadedItems.size() + " item(s)"));
+    });
+  }
+
   private void rebuildKeyToPositionMap(@NonNull Map<Key, Integer> map, @NonNull List<Data> dataList, @NonNull PagedDataSource<Key, Data> dataSource) {
     map.clear();
 
@@ -251,6 +377,10 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
     return "[onDataItemInserted(" + key + ", " + position + "), size: " + loadState.size() + "] " + message;
   }
 
+  private String buildDataChangedLog(DataChanges<Key> changes, String message) {
+    return "[onDataChanged(" + changes + "), size: " + loadState.size() + "] " + message;
+  }
+
   private String buildItemChangedLog(Key key, String message) {
     return "[onDataItemChanged(" + key + "), size: " + loadState.size() + "] " + message;
   }
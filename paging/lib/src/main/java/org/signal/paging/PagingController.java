@@ -1,5 +1,6 @@
 package org.signal.paging;
 
+import androidx.annotation.NonNull;
 
 public interface PagingController<Key> {
   int POSITION_END = -1;
@@ -8,4 +9,12 @@ public interface PagingController<Key> {
   void onDataInvalidated();
   void onDataItemChanged(Key key);
   void onDataItemInserted(Key key, int position);
+  void onDataItemRemoved(Key key);
+
+  /**
+   * Patches the loaded data with the given changes, only loading the items that were inserted or changed. Prefer this over
+   * {@link #onDataInvalidated()} whenever you know which keys were affected. If the changes can't be applied to what's loaded, e.g. a
+   * removed key was never loaded, this falls back to invalidating everything.
+   */
+  void onDataChanged(@NonNull DataChanges<Key> changes);
 }
@@ -1,5 +1,6 @@
 package org.signal.paging;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
@@ -39,6 +40,20 @@ public class ProxyPagingController<Key> implements PagingController<Key> {
     }
   }
 
+  @Override
+  public void onDataItemRemoved(Key key) {
+    if (proxied != null) {
+      proxied.onDataItemRemoved(key);
+    }
+  }
+
+  @Override
+  public void onDataChanged(@NonNull DataChanges<Key> changes) {
+    if (proxied != null) {
+      proxied.onDataChanged(changes);
+    }
+  }
+
   /**
    * Updates the underlying controller to the one specified.
    */
@@ -55,4 +55,55 @@ public class DataStatusTest {
     DataStatus subject = DataStatus.obtain(0);
     subject.insertState(2, true);
   }
+
+  @Test
+  public void removeState_someData_RemoveAtZero() {
+    DataStatus subject = DataStatus.obtain(3);
+    subject.mark(0);
+    subject.mark(2);
+
+    subject.removeState(0);
+
+    assertEquals(2, subject.size());
+    assertFalse(subject.get(0));
+    assertTrue(subject.get(1));
+  }
+
+  @Test
+  public void removeState_someData_RemoveAtEnd() {
+    DataStatus subject = DataStatus.obtain(3);
+    subject.mark(1);
+    subject.mark(2);
+
+    subject.removeState(2);
+
+    assertEquals(2, subject.size());
+    assertFalse(subject.get(0));
+    assertTrue(subject.get(1));
+  }
+
+  @Test
+  public void removeState_thenInsert_doesNotResurrectRemovedState() {
+    DataStatus subject = DataStatus.obtain(2);
+    subject.mark(1);
+
+    subject.removeState(1);
+    subject.insertState(1, false);
+
+    assertEquals(2, subject.size());
+    assertFalse(subject.get(0));
+    assertFalse(subject.get(1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void removeState_negativeThrows() {
+    DataStatus subject = DataStatus.obtain(1);
+    subject.removeState(-1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void removeState_sizeThrows() {
+    DataStatus subject = DataStatus.obtain(1);
+    subject.removeState(1);
+  }
 }
@@ -0,0 +1,236 @@
+package org.signal.paging;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Drives a {@link BufferedPagingController} against an in-memory data source and counts how many rows each kind of update costs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public class IncrementalUpdateTest {
+
+  private static final int PAGE_SIZE    = 10;
+  private static final int BUFFER_PAGES = 1;
+  private static final int ITEM_COUNT   = 100;
+
+  /** Loading around index 0 covers the first page plus one page of buffer. */
+  private static final int WINDOW_SIZE = PAGE_SIZE * (1 + BUFFER_PAGES);
+
+  private FakeDataSource                    dataSource;
+  private BlockingQueue<List<String>>       emissions;
+  private BufferedPagingController<String, String> controller;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    dataSource = new FakeDataSource(ITEM_COUNT);
+    emissions  = new LinkedBlockingQueue<>();
+
+    PagingConfig config = new PagingConfig.Builder().setPageSize(PAGE_SIZE).setBufferPages(BUFFER_PAGES).build();
+
+    controller = new BufferedPagingController<>(dataSource, config, emissions::add);
+    awaitEmission();
+
+    dataSource.resetRowsLoaded();
+  }
+
+  @Test
+  public void invalidation_reloadsTheWholeWindow() throws InterruptedException {
+    dataSource.insert(0, "new");
+
+    controller.onDataInvalidated();
+
+    assertLoaded(awaitEmission());
+    assertEquals(WINDOW_SIZE, dataSource.getRowsLoaded());
+  }
+
+  @Test
+  public void insert_loadsOneRow() throws InterruptedException {
+    dataSource.insert(0, "new");
+
+    controller.onDataChanged(new DataChanges.Builder<String>().insert("new", 0).build());
+
+    assertLoaded(awaitEmission());
+    assertEquals(1, dataSource.getRowsLoaded());
+  }
+
+  @Test
+  public void change_loadsOneRow() throws InterruptedException {
+    dataSource.change("3");
+
+    controller.onDataChanged(new DataChanges.Builder<String>().change("3").build());
+
+    assertLoaded(awaitEmission());
+    assertEquals(1, dataSource.getRowsLoaded());
+  }
+
+  @Test
+  public void remove_loadsNothing() throws InterruptedException {
+    dataSource.remove("5");
+
+    controller.onDataItemRemoved("5");
+
+    assertLoaded(awaitEmission());
+    assertEquals(0, dataSource.getRowsLoaded());
+  }
+
+  @Test
+  public void moveToTop_loadsOneRow() throws InterruptedException {
+    dataSource.remove("7");
+    dataSource.insert(0, "7");
+    dataSource.change("7");
+
+    controller.onDataChanged(new DataChanges.Builder<String>().remove("7").insert("7", 0).build());
+
+    assertLoaded(awaitEmission());
+    assertEquals(1, dataSource.getRowsLoaded());
+  }
+
+  @Test
+  public void removeOfUnloadedKey_fallsBackToInvalidation() throws InterruptedException {
+    dataSource.remove("50");
+
+    controller.onDataItemRemoved("50");
+
+    assertLoaded(awaitEmission());
+    assertEquals(WINDOW_SIZE, dataSource.getRowsLoaded());
+  }
+
+  @Test
+  public void outOfBoundsInsert_fallsBackToInvalidationWithoutLoadingAnything() throws InterruptedException {
+    dataSource.insert(0, "new");
+
+    controller.onDataChanged(new DataChanges.Builder<String>().insert("new", 0).insert("missing", ITEM_COUNT + 2).build());
+
+    assertLoaded(awaitEmission());
+    assertEquals(WINDOW_SIZE, dataSource.getRowsLoaded());
+  }
+
+  private @NonNull List<String> awaitEmission() throws InterruptedException {
+    List<String> emission = emissions.poll(5, TimeUnit.SECONDS);
+    assertNotNull("Timed out waiting for data", emission);
+    return emission;
+  }
+
+  /**
+   * Asserts that everything that has been loaded matches the data source. A patch can leave a gap at the edge of the window where an item
+   * was removed, so unloaded positions are skipped rather than compared.
+   */
+  private void assertLoaded(@NonNull List<String> emission) {
+    List<String> expected = dataSource.snapshot();
+
+    assertEquals(expected.size(), emission.size());
+    assertNotNull(emission.get(0));
+
+    for (int i = 0; i < emission.size(); i++) {
+      if (emission.get(i) != null) {
+        assertEquals("Mismatch at " + i, expected.get(i), emission.get(i));
+      }
+    }
+  }
+
+  /**
+   * Keys are plain strings, and the data for a key is the key plus a version that's bumped whenever it changes.
+   */
+  private static final class FakeDataSource implements PagedDataSource<String, String> {
+
+    private final List<String>         keys     = new ArrayList<>();
+    private final Map<String, Integer> versions = new HashMap<>();
+
+    private int rowsLoaded;
+
+    FakeDataSource(int size) {
+      for (int i = 0; i < size; i++) {
+        keys.add(String.valueOf(i));
+      }
+    }
+
+    synchronized void insert(int position, @NonNull String key) {
+      keys.add(position, key);
+    }
+
+    synchronized void remove(@NonNull String key) {
+      keys.remove(key);
+    }
+
+    synchronized void change(@NonNull String key) {
+      versions.put(key, versionOf(key) + 1);
+    }
+
+    synchronized @NonNull List<String> snapshot() {
+      List<String> data = new ArrayList<>(keys.size());
+      for (String key : keys) {
+        data.add(dataFor(key));
+      }
+      return data;
+    }
+
+    synchronized int getRowsLoaded() {
+      return rowsLoaded;
+    }
+
+    synchronized void resetRowsLoaded() {
+      rowsLoaded = 0;
+    }
+
+    @Override
+    public synchronized int size() {
+      return keys.size();
+    }
+
+    @Override
+    public synchronized @NonNull List<String> load(int start, int length, int totalSize, @NonNull CancellationSignal cancellationSignal) {
+      List<String> data = new ArrayList<>(length);
+
+      for (int i = start; i < Math.min(start + length, keys.size()); i++) {
+        data.add(dataFor(keys.get(i)));
+      }
+
+      rowsLoaded += data.size();
+      return data;
+    }
+
+    @Override
+    public synchronized @Nullable String load(String key) {
+      if (!keys.contains(key)) {
+        return null;
+      }
+
+      rowsLoaded++;
+      return dataFor(key);
+    }
+
+    @Override
+    public @NonNull String getKey(@NonNull String data) {
+      return data.substring(0, data.indexOf('@'));
+    }
+
+    private int versionOf(@NonNull String key) {
+      Integer version = versions.get(key);
+      return version != null ? version : 0;
+    }
+
+    private @NonNull String dataFor(@NonNull String key) {
+      return key + "@" + versionOf(key);
+    }
+  }
+}